@@ -0,0 +1,262 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import com.owlplatform.common.util.NumericUtils;
+
+/**
+ * An immutable 16-byte device or receiver identifier, stored as two
+ * {@code long} values. A {@code DeviceId} can be used as a hashtable key in
+ * place of a {@link com.owlplatform.common.util.HashableByteArray} wrapping a
+ * {@code byte[]}, without the extra array or a hash computed over every byte.
+ * 
+ * <p>
+ * The ordering defined by {@link #compareTo(DeviceId)} is the same as that of
+ * {@code HashableByteArray} for 16-byte arrays: identifiers are compared as
+ * unsigned big-endian values.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public final class DeviceId implements Comparable<DeviceId> {
+
+  /**
+   * The identifier with all bytes equal to 0.
+   */
+  public static final DeviceId ZERO = new DeviceId(0, 0);
+
+  /**
+   * The first 8 bytes of the identifier.
+   */
+  private final long high;
+
+  /**
+   * The last 8 bytes of the identifier.
+   */
+  private final long low;
+
+  /**
+   * Creates a new identifier from its two halves.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier, as a big-endian value.
+   * @param low
+   *          the last 8 bytes of the identifier, as a big-endian value.
+   */
+  public DeviceId(final long high, final long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * Creates a new identifier from a 16-byte array.
+   * 
+   * @param id
+   *          the identifier bytes.
+   * @return the new identifier.
+   * @throws IllegalArgumentException
+   *           if {@code id} is {@code null} or is not
+   *           {@link SampleMessage#DEVICE_ID_SIZE} bytes long.
+   */
+  public static DeviceId valueOf(final byte[] id) {
+    if (id == null || id.length != SampleMessage.DEVICE_ID_SIZE) {
+      throw new IllegalArgumentException(String.format(
+          "Device ID must be %d bytes long.",
+          Integer.valueOf(SampleMessage.DEVICE_ID_SIZE)));
+    }
+    return valueOf(id, 0);
+  }
+
+  /**
+   * Creates a new identifier from 16 bytes of {@code bytes}, starting at
+   * {@code offset}.
+   * 
+   * @param bytes
+   *          the array containing the identifier.
+   * @param offset
+   *          the index of the first byte of the identifier.
+   * @return the new identifier.
+   */
+  public static DeviceId valueOf(final byte[] bytes, final int offset) {
+    return new DeviceId(NumericUtils.readLong(bytes, offset),
+        NumericUtils.readLong(bytes, offset + 8));
+  }
+
+  /**
+   * Creates a new identifier from a hexadecimal string, as accepted by
+   * {@link NumericUtils#fromHexString(String)}. Strings shorter than 32
+   * hexadecimal characters are padded with leading zeros.
+   * 
+   * @param hexString
+   *          the hexadecimal representation of the identifier.
+   * @return the new identifier.
+   * @throws IllegalArgumentException
+   *           if {@code hexString} is empty or represents more than 16 bytes.
+   */
+  public static DeviceId fromHexString(final String hexString) {
+    byte[] bytes = NumericUtils.fromHexString(hexString);
+    if (bytes == null) {
+      throw new IllegalArgumentException("Device ID string cannot be empty.");
+    }
+    if (bytes.length > SampleMessage.DEVICE_ID_SIZE) {
+      throw new IllegalArgumentException("Device ID string \"" + hexString
+          + "\" is longer than " + SampleMessage.DEVICE_ID_SIZE + " bytes.");
+    }
+    byte[] id = new byte[SampleMessage.DEVICE_ID_SIZE];
+    System.arraycopy(bytes, 0, id, id.length - bytes.length, bytes.length);
+    return valueOf(id, 0);
+  }
+
+  /**
+   * Returns the first 8 bytes of this identifier as a big-endian value.
+   * 
+   * @return the high-order half of the identifier.
+   */
+  public long getHigh() {
+    return this.high;
+  }
+
+  /**
+   * Returns the last 8 bytes of this identifier as a big-endian value.
+   * 
+   * @return the low-order half of the identifier.
+   */
+  public long getLow() {
+    return this.low;
+  }
+
+  /**
+   * Returns this identifier as a new 16-byte array.
+   * 
+   * @return the bytes of this identifier.
+   */
+  public byte[] toBytes() {
+    byte[] id = new byte[SampleMessage.DEVICE_ID_SIZE];
+    this.toBytes(id, 0);
+    return id;
+  }
+
+  /**
+   * Writes the 16 bytes of this identifier into {@code dest}.
+   * 
+   * @param dest
+   *          the destination array.
+   * @param offset
+   *          the index in {@code dest} of the first byte to write.
+   */
+  public void toBytes(final byte[] dest, final int offset) {
+    NumericUtils.writeLong(this.high, dest, offset);
+    NumericUtils.writeLong(this.low, dest, offset + 8);
+  }
+
+  /**
+   * Returns a hash code that mixes every bit of both halves of this
+   * identifier, so that identifiers differing only in their low-order bytes
+   * are spread evenly across a hashtable.
+   */
+  @Override
+  public int hashCode() {
+    return hash(this.high, this.low);
+  }
+
+  /**
+   * Computes the hash code of an identifier from its two halves. This is the
+   * same value returned by {@link #hashCode()} for an identifier with the same
+   * halves.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier.
+   * @param low
+   *          the last 8 bytes of the identifier.
+   * @return the hash code of the identifier.
+   */
+  public static int hash(final long high, final long low) {
+    long h = high * 0x9E3779B97F4A7C15l + low;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDl;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53l;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  /**
+   * Two identifiers are equal if all 16 of their bytes are equal.
+   */
+  @Override
+  public boolean equals(final Object o) {
+    if (!(o instanceof DeviceId)) {
+      return false;
+    }
+    DeviceId other = (DeviceId) o;
+    return ((this.high ^ other.high) | (this.low ^ other.low)) == 0;
+  }
+
+  /**
+   * Determines whether this identifier has the specified halves.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier to compare.
+   * @param low
+   *          the last 8 bytes of the identifier to compare.
+   * @return {@code true} if this identifier has the same value.
+   */
+  public boolean equals(final long high, final long low) {
+    return ((this.high ^ high) | (this.low ^ low)) == 0;
+  }
+
+  /**
+   * Compares this identifier to {@code other} as unsigned big-endian values,
+   * which is the same ordering as
+   * {@link com.owlplatform.common.util.HashableByteArray#compareTo(com.owlplatform.common.util.HashableByteArray)}
+   * for 16-byte arrays.
+   */
+  @Override
+  public int compareTo(final DeviceId other) {
+    int result = compareUnsigned(this.high, other.high);
+    return result != 0 ? result : compareUnsigned(this.low, other.low);
+  }
+
+  /**
+   * Compares two {@code long} values as unsigned numbers.
+   * 
+   * @param a
+   *          the first value.
+   * @param b
+   *          the second value.
+   * @return a negative value, zero, or a positive value if {@code a} is less
+   *         than, equal to, or greater than {@code b}.
+   */
+  private static int compareUnsigned(final long a, final long b) {
+    long x = a + Long.MIN_VALUE;
+    long y = b + Long.MIN_VALUE;
+    return (x < y) ? -1 : ((x == y) ? 0 : 1);
+  }
+
+  /**
+   * Returns this identifier as a string of 32 hexadecimal characters, starting
+   * with "0x", using {@link NumericUtils#toHexString(byte[])}.
+   */
+  @Override
+  public String toString() {
+    return NumericUtils.toHexString(this.toBytes());
+  }
+}
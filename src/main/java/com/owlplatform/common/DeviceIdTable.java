@@ -0,0 +1,398 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.owlplatform.common.util.NumericUtils;
+
+/**
+ * Maps 16-byte device and receiver identifiers to dense {@code int} handles
+ * numbered from 0, so that per-device state can be stored in plain arrays
+ * indexed by handle rather than in a map keyed by {@code byte[]}.
+ * 
+ * <p>
+ * Lookups of identifiers that have already been interned never block and
+ * never allocate. New identifiers are inserted while holding a lock, which is
+ * expected to be rare once the set of devices in a deployment has been seen.
+ * Handles are never reused or removed, so the table grows with the number of
+ * distinct identifiers.
+ * </p>
+ * 
+ * <p>
+ * The table is open-addressed with linear probing. Each slot holds the two
+ * halves of an identifier and its handle plus one; a slot is published by
+ * writing its handle after its key, so a reader that observes a non-zero
+ * handle also observes the complete key.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class DeviceIdTable {
+
+  /**
+   * The value returned by lookup methods for an identifier that has not been
+   * interned.
+   */
+  public static final int NO_HANDLE = -1;
+
+  /**
+   * A single generation of the hash table. A generation is never modified
+   * after it has been replaced by a larger one.
+   */
+  private static final class Slots {
+    /**
+     * The identifier halves, two per slot.
+     */
+    final long[] keys;
+
+    /**
+     * The handle plus one for each slot, or 0 if the slot is empty.
+     */
+    final AtomicIntegerArray handles;
+
+    /**
+     * Mask applied to a hash to select a slot.
+     */
+    final int mask;
+
+    /**
+     * Creates a new, empty generation.
+     * 
+     * @param capacity
+     *          the number of slots, a power of two.
+     */
+    Slots(final int capacity) {
+      this.keys = new long[capacity * 2];
+      this.handles = new AtomicIntegerArray(capacity);
+      this.mask = capacity - 1;
+    }
+  }
+
+  /**
+   * The current generation of the hash table.
+   */
+  private volatile Slots slots;
+
+  /**
+   * The high-order half of the identifier of each handle.
+   */
+  private volatile long[] highs;
+
+  /**
+   * The low-order half of the identifier of each handle.
+   */
+  private volatile long[] lows;
+
+  /**
+   * The number of identifiers interned.
+   */
+  private volatile int size = 0;
+
+  /**
+   * Lock held while inserting.
+   */
+  private final Object insertLock = new Object();
+
+  /**
+   * Creates a new table sized for 1024 identifiers.
+   */
+  public DeviceIdTable() {
+    this(1024);
+  }
+
+  /**
+   * Creates a new table sized for {@code expectedSize} identifiers. The table
+   * grows as needed.
+   * 
+   * @param expectedSize
+   *          the expected number of distinct identifiers.
+   */
+  public DeviceIdTable(final int expectedSize) {
+    int initial = Math.max(expectedSize, 16);
+    int capacity = Integer.highestOneBit(initial * 2 - 1) * 2;
+    this.slots = new Slots(capacity);
+    this.highs = new long[initial];
+    this.lows = new long[initial];
+  }
+
+  /**
+   * Returns the handle of the specified identifier, without inserting it.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier.
+   * @param low
+   *          the last 8 bytes of the identifier.
+   * @return the handle, or {@link #NO_HANDLE} if the identifier has not been
+   *         interned.
+   */
+  public int lookup(final long high, final long low) {
+    return find(this.slots, high, low);
+  }
+
+  /**
+   * Returns the handle of the specified identifier, inserting it if
+   * necessary.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier.
+   * @param low
+   *          the last 8 bytes of the identifier.
+   * @return the handle of the identifier.
+   */
+  public int intern(final long high, final long low) {
+    int handle = find(this.slots, high, low);
+    if (handle != NO_HANDLE) {
+      return handle;
+    }
+    synchronized (this.insertLock) {
+      handle = find(this.slots, high, low);
+      if (handle != NO_HANDLE) {
+        return handle;
+      }
+      return this.insert(high, low);
+    }
+  }
+
+  /**
+   * Returns the handle of the specified identifier, inserting it if
+   * necessary.
+   * 
+   * @param id
+   *          the identifier.
+   * @return the handle of the identifier.
+   */
+  public int intern(final DeviceId id) {
+    return this.intern(id.getHigh(), id.getLow());
+  }
+
+  /**
+   * Returns the handle of the specified identifier, inserting it if
+   * necessary.
+   * 
+   * @param id
+   *          a 16-byte identifier.
+   * @return the handle of the identifier.
+   */
+  public int intern(final byte[] id) {
+    if (id == null || id.length != SampleMessage.DEVICE_ID_SIZE) {
+      throw new IllegalArgumentException(String.format(
+          "Device ID must be %d bytes long.",
+          Integer.valueOf(SampleMessage.DEVICE_ID_SIZE)));
+    }
+    return this.intern(NumericUtils.readLong(id, 0),
+        NumericUtils.readLong(id, 8));
+  }
+
+  /**
+   * Returns the handle of the transmitter's device identifier in
+   * {@code message}, inserting it if necessary.
+   * 
+   * @param message
+   *          the sample.
+   * @return the handle of the device identifier.
+   */
+  public int internDevice(final SampleMessage message) {
+    return this.intern(message.getDeviceIdHigh(), message.getDeviceIdLow());
+  }
+
+  /**
+   * Returns the handle of the receiver identifier in {@code message},
+   * inserting it if necessary.
+   * 
+   * @param message
+   *          the sample.
+   * @return the handle of the receiver identifier.
+   */
+  public int internReceiver(final SampleMessage message) {
+    return this.intern(message.getReceiverIdHigh(), message.getReceiverIdLow());
+  }
+
+  /**
+   * Returns the handle of the transmitter's device identifier in the sample
+   * wrapped by {@code view}, inserting it if necessary.
+   * 
+   * @param view
+   *          a view of the sample.
+   * @return the handle of the device identifier.
+   */
+  public int internDevice(final SampleMessageView view) {
+    return this.intern(view.getDeviceIdHigh(), view.getDeviceIdLow());
+  }
+
+  /**
+   * Returns the handle of the receiver identifier in the sample wrapped by
+   * {@code view}, inserting it if necessary.
+   * 
+   * @param view
+   *          a view of the sample.
+   * @return the handle of the receiver identifier.
+   */
+  public int internReceiver(final SampleMessageView view) {
+    return this.intern(view.getReceiverIdHigh(), view.getReceiverIdLow());
+  }
+
+  /**
+   * Returns the number of identifiers that have been interned. Handles are
+   * numbered from 0 to one less than this value.
+   * 
+   * @return the number of identifiers.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the high-order half of the identifier with the specified handle.
+   * 
+   * @param handle
+   *          a handle returned by this table.
+   * @return the first 8 bytes of the identifier.
+   */
+  public long getHigh(final int handle) {
+    this.checkHandle(handle);
+    return this.highs[handle];
+  }
+
+  /**
+   * Returns the low-order half of the identifier with the specified handle.
+   * 
+   * @param handle
+   *          a handle returned by this table.
+   * @return the last 8 bytes of the identifier.
+   */
+  public long getLow(final int handle) {
+    this.checkHandle(handle);
+    return this.lows[handle];
+  }
+
+  /**
+   * Returns the identifier with the specified handle.
+   * 
+   * @param handle
+   *          a handle returned by this table.
+   * @return the identifier.
+   */
+  public DeviceId getId(final int handle) {
+    this.checkHandle(handle);
+    return new DeviceId(this.highs[handle], this.lows[handle]);
+  }
+
+  /**
+   * Verifies that {@code handle} has been assigned.
+   * 
+   * @param handle
+   *          the handle to check.
+   */
+  private void checkHandle(final int handle) {
+    if (handle < 0 || handle >= this.size) {
+      throw new IndexOutOfBoundsException("Unknown handle " + handle + ".");
+    }
+  }
+
+  /**
+   * Searches a generation of the table for an identifier.
+   * 
+   * @param table
+   *          the generation to search.
+   * @param high
+   *          the first 8 bytes of the identifier.
+   * @param low
+   *          the last 8 bytes of the identifier.
+   * @return the handle, or {@link #NO_HANDLE} if it was not found.
+   */
+  private static int find(final Slots table, final long high, final long low) {
+    int index = DeviceId.hash(high, low) & table.mask;
+    while (true) {
+      int stored = table.handles.get(index);
+      if (stored == 0) {
+        return NO_HANDLE;
+      }
+      if (table.keys[index * 2 + 1] == low && table.keys[index * 2] == high) {
+        return stored - 1;
+      }
+      index = (index + 1) & table.mask;
+    }
+  }
+
+  /**
+   * Inserts a new identifier. Must be called while holding the insert lock.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier.
+   * @param low
+   *          the last 8 bytes of the identifier.
+   * @return the new handle.
+   */
+  private int insert(final long high, final long low) {
+    int handle = this.size;
+    if (handle == this.highs.length) {
+      long[] newHighs = new long[handle * 2];
+      long[] newLows = new long[handle * 2];
+      System.arraycopy(this.highs, 0, newHighs, 0, handle);
+      System.arraycopy(this.lows, 0, newLows, 0, handle);
+      this.highs = newHighs;
+      this.lows = newLows;
+    }
+    this.highs[handle] = high;
+    this.lows[handle] = low;
+    // Counted before the handle is published, so that a reader that finds it
+    // can always pass it to getHigh, getLow and getId
+    this.size = handle + 1;
+
+    Slots table = this.slots;
+    if ((handle + 1) * 2 > table.handles.length()) {
+      Slots larger = new Slots(table.handles.length() * 2);
+      for (int i = 0; i < handle; ++i) {
+        put(larger, this.highs[i], this.lows[i], i);
+      }
+      put(larger, high, low, handle);
+      this.slots = larger;
+    } else {
+      put(table, high, low, handle);
+    }
+    return handle;
+  }
+
+  /**
+   * Places an identifier in a generation of the table, writing the key before
+   * publishing the handle.
+   * 
+   * @param table
+   *          the generation to modify.
+   * @param high
+   *          the first 8 bytes of the identifier.
+   * @param low
+   *          the last 8 bytes of the identifier.
+   * @param handle
+   *          the handle of the identifier.
+   */
+  private static void put(final Slots table, final long high, final long low,
+      final int handle) {
+    int index = DeviceId.hash(high, low) & table.mask;
+    while (table.handles.get(index) != 0) {
+      index = (index + 1) & table.mask;
+    }
+    table.keys[index * 2] = high;
+    table.keys[index * 2 + 1] = low;
+    table.handles.set(index, handle + 1);
+  }
+}
@@ -0,0 +1,635 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maintains the running variance of RSSI values for each link, where a link is
+ * a pair of a transmitting device and a receiver. The statistics of each link
+ * are computed in the same way as an
+ * {@link com.owlplatform.common.util.OnlineVariance OnlineVariance}: over the
+ * most recent {@code maxHistory} values, and cleared when no value has been
+ * added for longer than the age gap.
+ * 
+ * <p>
+ * Links are divided among a number of shards by the hash of their
+ * identifiers, and each shard has its own lock, so threads adding samples for
+ * different links rarely contend. Each shard maps the identifiers of its links
+ * to dense handles with an open-addressed table, and keeps their statistics in
+ * a {@link LinkStatsTable}, so adding a value for a link that has been seen
+ * before does not allocate.
+ * </p>
+ * 
+ * <p>
+ * {@link #snapshot()} copies the statistics of every link while holding the
+ * locks of all shards, so the snapshot reflects the state of all links at a
+ * single instant.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class LinkStatisticsAggregator {
+
+  /**
+   * The default maximum number of values used to compute the variance of a
+   * link.
+   */
+  public static final int DEFAULT_MAX_HISTORY = 5;
+
+  /**
+   * The default maximum time, in milliseconds, between values of a link before
+   * its statistics are cleared.
+   */
+  public static final long DEFAULT_AGE_GAP = 10000;
+
+  /**
+   * A copy of the statistics of every link at one instant. Links are
+   * identified by index, from 0 to {@link #size()} - 1, in no particular
+   * order.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static class Snapshot {
+    /**
+     * The number of links.
+     */
+    int size = 0;
+
+    /**
+     * Device identifier halves, two per link.
+     */
+    long[] deviceIds = new long[0];
+
+    /**
+     * Receiver identifier halves, two per link.
+     */
+    long[] receiverIds = new long[0];
+
+    /**
+     * Number of values in the history of each link.
+     */
+    int[] counts = new int[0];
+
+    /**
+     * Mean of each link.
+     */
+    float[] means = new float[0];
+
+    /**
+     * Variance of each link.
+     */
+    float[] variances = new float[0];
+
+    /**
+     * Time the last value was added to each link.
+     */
+    long[] lastTimes = new long[0];
+
+    /**
+     * Ensures the arrays can hold {@code capacity} links.
+     * 
+     * @param capacity
+     *          the number of links.
+     */
+    void ensureCapacity(final int capacity) {
+      if (this.counts.length >= capacity) {
+        return;
+      }
+      this.deviceIds = new long[capacity * 2];
+      this.receiverIds = new long[capacity * 2];
+      this.counts = new int[capacity];
+      this.means = new float[capacity];
+      this.variances = new float[capacity];
+      this.lastTimes = new long[capacity];
+    }
+
+    /**
+     * Returns the number of links in this snapshot.
+     * 
+     * @return the number of links.
+     */
+    public int size() {
+      return this.size;
+    }
+
+    /**
+     * Returns the device identifier of a link.
+     * 
+     * @param index
+     *          the index of the link.
+     * @return the device identifier.
+     */
+    public DeviceId getDeviceId(final int index) {
+      this.checkIndex(index);
+      return new DeviceId(this.deviceIds[index * 2],
+          this.deviceIds[index * 2 + 1]);
+    }
+
+    /**
+     * Returns the receiver identifier of a link.
+     * 
+     * @param index
+     *          the index of the link.
+     * @return the receiver identifier.
+     */
+    public DeviceId getReceiverId(final int index) {
+      this.checkIndex(index);
+      return new DeviceId(this.receiverIds[index * 2],
+          this.receiverIds[index * 2 + 1]);
+    }
+
+    /**
+     * Returns the number of values used to compute the statistics of a link.
+     * 
+     * @param index
+     *          the index of the link.
+     * @return the number of values.
+     */
+    public int getCount(final int index) {
+      this.checkIndex(index);
+      return this.counts[index];
+    }
+
+    /**
+     * Returns the mean RSSI of a link.
+     * 
+     * @param index
+     *          the index of the link.
+     * @return the mean RSSI, or 0 if there are no values.
+     */
+    public float getMean(final int index) {
+      this.checkIndex(index);
+      return this.means[index];
+    }
+
+    /**
+     * Returns the variance of the RSSI of a link.
+     * 
+     * @param index
+     *          the index of the link.
+     * @return the variance, or 0 if there are fewer than two values.
+     */
+    public float getVariance(final int index) {
+      this.checkIndex(index);
+      return this.variances[index];
+    }
+
+    /**
+     * Returns the time the last value was added to a link.
+     * 
+     * @param index
+     *          the index of the link.
+     * @return the time, in milliseconds.
+     */
+    public long getLastTime(final int index) {
+      this.checkIndex(index);
+      return this.lastTimes[index];
+    }
+
+    /**
+     * Verifies that {@code index} is within this snapshot.
+     * 
+     * @param index
+     *          the index to check.
+     */
+    private void checkIndex(final int index) {
+      if (index < 0 || index >= this.size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+            + this.size);
+      }
+    }
+  }
+
+  /**
+   * A single shard of links, with its own lock.
+   */
+  private static final class Shard extends ReentrantLock {
+    /**
+     * Serialization version, unused.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Identifier halves of each table slot, four per slot: device high, device
+     * low, receiver high, receiver low.
+     */
+    long[] keys;
+
+    /**
+     * Link index plus one for each table slot, or 0 if the slot is empty.
+     */
+    int[] slots;
+
+    /**
+     * The number of links in this shard.
+     */
+    int size = 0;
+
+    /**
+     * Identifier halves of each link, four per link.
+     */
+    long[] linkKeys;
+
+    /**
+     * Statistics of each link, indexed by link.
+     */
+    final LinkStatsTable stats;
+
+    /**
+     * Creates a new, empty shard.
+     * 
+     * @param capacity
+     *          the initial number of links, a power of two.
+     * @param maxHistory
+     *          the maximum history of each link.
+     * @param ageGap
+     *          the maximum time between values of a link before its
+     *          statistics are cleared.
+     */
+    Shard(final int capacity, final int maxHistory, final long ageGap) {
+      this.keys = new long[capacity * 8];
+      this.slots = new int[capacity * 2];
+      this.linkKeys = new long[capacity * 4];
+      this.stats = new LinkStatsTable(capacity, maxHistory, ageGap);
+    }
+  }
+
+  /**
+   * The shards.
+   */
+  private final Shard[] shards;
+
+  /**
+   * Mask applied to a hash to select a shard.
+   */
+  private final int shardMask;
+
+  /**
+   * Creates a new aggregator with one shard for every two available
+   * processors and the default history and age gap.
+   */
+  public LinkStatisticsAggregator() {
+    this(Runtime.getRuntime().availableProcessors() * 2, DEFAULT_MAX_HISTORY,
+        DEFAULT_AGE_GAP);
+  }
+
+  /**
+   * Creates a new aggregator.
+   * 
+   * @param numShards
+   *          the number of shards, rounded up to a power of two.
+   * @param maxHistory
+   *          the maximum number of values used to compute the variance of a
+   *          link.
+   * @param ageGap
+   *          the maximum time, in milliseconds, between values of a link
+   *          before its statistics are cleared.
+   */
+  public LinkStatisticsAggregator(final int numShards, final int maxHistory,
+      final long ageGap) {
+    if (numShards < 1) {
+      throw new IllegalArgumentException(
+          "Aggregator must have at least one shard.");
+    }
+    if (maxHistory < 1) {
+      throw new IllegalArgumentException("Maximum history must be at least 1.");
+    }
+    int size = Integer.highestOneBit(numShards);
+    if (size < numShards) {
+      size <<= 1;
+    }
+    this.shards = new Shard[size];
+    for (int i = 0; i < size; ++i) {
+      this.shards[i] = new Shard(16, maxHistory, ageGap);
+    }
+    this.shardMask = size - 1;
+  }
+
+  /**
+   * Adds the RSSI of a sample to the statistics of its link, using the
+   * current time.
+   * 
+   * @param message
+   *          the sample.
+   * @return the variance of the link after adding the value.
+   */
+  public float addSample(final SampleMessage message) {
+    return this.addValue(message.getDeviceIdHigh(), message.getDeviceIdLow(),
+        message.getReceiverIdHigh(), message.getReceiverIdLow(),
+        message.getRssi(), System.currentTimeMillis());
+  }
+
+  /**
+   * Adds the RSSI of a sample to the statistics of its link, using the
+   * current time.
+   * 
+   * @param view
+   *          a view of the sample.
+   * @return the variance of the link after adding the value.
+   */
+  public float addSample(final SampleMessageView view) {
+    return this.addValue(view.getDeviceIdHigh(), view.getDeviceIdLow(),
+        view.getReceiverIdHigh(), view.getReceiverIdLow(), view.getRssi(),
+        System.currentTimeMillis());
+  }
+
+  /**
+   * Adds a value to the statistics of a link. If more than the age gap has
+   * passed since the previous value for the link, its statistics are cleared
+   * before the value is added.
+   * 
+   * @param deviceHigh
+   *          the first 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the last 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the first 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the last 8 bytes of the receiver identifier.
+   * @param value
+   *          the value to add.
+   * @param now
+   *          the current time, in milliseconds.
+   * @return the variance of the link after adding the value, or 0 if it has
+   *         fewer than two values.
+   */
+  public float addValue(final long deviceHigh, final long deviceLow,
+      final long receiverHigh, final long receiverLow, final float value,
+      final long now) {
+    int hash = hash(deviceHigh, deviceLow, receiverHigh, receiverLow);
+    Shard shard = this.shards[hash & this.shardMask];
+    shard.lock();
+    try {
+      int link = find(shard, hash, deviceHigh, deviceLow, receiverHigh,
+          receiverLow);
+      if (link < 0) {
+        link = insert(shard, hash, deviceHigh, deviceLow, receiverHigh,
+            receiverLow);
+      }
+      return shard.stats.addValue(link, value, now);
+    } finally {
+      shard.unlock();
+    }
+  }
+
+  /**
+   * Returns the current variance of a link.
+   * 
+   * @param deviceHigh
+   *          the first 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the last 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the first 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the last 8 bytes of the receiver identifier.
+   * @return the variance, or 0 if the link is unknown or has fewer than two
+   *         values.
+   */
+  public float getVariance(final long deviceHigh, final long deviceLow,
+      final long receiverHigh, final long receiverLow) {
+    int hash = hash(deviceHigh, deviceLow, receiverHigh, receiverLow);
+    Shard shard = this.shards[hash & this.shardMask];
+    shard.lock();
+    try {
+      int link = find(shard, hash, deviceHigh, deviceLow, receiverHigh,
+          receiverLow);
+      return link < 0 ? 0f : shard.stats.getVariance(link);
+    } finally {
+      shard.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of links.
+   * 
+   * @return the number of links.
+   */
+  public int size() {
+    int size = 0;
+    for (Shard shard : this.shards) {
+      shard.lock();
+      try {
+        size += shard.size;
+      } finally {
+        shard.unlock();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Removes all links.
+   */
+  public void clear() {
+    for (Shard shard : this.shards) {
+      shard.lock();
+      try {
+        shard.size = 0;
+        Arrays.fill(shard.slots, 0);
+      } finally {
+        shard.unlock();
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of the statistics of every link at a single instant.
+   * 
+   * @return the new snapshot.
+   */
+  public Snapshot snapshot() {
+    return this.snapshot(new Snapshot());
+  }
+
+  /**
+   * Copies the statistics of every link at a single instant into an existing
+   * snapshot, reusing its arrays if they are large enough.
+   * 
+   * @param snapshot
+   *          the snapshot to fill.
+   * @return {@code snapshot}.
+   */
+  public Snapshot snapshot(final Snapshot snapshot) {
+    for (Shard shard : this.shards) {
+      shard.lock();
+    }
+    try {
+      int total = 0;
+      for (Shard shard : this.shards) {
+        total += shard.size;
+      }
+      snapshot.ensureCapacity(total);
+      int index = 0;
+      for (Shard shard : this.shards) {
+        for (int link = 0; link < shard.size; ++link, ++index) {
+          snapshot.deviceIds[index * 2] = shard.linkKeys[link * 4];
+          snapshot.deviceIds[index * 2 + 1] = shard.linkKeys[link * 4 + 1];
+          snapshot.receiverIds[index * 2] = shard.linkKeys[link * 4 + 2];
+          snapshot.receiverIds[index * 2 + 1] = shard.linkKeys[link * 4 + 3];
+          snapshot.counts[index] = shard.stats.getCount(link);
+          snapshot.means[index] = shard.stats.getMean(link);
+          snapshot.variances[index] = shard.stats.getVariance(link);
+          snapshot.lastTimes[index] = shard.stats.getLastTime(link);
+        }
+      }
+      snapshot.size = total;
+    } finally {
+      for (Shard shard : this.shards) {
+        shard.unlock();
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Computes the hash of a link.
+   * 
+   * @param deviceHigh
+   *          the first 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the last 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the first 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the last 8 bytes of the receiver identifier.
+   * @return the hash.
+   */
+  private static int hash(final long deviceHigh, final long deviceLow,
+      final long receiverHigh, final long receiverLow) {
+    return DeviceId.hash(deviceHigh ^ Long.rotateLeft(receiverHigh, 29),
+        deviceLow ^ Long.rotateLeft(receiverLow, 29));
+  }
+
+  /**
+   * Finds a link in a shard. Must be called while holding the shard's lock.
+   * 
+   * @param shard
+   *          the shard.
+   * @param hash
+   *          the hash of the link.
+   * @param deviceHigh
+   *          the first 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the last 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the first 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the last 8 bytes of the receiver identifier.
+   * @return the index of the link, or -1 if it is not in the shard.
+   */
+  private static int find(final Shard shard, final int hash,
+      final long deviceHigh, final long deviceLow, final long receiverHigh,
+      final long receiverLow) {
+    int mask = shard.slots.length - 1;
+    // The low bits of the hash select the shard, so use the high bits
+    int slot = Integer.rotateLeft(hash, 16) & mask;
+    while (shard.slots[slot] != 0) {
+      int k = slot * 4;
+      if (shard.keys[k] == deviceHigh && shard.keys[k + 1] == deviceLow
+          && shard.keys[k + 2] == receiverHigh
+          && shard.keys[k + 3] == receiverLow) {
+        return shard.slots[slot] - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Adds a new link to a shard. Must be called while holding the shard's
+   * lock.
+   * 
+   * @param shard
+   *          the shard.
+   * @param hash
+   *          the hash of the link.
+   * @param deviceHigh
+   *          the first 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the last 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the first 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the last 8 bytes of the receiver identifier.
+   * @return the index of the new link.
+   */
+  private static int insert(final Shard shard, final int hash,
+      final long deviceHigh, final long deviceLow, final long receiverHigh,
+      final long receiverLow) {
+    int link = shard.size;
+    if (link * 4 == shard.linkKeys.length) {
+      grow(shard);
+    }
+    int k = link * 4;
+    shard.linkKeys[k] = deviceHigh;
+    shard.linkKeys[k + 1] = deviceLow;
+    shard.linkKeys[k + 2] = receiverHigh;
+    shard.linkKeys[k + 3] = receiverLow;
+    // The handle may have been used by a link removed by clear()
+    shard.stats.reset(link);
+    put(shard, hash, link);
+    shard.size = link + 1;
+    return link;
+  }
+
+  /**
+   * Places a link in the hash table of a shard.
+   * 
+   * @param shard
+   *          the shard.
+   * @param hash
+   *          the hash of the link.
+   * @param link
+   *          the index of the link, whose identifiers have been stored.
+   */
+  private static void put(final Shard shard, final int hash, final int link) {
+    int mask = shard.slots.length - 1;
+    int slot = Integer.rotateLeft(hash, 16) & mask;
+    while (shard.slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    System.arraycopy(shard.linkKeys, link * 4, shard.keys, slot * 4, 4);
+    shard.slots[slot] = link + 1;
+  }
+
+  /**
+   * Doubles the number of links a shard can hold and rebuilds its hash table.
+   * The statistics table grows by itself when a new handle is used.
+   * 
+   * @param shard
+   *          the shard to grow.
+   */
+  private static void grow(final Shard shard) {
+    int capacity = shard.linkKeys.length / 4 * 2;
+    shard.linkKeys = Arrays.copyOf(shard.linkKeys, capacity * 4);
+    shard.keys = new long[capacity * 8];
+    shard.slots = new int[capacity * 2];
+    for (int link = 0; link < shard.size; ++link) {
+      int k = link * 4;
+      put(shard, hash(shard.linkKeys[k], shard.linkKeys[k + 1],
+          shard.linkKeys[k + 2], shard.linkKeys[k + 3]), link);
+    }
+  }
+}
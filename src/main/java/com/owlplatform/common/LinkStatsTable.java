@@ -0,0 +1,408 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.Arrays;
+
+/**
+ * Stores the running RSSI statistics of many links in primitive arrays indexed
+ * by a dense link handle, for example one assigned by a
+ * {@link DeviceIdTable}. The statistics of each link are computed in the same
+ * way as an {@link com.owlplatform.common.util.OnlineVariance OnlineVariance}:
+ * over the most recent {@code maxHistory} values, and cleared when no value
+ * has been added for longer than the age gap.
+ * 
+ * <p>
+ * Each link uses {@code 32 + 4 * maxHistory} bytes of array storage, with no
+ * object per link: a {@code double} mean and sum of squared differences, an
+ * {@code int} count and ring position, a {@code long} last update time, and
+ * the ring of recent values. The mean and sum of squared differences are
+ * updated with Welford's formulas, and recomputed exactly from the ring each
+ * time it wraps around, so rounding errors cannot accumulate.
+ * </p>
+ * 
+ * <p>
+ * The table grows automatically to hold the largest handle used. It is not
+ * thread-safe; for concurrent updates see {@link LinkStatisticsAggregator}.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class LinkStatsTable {
+
+  /**
+   * The maximum number of values used to compute the variance of a link.
+   */
+  private final int maxHistory;
+
+  /**
+   * The maximum time between values of a link before its statistics are
+   * cleared.
+   */
+  private final long ageGap;
+
+  /**
+   * The mean of the values in the history of each link.
+   */
+  private double[] means;
+
+  /**
+   * The sum of squared differences from the mean for each link.
+   */
+  private double[] m2s;
+
+  /**
+   * The number of values in the history of each link.
+   */
+  private int[] counts;
+
+  /**
+   * The index of the oldest value in the history of each link.
+   */
+  private int[] starts;
+
+  /**
+   * The time the last value was added to each link.
+   */
+  private long[] lastTimes;
+
+  /**
+   * The history of each link, {@code maxHistory} values per link.
+   */
+  private float[] history;
+
+  /**
+   * Creates a new table with the default history and age gap of
+   * {@link LinkStatisticsAggregator}.
+   * 
+   * @param initialCapacity
+   *          the number of links the table can hold before growing.
+   */
+  public LinkStatsTable(final int initialCapacity) {
+    this(initialCapacity, LinkStatisticsAggregator.DEFAULT_MAX_HISTORY,
+        LinkStatisticsAggregator.DEFAULT_AGE_GAP);
+  }
+
+  /**
+   * Creates a new table.
+   * 
+   * @param initialCapacity
+   *          the number of links the table can hold before growing.
+   * @param maxHistory
+   *          the maximum number of values used to compute the variance of a
+   *          link.
+   * @param ageGap
+   *          the maximum time, in milliseconds, between values of a link
+   *          before its statistics are cleared.
+   */
+  public LinkStatsTable(final int initialCapacity, final int maxHistory,
+      final long ageGap) {
+    if (maxHistory < 1) {
+      throw new IllegalArgumentException("Maximum history must be at least 1.");
+    }
+    int capacity = Math.max(initialCapacity, 1);
+    this.maxHistory = maxHistory;
+    this.ageGap = ageGap;
+    this.means = new double[capacity];
+    this.m2s = new double[capacity];
+    this.counts = new int[capacity];
+    this.starts = new int[capacity];
+    this.lastTimes = new long[capacity];
+    this.history = new float[capacity * maxHistory];
+  }
+
+  /**
+   * Adds a value to the statistics of a link. If more than the age gap has
+   * passed since the previous value for the link, its statistics are cleared
+   * before the value is added.
+   * 
+   * @param link
+   *          the handle of the link.
+   * @param value
+   *          the value to add.
+   * @param now
+   *          the current time, in milliseconds.
+   * @return the variance of the link after adding the value, or 0 if it has
+   *         fewer than two values.
+   */
+  public float addValue(final int link, final float value, final long now) {
+    if (link < 0) {
+      throw new IndexOutOfBoundsException("Negative link handle " + link + ".");
+    }
+    if (link >= this.counts.length) {
+      this.grow(link + 1);
+    }
+    return this.update(link, value, now);
+  }
+
+  /**
+   * Adds a value to the statistics of each of a number of links, using the
+   * current time. {@code values[i]} is added to link {@code links[i]}.
+   * 
+   * @param links
+   *          the handles of the links.
+   * @param values
+   *          the values to add.
+   */
+  public void addValues(final int[] links, final float[] values) {
+    if (links.length != values.length) {
+      throw new IllegalArgumentException("Got " + links.length + " links and "
+          + values.length + " values.");
+    }
+    this.addValues(links, values, 0, links.length, System.currentTimeMillis());
+  }
+
+  /**
+   * Adds a value to the statistics of each of a number of links.
+   * {@code values[i]} is added to link {@code links[i]} for each {@code i}
+   * from {@code offset} to {@code offset + length - 1}.
+   * 
+   * @param links
+   *          the handles of the links.
+   * @param values
+   *          the values to add.
+   * @param offset
+   *          the index of the first link and value.
+   * @param length
+   *          the number of values to add.
+   * @param now
+   *          the current time, in milliseconds.
+   */
+  public void addValues(final int[] links, final float[] values,
+      final int offset, final int length, final long now) {
+    if (offset < 0 || length < 0 || offset > links.length - length
+        || offset > values.length - length) {
+      throw new IndexOutOfBoundsException("Invalid range [" + offset + ", "
+          + offset + " + " + length + ").");
+    }
+    int maxLink = -1;
+    for (int i = offset; i < offset + length; ++i) {
+      if (links[i] < 0) {
+        throw new IndexOutOfBoundsException("Negative link handle "
+            + links[i] + ".");
+      }
+      maxLink = Math.max(maxLink, links[i]);
+    }
+    if (maxLink >= this.counts.length) {
+      this.grow(maxLink + 1);
+    }
+    for (int i = offset; i < offset + length; ++i) {
+      this.update(links[i], values[i], now);
+    }
+  }
+
+  /**
+   * Returns the number of values used to compute the statistics of a link.
+   * 
+   * @param link
+   *          the handle of the link.
+   * @return the number of values, or 0 if the link has no values.
+   */
+  public int getCount(final int link) {
+    return this.isKnown(link) ? this.counts[link] : 0;
+  }
+
+  /**
+   * Returns the mean of the values of a link.
+   * 
+   * @param link
+   *          the handle of the link.
+   * @return the mean, or 0 if the link has no values.
+   */
+  public float getMean(final int link) {
+    return this.isKnown(link) ? (float) this.means[link] : 0f;
+  }
+
+  /**
+   * Returns the variance of the values of a link.
+   * 
+   * @param link
+   *          the handle of the link.
+   * @return the variance, or 0 if the link has fewer than two values.
+   */
+  public float getVariance(final int link) {
+    if (!this.isKnown(link) || this.counts[link] < 2) {
+      return 0f;
+    }
+    return (float) (this.m2s[link] / (this.counts[link] - 1));
+  }
+
+  /**
+   * Returns the time the last value was added to a link.
+   * 
+   * @param link
+   *          the handle of the link.
+   * @return the time, in milliseconds, or 0 if the link has no values.
+   */
+  public long getLastTime(final int link) {
+    return this.isKnown(link) ? this.lastTimes[link] : 0;
+  }
+
+  /**
+   * Clears the statistics of a link.
+   * 
+   * @param link
+   *          the handle of the link.
+   */
+  public void reset(final int link) {
+    if (this.isKnown(link)) {
+      this.clear(link);
+      this.lastTimes[link] = 0;
+    }
+  }
+
+  /**
+   * Returns the number of links the table can hold without growing.
+   * 
+   * @return the capacity of the table.
+   */
+  public int getCapacity() {
+    return this.counts.length;
+  }
+
+  /**
+   * Returns the number of bytes used by the arrays of this table, excluding
+   * array headers.
+   * 
+   * @return the size of the arrays, in bytes.
+   */
+  public long getFootprintBytes() {
+    return (long) this.means.length * 8 + (long) this.m2s.length * 8
+        + (long) this.counts.length * 4 + (long) this.starts.length * 4
+        + (long) this.lastTimes.length * 8 + (long) this.history.length * 4;
+  }
+
+  /**
+   * Determines whether {@code link} is within the table.
+   * 
+   * @param link
+   *          the handle of the link.
+   * @return {@code true} if the link is within the table.
+   */
+  private boolean isKnown(final int link) {
+    return link >= 0 && link < this.counts.length;
+  }
+
+  /**
+   * Grows the table to hold at least {@code minCapacity} links.
+   * 
+   * @param minCapacity
+   *          the required capacity.
+   */
+  private void grow(final int minCapacity) {
+    int capacity = Math.max(minCapacity, this.counts.length * 2);
+    this.means = Arrays.copyOf(this.means, capacity);
+    this.m2s = Arrays.copyOf(this.m2s, capacity);
+    this.counts = Arrays.copyOf(this.counts, capacity);
+    this.starts = Arrays.copyOf(this.starts, capacity);
+    this.lastTimes = Arrays.copyOf(this.lastTimes, capacity);
+    this.history = Arrays.copyOf(this.history, capacity * this.maxHistory);
+  }
+
+  /**
+   * Clears the history and statistics of a link.
+   * 
+   * @param link
+   *          the handle of the link.
+   */
+  private void clear(final int link) {
+    this.means[link] = 0;
+    this.m2s[link] = 0;
+    this.counts[link] = 0;
+    this.starts[link] = 0;
+  }
+
+  /**
+   * Adds a value to the statistics of a link within the table.
+   * 
+   * @param link
+   *          the handle of the link.
+   * @param value
+   *          the value to add.
+   * @param now
+   *          the current time, in milliseconds.
+   * @return the variance of the link after adding the value.
+   */
+  private float update(final int link, final float value, final long now) {
+    if (now - this.lastTimes[link] > this.ageGap) {
+      this.clear(link);
+    }
+    this.lastTimes[link] = now;
+
+    int base = link * this.maxHistory;
+    int count = this.counts[link];
+    int start = this.starts[link];
+    if (count < this.maxHistory) {
+      // The ring is filled from index 0 after a reset, so start is 0
+      this.history[base + count] = value;
+      this.counts[link] = ++count;
+      double delta = value - this.means[link];
+      this.means[link] += delta / count;
+      this.m2s[link] += delta * (value - this.means[link]);
+    } else {
+      float oldest = this.history[base + start];
+      this.history[base + start] = value;
+      if (++start == this.maxHistory) {
+        start = 0;
+        this.recompute(link, base);
+      } else {
+        double oldMean = this.means[link];
+        double delta = (double) value - oldest;
+        this.means[link] += delta / count;
+        this.m2s[link] += delta
+            * ((value - this.means[link]) + (oldest - oldMean));
+        if (this.m2s[link] < 0) {
+          this.m2s[link] = 0;
+        }
+      }
+      this.starts[link] = start;
+    }
+
+    if (count < 2) {
+      return 0f;
+    }
+    return (float) (this.m2s[link] / (count - 1));
+  }
+
+  /**
+   * Recomputes the mean and sum of squared differences of a link with a full
+   * history from its values.
+   * 
+   * @param link
+   *          the handle of the link.
+   * @param base
+   *          the index of the link's history in {@link #history}.
+   */
+  private void recompute(final int link, final int base) {
+    double sum = 0;
+    for (int i = base; i < base + this.maxHistory; ++i) {
+      sum += this.history[i];
+    }
+    double mean = sum / this.maxHistory;
+    double m2 = 0;
+    for (int i = base; i < base + this.maxHistory; ++i) {
+      double diff = this.history[i] - mean;
+      m2 += diff * diff;
+    }
+    this.means[link] = mean;
+    this.m2s[link] = m2;
+  }
+}
@@ -0,0 +1,641 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.Arrays;
+
+import com.owlplatform.common.util.NumericUtils;
+
+/**
+ * A columnar (struct-of-arrays) container for a window of samples. Each field
+ * of the samples is stored in its own primitive array, so scans over a single
+ * field such as the RSSI or receiver timestamp read contiguous memory and do
+ * not touch any other values.
+ * 
+ * <p>
+ * Device and receiver identifiers are stored as pairs of big-endian
+ * {@code long} values, and sensed data is stored back-to-back in a single
+ * {@code byte[]} slab indexed by offset. A sample with no sensed data and a
+ * sample with an empty array are stored identically. Samples whose
+ * identifiers have not been set are stored with identifiers of all zeros.
+ * </p>
+ * 
+ * <p>
+ * The arrays grow as samples are added and are retained by {@link #clear()},
+ * so a batch that is reused for each window stops allocating once it has
+ * reached the size of the largest window. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleBatch {
+
+  /**
+   * The default number of samples a new batch can hold before growing.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * The number of samples in this batch.
+   */
+  private int size = 0;
+
+  /**
+   * The physical layer of each sample.
+   */
+  private byte[] physicalLayers;
+
+  /**
+   * The device identifier of each sample, as two {@code long} values per
+   * sample (high-order half first).
+   */
+  private long[] deviceIds;
+
+  /**
+   * The receiver identifier of each sample, as two {@code long} values per
+   * sample (high-order half first).
+   */
+  private long[] receiverIds;
+
+  /**
+   * The receiver timestamp of each sample.
+   */
+  private long[] receiverTimeStamps;
+
+  /**
+   * The RSSI of each sample.
+   */
+  private float[] rssis;
+
+  /**
+   * The start of each sample's sensed data in {@link #data}. The sensed data
+   * of sample {@code i} ends at {@code dataOffsets[i+1]}.
+   */
+  private int[] dataOffsets;
+
+  /**
+   * The sensed data of all samples.
+   */
+  private byte[] data;
+
+  /**
+   * Creates a new batch with the {@link #DEFAULT_CAPACITY default} capacity.
+   */
+  public SampleBatch() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new batch that can hold {@code capacity} samples before growing.
+   * 
+   * @param capacity
+   *          the initial capacity of the batch.
+   */
+  public SampleBatch(final int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1.");
+    }
+    this.physicalLayers = new byte[capacity];
+    this.deviceIds = new long[capacity * 2];
+    this.receiverIds = new long[capacity * 2];
+    this.receiverTimeStamps = new long[capacity];
+    this.rssis = new float[capacity];
+    this.dataOffsets = new int[capacity + 1];
+    this.data = new byte[capacity * 4];
+  }
+
+  /**
+   * Returns the number of samples in this batch.
+   * 
+   * @return the number of samples.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Removes all samples from this batch. The backing arrays are retained.
+   */
+  public void clear() {
+    this.size = 0;
+  }
+
+  /**
+   * Appends the values of {@code message} to this batch.
+   * 
+   * @param message
+   *          the sample to append.
+   * @return the index of the new sample.
+   */
+  public int add(final SampleMessage message) {
+    byte[] sensed = message.getSensedData();
+    int dataLength = sensed == null ? 0 : sensed.length;
+    int index = this.prepare(dataLength);
+    this.physicalLayers[index] = message.getPhysicalLayer();
+    putId(message.getDeviceId(), this.deviceIds, index * 2);
+    putId(message.getReceiverId(), this.receiverIds, index * 2);
+    this.receiverTimeStamps[index] = message.getReceiverTimeStamp();
+    this.rssis[index] = message.getRssi();
+    if (dataLength > 0) {
+      System.arraycopy(sensed, 0, this.data, this.dataOffsets[index],
+          dataLength);
+    }
+    return index;
+  }
+
+  /**
+   * Appends the sample currently wrapped by {@code view} to this batch. No
+   * objects are created unless the batch needs to grow.
+   * 
+   * @param view
+   *          a view of the sample to append.
+   * @return the index of the new sample.
+   */
+  public int add(final SampleMessageView view) {
+    int dataLength = view.getSensedDataLength();
+    int index = this.prepare(dataLength);
+    this.physicalLayers[index] = view.getPhysicalLayer();
+    this.deviceIds[index * 2] = view.getDeviceIdHigh();
+    this.deviceIds[index * 2 + 1] = view.getDeviceIdLow();
+    this.receiverIds[index * 2] = view.getReceiverIdHigh();
+    this.receiverIds[index * 2 + 1] = view.getReceiverIdLow();
+    this.receiverTimeStamps[index] = view.getReceiverTimeStamp();
+    this.rssis[index] = view.getRssi();
+    if (dataLength > 0) {
+      view.getSensedData(this.data, this.dataOffsets[index]);
+    }
+    return index;
+  }
+
+  /**
+   * Makes room for one more sample with {@code dataLength} bytes of sensed
+   * data, and increments the size.
+   * 
+   * @param dataLength
+   *          the length of the new sample's sensed data.
+   * @return the index of the new sample.
+   */
+  private int prepare(final int dataLength) {
+    int index = this.size;
+    if (index == this.physicalLayers.length) {
+      int capacity = index * 2;
+      this.physicalLayers = Arrays.copyOf(this.physicalLayers, capacity);
+      this.deviceIds = Arrays.copyOf(this.deviceIds, capacity * 2);
+      this.receiverIds = Arrays.copyOf(this.receiverIds, capacity * 2);
+      this.receiverTimeStamps = Arrays.copyOf(this.receiverTimeStamps,
+          capacity);
+      this.rssis = Arrays.copyOf(this.rssis, capacity);
+      this.dataOffsets = Arrays.copyOf(this.dataOffsets, capacity + 1);
+    }
+    int dataEnd = this.dataOffsets[index] + dataLength;
+    if (dataEnd > this.data.length) {
+      this.data = Arrays.copyOf(this.data,
+          Math.max(dataEnd, this.data.length * 2));
+    }
+    this.dataOffsets[index + 1] = dataEnd;
+    ++this.size;
+    return index;
+  }
+
+  /**
+   * Stores a 16-byte identifier as two {@code long} values.
+   * 
+   * @param id
+   *          the identifier, or {@code null} for all zeros.
+   * @param dest
+   *          the destination array.
+   * @param offset
+   *          the index of the high-order half in {@code dest}.
+   */
+  private static void putId(final byte[] id, final long[] dest,
+      final int offset) {
+    if (id == null) {
+      dest[offset] = 0;
+      dest[offset + 1] = 0;
+      return;
+    }
+    dest[offset] = NumericUtils.readLong(id, 0);
+    dest[offset + 1] = NumericUtils.readLong(id, 8);
+  }
+
+  /**
+   * Writes two {@code long} values as a 16-byte big-endian identifier.
+   * 
+   * @param source
+   *          the array containing the identifier.
+   * @param offset
+   *          the index of the high-order half in {@code source}.
+   * @param dest
+   *          the destination array.
+   * @param destOffset
+   *          the index in {@code dest} of the first byte to write.
+   */
+  private static void getId(final long[] source, final int offset,
+      final byte[] dest, final int destOffset) {
+    NumericUtils.writeLong(source[offset], dest, destOffset);
+    NumericUtils.writeLong(source[offset + 1], dest, destOffset + 8);
+  }
+
+  /**
+   * Verifies that {@code index} refers to a sample in this batch.
+   * 
+   * @param index
+   *          the index to check.
+   */
+  private void checkIndex(final int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + this.size);
+    }
+  }
+
+  /**
+   * Verifies that {@code [from, to)} is a valid range of samples.
+   * 
+   * @param from
+   *          the first index of the range.
+   * @param to
+   *          the index after the last sample of the range.
+   */
+  private void checkRange(final int from, final int to) {
+    if (from < 0 || to > this.size || from > to) {
+      throw new IndexOutOfBoundsException("Range [" + from + ", " + to
+          + ") is not within [0, " + this.size + ").");
+    }
+  }
+
+  /**
+   * Returns the physical layer of the sample at {@code index}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @return the physical layer.
+   */
+  public byte getPhysicalLayer(final int index) {
+    this.checkIndex(index);
+    return this.physicalLayers[index];
+  }
+
+  /**
+   * Returns the high-order half of the device identifier of the sample at
+   * {@code index}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @return the first 8 bytes of the device identifier.
+   */
+  public long getDeviceIdHigh(final int index) {
+    this.checkIndex(index);
+    return this.deviceIds[index * 2];
+  }
+
+  /**
+   * Returns the low-order half of the device identifier of the sample at
+   * {@code index}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @return the last 8 bytes of the device identifier.
+   */
+  public long getDeviceIdLow(final int index) {
+    this.checkIndex(index);
+    return this.deviceIds[index * 2 + 1];
+  }
+
+  /**
+   * Copies the device identifier of the sample at {@code index} into
+   * {@code dest}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @param dest
+   *          the destination array.
+   * @param destOffset
+   *          the index in {@code dest} of the first byte to write.
+   */
+  public void getDeviceId(final int index, final byte[] dest,
+      final int destOffset) {
+    this.checkIndex(index);
+    getId(this.deviceIds, index * 2, dest, destOffset);
+  }
+
+  /**
+   * Returns the high-order half of the receiver identifier of the sample at
+   * {@code index}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @return the first 8 bytes of the receiver identifier.
+   */
+  public long getReceiverIdHigh(final int index) {
+    this.checkIndex(index);
+    return this.receiverIds[index * 2];
+  }
+
+  /**
+   * Returns the low-order half of the receiver identifier of the sample at
+   * {@code index}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @return the last 8 bytes of the receiver identifier.
+   */
+  public long getReceiverIdLow(final int index) {
+    this.checkIndex(index);
+    return this.receiverIds[index * 2 + 1];
+  }
+
+  /**
+   * Copies the receiver identifier of the sample at {@code index} into
+   * {@code dest}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @param dest
+   *          the destination array.
+   * @param destOffset
+   *          the index in {@code dest} of the first byte to write.
+   */
+  public void getReceiverId(final int index, final byte[] dest,
+      final int destOffset) {
+    this.checkIndex(index);
+    getId(this.receiverIds, index * 2, dest, destOffset);
+  }
+
+  /**
+   * Returns the receiver timestamp of the sample at {@code index}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @return the receiver timestamp.
+   */
+  public long getReceiverTimeStamp(final int index) {
+    this.checkIndex(index);
+    return this.receiverTimeStamps[index];
+  }
+
+  /**
+   * Returns the RSSI of the sample at {@code index}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @return the RSSI value.
+   */
+  public float getRssi(final int index) {
+    this.checkIndex(index);
+    return this.rssis[index];
+  }
+
+  /**
+   * Returns the length of the sensed data of the sample at {@code index}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @return the number of bytes of sensed data.
+   */
+  public int getSensedDataLength(final int index) {
+    this.checkIndex(index);
+    return this.dataOffsets[index + 1] - this.dataOffsets[index];
+  }
+
+  /**
+   * Copies the sensed data of the sample at {@code index} into {@code dest}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @param dest
+   *          the destination array.
+   * @param destOffset
+   *          the index in {@code dest} of the first byte to write.
+   */
+  public void getSensedData(final int index, final byte[] dest,
+      final int destOffset) {
+    int length = this.getSensedDataLength(index);
+    System.arraycopy(this.data, this.dataOffsets[index], dest, destOffset,
+        length);
+  }
+
+  /**
+   * Copies the values of the sample at {@code index} into {@code target}.
+   * Identifier and sensed data arrays previously allocated by {@code target}
+   * are reused; arrays the caller set on {@code target} are replaced, never
+   * modified.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @param target
+   *          the sample to fill.
+   * @return {@code target}.
+   */
+  public SampleMessage get(final int index, final SampleMessage target) {
+    this.checkIndex(index);
+    target.setPhysicalLayer(this.physicalLayers[index]);
+    getId(this.deviceIds, index * 2, target.prepareDeviceId(), 0);
+    getId(this.receiverIds, index * 2, target.prepareReceiverId(), 0);
+    target.setReceiverTimeStamp(this.receiverTimeStamps[index]);
+    target.setRssi(this.rssis[index]);
+    int length = this.dataOffsets[index + 1] - this.dataOffsets[index];
+    if (length == 0) {
+      target.setSensedData(null);
+    } else {
+      System.arraycopy(this.data, this.dataOffsets[index],
+          target.prepareSensedData(length), 0, length);
+    }
+    return target;
+  }
+
+  /**
+   * Returns the array holding the RSSI values of this batch. Only the first
+   * {@link #size()} elements are valid, and the array is replaced if the batch
+   * grows. This is intended for callers that need to run their own tight loop
+   * over the RSSI values.
+   * 
+   * @return the backing array of RSSI values.
+   */
+  public float[] getRssiArray() {
+    return this.rssis;
+  }
+
+  /**
+   * Returns the array holding the receiver timestamps of this batch. Only the
+   * first {@link #size()} elements are valid, and the array is replaced if the
+   * batch grows.
+   * 
+   * @return the backing array of receiver timestamps.
+   */
+  public long[] getReceiverTimeStampArray() {
+    return this.receiverTimeStamps;
+  }
+
+  /**
+   * Returns the sum of the RSSI values of the samples in {@code [from, to)}.
+   * 
+   * @param from
+   *          the index of the first sample.
+   * @param to
+   *          the index after the last sample.
+   * @return the sum of the RSSI values.
+   */
+  public double sumRssi(final int from, final int to) {
+    this.checkRange(from, to);
+    final float[] values = this.rssis;
+    double sum = 0;
+    for (int i = from; i < to; ++i) {
+      sum += values[i];
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the mean of the RSSI values of the samples in {@code [from, to)}.
+   * 
+   * @param from
+   *          the index of the first sample.
+   * @param to
+   *          the index after the last sample.
+   * @return the mean RSSI value, or {@code NaN} if the range is empty.
+   */
+  public double meanRssi(final int from, final int to) {
+    if (from == to) {
+      return Double.NaN;
+    }
+    return this.sumRssi(from, to) / (to - from);
+  }
+
+  /**
+   * Returns the smallest RSSI value of the samples in {@code [from, to)}.
+   * 
+   * @param from
+   *          the index of the first sample.
+   * @param to
+   *          the index after the last sample.
+   * @return the minimum RSSI value, or {@code NaN} if the range is empty.
+   */
+  public float minRssi(final int from, final int to) {
+    this.checkRange(from, to);
+    if (from == to) {
+      return Float.NaN;
+    }
+    final float[] values = this.rssis;
+    float min = values[from];
+    for (int i = from + 1; i < to; ++i) {
+      min = Math.min(min, values[i]);
+    }
+    return min;
+  }
+
+  /**
+   * Returns the largest RSSI value of the samples in {@code [from, to)}.
+   * 
+   * @param from
+   *          the index of the first sample.
+   * @param to
+   *          the index after the last sample.
+   * @return the maximum RSSI value, or {@code NaN} if the range is empty.
+   */
+  public float maxRssi(final int from, final int to) {
+    this.checkRange(from, to);
+    if (from == to) {
+      return Float.NaN;
+    }
+    final float[] values = this.rssis;
+    float max = values[from];
+    for (int i = from + 1; i < to; ++i) {
+      max = Math.max(max, values[i]);
+    }
+    return max;
+  }
+
+  /**
+   * Counts the samples in {@code [from, to)} with the specified physical
+   * layer. If {@code physicalLayer} is {@link SampleMessage#PHYSICAL_LAYER_ALL},
+   * every sample in the range is counted.
+   * 
+   * @param physicalLayer
+   *          the physical layer to count.
+   * @param from
+   *          the index of the first sample.
+   * @param to
+   *          the index after the last sample.
+   * @return the number of matching samples.
+   */
+  public int countPhysicalLayer(final byte physicalLayer, final int from,
+      final int to) {
+    this.checkRange(from, to);
+    if (physicalLayer == SampleMessage.PHYSICAL_LAYER_ALL) {
+      return to - from;
+    }
+    final byte[] values = this.physicalLayers;
+    int count = 0;
+    for (int i = from; i < to; ++i) {
+      if (values[i] == physicalLayer) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the index of the first sample at or after {@code from} with the
+   * specified device identifier.
+   * 
+   * @param high
+   *          the high-order half of the device identifier.
+   * @param low
+   *          the low-order half of the device identifier.
+   * @param from
+   *          the index at which to start searching.
+   * @return the index of the matching sample, or -1 if there is none.
+   */
+  public int indexOfDevice(final long high, final long low, final int from) {
+    final long[] ids = this.deviceIds;
+    for (int i = Math.max(from, 0); i < this.size; ++i) {
+      if (ids[i * 2 + 1] == low && ids[i * 2] == high) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index of the first sample whose receiver timestamp is at
+   * least {@code timestamp}, assuming the samples were added in timestamp
+   * order.
+   * 
+   * @param timestamp
+   *          the timestamp to search for.
+   * @return the index of the first sample at or after {@code timestamp}, or
+   *         {@link #size()} if all samples are earlier.
+   */
+  public int lowerBoundTimeStamp(final long timestamp) {
+    int low = 0;
+    int high = this.size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (this.receiverTimeStamps[mid] < timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
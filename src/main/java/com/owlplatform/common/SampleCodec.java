@@ -0,0 +1,341 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes and decodes {@code SampleMessage} objects using the binary formats
+ * of the Sensor-Aggregator and Aggregator-Solver protocols. Each frame is a
+ * 4-byte length prefix followed by the values described by
+ * {@link SampleMessage#getLengthPrefixSensor()} or
+ * {@link SampleMessage#getLengthPrefixSolver()}.
+ * 
+ * <p>
+ * All methods operate on caller-supplied, big-endian {@code ByteBuffer}s and
+ * read or write at the buffer's current position. Encoding never allocates,
+ * and decoding into an existing {@code SampleMessage} reuses that message's
+ * identifier and sensed data arrays whenever possible.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleCodec {
+
+  /**
+   * Encodes {@code message} at the current position of {@code buffer}
+   * according to the Sensor-Aggregator protocol.
+   * 
+   * @param message
+   *          the sample to encode.
+   * @param buffer
+   *          the destination buffer.
+   * @return the number of bytes written.
+   * @throws BufferOverflowException
+   *           if the frame does not fit in the remaining space of the buffer.
+   *           Nothing is written in this case.
+   */
+  public static int encodeSensor(final SampleMessage message,
+      final ByteBuffer buffer) {
+    return encode(message, buffer, false);
+  }
+
+  /**
+   * Encodes {@code message} at the current position of {@code buffer}
+   * according to the Aggregator-Solver protocol.
+   * 
+   * @param message
+   *          the sample to encode.
+   * @param buffer
+   *          the destination buffer.
+   * @return the number of bytes written.
+   * @throws BufferOverflowException
+   *           if the frame does not fit in the remaining space of the buffer.
+   *           Nothing is written in this case.
+   */
+  public static int encodeSolver(final SampleMessage message,
+      final ByteBuffer buffer) {
+    return encode(message, buffer, true);
+  }
+
+  /**
+   * Encodes as many of the specified samples as will fit into {@code buffer}
+   * according to the Sensor-Aggregator protocol. Encoding stops at the first
+   * sample that does not fit, so the buffer only ever contains complete
+   * frames.
+   * 
+   * @param messages
+   *          the samples to encode.
+   * @param offset
+   *          the index of the first sample to encode.
+   * @param length
+   *          the maximum number of samples to encode.
+   * @param buffer
+   *          the destination buffer.
+   * @return the number of samples encoded.
+   */
+  public static int encodeSensor(final SampleMessage[] messages,
+      final int offset, final int length, final ByteBuffer buffer) {
+    return encode(messages, offset, length, buffer, false);
+  }
+
+  /**
+   * Encodes as many of the specified samples as will fit into {@code buffer}
+   * according to the Aggregator-Solver protocol. Encoding stops at the first
+   * sample that does not fit, so the buffer only ever contains complete
+   * frames.
+   * 
+   * @param messages
+   *          the samples to encode.
+   * @param offset
+   *          the index of the first sample to encode.
+   * @param length
+   *          the maximum number of samples to encode.
+   * @param buffer
+   *          the destination buffer.
+   * @return the number of samples encoded.
+   */
+  public static int encodeSolver(final SampleMessage[] messages,
+      final int offset, final int length, final ByteBuffer buffer) {
+    return encode(messages, offset, length, buffer, true);
+  }
+
+  /**
+   * Decodes a Sensor-Aggregator frame from the current position of
+   * {@code buffer} into {@code target}. If a complete frame is not available,
+   * the buffer and target are left unchanged.
+   * 
+   * <p>
+   * Identifier and sensed data arrays previously allocated by {@code target}
+   * are overwritten in place, so they must not be retained by the caller.
+   * Arrays the caller set on {@code target} are replaced, never modified.
+   * </p>
+   * 
+   * @param buffer
+   *          the source buffer.
+   * @param target
+   *          the sample to fill.
+   * @return {@code true} if a frame was decoded and the buffer position
+   *         advanced past it, or {@code false} if more data is needed.
+   * @throws IllegalArgumentException
+   *           if the frame is malformed.
+   */
+  public static boolean decodeSensor(final ByteBuffer buffer,
+      final SampleMessage target) {
+    return decode(buffer, target, false);
+  }
+
+  /**
+   * Decodes an Aggregator-Solver frame from the current position of
+   * {@code buffer} into {@code target}. If a complete frame is not available,
+   * the buffer and target are left unchanged.
+   * 
+   * <p>
+   * Identifier and sensed data arrays previously allocated by {@code target}
+   * are overwritten in place, so they must not be retained by the caller.
+   * Arrays the caller set on {@code target} are replaced, never modified.
+   * </p>
+   * 
+   * @param buffer
+   *          the source buffer.
+   * @param target
+   *          the sample to fill.
+   * @return {@code true} if a frame was decoded and the buffer position
+   *         advanced past it, or {@code false} if more data is needed.
+   * @throws IllegalArgumentException
+   *           if the frame is malformed or is not a sample message.
+   */
+  public static boolean decodeSolver(final ByteBuffer buffer,
+      final SampleMessage target) {
+    return decode(buffer, target, true);
+  }
+
+  /**
+   * Decodes a Sensor-Aggregator frame from the current position of
+   * {@code buffer} into a new {@code SampleMessage}.
+   * 
+   * @param buffer
+   *          the source buffer.
+   * @return the decoded sample, or {@code null} if a complete frame is not
+   *         available.
+   * @throws IllegalArgumentException
+   *           if the frame is malformed.
+   */
+  public static SampleMessage decodeSensor(final ByteBuffer buffer) {
+    SampleMessage message = new SampleMessage();
+    return decode(buffer, message, false) ? message : null;
+  }
+
+  /**
+   * Decodes an Aggregator-Solver frame from the current position of
+   * {@code buffer} into a new {@code SampleMessage}.
+   * 
+   * @param buffer
+   *          the source buffer.
+   * @return the decoded sample, or {@code null} if a complete frame is not
+   *         available.
+   * @throws IllegalArgumentException
+   *           if the frame is malformed or is not a sample message.
+   */
+  public static SampleMessage decodeSolver(final ByteBuffer buffer) {
+    SampleMessage message = new SampleMessage();
+    return decode(buffer, message, true) ? message : null;
+  }
+
+  /**
+   * Encodes a range of samples into {@code buffer}.
+   * 
+   * @param messages
+   *          the samples to encode.
+   * @param offset
+   *          the index of the first sample to encode.
+   * @param length
+   *          the maximum number of samples to encode.
+   * @param buffer
+   *          the destination buffer.
+   * @param solver
+   *          {@code true} for the Aggregator-Solver format.
+   * @return the number of samples encoded.
+   */
+  private static int encode(final SampleMessage[] messages, final int offset,
+      final int length, final ByteBuffer buffer, final boolean solver) {
+    int end = offset + length;
+    for (int i = offset; i < end; ++i) {
+      SampleMessage message = messages[i];
+      int frameLength = SampleMessageView.LENGTH_PREFIX_SIZE
+          + (solver ? message.getLengthPrefixSolver() : message
+              .getLengthPrefixSensor());
+      if (buffer.remaining() < frameLength) {
+        return i - offset;
+      }
+      encode(message, buffer, solver);
+    }
+    return length;
+  }
+
+  /**
+   * Encodes a single sample into {@code buffer}.
+   * 
+   * @param message
+   *          the sample to encode.
+   * @param buffer
+   *          the destination buffer.
+   * @param solver
+   *          {@code true} for the Aggregator-Solver format.
+   * @return the number of bytes written.
+   */
+  private static int encode(final SampleMessage message,
+      final ByteBuffer buffer, final boolean solver) {
+    checkOrder(buffer);
+    if (message.getDeviceId() == null || message.getReceiverId() == null) {
+      throw new IllegalArgumentException(
+          "Device and receiver IDs must be set to encode a sample.");
+    }
+    int length = solver ? message.getLengthPrefixSolver() : message
+        .getLengthPrefixSensor();
+    if (buffer.remaining() < SampleMessageView.LENGTH_PREFIX_SIZE + length) {
+      throw new BufferOverflowException();
+    }
+    buffer.putInt(length);
+    if (solver) {
+      buffer.put(SampleMessage.MESSAGE_TYPE);
+    }
+    buffer.put(message.getPhysicalLayer());
+    buffer.put(message.getDeviceId());
+    buffer.put(message.getReceiverId());
+    buffer.putLong(message.getReceiverTimeStamp());
+    buffer.putFloat(message.getRssi());
+    if (message.getSensedData() != null) {
+      buffer.put(message.getSensedData());
+    }
+    return SampleMessageView.LENGTH_PREFIX_SIZE + length;
+  }
+
+  /**
+   * Decodes a single sample from {@code buffer}.
+   * 
+   * @param buffer
+   *          the source buffer.
+   * @param target
+   *          the sample to fill.
+   * @param solver
+   *          {@code true} for the Aggregator-Solver format.
+   * @return {@code true} if a frame was decoded.
+   */
+  private static boolean decode(final ByteBuffer buffer,
+      final SampleMessage target, final boolean solver) {
+    checkOrder(buffer);
+    int start = buffer.position();
+    if (buffer.remaining() < SampleMessageView.LENGTH_PREFIX_SIZE) {
+      return false;
+    }
+    int length = buffer.getInt(start);
+    int baseLength = solver ? SampleMessageView.SOLVER_BASE_LENGTH
+        : SampleMessageView.SENSOR_BASE_LENGTH;
+    if (length < baseLength) {
+      throw new IllegalArgumentException(String.format(
+          "Length prefix %d is shorter than the minimum sample length %d.",
+          Integer.valueOf(length), Integer.valueOf(baseLength)));
+    }
+    if (buffer.remaining() - SampleMessageView.LENGTH_PREFIX_SIZE < length) {
+      return false;
+    }
+    int index = start + SampleMessageView.LENGTH_PREFIX_SIZE;
+    if (solver) {
+      byte type = buffer.get(index++);
+      if (type != SampleMessage.MESSAGE_TYPE) {
+        throw new IllegalArgumentException(String.format(
+            "Invalid message type %d for a sample message.",
+            Byte.valueOf(type)));
+      }
+    }
+
+    target.setPhysicalLayer(buffer.get(index));
+    buffer.position(index + SampleMessageView.DEVICE_ID_OFFSET);
+    buffer.get(target.prepareDeviceId());
+    buffer.get(target.prepareReceiverId());
+    target.setReceiverTimeStamp(buffer.getLong());
+    target.setRssi(buffer.getFloat());
+
+    int dataLength = length - baseLength;
+    if (dataLength == 0) {
+      target.setSensedData(null);
+    } else {
+      buffer.get(target.prepareSensedData(dataLength));
+    }
+    return true;
+  }
+
+  /**
+   * Ensures that {@code buffer} uses network byte order.
+   * 
+   * @param buffer
+   *          the buffer to check.
+   */
+  private static void checkOrder(final ByteBuffer buffer) {
+    if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+      throw new IllegalArgumentException(
+          "Sample frames must be encoded in a big-endian buffer.");
+    }
+  }
+}
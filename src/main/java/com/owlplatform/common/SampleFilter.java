@@ -0,0 +1,560 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.owlplatform.common.util.NumericUtils;
+
+/**
+ * A predicate over samples, compiled from a set of rules created with a
+ * {@link SampleFilter.Builder}. A sample matches the filter if it satisfies
+ * every rule that was specified:
+ * <ul>
+ * <li>its physical layer is one of the accepted physical layers;</li>
+ * <li>its device identifier is one of the accepted identifiers, or begins with
+ * one of the accepted prefixes;</li>
+ * <li>its receiver identifier is one of the accepted identifiers;</li>
+ * <li>its RSSI is within the accepted range; and</li>
+ * <li>it does or does not contain sensed data.</li>
+ * </ul>
+ * Rules that were not specified accept every sample. Adding
+ * {@link SampleMessage#PHYSICAL_LAYER_ALL} as a physical layer accepts every
+ * physical layer.
+ * 
+ * <p>
+ * When the filter is built, each rule is compiled into a flat representation:
+ * physical layers into a 256-bit set, identifier sets into hash tables keyed by
+ * the two halves of each identifier, and prefixes into mask and value pairs.
+ * The rules are then ordered so that inexpensive rules that are likely to
+ * reject a sample are checked first, and evaluation stops at the first rule
+ * that fails. Samples are evaluated without allocating, and a filter may be
+ * used by any number of threads once it has been built.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleFilter {
+
+  /**
+   * Opcode for the physical layer rule.
+   */
+  private static final byte OP_PHYSICAL_LAYER = 0;
+
+  /**
+   * Opcode for the RSSI rule.
+   */
+  private static final byte OP_RSSI = 1;
+
+  /**
+   * Opcode for the sensed data rule.
+   */
+  private static final byte OP_SENSED_DATA = 2;
+
+  /**
+   * Opcode for the device identifier rule.
+   */
+  private static final byte OP_DEVICE_ID = 3;
+
+  /**
+   * Opcode for the receiver identifier rule.
+   */
+  private static final byte OP_RECEIVER_ID = 4;
+
+  /**
+   * Builds {@code SampleFilter} objects from a set of rules.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static class Builder {
+    /**
+     * Accepted physical layers, as a 256-bit set, or {@code null} to accept
+     * all physical layers.
+     */
+    private long[] physicalLayers = null;
+
+    /**
+     * Accepted device identifiers.
+     */
+    private final List<DeviceId> deviceIds = new ArrayList<DeviceId>();
+
+    /**
+     * Accepted device identifier prefixes.
+     */
+    private final List<byte[]> devicePrefixes = new ArrayList<byte[]>();
+
+    /**
+     * Accepted receiver identifiers.
+     */
+    private final List<DeviceId> receiverIds = new ArrayList<DeviceId>();
+
+    /**
+     * Minimum accepted RSSI.
+     */
+    private float minRssi = Float.NEGATIVE_INFINITY;
+
+    /**
+     * Maximum accepted RSSI.
+     */
+    private float maxRssi = Float.POSITIVE_INFINITY;
+
+    /**
+     * Whether an RSSI range was specified.
+     */
+    private boolean hasRssiRange = false;
+
+    /**
+     * Whether a sensed data rule was specified.
+     */
+    private boolean hasSensedDataRule = false;
+
+    /**
+     * Whether sensed data is required or forbidden.
+     */
+    private boolean sensedDataRequired = false;
+
+    /**
+     * Accepts samples with any of the specified physical layers.
+     * 
+     * @param layers
+     *          the physical layers to accept.
+     * @return this builder.
+     */
+    public Builder physicalLayer(final byte... layers) {
+      if (this.physicalLayers == null) {
+        this.physicalLayers = new long[4];
+      }
+      for (byte layer : layers) {
+        if (layer == SampleMessage.PHYSICAL_LAYER_ALL) {
+          for (int i = 0; i < this.physicalLayers.length; ++i) {
+            this.physicalLayers[i] = -1L;
+          }
+        } else {
+          int bit = layer & 0xFF;
+          this.physicalLayers[bit >>> 6] |= 1L << bit;
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Accepts samples from the specified device.
+     * 
+     * @param deviceId
+     *          the device identifier to accept.
+     * @return this builder.
+     */
+    public Builder deviceId(final DeviceId deviceId) {
+      this.deviceIds.add(deviceId);
+      return this;
+    }
+
+    /**
+     * Accepts samples from the specified device.
+     * 
+     * @param deviceId
+     *          the 16-byte device identifier to accept.
+     * @return this builder.
+     */
+    public Builder deviceId(final byte[] deviceId) {
+      return this.deviceId(DeviceId.valueOf(deviceId));
+    }
+
+    /**
+     * Accepts samples from devices whose identifiers begin with the specified
+     * bytes.
+     * 
+     * @param prefix
+     *          the first bytes of the device identifiers to accept, at most 16
+     *          bytes.
+     * @return this builder.
+     */
+    public Builder devicePrefix(final byte[] prefix) {
+      if (prefix == null || prefix.length > SampleMessage.DEVICE_ID_SIZE) {
+        throw new IllegalArgumentException(String.format(
+            "Prefix must be at most %d bytes long.",
+            Integer.valueOf(SampleMessage.DEVICE_ID_SIZE)));
+      }
+      this.devicePrefixes.add(prefix.clone());
+      return this;
+    }
+
+    /**
+     * Accepts samples from the specified receiver.
+     * 
+     * @param receiverId
+     *          the receiver identifier to accept.
+     * @return this builder.
+     */
+    public Builder receiverId(final DeviceId receiverId) {
+      this.receiverIds.add(receiverId);
+      return this;
+    }
+
+    /**
+     * Accepts samples from the specified receiver.
+     * 
+     * @param receiverId
+     *          the 16-byte receiver identifier to accept.
+     * @return this builder.
+     */
+    public Builder receiverId(final byte[] receiverId) {
+      return this.receiverId(DeviceId.valueOf(receiverId));
+    }
+
+    /**
+     * Accepts samples whose RSSI is between {@code min} and {@code max},
+     * inclusive.
+     * 
+     * @param min
+     *          the minimum RSSI.
+     * @param max
+     *          the maximum RSSI.
+     * @return this builder.
+     */
+    public Builder rssiRange(final float min, final float max) {
+      if (min > max) {
+        throw new IllegalArgumentException("Minimum RSSI " + min
+            + " is greater than maximum " + max + ".");
+      }
+      this.minRssi = min;
+      this.maxRssi = max;
+      this.hasRssiRange = true;
+      return this;
+    }
+
+    /**
+     * Accepts only samples that do or do not contain sensed data.
+     * 
+     * @param required
+     *          {@code true} to accept only samples with sensed data, or
+     *          {@code false} to accept only samples without it.
+     * @return this builder.
+     */
+    public Builder sensedData(final boolean required) {
+      this.hasSensedDataRule = true;
+      this.sensedDataRequired = required;
+      return this;
+    }
+
+    /**
+     * Compiles the rules into a filter. The builder may continue to be used
+     * afterwards without affecting the filter.
+     * 
+     * @return the new filter.
+     */
+    public SampleFilter build() {
+      return new SampleFilter(this);
+    }
+  }
+
+  /**
+   * The opcodes of the rules to check, in order.
+   */
+  private final byte[] plan;
+
+  /**
+   * Accepted physical layers, as a 256-bit set.
+   */
+  private final long[] physicalLayers;
+
+  /**
+   * Accepted device identifiers, or {@code null}.
+   */
+  private final DeviceIdTable deviceIds;
+
+  /**
+   * Masks of accepted device identifier prefixes, two longs per prefix.
+   */
+  private final long[] prefixMasks;
+
+  /**
+   * Values of accepted device identifier prefixes, two longs per prefix.
+   */
+  private final long[] prefixValues;
+
+  /**
+   * Accepted receiver identifiers, or {@code null}.
+   */
+  private final DeviceIdTable receiverIds;
+
+  /**
+   * Minimum accepted RSSI.
+   */
+  private final float minRssi;
+
+  /**
+   * Maximum accepted RSSI.
+   */
+  private final float maxRssi;
+
+  /**
+   * Whether sensed data is required or forbidden.
+   */
+  private final boolean sensedDataRequired;
+
+  /**
+   * Compiles the rules of a builder.
+   * 
+   * @param builder
+   *          the rules to compile.
+   */
+  SampleFilter(final Builder builder) {
+    // Each rule is paired with an estimated cost divided by the estimated
+    // probability of rejecting a sample, and rules are checked in increasing
+    // order of that rank.
+    List<Byte> ops = new ArrayList<Byte>();
+    List<Float> ranks = new ArrayList<Float>();
+
+    this.physicalLayers = new long[4];
+    if (builder.physicalLayers == null) {
+      for (int i = 0; i < this.physicalLayers.length; ++i) {
+        this.physicalLayers[i] = -1L;
+      }
+    } else {
+      int accepted = 0;
+      for (int i = 0; i < this.physicalLayers.length; ++i) {
+        this.physicalLayers[i] = builder.physicalLayers[i];
+        accepted += Long.bitCount(builder.physicalLayers[i]);
+      }
+      // Few physical layers are in use, so each one is assumed to carry a
+      // quarter of the traffic.
+      float pass = Math.min(1f, accepted / 4f);
+      addRule(ops, ranks, OP_PHYSICAL_LAYER, 1f, pass);
+    }
+
+    this.minRssi = builder.minRssi;
+    this.maxRssi = builder.maxRssi;
+    if (builder.hasRssiRange) {
+      // Assumes RSSI values spread evenly over [-128, 0]
+      float low = Math.max(-128f, builder.minRssi);
+      float high = Math.min(0f, builder.maxRssi);
+      float pass = high < low ? 0f : Math.min(1f, (high - low + 1) / 129f);
+      addRule(ops, ranks, OP_RSSI, 1f, pass);
+    }
+
+    this.sensedDataRequired = builder.sensedDataRequired;
+    if (builder.hasSensedDataRule) {
+      addRule(ops, ranks, OP_SENSED_DATA, 1f, 0.5f);
+    }
+
+    int numPrefixes = builder.devicePrefixes.size();
+    this.prefixMasks = new long[numPrefixes * 2];
+    this.prefixValues = new long[numPrefixes * 2];
+    byte[] mask = new byte[SampleMessage.DEVICE_ID_SIZE];
+    byte[] value = new byte[SampleMessage.DEVICE_ID_SIZE];
+    for (int i = 0; i < numPrefixes; ++i) {
+      byte[] prefix = builder.devicePrefixes.get(i);
+      for (int j = 0; j < SampleMessage.DEVICE_ID_SIZE; ++j) {
+        mask[j] = j < prefix.length ? (byte) 0xFF : 0;
+        value[j] = j < prefix.length ? prefix[j] : 0;
+      }
+      this.prefixMasks[i * 2] = NumericUtils.readLong(mask, 0);
+      this.prefixMasks[i * 2 + 1] = NumericUtils.readLong(mask, 8);
+      this.prefixValues[i * 2] = NumericUtils.readLong(value, 0);
+      this.prefixValues[i * 2 + 1] = NumericUtils.readLong(value, 8);
+    }
+    if (builder.deviceIds.isEmpty() && numPrefixes == 0) {
+      this.deviceIds = null;
+    } else {
+      this.deviceIds = toTable(builder.deviceIds);
+      addRule(ops, ranks, OP_DEVICE_ID, 2f + numPrefixes, 0.1f);
+    }
+
+    if (builder.receiverIds.isEmpty()) {
+      this.receiverIds = null;
+    } else {
+      this.receiverIds = toTable(builder.receiverIds);
+      addRule(ops, ranks, OP_RECEIVER_ID, 2f, 0.5f);
+    }
+
+    this.plan = new byte[ops.size()];
+    for (int i = 0; i < this.plan.length; ++i) {
+      int best = 0;
+      for (int j = 1; j < ranks.size(); ++j) {
+        if (ranks.get(j).floatValue() < ranks.get(best).floatValue()) {
+          best = j;
+        }
+      }
+      this.plan[i] = ops.remove(best).byteValue();
+      ranks.remove(best);
+    }
+  }
+
+  /**
+   * Adds a rule and its rank to the lists of rules to order.
+   * 
+   * @param ops
+   *          the list of opcodes.
+   * @param ranks
+   *          the list of ranks.
+   * @param op
+   *          the opcode of the rule.
+   * @param cost
+   *          the relative cost of checking the rule.
+   * @param pass
+   *          the estimated probability that a sample satisfies the rule.
+   */
+  private static void addRule(final List<Byte> ops, final List<Float> ranks,
+      final byte op, final float cost, final float pass) {
+    ops.add(Byte.valueOf(op));
+    ranks.add(Float.valueOf(cost / Math.max(1f - pass, 0.001f)));
+  }
+
+  /**
+   * Creates a hash table containing the specified identifiers.
+   * 
+   * @param ids
+   *          the identifiers.
+   * @return a table containing {@code ids}.
+   */
+  private static DeviceIdTable toTable(final List<DeviceId> ids) {
+    DeviceIdTable table = new DeviceIdTable(ids.size());
+    for (DeviceId id : ids) {
+      table.intern(id);
+    }
+    return table;
+  }
+
+  /**
+   * Determines whether a sample matches this filter.
+   * 
+   * @param message
+   *          the sample to check.
+   * @return {@code true} if the sample matches.
+   */
+  public boolean matches(final SampleMessage message) {
+    byte[] data = message.getSensedData();
+    return this.matches(message.getPhysicalLayer(), message.getDeviceIdHigh(),
+        message.getDeviceIdLow(), message.getReceiverIdHigh(),
+        message.getReceiverIdLow(), message.getRssi(), data == null ? 0
+            : data.length);
+  }
+
+  /**
+   * Determines whether a sample matches this filter.
+   * 
+   * @param view
+   *          a view of the sample to check.
+   * @return {@code true} if the sample matches.
+   */
+  public boolean matches(final SampleMessageView view) {
+    return this.matches(view.getPhysicalLayer(), view.getDeviceIdHigh(),
+        view.getDeviceIdLow(), view.getReceiverIdHigh(),
+        view.getReceiverIdLow(), view.getRssi(), view.getSensedDataLength());
+  }
+
+  /**
+   * Determines whether a sample with the specified values matches this
+   * filter.
+   * 
+   * @param physicalLayer
+   *          the physical layer of the sample.
+   * @param deviceHigh
+   *          the first 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the last 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the first 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the last 8 bytes of the receiver identifier.
+   * @param rssi
+   *          the RSSI of the sample.
+   * @param sensedDataLength
+   *          the length of the sensed data.
+   * @return {@code true} if the sample matches.
+   */
+  public boolean matches(final byte physicalLayer, final long deviceHigh,
+      final long deviceLow, final long receiverHigh, final long receiverLow,
+      final float rssi, final int sensedDataLength) {
+    for (int i = 0; i < this.plan.length; ++i) {
+      switch (this.plan[i]) {
+      case OP_PHYSICAL_LAYER:
+        if (!this.acceptsPhysicalLayer(physicalLayer)) {
+          return false;
+        }
+        break;
+      case OP_RSSI:
+        if (!(rssi >= this.minRssi && rssi <= this.maxRssi)) {
+          return false;
+        }
+        break;
+      case OP_SENSED_DATA:
+        if ((sensedDataLength > 0) != this.sensedDataRequired) {
+          return false;
+        }
+        break;
+      case OP_DEVICE_ID:
+        if (!this.acceptsDevice(deviceHigh, deviceLow)) {
+          return false;
+        }
+        break;
+      case OP_RECEIVER_ID:
+        if (this.receiverIds.lookup(receiverHigh, receiverLow) < 0) {
+          return false;
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unknown filter opcode "
+            + this.plan[i] + ".");
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Determines whether this filter accepts the specified physical layer.
+   * Samples with this physical layer may still be rejected by other rules.
+   * 
+   * @param physicalLayer
+   *          the physical layer.
+   * @return {@code true} if the physical layer is accepted.
+   */
+  public boolean acceptsPhysicalLayer(final byte physicalLayer) {
+    int bit = physicalLayer & 0xFF;
+    return (this.physicalLayers[bit >>> 6] & (1L << bit)) != 0;
+  }
+
+  /**
+   * Determines whether a device identifier is in the set of accepted
+   * identifiers or begins with an accepted prefix.
+   * 
+   * @param high
+   *          the first 8 bytes of the device identifier.
+   * @param low
+   *          the last 8 bytes of the device identifier.
+   * @return {@code true} if the device identifier is accepted.
+   */
+  private boolean acceptsDevice(final long high, final long low) {
+    if (this.deviceIds.lookup(high, low) >= 0) {
+      return true;
+    }
+    for (int i = 0; i < this.prefixMasks.length; i += 2) {
+      if ((high & this.prefixMasks[i]) == this.prefixValues[i]
+          && (low & this.prefixMasks[i + 1]) == this.prefixValues[i + 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A collection of {@code SampleFilter} objects, such as one per subscriber,
+ * that determines which filters match each sample. Filters are indexed by the
+ * physical layers they accept, so a sample is only checked against filters
+ * that accept its physical layer, and the values of the sample are read once
+ * for all filters.
+ * 
+ * <p>
+ * Filters are identified by the index returned from
+ * {@link #add(SampleFilter)}. Adding filters is not thread-safe, but once all
+ * filters have been added the set may be used by any number of threads.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleFilterSet {
+
+  /**
+   * The filters in this set, by index.
+   */
+  private final List<SampleFilter> filters = new ArrayList<SampleFilter>();
+
+  /**
+   * For each physical layer, the filters that accept it.
+   */
+  private final SampleFilter[][] byLayer = new SampleFilter[256][];
+
+  /**
+   * For each physical layer, the indexes of the filters that accept it.
+   */
+  private final int[][] indexesByLayer = new int[256][];
+
+  /**
+   * For each physical layer, the number of filters that accept it.
+   */
+  private final int[] countByLayer = new int[256];
+
+  /**
+   * Creates a new, empty set.
+   */
+  public SampleFilterSet() {
+    for (int i = 0; i < this.byLayer.length; ++i) {
+      this.byLayer[i] = new SampleFilter[4];
+      this.indexesByLayer[i] = new int[4];
+    }
+  }
+
+  /**
+   * Adds a filter to this set.
+   * 
+   * @param filter
+   *          the filter to add.
+   * @return the index of the filter.
+   */
+  public int add(final SampleFilter filter) {
+    int index = this.filters.size();
+    this.filters.add(filter);
+    for (int layer = 0; layer < this.byLayer.length; ++layer) {
+      if (!filter.acceptsPhysicalLayer((byte) layer)) {
+        continue;
+      }
+      int count = this.countByLayer[layer];
+      if (count == this.byLayer[layer].length) {
+        SampleFilter[] layerFilters = new SampleFilter[count * 2];
+        int[] layerIndexes = new int[count * 2];
+        System.arraycopy(this.byLayer[layer], 0, layerFilters, 0, count);
+        System.arraycopy(this.indexesByLayer[layer], 0, layerIndexes, 0, count);
+        this.byLayer[layer] = layerFilters;
+        this.indexesByLayer[layer] = layerIndexes;
+      }
+      this.byLayer[layer][count] = filter;
+      this.indexesByLayer[layer][count] = index;
+      this.countByLayer[layer] = count + 1;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the filter with the specified index.
+   * 
+   * @param index
+   *          the index returned when the filter was added.
+   * @return the filter.
+   */
+  public SampleFilter get(final int index) {
+    return this.filters.get(index);
+  }
+
+  /**
+   * Returns the number of filters in this set.
+   * 
+   * @return the number of filters.
+   */
+  public int size() {
+    return this.filters.size();
+  }
+
+  /**
+   * Finds the filters that match a sample.
+   * 
+   * @param message
+   *          the sample to check.
+   * @param matches
+   *          array to receive the indexes of the matching filters, in the
+   *          order they were added. Should be at least as long as
+   *          {@link #size()}.
+   * @return the number of matching filters. If this is greater than the
+   *         length of {@code matches}, only the first indexes were stored.
+   */
+  public int match(final SampleMessage message, final int[] matches) {
+    byte[] data = message.getSensedData();
+    return this.match(message.getPhysicalLayer(), message.getDeviceIdHigh(),
+        message.getDeviceIdLow(), message.getReceiverIdHigh(),
+        message.getReceiverIdLow(), message.getRssi(), data == null ? 0
+            : data.length, matches);
+  }
+
+  /**
+   * Finds the filters that match a sample.
+   * 
+   * @param view
+   *          a view of the sample to check.
+   * @param matches
+   *          array to receive the indexes of the matching filters, in the
+   *          order they were added. Should be at least as long as
+   *          {@link #size()}.
+   * @return the number of matching filters. If this is greater than the
+   *         length of {@code matches}, only the first indexes were stored.
+   */
+  public int match(final SampleMessageView view, final int[] matches) {
+    return this.match(view.getPhysicalLayer(), view.getDeviceIdHigh(),
+        view.getDeviceIdLow(), view.getReceiverIdHigh(),
+        view.getReceiverIdLow(), view.getRssi(), view.getSensedDataLength(),
+        matches);
+  }
+
+  /**
+   * Finds the filters that match a sample with the specified values.
+   * 
+   * @param physicalLayer
+   *          the physical layer of the sample.
+   * @param deviceHigh
+   *          the first 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the last 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the first 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the last 8 bytes of the receiver identifier.
+   * @param rssi
+   *          the RSSI of the sample.
+   * @param sensedDataLength
+   *          the length of the sensed data.
+   * @param matches
+   *          array to receive the indexes of the matching filters.
+   * @return the number of matching filters.
+   */
+  private int match(final byte physicalLayer, final long deviceHigh,
+      final long deviceLow, final long receiverHigh, final long receiverLow,
+      final float rssi, final int sensedDataLength, final int[] matches) {
+    int layer = physicalLayer & 0xFF;
+    SampleFilter[] layerFilters = this.byLayer[layer];
+    int[] layerIndexes = this.indexesByLayer[layer];
+    int numFilters = this.countByLayer[layer];
+    int count = 0;
+    for (int i = 0; i < numFilters; ++i) {
+      if (layerFilters[i].matches(physicalLayer, deviceHigh, deviceLow,
+          receiverHigh, receiverLow, rssi, sensedDataLength)) {
+        if (count < matches.length) {
+          matches[count] = layerIndexes[i];
+        }
+        ++count;
+      }
+    }
+    return count;
+  }
+}
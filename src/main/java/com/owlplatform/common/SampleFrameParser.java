@@ -0,0 +1,391 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An incremental parser for a stream of length-prefixed sample frames, such as
+ * the data read from a non-blocking {@code SocketChannel}. Input may be
+ * provided in chunks of any size, and frames may be split across any number
+ * of chunks. Each complete sample is passed to a {@link SampleViewListener}
+ * as a {@link SampleMessageView}.
+ * 
+ * <p>
+ * Frames that are completely contained in an input buffer are passed to the
+ * listener directly from that buffer without being copied. Only frames that
+ * are split across chunks are copied into a buffer owned by the parser, which
+ * starts out large enough for a frame header and only grows to the length of
+ * the largest split frame. When parsing the Aggregator-Solver format, messages
+ * other than samples are skipped without being buffered.
+ * </p>
+ * 
+ * <p>
+ * A parser keeps the state of a single stream and is not thread-safe. If a
+ * malformed frame is encountered, an {@code IllegalArgumentException} is
+ * thrown and the parser must be {@link #reset() reset} before it is used
+ * again.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleFrameParser {
+
+  /**
+   * The default maximum length of a sample frame, as reported in the length
+   * prefix.
+   */
+  public static final int DEFAULT_MAX_FRAME_LENGTH = 65536;
+
+  /**
+   * Parser state while reading the length prefix (and message type, for the
+   * Aggregator-Solver format) of a frame.
+   */
+  private static final int STATE_HEADER = 0;
+
+  /**
+   * Parser state while reading the remainder of a sample frame.
+   */
+  private static final int STATE_BODY = 1;
+
+  /**
+   * Parser state while discarding a message that is not a sample.
+   */
+  private static final int STATE_SKIP = 2;
+
+  /**
+   * Whether the stream uses the Aggregator-Solver format.
+   */
+  private final boolean solverFormat;
+
+  /**
+   * The number of bytes at the start of each frame needed to decide how to
+   * handle it.
+   */
+  private final int headerLength;
+
+  /**
+   * The maximum permitted length of a sample frame.
+   */
+  private final int maxFrameLength;
+
+  /**
+   * The listener to notify of each sample.
+   */
+  private final SampleViewListener listener;
+
+  /**
+   * Holds a frame that was split across input buffers. It is replaced by a
+   * larger buffer when a split frame does not fit.
+   */
+  private ByteBuffer partial;
+
+  /**
+   * The view passed to the listener.
+   */
+  private final SampleMessageView view = new SampleMessageView();
+
+  /**
+   * The current parser state.
+   */
+  private int state = STATE_HEADER;
+
+  /**
+   * The number of bytes still needed to complete the current body, or to
+   * finish skipping the current message.
+   */
+  private int remaining = 0;
+
+  /**
+   * Creates a new parser using the {@link #DEFAULT_MAX_FRAME_LENGTH default}
+   * maximum frame length.
+   * 
+   * @param solverFormat
+   *          {@code true} to parse the Aggregator-Solver format,
+   *          {@code false} to parse the Sensor-Aggregator format.
+   * @param listener
+   *          the listener to notify of each sample.
+   */
+  public SampleFrameParser(final boolean solverFormat,
+      final SampleViewListener listener) {
+    this(solverFormat, DEFAULT_MAX_FRAME_LENGTH, listener);
+  }
+
+  /**
+   * Creates a new parser.
+   * 
+   * @param solverFormat
+   *          {@code true} to parse the Aggregator-Solver format,
+   *          {@code false} to parse the Sensor-Aggregator format.
+   * @param maxFrameLength
+   *          the largest length prefix permitted for a sample.
+   * @param listener
+   *          the listener to notify of each sample.
+   */
+  public SampleFrameParser(final boolean solverFormat,
+      final int maxFrameLength, final SampleViewListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Listener cannot be null.");
+    }
+    int minLength = solverFormat ? SampleMessageView.SOLVER_BASE_LENGTH
+        : SampleMessageView.SENSOR_BASE_LENGTH;
+    if (maxFrameLength < minLength) {
+      throw new IllegalArgumentException(
+          "Maximum frame length must be at least " + minLength + ".");
+    }
+    this.solverFormat = solverFormat;
+    this.headerLength = SampleMessageView.LENGTH_PREFIX_SIZE
+        + (solverFormat ? 1 : 0);
+    this.maxFrameLength = maxFrameLength;
+    this.listener = listener;
+    this.partial = ByteBuffer.allocate(this.headerLength);
+  }
+
+  /**
+   * Parses all remaining bytes in {@code input}, notifying the listener of
+   * each complete sample. On return the position of {@code input} is equal
+   * to its limit; any incomplete frame at the end of the input is retained
+   * and completed by later calls.
+   * 
+   * @param input
+   *          the next chunk of the stream.
+   * @return the number of samples passed to the listener.
+   * @throws IllegalArgumentException
+   *           if a malformed frame is encountered.
+   */
+  public int parse(final ByteBuffer input) {
+    if (input.order() != ByteOrder.BIG_ENDIAN) {
+      throw new IllegalArgumentException(
+          "Sample frames must be read from a big-endian buffer.");
+    }
+    int samples = 0;
+    while (input.hasRemaining()) {
+      switch (this.state) {
+      case STATE_BODY:
+        if (this.fill(input)) {
+          this.partial.flip();
+          this.emit(this.partial, 0);
+          ++samples;
+          this.partial.clear();
+          this.state = STATE_HEADER;
+        }
+        break;
+      case STATE_SKIP: {
+        int skipped = Math.min(this.remaining, input.remaining());
+        input.position(input.position() + skipped);
+        this.remaining -= skipped;
+        if (this.remaining == 0) {
+          this.state = STATE_HEADER;
+        }
+        break;
+      }
+      default:
+        if (this.partial.position() == 0 && this.frameAvailable(input)) {
+          if (this.parseInPlace(input)) {
+            ++samples;
+          }
+        } else {
+          this.readHeader(input);
+        }
+        break;
+      }
+    }
+    return samples;
+  }
+
+  /**
+   * Handles a frame that is completely contained in {@code input}, without
+   * copying it.
+   * 
+   * @param input
+   *          the input buffer, positioned at the start of a complete frame.
+   * @return {@code true} if a sample was passed to the listener.
+   */
+  private boolean parseInPlace(final ByteBuffer input) {
+    int start = input.position();
+    int length = input.getInt(start);
+    this.checkMessageLength(length);
+    if (this.solverFormat
+        && input.get(start + SampleMessageView.LENGTH_PREFIX_SIZE) != SampleMessage.MESSAGE_TYPE) {
+      input.position(start + SampleMessageView.LENGTH_PREFIX_SIZE + length);
+      return false;
+    }
+    this.checkLength(length);
+    this.emit(input, start);
+    input.position(start + SampleMessageView.LENGTH_PREFIX_SIZE + length);
+    return true;
+  }
+
+  /**
+   * Determines whether a complete frame starts at the position of
+   * {@code input}.
+   * 
+   * @param input
+   *          the input buffer.
+   * @return {@code true} if the whole frame is available.
+   */
+  private boolean frameAvailable(final ByteBuffer input) {
+    if (input.remaining() < this.headerLength) {
+      return false;
+    }
+    int length = input.getInt(input.position());
+    if (length < 0) {
+      throw new IllegalArgumentException("Negative frame length " + length
+          + ".");
+    }
+    return input.remaining() - SampleMessageView.LENGTH_PREFIX_SIZE >= length;
+  }
+
+  /**
+   * Copies header bytes into the partial buffer and, once the header is
+   * complete, decides whether to buffer or skip the rest of the frame.
+   * 
+   * @param input
+   *          the input buffer.
+   */
+  private void readHeader(final ByteBuffer input) {
+    this.remaining = this.headerLength - this.partial.position();
+    if (!this.fill(input)) {
+      return;
+    }
+    int length = this.partial.getInt(0);
+    this.checkMessageLength(length);
+    if (this.solverFormat
+        && this.partial.get(SampleMessageView.LENGTH_PREFIX_SIZE) != SampleMessage.MESSAGE_TYPE) {
+      this.partial.clear();
+      this.remaining = length - 1;
+      this.state = this.remaining == 0 ? STATE_HEADER : STATE_SKIP;
+      return;
+    }
+    this.checkLength(length);
+    this.ensureCapacity(SampleMessageView.LENGTH_PREFIX_SIZE + length);
+    this.remaining = SampleMessageView.LENGTH_PREFIX_SIZE + length
+        - this.partial.position();
+    this.state = STATE_BODY;
+  }
+
+  /**
+   * Replaces the partial buffer with a larger one, keeping its contents, if
+   * it cannot hold {@code capacity} bytes.
+   * 
+   * @param capacity
+   *          the number of bytes needed.
+   */
+  private void ensureCapacity(final int capacity) {
+    if (this.partial.capacity() >= capacity) {
+      return;
+    }
+    ByteBuffer grown = ByteBuffer.allocate(capacity);
+    this.partial.flip();
+    grown.put(this.partial);
+    this.partial = grown;
+  }
+
+  /**
+   * Copies up to {@link #remaining} bytes from {@code input} into the partial
+   * buffer.
+   * 
+   * @param input
+   *          the input buffer.
+   * @return {@code true} if all of the needed bytes have been copied.
+   */
+  private boolean fill(final ByteBuffer input) {
+    int count = Math.min(this.remaining, input.remaining());
+    int limit = input.limit();
+    input.limit(input.position() + count);
+    this.partial.put(input);
+    input.limit(limit);
+    this.remaining -= count;
+    return this.remaining == 0;
+  }
+
+  /**
+   * Verifies that the length of any message is valid. Messages in the
+   * Aggregator-Solver format must contain at least a message type.
+   * 
+   * @param length
+   *          the value of the length prefix.
+   */
+  private void checkMessageLength(final int length) {
+    if (this.solverFormat && length < 1) {
+      throw new IllegalArgumentException("Invalid frame length " + length
+          + ".");
+    }
+  }
+
+  /**
+   * Verifies that the length of a sample frame is within bounds.
+   * 
+   * @param length
+   *          the value of the length prefix.
+   */
+  private void checkLength(final int length) {
+    int minLength = this.solverFormat ? SampleMessageView.SOLVER_BASE_LENGTH
+        : SampleMessageView.SENSOR_BASE_LENGTH;
+    if (length < minLength) {
+      throw new IllegalArgumentException(String.format(
+          "Length prefix %d is shorter than the minimum sample length %d.",
+          Integer.valueOf(length), Integer.valueOf(minLength)));
+    }
+    if (length > this.maxFrameLength) {
+      throw new IllegalArgumentException(String.format(
+          "Frame length %d exceeds the maximum of %d.",
+          Integer.valueOf(length), Integer.valueOf(this.maxFrameLength)));
+    }
+  }
+
+  /**
+   * Points the view at a complete frame and notifies the listener.
+   * 
+   * @param buffer
+   *          the buffer containing the frame.
+   * @param offset
+   *          the index of the frame's length prefix.
+   */
+  private void emit(final ByteBuffer buffer, final int offset) {
+    if (this.solverFormat) {
+      this.view.wrapSolver(buffer, offset);
+    } else {
+      this.view.wrapSensor(buffer, offset);
+    }
+    this.listener.sampleReceived(this.view);
+  }
+
+  /**
+   * Indicates whether part of a frame has been read but not yet completed.
+   * 
+   * @return {@code true} if the parser is in the middle of a frame.
+   */
+  public boolean hasPartialFrame() {
+    return this.state != STATE_HEADER || this.partial.position() != 0;
+  }
+
+  /**
+   * Discards any partially-read frame, returning the parser to the start of a
+   * frame.
+   */
+  public void reset() {
+    this.partial.clear();
+    this.state = STATE_HEADER;
+    this.remaining = 0;
+  }
+}
@@ -112,6 +112,19 @@ public class SampleMessage implements Cloneable {
    */
   private byte[] receiverId;
 
+  /**
+   * Whether {@link #deviceId} was allocated by this sample, and so may be
+   * overwritten when the sample is reused. Arrays passed to
+   * {@link #setDeviceId(byte[])} belong to the caller and are never modified.
+   */
+  private boolean ownsDeviceId = false;
+
+  /**
+   * Whether {@link #receiverId} was allocated by this sample, and so may be
+   * overwritten when the sample is reused.
+   */
+  private boolean ownsReceiverId = false;
+
   /**
    * The UNIX timestamp indicating when this sample was observed by the
    * receiver.
@@ -124,16 +137,31 @@ public class SampleMessage implements Cloneable {
   private float rssi;
 
   /**
-   * The time when this message object was created.
+   * The time when this message object was created, or when it was last
+   * {@link #reset(long) reset}.
    */
-  private final long creationTimestamp;
+  private long creationTimestamp;
 
   /**
    * The raw sensed data provided by the transmitter or receiver for this
-   * sample.
+   * sample. The array is kept when the sample is {@link #reset(long) reset} so
+   * that it can be reused, so it only holds valid data if
+   * {@link #sensedDataLength} is not negative.
    */
   private byte[] sensedData = null;
 
+  /**
+   * Whether {@link #sensedData} was allocated by this sample, and so may be
+   * overwritten when the sample is reused.
+   */
+  private boolean ownsSensedData = false;
+
+  /**
+   * The number of valid bytes in {@link #sensedData}, or -1 if no sensed data
+   * is set.
+   */
+  private int sensedDataLength = -1;
+
   /**
    * Creates a Sample message with the current time as the timestamp. No other
    * fields are set.
@@ -162,8 +190,8 @@ public class SampleMessage implements Cloneable {
   public int getLengthPrefixSensor() {
     // physicalLayer, devId, recvId, timestamp, rssi
     int length = 1 + DEVICE_ID_SIZE * 2 + 8 + 4;
-    if (this.sensedData != null) {
-      length += this.sensedData.length;
+    if (this.sensedDataLength > 0) {
+      length += this.sensedDataLength;
     }
     return length;
   }
@@ -177,8 +205,8 @@ public class SampleMessage implements Cloneable {
   public int getLengthPrefixSolver() {
     // physicalLayer, messageId, devId, recvId, timestamp, rssi
     int length = 2 + DEVICE_ID_SIZE * 2 + 8 + 4;
-    if (this.sensedData != null) {
-      length += this.sensedData.length;
+    if (this.sensedDataLength > 0) {
+      length += this.sensedDataLength;
     }
     return length;
   }
@@ -210,6 +238,7 @@ public class SampleMessage implements Cloneable {
           "Device ID must be %d bytes long.", Integer.valueOf(DEVICE_ID_SIZE)));
     }
     this.deviceId = deviceId;
+    this.ownsDeviceId = false;
   }
 
   /**
@@ -237,6 +266,90 @@ public class SampleMessage implements Cloneable {
               Integer.valueOf(DEVICE_ID_SIZE)));
     }
     this.receiverId = receiverId;
+    this.ownsReceiverId = false;
+  }
+
+  /**
+   * Sets the device identifier for the transmitter referenced in this sample.
+   * The value is copied into a new array, so any array previously passed to
+   * {@link #setDeviceId(byte[])} is not modified.
+   * 
+   * @param deviceId
+   *          the device identifier for the transmitter referenced in this
+   *          sample.
+   */
+  public void setDeviceIdValue(final DeviceId deviceId) {
+    if (deviceId == null) {
+      throw new RuntimeException("Device ID cannot be null.");
+    }
+    this.deviceId = deviceId.toBytes();
+    this.ownsDeviceId = true;
+  }
+
+  /**
+   * Sets the device identifier for the receiver referenced in this sample. The
+   * value is copied into a new array, so any array previously passed to
+   * {@link #setReceiverId(byte[])} is not modified.
+   * 
+   * @param receiverId
+   *          the device identifier for the receiver referenced in this sample.
+   */
+  public void setReceiverIdValue(final DeviceId receiverId) {
+    if (receiverId == null) {
+      throw new RuntimeException("Receiver ID cannot be null.");
+    }
+    this.receiverId = receiverId.toBytes();
+    this.ownsReceiverId = true;
+  }
+
+  /**
+   * Returns the first 8 bytes of the transmitter's device identifier as a
+   * big-endian value, without creating any objects.
+   * 
+   * @return the high-order half of the device identifier, or 0 if it has not
+   *         been set.
+   * @see DeviceId#getHigh()
+   */
+  public long getDeviceIdHigh() {
+    return this.deviceId == null ? 0 : NumericUtils.readLong(this.deviceId, 0);
+  }
+
+  /**
+   * Returns the last 8 bytes of the transmitter's device identifier as a
+   * big-endian value, without creating any objects.
+   * 
+   * @return the low-order half of the device identifier, or 0 if it has not
+   *         been set.
+   * @see DeviceId#getLow()
+   */
+  public long getDeviceIdLow() {
+    return this.deviceId == null ? 0 : NumericUtils.readLong(this.deviceId, 8);
+  }
+
+  /**
+   * Returns the first 8 bytes of the receiver's device identifier as a
+   * big-endian value, without creating any objects.
+   * 
+   * @return the high-order half of the receiver identifier, or 0 if it has not
+   *         been set.
+   * @see DeviceId#getHigh()
+   */
+  public long getReceiverIdHigh() {
+    return this.receiverId == null ? 0 : NumericUtils.readLong(
+        this.receiverId, 0);
+  }
+
+  /**
+   * Returns the last 8 bytes of the receiver's device identifier as a
+   * big-endian value, without creating any objects.
+   * 
+   * @return the low-order half of the receiver identifier, or 0 if it has not
+   *         been set.
+   * @see DeviceId#getLow()
+   */
+  public long getReceiverIdLow() {
+    return this.receiverId == null ? 0 : NumericUtils.readLong(
+        this.receiverId, 8);
   }
 
   /**
@@ -293,7 +406,16 @@ public class SampleMessage implements Cloneable {
    *         receiver for this sample.
    */
   public byte[] getSensedData() {
-    return this.sensedData;
+    return this.sensedDataLength < 0 ? null : this.sensedData;
+  }
+
+  /**
+   * Returns the length of the sensed data of this sample.
+   * 
+   * @return the length of the sensed data, or 0 if no sensed data is set.
+   */
+  public int getSensedDataLength() {
+    return this.sensedDataLength < 0 ? 0 : this.sensedDataLength;
   }
 
   /**
@@ -305,7 +427,62 @@ public class SampleMessage implements Cloneable {
    *          receiver for this sample.
    */
   public void setSensedData(byte[] sensedData) {
-    this.sensedData = sensedData;
+    if (sensedData == null) {
+      this.sensedDataLength = -1;
+    } else {
+      this.sensedData = sensedData;
+      this.sensedDataLength = sensedData.length;
+      this.ownsSensedData = false;
+    }
+  }
+
+  /**
+   * Returns an array of {@code length} bytes to hold the sensed data of this
+   * sample, and marks it as the current sensed data. An array previously
+   * allocated by this sample is reused if it has the same length; an array
+   * set by the caller is never overwritten.
+   * 
+   * @param length
+   *          the length of the sensed data.
+   * @return the array to fill with the sensed data.
+   */
+  byte[] prepareSensedData(final int length) {
+    if (!this.ownsSensedData || this.sensedData.length != length) {
+      this.sensedData = new byte[length];
+      this.ownsSensedData = true;
+    }
+    this.sensedDataLength = length;
+    return this.sensedData;
+  }
+
+  /**
+   * Returns an array owned by this sample to hold its device identifier, and
+   * makes it the current device identifier. An array set by the caller is
+   * never overwritten, so a new array is allocated in that case.
+   * 
+   * @return the array to fill with the device identifier.
+   */
+  byte[] prepareDeviceId() {
+    if (!this.ownsDeviceId) {
+      this.deviceId = new byte[DEVICE_ID_SIZE];
+      this.ownsDeviceId = true;
+    }
+    return this.deviceId;
+  }
+
+  /**
+   * Returns an array owned by this sample to hold its receiver identifier,
+   * and makes it the current receiver identifier. An array set by the caller
+   * is never overwritten, so a new array is allocated in that case.
+   * 
+   * @return the array to fill with the receiver identifier.
+   */
+  byte[] prepareReceiverId() {
+    if (!this.ownsReceiverId) {
+      this.receiverId = new byte[DEVICE_ID_SIZE];
+      this.ownsReceiverId = true;
+    }
+    return this.receiverId;
   }
 
   @Override
@@ -334,6 +511,7 @@ public class SampleMessage implements Cloneable {
    * @return the creation timestamp of this Sample.
    * @see #SampleMessage()
    * @see #SampleMessage(long)
+   * @see #reset(long)
    */
   public long getCreationTimestamp() {
     return this.creationTimestamp;
@@ -364,12 +542,103 @@ public class SampleMessage implements Cloneable {
     return message;
   }
 
+  /**
+   * Resets this sample so that it can be reused, using the current time as the
+   * creation timestamp.
+   * 
+   * @see #reset(long)
+   */
+  public void reset() {
+    this.reset(System.currentTimeMillis());
+  }
+
+  /**
+   * Resets this sample so that it can be reused. The physical layer is set to
+   * {@link #PHYSICAL_LAYER_UNDEFINED}, the receiver timestamp and RSSI are set
+   * to 0, and the sensed data is cleared. Identifier and sensed data arrays
+   * allocated by this sample are kept, with the identifiers filled with zeros,
+   * so that they can be reused by {@link #copyFrom(SampleMessage)} and
+   * {@link SampleCodec}. Arrays set by the caller are never modified; an
+   * identifier set by the caller is replaced by a new array of zeros.
+   * 
+   * @param timestamp
+   *          the new creation timestamp of this sample.
+   */
+  public void reset(final long timestamp) {
+    this.creationTimestamp = timestamp;
+    this.physicalLayer = PHYSICAL_LAYER_UNDEFINED;
+    if (this.deviceId != null) {
+      Arrays.fill(this.prepareDeviceId(), (byte) 0);
+    }
+    if (this.receiverId != null) {
+      Arrays.fill(this.prepareReceiverId(), (byte) 0);
+    }
+    this.receiverTimeStamp = 0;
+    this.rssi = 0;
+    this.sensedDataLength = -1;
+    if (!this.ownsSensedData) {
+      this.sensedData = null;
+    }
+  }
+
+  /**
+   * Copies the values of {@code other} into this sample. The device and
+   * receiver identifiers are copied into arrays allocated by this sample,
+   * which are only allocated on the first copy. The sensed data array
+   * allocated by this sample is reused if it has the same length as that of
+   * {@code other}, even if this sample has been reset. Arrays set by the
+   * caller are never overwritten. The creation timestamp is not changed.
+   * 
+   * @param other
+   *          the sample to copy.
+   */
+  public void copyFrom(final SampleMessage other) {
+    this.physicalLayer = other.physicalLayer;
+    if (other.deviceId == null) {
+      this.deviceId = null;
+      this.ownsDeviceId = false;
+    } else {
+      System.arraycopy(other.deviceId, 0, this.prepareDeviceId(), 0,
+          DEVICE_ID_SIZE);
+    }
+    if (other.receiverId == null) {
+      this.receiverId = null;
+      this.ownsReceiverId = false;
+    } else {
+      System.arraycopy(other.receiverId, 0, this.prepareReceiverId(), 0,
+          DEVICE_ID_SIZE);
+    }
+    this.receiverTimeStamp = other.receiverTimeStamp;
+    this.rssi = other.rssi;
+    byte[] data = other.getSensedData();
+    if (data == null) {
+      this.sensedDataLength = -1;
+    } else {
+      System.arraycopy(data, 0, this.prepareSensedData(data.length), 0,
+          data.length);
+    }
+  }
+
+  /**
+   * Creates a copy of this sample. The identifier and sensed data arrays are
+   * copied, so changes to the clone do not affect this sample.
+   */
   @Override
   public SampleMessage clone() throws CloneNotSupportedException {
     SampleMessage clone = (SampleMessage) super.clone();
+    if (this.deviceId != null) {
+      clone.deviceId = Arrays.copyOf(this.deviceId, this.deviceId.length);
+      clone.ownsDeviceId = true;
+    }
+    if (this.receiverId != null) {
+      clone.receiverId = Arrays.copyOf(this.receiverId,
+          this.receiverId.length);
+      clone.ownsReceiverId = true;
+    }
     if (this.sensedData != null) {
-      clone.setSensedData(Arrays
-          .copyOf(this.sensedData, this.sensedData.length));
+      clone.sensedData = Arrays.copyOf(this.sensedData,
+          this.sensedData.length);
+      clone.ownsSensedData = true;
     }
     return clone;
   }
@@ -0,0 +1,40 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+/**
+ * Interface for classes that receive samples as {@code SampleMessage}
+ * objects, for example when draining a {@link SampleRingBuffer}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface SampleMessageListener {
+
+  /**
+   * Called for each available sample. The sample object may be reused once
+   * this method returns, so implementations must copy any values they need to
+   * keep.
+   * 
+   * @param message
+   *          the sample.
+   */
+  public void sampleReceived(final SampleMessage message);
+}
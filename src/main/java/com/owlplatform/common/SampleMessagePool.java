@@ -0,0 +1,192 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+/**
+ * A bounded pool of reusable {@code SampleMessage} objects. Samples obtained
+ * from {@link #acquire()} already hold device and receiver identifier arrays,
+ * so decoding into them with {@link SampleCodec} or filling them with
+ * {@link SampleMessage#copyFrom(SampleMessage)} does not allocate. Once a
+ * sample has been processed it should be returned with
+ * {@link #release(SampleMessage)}.
+ * 
+ * <p>
+ * The pool is divided into a number of independently-locked stripes, and each
+ * thread uses the stripe selected by its thread identifier. Threads therefore
+ * rarely contend with each other, and samples released by a different thread
+ * than the one that acquired them are still returned to the pool.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleMessagePool {
+
+  /**
+   * A single stripe of the pool.
+   */
+  private static final class Stripe {
+    /**
+     * The available samples.
+     */
+    final SampleMessage[] free;
+
+    /**
+     * The number of available samples.
+     */
+    int size = 0;
+
+    /**
+     * Creates a new stripe.
+     * 
+     * @param capacity
+     *          the maximum number of samples held by the stripe.
+     */
+    Stripe(final int capacity) {
+      this.free = new SampleMessage[capacity];
+    }
+  }
+
+  /**
+   * The stripes of the pool.
+   */
+  private final Stripe[] stripes;
+
+  /**
+   * Mask applied to a thread identifier to select a stripe.
+   */
+  private final int mask;
+
+  /**
+   * Creates a new pool with one stripe for every two available processors
+   * (rounded up to a power of two).
+   * 
+   * @param capacityPerStripe
+   *          the maximum number of idle samples retained by each stripe.
+   */
+  public SampleMessagePool(final int capacityPerStripe) {
+    this(Runtime.getRuntime().availableProcessors() * 2, capacityPerStripe);
+  }
+
+  /**
+   * Creates a new pool.
+   * 
+   * @param numStripes
+   *          the number of stripes, rounded up to a power of two.
+   * @param capacityPerStripe
+   *          the maximum number of idle samples retained by each stripe.
+   */
+  public SampleMessagePool(final int numStripes, final int capacityPerStripe) {
+    if (numStripes < 1) {
+      throw new IllegalArgumentException("Pool must have at least one stripe.");
+    }
+    if (capacityPerStripe < 0) {
+      throw new IllegalArgumentException("Stripe capacity cannot be negative.");
+    }
+    int size = Integer.highestOneBit(numStripes);
+    if (size < numStripes) {
+      size <<= 1;
+    }
+    this.stripes = new Stripe[size];
+    for (int i = 0; i < size; ++i) {
+      this.stripes[i] = new Stripe(capacityPerStripe);
+    }
+    this.mask = size - 1;
+  }
+
+  /**
+   * Returns the stripe used by the current thread.
+   * 
+   * @return the current thread's stripe.
+   */
+  private Stripe stripe() {
+    long id = Thread.currentThread().getId();
+    int hash = (int) (id ^ (id >>> 32));
+    hash ^= (hash >>> 16);
+    return this.stripes[hash & this.mask];
+  }
+
+  /**
+   * Returns a sample from the pool, or creates a new one if the current
+   * thread's stripe is empty. The returned sample has been
+   * {@link SampleMessage#reset() reset}, and its device and receiver
+   * identifiers are set to separate preallocated arrays of zeros, even if it
+   * was released without them.
+   * 
+   * @return a reset sample.
+   */
+  public SampleMessage acquire() {
+    Stripe stripe = this.stripe();
+    SampleMessage message = null;
+    synchronized (stripe) {
+      if (stripe.size > 0) {
+        message = stripe.free[--stripe.size];
+        stripe.free[stripe.size] = null;
+      }
+    }
+    if (message == null) {
+      message = new SampleMessage();
+    } else {
+      message.reset();
+    }
+    // Released samples may not have been created by this pool
+    message.prepareDeviceId();
+    message.prepareReceiverId();
+    return message;
+  }
+
+  /**
+   * Returns a sample to the pool. The sample must not be used by the caller
+   * after it has been released.
+   * 
+   * @param message
+   *          the sample to release.
+   * @return {@code true} if the sample was retained, or {@code false} if the
+   *         current thread's stripe was full and the sample was discarded.
+   */
+  public boolean release(final SampleMessage message) {
+    if (message == null) {
+      return false;
+    }
+    Stripe stripe = this.stripe();
+    synchronized (stripe) {
+      if (stripe.size < stripe.free.length) {
+        stripe.free[stripe.size++] = message;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of idle samples currently held by the pool.
+   * 
+   * @return the number of idle samples.
+   */
+  public int getIdleCount() {
+    int count = 0;
+    for (Stripe stripe : this.stripes) {
+      synchronized (stripe) {
+        count += stripe.size;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,494 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.owlplatform.common.util.NumericUtils;
+
+/**
+ * A read-only, flyweight view of a single encoded sample frame stored in a
+ * {@code ByteBuffer}. The view reads each field directly from the buffer when
+ * it is requested, so no {@code SampleMessage} or {@code byte[]} objects are
+ * created while processing a stream of samples. A single view can be
+ * re-pointed at the next frame by calling {@link #wrapSensor(ByteBuffer, int)}
+ * or {@link #wrapSolver(ByteBuffer, int)} again.
+ * 
+ * <p>
+ * Frames are expected to be encoded as described by
+ * {@link SampleMessage#getLengthPrefixSensor()} and
+ * {@link SampleMessage#getLengthPrefixSolver()}: a 4-byte length prefix,
+ * followed by the message type (Aggregator-Solver only), the physical layer,
+ * the device and receiver identifiers, the receiver timestamp, the RSSI value
+ * and any sensed data. All multi-byte values are in network (big-endian) byte
+ * order.
+ * </p>
+ * 
+ * <p>
+ * The view never changes the position, limit or mark of the wrapped buffer.
+ * Changes to the contents of the buffer are visible through the view, so the
+ * view is only valid for as long as the caller leaves the frame in place.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleMessageView {
+
+  /**
+   * The size, in octets, of the length prefix that starts every frame.
+   */
+  static final int LENGTH_PREFIX_SIZE = 4;
+
+  /**
+   * The length of a Sensor-Aggregator sample with no sensed data, as reported
+   * in the length prefix.
+   */
+  static final int SENSOR_BASE_LENGTH = 1 + SampleMessage.DEVICE_ID_SIZE * 2
+      + 8 + 4;
+
+  /**
+   * The length of an Aggregator-Solver sample with no sensed data, as reported
+   * in the length prefix.
+   */
+  static final int SOLVER_BASE_LENGTH = SENSOR_BASE_LENGTH + 1;
+
+  /**
+   * Offset of the device identifier, relative to the physical layer.
+   */
+  static final int DEVICE_ID_OFFSET = 1;
+
+  /**
+   * Offset of the receiver identifier, relative to the physical layer.
+   */
+  static final int RECEIVER_ID_OFFSET = DEVICE_ID_OFFSET
+      + SampleMessage.DEVICE_ID_SIZE;
+
+  /**
+   * Offset of the receiver timestamp, relative to the physical layer.
+   */
+  static final int TIMESTAMP_OFFSET = RECEIVER_ID_OFFSET
+      + SampleMessage.DEVICE_ID_SIZE;
+
+  /**
+   * Offset of the RSSI value, relative to the physical layer.
+   */
+  static final int RSSI_OFFSET = TIMESTAMP_OFFSET + 8;
+
+  /**
+   * Offset of the sensed data, relative to the physical layer.
+   */
+  static final int DATA_OFFSET = RSSI_OFFSET + 4;
+
+  /**
+   * The buffer containing the current frame, or {@code null} if the view has
+   * not been pointed at a frame.
+   */
+  private ByteBuffer buffer = null;
+
+  /**
+   * The absolute index of the first byte (length prefix) of the current frame.
+   */
+  private int frameOffset;
+
+  /**
+   * The absolute index of the physical layer byte of the current frame.
+   */
+  private int base;
+
+  /**
+   * The number of bytes of sensed data in the current frame.
+   */
+  private int dataLength;
+
+  /**
+   * Whether the current frame is encoded according to the Aggregator-Solver
+   * protocol.
+   */
+  private boolean solverFormat;
+
+  /**
+   * Points this view at the Sensor-Aggregator sample frame beginning at
+   * {@code offset} within {@code buffer}.
+   * 
+   * @param buffer
+   *          the buffer containing the frame.
+   * @param offset
+   *          the absolute index of the frame's length prefix.
+   * @return this view.
+   * @throws IllegalArgumentException
+   *           if the buffer is not big-endian, or the frame is malformed or
+   *           not completely contained between {@code offset} and the limit
+   *           of the buffer.
+   */
+  public SampleMessageView wrapSensor(final ByteBuffer buffer, final int offset) {
+    int length = checkFrame(buffer, offset, SENSOR_BASE_LENGTH);
+    this.buffer = buffer;
+    this.frameOffset = offset;
+    this.base = offset + LENGTH_PREFIX_SIZE;
+    this.dataLength = length - SENSOR_BASE_LENGTH;
+    this.solverFormat = false;
+    return this;
+  }
+
+  /**
+   * Points this view at the Aggregator-Solver sample frame beginning at
+   * {@code offset} within {@code buffer}.
+   * 
+   * @param buffer
+   *          the buffer containing the frame.
+   * @param offset
+   *          the absolute index of the frame's length prefix.
+   * @return this view.
+   * @throws IllegalArgumentException
+   *           if the buffer is not big-endian, the message type is not
+   *           {@link SampleMessage#MESSAGE_TYPE}, or the frame is malformed or
+   *           not completely contained between {@code offset} and the limit
+   *           of the buffer.
+   */
+  public SampleMessageView wrapSolver(final ByteBuffer buffer, final int offset) {
+    int length = checkFrame(buffer, offset, SOLVER_BASE_LENGTH);
+    byte type = buffer.get(offset + LENGTH_PREFIX_SIZE);
+    if (type != SampleMessage.MESSAGE_TYPE) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid message type %d for a sample message.", Byte.valueOf(type)));
+    }
+    this.buffer = buffer;
+    this.frameOffset = offset;
+    this.base = offset + LENGTH_PREFIX_SIZE + 1;
+    this.dataLength = length - SOLVER_BASE_LENGTH;
+    this.solverFormat = true;
+    return this;
+  }
+
+  /**
+   * Verifies that a complete, well-formed frame starts at {@code offset}.
+   * 
+   * @param buffer
+   *          the buffer containing the frame.
+   * @param offset
+   *          the absolute index of the frame's length prefix.
+   * @param minLength
+   *          the minimum permitted value of the length prefix.
+   * @return the value of the length prefix.
+   */
+  private static int checkFrame(final ByteBuffer buffer, final int offset,
+      final int minLength) {
+    if (buffer == null) {
+      throw new IllegalArgumentException("Buffer cannot be null.");
+    }
+    if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+      throw new IllegalArgumentException(
+          "Sample frames must be read from a big-endian buffer.");
+    }
+    if (offset < 0 || buffer.limit() - offset < LENGTH_PREFIX_SIZE) {
+      throw new IllegalArgumentException(
+          "Buffer does not contain a length prefix at offset " + offset + ".");
+    }
+    int length = buffer.getInt(offset);
+    if (length < minLength) {
+      throw new IllegalArgumentException(String.format(
+          "Length prefix %d is shorter than the minimum sample length %d.",
+          Integer.valueOf(length), Integer.valueOf(minLength)));
+    }
+    if (buffer.limit() - offset - LENGTH_PREFIX_SIZE < length) {
+      throw new IllegalArgumentException(String.format(
+          "Sample frame of %d bytes is not contained in the buffer.",
+          Integer.valueOf(length + LENGTH_PREFIX_SIZE)));
+    }
+    return length;
+  }
+
+  /**
+   * Returns the buffer this view currently reads from.
+   * 
+   * @return the wrapped buffer, or {@code null} if the view has not been
+   *         pointed at a frame.
+   */
+  public ByteBuffer getBuffer() {
+    return this.buffer;
+  }
+
+  /**
+   * Returns the absolute index within the buffer of the first byte of the
+   * current frame.
+   * 
+   * @return the index of the current frame's length prefix.
+   */
+  public int getFrameOffset() {
+    return this.frameOffset;
+  }
+
+  /**
+   * Returns the total number of bytes in the current frame, including the
+   * length prefix. Adding this value to {@link #getFrameOffset()} gives the
+   * index of the next frame in the buffer.
+   * 
+   * @return the length of the current frame, including the length prefix.
+   */
+  public int getFrameLength() {
+    return this.base - this.frameOffset + DATA_OFFSET + this.dataLength;
+  }
+
+  /**
+   * Indicates whether the current frame is encoded according to the
+   * Aggregator-Solver protocol.
+   * 
+   * @return {@code true} for an Aggregator-Solver frame, {@code false} for a
+   *         Sensor-Aggregator frame.
+   */
+  public boolean isSolverFormat() {
+    return this.solverFormat;
+  }
+
+  /**
+   * Returns the physical layer type of the current frame.
+   * 
+   * @return the physical layer type.
+   */
+  public byte getPhysicalLayer() {
+    return this.buffer.get(this.base);
+  }
+
+  /**
+   * Copies the device identifier of the current frame into {@code dest}.
+   * 
+   * @param dest
+   *          the destination array.
+   * @param destOffset
+   *          the index in {@code dest} of the first byte to write.
+   */
+  public void getDeviceId(final byte[] dest, final int destOffset) {
+    copy(this.base + DEVICE_ID_OFFSET, dest, destOffset,
+        SampleMessage.DEVICE_ID_SIZE);
+  }
+
+  /**
+   * Returns a copy of the device identifier of the current frame. This method
+   * allocates a new array; use {@link #getDeviceId(byte[], int)} to avoid the
+   * allocation.
+   * 
+   * @return a new array containing the device identifier.
+   */
+  public byte[] getDeviceId() {
+    byte[] id = new byte[SampleMessage.DEVICE_ID_SIZE];
+    this.getDeviceId(id, 0);
+    return id;
+  }
+
+  /**
+   * Returns the upper 8 bytes of the device identifier as a big-endian
+   * {@code long}.
+   * 
+   * @return the high-order half of the device identifier.
+   */
+  public long getDeviceIdHigh() {
+    return this.buffer.getLong(this.base + DEVICE_ID_OFFSET);
+  }
+
+  /**
+   * Returns the lower 8 bytes of the device identifier as a big-endian
+   * {@code long}.
+   * 
+   * @return the low-order half of the device identifier.
+   */
+  public long getDeviceIdLow() {
+    return this.buffer.getLong(this.base + DEVICE_ID_OFFSET + 8);
+  }
+
+  /**
+   * Copies the receiver identifier of the current frame into {@code dest}.
+   * 
+   * @param dest
+   *          the destination array.
+   * @param destOffset
+   *          the index in {@code dest} of the first byte to write.
+   */
+  public void getReceiverId(final byte[] dest, final int destOffset) {
+    copy(this.base + RECEIVER_ID_OFFSET, dest, destOffset,
+        SampleMessage.DEVICE_ID_SIZE);
+  }
+
+  /**
+   * Returns a copy of the receiver identifier of the current frame. This
+   * method allocates a new array; use {@link #getReceiverId(byte[], int)} to
+   * avoid the allocation.
+   * 
+   * @return a new array containing the receiver identifier.
+   */
+  public byte[] getReceiverId() {
+    byte[] id = new byte[SampleMessage.DEVICE_ID_SIZE];
+    this.getReceiverId(id, 0);
+    return id;
+  }
+
+  /**
+   * Returns the upper 8 bytes of the receiver identifier as a big-endian
+   * {@code long}.
+   * 
+   * @return the high-order half of the receiver identifier.
+   */
+  public long getReceiverIdHigh() {
+    return this.buffer.getLong(this.base + RECEIVER_ID_OFFSET);
+  }
+
+  /**
+   * Returns the lower 8 bytes of the receiver identifier as a big-endian
+   * {@code long}.
+   * 
+   * @return the low-order half of the receiver identifier.
+   */
+  public long getReceiverIdLow() {
+    return this.buffer.getLong(this.base + RECEIVER_ID_OFFSET + 8);
+  }
+
+  /**
+   * Returns the UNIX timestamp indicating when the current sample was
+   * received by the receiver.
+   * 
+   * @return the receiver timestamp.
+   */
+  public long getReceiverTimeStamp() {
+    return this.buffer.getLong(this.base + TIMESTAMP_OFFSET);
+  }
+
+  /**
+   * Returns the Received Signal Strength Indicator (RSSI) of the current
+   * sample.
+   * 
+   * @return the RSSI value.
+   */
+  public float getRssi() {
+    return this.buffer.getFloat(this.base + RSSI_OFFSET);
+  }
+
+  /**
+   * Returns the number of bytes of sensed data in the current frame.
+   * 
+   * @return the length of the sensed data, possibly 0.
+   */
+  public int getSensedDataLength() {
+    return this.dataLength;
+  }
+
+  /**
+   * Returns the absolute index within the buffer of the first byte of sensed
+   * data in the current frame.
+   * 
+   * @return the index of the sensed data.
+   */
+  public int getSensedDataOffset() {
+    return this.base + DATA_OFFSET;
+  }
+
+  /**
+   * Copies the sensed data of the current frame into {@code dest}.
+   * 
+   * @param dest
+   *          the destination array, which must have at least
+   *          {@link #getSensedDataLength()} bytes available after
+   *          {@code destOffset}.
+   * @param destOffset
+   *          the index in {@code dest} of the first byte to write.
+   */
+  public void getSensedData(final byte[] dest, final int destOffset) {
+    copy(this.base + DATA_OFFSET, dest, destOffset, this.dataLength);
+  }
+
+  /**
+   * Returns a copy of the sensed data of the current frame.
+   * 
+   * @return a new array containing the sensed data, or {@code null} if the
+   *         frame contains no sensed data.
+   */
+  public byte[] getSensedData() {
+    if (this.dataLength == 0) {
+      return null;
+    }
+    byte[] data = new byte[this.dataLength];
+    this.getSensedData(data, 0);
+    return data;
+  }
+
+  /**
+   * Copies {@code length} bytes from the buffer without changing its
+   * position.
+   * 
+   * @param index
+   *          the absolute index of the first byte to copy.
+   * @param dest
+   *          the destination array.
+   * @param destOffset
+   *          the index in {@code dest} of the first byte to write.
+   * @param length
+   *          the number of bytes to copy.
+   */
+  private void copy(final int index, final byte[] dest, final int destOffset,
+      final int length) {
+    if (this.buffer.hasArray()) {
+      System.arraycopy(this.buffer.array(), this.buffer.arrayOffset() + index,
+          dest, destOffset, length);
+      return;
+    }
+    for (int i = 0; i < length; ++i) {
+      dest[destOffset + i] = this.buffer.get(index + i);
+    }
+  }
+
+  /**
+   * Creates a new {@code SampleMessage} containing a copy of the current
+   * frame.
+   * 
+   * @return a new {@code SampleMessage} with the same values as this view.
+   */
+  public SampleMessage toSampleMessage() {
+    SampleMessage message = new SampleMessage();
+    message.setPhysicalLayer(this.getPhysicalLayer());
+    message.setDeviceId(this.getDeviceId());
+    message.setReceiverId(this.getReceiverId());
+    message.setReceiverTimeStamp(this.getReceiverTimeStamp());
+    message.setRssi(this.getRssi());
+    message.setSensedData(this.getSensedData());
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    if (this.buffer == null) {
+      return "Sample View (empty)";
+    }
+    StringBuffer sb = new StringBuffer();
+    sb.append("Sample View (").append(this.getPhysicalLayer());
+    sb.append(", ");
+    sb.append(NumericUtils.toHexString(this.getDeviceId()));
+    sb.append(", ");
+    sb.append(NumericUtils.toHexString(this.getReceiverId()));
+    sb.append("): ");
+    sb.append(this.getRssi());
+    sb.append(" @ ");
+    sb.append(this.getReceiverTimeStamp());
+    if (this.dataLength > 0) {
+      sb.append(" [").append(NumericUtils.toHexString(this.getSensedData()));
+      sb.append(']');
+    }
+    return sb.toString();
+  }
+}
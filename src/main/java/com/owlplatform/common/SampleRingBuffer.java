@@ -0,0 +1,367 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue of samples for passing samples from any number of producer
+ * threads to a single consumer thread, such as from receiver connections to a
+ * solver. The queue is a ring of {@code SampleMessage} slots that are
+ * allocated when the queue is created and reused, so enqueuing and dequeuing
+ * samples does not allocate.
+ * 
+ * <p>
+ * A producer {@link #claim() claims} a sequence number, fills the slot
+ * returned by {@link #get(long)} for that sequence, and then
+ * {@link #publish(long) publishes} it. The slot still contains a previously
+ * consumed sample when it is claimed, so the producer must overwrite every
+ * field, for example with {@link SampleCodec#decodeSensor(java.nio.ByteBuffer,
+ * SampleMessage)} or {@link SampleMessage#copyFrom(SampleMessage)}. Every
+ * claimed sequence must be published. {@link #offer(SampleMessage)} performs
+ * all three steps by copying a sample.
+ * </p>
+ * 
+ * <p>
+ * The consumer removes published samples in batches with
+ * {@link #drain(SampleMessageListener, int)} or
+ * {@link #take(SampleMessageListener, int)}. Only one thread may consume from
+ * the queue. Claiming and consuming do not lock; a thread that must wait for
+ * space or for samples does so according to the queue's {@link WaitStrategy}.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleRingBuffer {
+
+  /**
+   * How a thread waits for space to become available when producing, or for
+   * samples to become available when consuming.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static enum WaitStrategy {
+    /**
+     * Spin without giving up the processor. Gives the lowest latency, but
+     * occupies a processor while waiting.
+     */
+    BUSY_SPIN {
+      @Override
+      void idle(final int iteration) {
+        // Nothing to do
+      }
+    },
+    /**
+     * Spin briefly, then yield the processor between attempts.
+     */
+    YIELD {
+      @Override
+      void idle(final int iteration) {
+        if (iteration >= SPIN_TRIES) {
+          Thread.yield();
+        }
+      }
+    },
+    /**
+     * Spin briefly, yield briefly, then sleep for short periods between
+     * attempts. Uses the least processor time, at the cost of latency.
+     */
+    PARK {
+      @Override
+      void idle(final int iteration) {
+        if (iteration >= SPIN_TRIES + YIELD_TRIES) {
+          LockSupport.parkNanos(PARK_NANOS);
+        } else if (iteration >= SPIN_TRIES) {
+          Thread.yield();
+        }
+      }
+    };
+
+    /**
+     * The number of attempts before yielding.
+     */
+    static final int SPIN_TRIES = 100;
+
+    /**
+     * The number of yielding attempts before parking.
+     */
+    static final int YIELD_TRIES = 100;
+
+    /**
+     * How long to park between attempts, in nanoseconds.
+     */
+    static final long PARK_NANOS = 50000;
+
+    /**
+     * Waits before the next attempt.
+     * 
+     * @param iteration
+     *          the number of attempts made so far.
+     */
+    abstract void idle(final int iteration);
+  }
+
+  /**
+   * The slots of the ring.
+   */
+  private final SampleMessage[] slots;
+
+  /**
+   * The sequence number most recently published in each slot, or -1 if none
+   * has been published.
+   */
+  private final AtomicLongArray published;
+
+  /**
+   * Mask applied to a sequence number to select a slot.
+   */
+  private final int mask;
+
+  /**
+   * The next sequence number to be claimed.
+   */
+  private final AtomicLong claimSequence = new AtomicLong(0);
+
+  /**
+   * The next sequence number to be consumed. Slots for earlier sequences may
+   * be claimed again.
+   */
+  private final AtomicLong consumeSequence = new AtomicLong(0);
+
+  /**
+   * How threads wait for space or samples.
+   */
+  private final WaitStrategy waitStrategy;
+
+  /**
+   * Creates a new queue that waits with {@link WaitStrategy#YIELD}.
+   * 
+   * @param capacity
+   *          the maximum number of samples, rounded up to a power of two.
+   */
+  public SampleRingBuffer(final int capacity) {
+    this(capacity, WaitStrategy.YIELD);
+  }
+
+  /**
+   * Creates a new queue.
+   * 
+   * @param capacity
+   *          the maximum number of samples, rounded up to a power of two.
+   * @param waitStrategy
+   *          how threads wait for space or for samples.
+   */
+  public SampleRingBuffer(final int capacity, final WaitStrategy waitStrategy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1.");
+    }
+    if (waitStrategy == null) {
+      throw new IllegalArgumentException("Wait strategy cannot be null.");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.slots = new SampleMessage[size];
+    this.published = new AtomicLongArray(size);
+    for (int i = 0; i < size; ++i) {
+      SampleMessage message = new SampleMessage();
+      message.prepareDeviceId();
+      message.prepareReceiverId();
+      this.slots[i] = message;
+      this.published.set(i, -1);
+    }
+    this.mask = size - 1;
+    this.waitStrategy = waitStrategy;
+  }
+
+  /**
+   * Claims the next slot, waiting for space if the queue is full.
+   * 
+   * @return the sequence number of the claimed slot.
+   */
+  public long claim() {
+    int iteration = 0;
+    long sequence;
+    while ((sequence = this.tryClaim()) < 0) {
+      this.waitStrategy.idle(iteration++);
+    }
+    return sequence;
+  }
+
+  /**
+   * Claims the next slot if the queue is not full.
+   * 
+   * @return the sequence number of the claimed slot, or -1 if the queue is
+   *         full.
+   */
+  public long tryClaim() {
+    while (true) {
+      long sequence = this.claimSequence.get();
+      if (sequence - this.slots.length >= this.consumeSequence.get()) {
+        return -1;
+      }
+      if (this.claimSequence.compareAndSet(sequence, sequence + 1)) {
+        return sequence;
+      }
+    }
+  }
+
+  /**
+   * Returns the slot for a claimed sequence number.
+   * 
+   * @param sequence
+   *          a sequence number returned by {@link #claim()} or
+   *          {@link #tryClaim()}.
+   * @return the sample to fill.
+   */
+  public SampleMessage get(final long sequence) {
+    return this.slots[(int) sequence & this.mask];
+  }
+
+  /**
+   * Makes a filled slot available to the consumer.
+   * 
+   * @param sequence
+   *          a claimed sequence number.
+   */
+  public void publish(final long sequence) {
+    this.published.set((int) sequence & this.mask, sequence);
+  }
+
+  /**
+   * Copies a sample into the queue, waiting for space if the queue is full.
+   * 
+   * @param message
+   *          the sample to copy.
+   */
+  public void put(final SampleMessage message) {
+    long sequence = this.claim();
+    this.get(sequence).copyFrom(message);
+    this.publish(sequence);
+  }
+
+  /**
+   * Copies a sample into the queue if the queue is not full.
+   * 
+   * @param message
+   *          the sample to copy.
+   * @return {@code true} if the sample was added, or {@code false} if the
+   *         queue was full.
+   */
+  public boolean offer(final SampleMessage message) {
+    long sequence = this.tryClaim();
+    if (sequence < 0) {
+      return false;
+    }
+    this.get(sequence).copyFrom(message);
+    this.publish(sequence);
+    return true;
+  }
+
+  /**
+   * Passes up to {@code maxSamples} published samples to {@code listener}, in
+   * the order they were claimed, without waiting. The slots are released to
+   * producers once the whole batch has been passed to the listener. Must only
+   * be called by the consumer thread.
+   * 
+   * @param listener
+   *          the listener to receive the samples.
+   * @param maxSamples
+   *          the maximum number of samples to remove.
+   * @return the number of samples removed.
+   */
+  public int drain(final SampleMessageListener listener, final int maxSamples) {
+    long sequence = this.consumeSequence.get();
+    int count = 0;
+    while (count < maxSamples) {
+      int index = (int) sequence & this.mask;
+      if (this.published.get(index) != sequence) {
+        break;
+      }
+      listener.sampleReceived(this.slots[index]);
+      ++sequence;
+      ++count;
+    }
+    if (count > 0) {
+      this.consumeSequence.lazySet(sequence);
+    }
+    return count;
+  }
+
+  /**
+   * Passes up to {@code maxSamples} published samples to {@code listener},
+   * waiting until at least one sample is available. Must only be called by the
+   * consumer thread.
+   * 
+   * @param listener
+   *          the listener to receive the samples.
+   * @param maxSamples
+   *          the maximum number of samples to remove.
+   * @return the number of samples removed.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public int take(final SampleMessageListener listener, final int maxSamples)
+      throws InterruptedException {
+    int iteration = 0;
+    int count;
+    while ((count = this.drain(listener, maxSamples)) == 0 && maxSamples > 0) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      this.waitStrategy.idle(iteration++);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the approximate number of samples that have been claimed but not
+   * yet consumed.
+   * 
+   * @return the approximate number of samples in the queue.
+   */
+  public int size() {
+    long size = this.claimSequence.get() - this.consumeSequence.get();
+    return (int) Math.max(0, Math.min(size, this.slots.length));
+  }
+
+  /**
+   * Returns the maximum number of samples the queue can hold.
+   * 
+   * @return the capacity of the queue.
+   */
+  public int getCapacity() {
+    return this.slots.length;
+  }
+
+  /**
+   * Returns the wait strategy used by this queue.
+   * 
+   * @return the wait strategy.
+   */
+  public WaitStrategy getWaitStrategy() {
+    return this.waitStrategy;
+  }
+}
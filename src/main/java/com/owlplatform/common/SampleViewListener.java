@@ -0,0 +1,40 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+/**
+ * Interface for classes that receive samples as {@code SampleMessageView}
+ * objects, for example from a {@link SampleFrameParser}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface SampleViewListener {
+
+  /**
+   * Called when a complete sample is available. The view, and the buffer it
+   * wraps, are only valid until this method returns, so implementations must
+   * copy any values they need to keep.
+   * 
+   * @param view
+   *          a view of the sample.
+   */
+  public void sampleReceived(final SampleMessageView view);
+}
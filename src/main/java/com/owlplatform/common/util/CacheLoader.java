@@ -0,0 +1,45 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+/**
+ * Loads the values of a {@link LoadingCache}.
+ * 
+ * @author Robert Moore
+ * 
+ * @param <K>
+ *          the type of keys.
+ * @param <V>
+ *          the type of values.
+ */
+public interface CacheLoader<K, V> {
+
+  /**
+   * Loads the value of a key. This method may be called by several threads
+   * at once, but never for the same key.
+   * 
+   * @param key
+   *          the key to load.
+   * @return the value of the key, or {@code null} if the key has no value, in
+   *         which case nothing is cached.
+   * @throws Exception
+   *           if the value cannot be loaded.
+   */
+  V load(K key) throws Exception;
+}
@@ -0,0 +1,1358 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe bounded cache that evicts the least-recently used entry when
+ * it holds more than its capacity, like {@link LRUCache}, but without a global
+ * lock around every operation.
+ * 
+ * <p>
+ * Entries are stored in a {@link ConcurrentHashMap}, so lookups do not lock
+ * and updates only lock a single segment of the map. The recency order is
+ * kept separately and is only changed by the thread holding the eviction
+ * lock. Reads record the accessed entry in a small buffer selected by the
+ * thread identifier; when a buffer fills, the reading thread tries to take the
+ * lock and replay all buffered accesses. If a buffer is full and the lock is
+ * busy, the access is dropped, so the order is approximate under heavy
+ * contention. Writes are queued without loss and applied by whichever writer
+ * holds the lock, so the cache holds no more than its capacity once all
+ * writes have returned.
+ * </p>
+ * 
+ * <p>
+ * A cache created by a {@link Builder} can optionally use the frequency of
+ * recent accesses when deciding which entry to evict (W-TinyLFU). New entries
+ * then enter a small LRU window, and when they leave the window they are only
+ * admitted to the rest of the cache if they have been used more often than the
+ * entry that would be evicted in their place, as estimated by a
+ * {@link FrequencySketch}. The rest of the cache is divided into a probation
+ * segment and a protected segment for entries that have been used again while
+ * on probation. This keeps frequently used entries in the cache when many
+ * entries are used only once, such as during a scan.
+ * </p>
+ * 
+ * <p>
+ * Instead of the number of entries, the cache can bound the total weight of
+ * its entries as calculated by a {@link Weigher}, such as the number of bytes
+ * in each value. Least recently used entries are then evicted until the total
+ * weight is within the maximum. An entry that weighs more than the maximum is
+ * evicted immediately.
+ * </p>
+ * 
+ * <p>
+ * Entries can also expire a fixed time after they were written or last read.
+ * An expired entry is never returned, and is removed when the next writer or
+ * reader performs maintenance. Expiration times are tracked by a hierarchical
+ * {@link TimerWheel}, so neither scheduling an entry nor removing expired
+ * entries requires scanning the cache.
+ * </p>
+ * 
+ * <p>
+ * Neither keys nor values may be {@code null}.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ * @param <K>
+ *          the type of keys in the cache.
+ * @param <V>
+ *          the type of values in the cache.
+ */
+public class ConcurrentLRUCache<K, V> {
+
+  /**
+   * Builds {@code ConcurrentLRUCache} objects.
+   * 
+   * @author Robert Moore
+   * 
+   * @param <K>
+   *          the type of keys in the cache.
+   * @param <V>
+   *          the type of values in the cache.
+   */
+  public static class Builder<K, V> {
+    /**
+     * The maximum total weight of entries.
+     */
+    private long maximumWeight = 0;
+
+    /**
+     * Calculates the weight of each entry.
+     */
+    private Weigher<? super K, ? super V> weigher = Weighers.singleton();
+
+    /**
+     * Whether entries are admitted based on their frequency of use.
+     */
+    private boolean frequencyAdmission = false;
+
+    /**
+     * Time after an entry is written when it expires, or 0 for never.
+     */
+    private long expireAfterWrite = 0;
+
+    /**
+     * Time after an entry is last read or written when it expires, or 0 for
+     * never.
+     */
+    private long expireAfterAccess = 0;
+
+    /**
+     * The source of the current time.
+     */
+    private TimeSource timeSource = TimeSource.SYSTEM;
+
+    /**
+     * Time after an entry is written when it is reloaded, or 0 for never.
+     */
+    private long refreshAfterWrite = 0;
+
+    /**
+     * Runs asynchronous loads, or {@code null} for the default.
+     */
+    private Executor executor = null;
+
+    /**
+     * Sets the maximum number of entries in the cache. Either this value or
+     * the maximum weight is required.
+     * 
+     * @param capacity
+     *          the maximum number of entries.
+     * @return this builder.
+     */
+    public Builder<K, V> capacity(final int capacity) {
+      this.maximumWeight = capacity;
+      this.weigher = Weighers.singleton();
+      return this;
+    }
+
+    /**
+     * Sets the maximum total weight of the entries in the cache, and how the
+     * weight of each entry is calculated.
+     * 
+     * @param maximumWeight
+     *          the maximum total weight.
+     * @param weigher
+     *          calculates the weight of each entry.
+     * @return this builder.
+     * @see Weighers
+     */
+    public Builder<K, V> maximumWeight(final long maximumWeight,
+        final Weigher<? super K, ? super V> weigher) {
+      if (weigher == null) {
+        throw new IllegalArgumentException("Weigher cannot be null.");
+      }
+      this.maximumWeight = maximumWeight;
+      this.weigher = weigher;
+      return this;
+    }
+
+    /**
+     * Sets whether new entries are only admitted to the main part of the cache
+     * if they are used more often than the entry they would replace. By
+     * default the cache is pure LRU.
+     * 
+     * @param enabled
+     *          {@code true} to use frequency-based admission.
+     * @return this builder.
+     */
+    public Builder<K, V> frequencyAdmission(final boolean enabled) {
+      this.frequencyAdmission = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the time after an entry is added or its value is replaced when it
+     * expires.
+     * 
+     * @param duration
+     *          the time to live, in milliseconds.
+     * @return this builder.
+     */
+    public Builder<K, V> expireAfterWrite(final long duration) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("Duration must be positive.");
+      }
+      this.expireAfterWrite = duration;
+      return this;
+    }
+
+    /**
+     * Sets the time after an entry is last read or written when it expires.
+     * 
+     * @param duration
+     *          the time to live after each access, in milliseconds.
+     * @return this builder.
+     */
+    public Builder<K, V> expireAfterAccess(final long duration) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("Duration must be positive.");
+      }
+      this.expireAfterAccess = duration;
+      return this;
+    }
+
+    /**
+     * Sets the source of the current time used for expiration. By default the
+     * system clock is used.
+     * 
+     * @param timeSource
+     *          the source of the current time.
+     * @return this builder.
+     */
+    public Builder<K, V> timeSource(final TimeSource timeSource) {
+      if (timeSource == null) {
+        throw new IllegalArgumentException("Time source cannot be null.");
+      }
+      this.timeSource = timeSource;
+      return this;
+    }
+
+    /**
+     * Sets the time after an entry is written when a {@link LoadingCache}
+     * reloads it in the background the next time it is read. The old value is
+     * returned until the new value has been loaded, so this should be shorter
+     * than any expiration time to keep frequently read entries from expiring.
+     * 
+     * @param duration
+     *          the time after which entries are refreshed, in milliseconds.
+     * @return this builder.
+     */
+    public Builder<K, V> refreshAfterWrite(final long duration) {
+      if (duration < 1) {
+        throw new IllegalArgumentException("Duration must be positive.");
+      }
+      this.refreshAfterWrite = duration;
+      return this;
+    }
+
+    /**
+     * Sets the executor that runs the asynchronous loads and refreshes of a
+     * {@link LoadingCache}. By default a shared pool of daemon threads is
+     * used.
+     * 
+     * @param executor
+     *          the executor.
+     * @return this builder.
+     */
+    public Builder<K, V> executor(final Executor executor) {
+      if (executor == null) {
+        throw new IllegalArgumentException("Executor cannot be null.");
+      }
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Creates a new, empty cache with the settings of this builder.
+     * 
+     * @return the new cache.
+     */
+    public ConcurrentLRUCache<K, V> build() {
+      return new ConcurrentLRUCache<K, V>(this);
+    }
+
+    /**
+     * Creates a new, empty cache with the settings of this builder that loads
+     * missing values.
+     * 
+     * @param loader
+     *          loads the value of a key.
+     * @return the new cache.
+     */
+    public LoadingCache<K, V> build(final CacheLoader<? super K, V> loader) {
+      if (loader == null) {
+        throw new IllegalArgumentException("Loader cannot be null.");
+      }
+      return new LoadingCache<K, V>(this, loader, this.refreshAfterWrite,
+          this.executor);
+    }
+  }
+
+  /**
+   * Queue of an entry in the admission window, or of all entries without
+   * frequency-based admission.
+   */
+  static final byte WINDOW = 0;
+
+  /**
+   * Queue of an entry on probation in the main part of the cache.
+   */
+  static final byte PROBATION = 1;
+
+  /**
+   * Queue of an entry that was used while on probation.
+   */
+  static final byte PROTECTED = 2;
+
+  /**
+   * A cache entry and its position in the recency order.
+   * 
+   * @param <K>
+   *          the type of key.
+   * @param <V>
+   *          the type of value.
+   */
+  static final class Node<K, V> {
+    /**
+     * The key of the entry.
+     */
+    final K key;
+
+    /**
+     * The value of the entry.
+     */
+    volatile V value;
+
+    /**
+     * Set once the entry has been removed from the map.
+     */
+    volatile boolean retired = false;
+
+    /**
+     * The previous (less recently used) entry, guarded by the eviction lock.
+     */
+    Node<K, V> prev;
+
+    /**
+     * The next (more recently used) entry, guarded by the eviction lock.
+     */
+    Node<K, V> next;
+
+    /**
+     * Whether this entry is in the recency order, guarded by the eviction
+     * lock.
+     */
+    boolean linked = false;
+
+    /**
+     * The queue containing this entry, guarded by the eviction lock.
+     */
+    byte queue = WINDOW;
+
+    /**
+     * The weight of the current value.
+     */
+    volatile int weight;
+
+    /**
+     * The weight of this entry as counted by the queues, guarded by the
+     * eviction lock.
+     */
+    int policyWeight = 0;
+
+    /**
+     * The time when the value was written, if entries expire or are
+     * refreshed.
+     */
+    volatile long writeTime;
+
+    /**
+     * The time when the entry was last read or written, if entries expire or
+     * are refreshed.
+     */
+    volatile long accessTime;
+
+    /**
+     * The previous entry in the same timer wheel bucket, guarded by the
+     * eviction lock.
+     */
+    Node<K, V> timerPrev;
+
+    /**
+     * The next entry in the same timer wheel bucket, guarded by the eviction
+     * lock.
+     */
+    Node<K, V> timerNext;
+
+    /**
+     * Creates a new entry.
+     * 
+     * @param key
+     *          the key.
+     * @param value
+     *          the value.
+     */
+    Node(final K key, final V value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * A doubly-linked list of entries ordered from least to most recently used.
+   * Only accessed while holding the eviction lock.
+   * 
+   * @param <K>
+   *          the type of key.
+   * @param <V>
+   *          the type of value.
+   */
+  static final class AccessOrder<K, V> {
+    /**
+     * The least recently used entry.
+     */
+    Node<K, V> head;
+
+    /**
+     * The most recently used entry.
+     */
+    Node<K, V> tail;
+
+    /**
+     * Adds an entry as the most recently used.
+     * 
+     * @param node
+     *          the entry to add.
+     */
+    void linkLast(final Node<K, V> node) {
+      node.prev = this.tail;
+      node.next = null;
+      if (this.tail == null) {
+        this.head = node;
+      } else {
+        this.tail.next = node;
+      }
+      this.tail = node;
+      node.linked = true;
+    }
+
+    /**
+     * Removes an entry from the list.
+     * 
+     * @param node
+     *          the entry to remove.
+     */
+    void unlink(final Node<K, V> node) {
+      if (node.prev == null) {
+        this.head = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        this.tail = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+      node.linked = false;
+    }
+
+    /**
+     * Moves an entry to the most recently used position.
+     * 
+     * @param node
+     *          the entry to move.
+     */
+    void moveToBack(final Node<K, V> node) {
+      if (node != this.tail) {
+        this.unlink(node);
+        this.linkLast(node);
+      }
+    }
+  }
+
+  /**
+   * A lossy buffer of entries that have been read.
+   * 
+   * @param <K>
+   *          the type of key.
+   * @param <V>
+   *          the type of value.
+   */
+  static final class ReadBuffer<K, V> {
+    /**
+     * The number of slots in each buffer.
+     */
+    static final int SIZE = 16;
+
+    /**
+     * The recorded entries.
+     */
+    final AtomicReferenceArray<Node<K, V>> slots =
+        new AtomicReferenceArray<Node<K, V>>(SIZE);
+
+    /**
+     * The number of entries recorded.
+     */
+    final AtomicLong writeCount = new AtomicLong(0);
+
+    /**
+     * The number of entries replayed, only written while holding the eviction
+     * lock.
+     */
+    volatile long readCount = 0;
+
+    /**
+     * Records an entry, unless the buffer is full.
+     * 
+     * @param node
+     *          the entry that was read.
+     * @return the number of entries waiting to be replayed.
+     */
+    int record(final Node<K, V> node) {
+      long write = this.writeCount.get();
+      int pending = (int) (write - this.readCount);
+      if (pending < SIZE && this.writeCount.compareAndSet(write, write + 1)) {
+        this.slots.lazySet((int) write & (SIZE - 1), node);
+        ++pending;
+      }
+      return pending;
+    }
+  }
+
+  /**
+   * The number of buffered reads in a single buffer that will cause the
+   * reading thread to replay them.
+   */
+  static final int READ_DRAIN_THRESHOLD = ReadBuffer.SIZE / 2;
+
+  /**
+   * The largest number of entries that the frequency sketch is sized for.
+   */
+  static final int MAX_SKETCH_SIZE = 1 << 20;
+
+  /**
+   * The cached entries.
+   */
+  final ConcurrentHashMap<K, Node<K, V>> data;
+
+  /**
+   * The maximum total weight of entries.
+   */
+  private final long maximumWeight;
+
+  /**
+   * Calculates the weight of each entry.
+   */
+  private final Weigher<? super K, ? super V> weigher;
+
+  /**
+   * Lock held while changing the recency order or evicting entries.
+   */
+  final ReentrantLock evictionLock = new ReentrantLock();
+
+  /**
+   * Time after an entry is written when it expires, or 0 for never.
+   */
+  private final long expireAfterWrite;
+
+  /**
+   * Time after an entry is last accessed when it expires, or 0 for never.
+   */
+  private final long expireAfterAccess;
+
+  /**
+   * The source of the current time.
+   */
+  private final TimeSource timeSource;
+
+  /**
+   * Schedules the expiration of entries, or {@code null} if entries do not
+   * expire. Guarded by {@link #evictionLock}.
+   */
+  private final TimerWheel<K, V> wheel;
+
+  /**
+   * Whether entries record the time they were written.
+   */
+  private final boolean recordTime;
+
+  /**
+   * Estimated frequencies of keys, or {@code null} if entries are always
+   * admitted. Guarded by {@link #evictionLock}.
+   */
+  private final FrequencySketch sketch;
+
+  /**
+   * The maximum weight of entries in {@link #window}.
+   */
+  private final long windowMaximum;
+
+  /**
+   * The maximum weight of entries in {@link #protectedQueue}.
+   */
+  private final long protectedMaximum;
+
+  /**
+   * Recently added entries in the order they were used, or all entries if
+   * {@link #sketch} is {@code null}. Guarded by {@link #evictionLock}.
+   */
+  private final AccessOrder<K, V> window = new AccessOrder<K, V>();
+
+  /**
+   * Admitted entries that have not been used since admission, in the order
+   * they were used. Guarded by {@link #evictionLock}.
+   */
+  private final AccessOrder<K, V> probation = new AccessOrder<K, V>();
+
+  /**
+   * Admitted entries that have been used since admission, in the order they
+   * were used. Guarded by {@link #evictionLock}.
+   */
+  private final AccessOrder<K, V> protectedQueue = new AccessOrder<K, V>();
+
+  /**
+   * The weight of entries in {@link #window}, guarded by
+   * {@link #evictionLock}.
+   */
+  private long windowWeight = 0;
+
+  /**
+   * The weight of entries in {@link #protectedQueue}, guarded by
+   * {@link #evictionLock}.
+   */
+  private long protectedWeight = 0;
+
+  /**
+   * The weight of entries in all queues, guarded by {@link #evictionLock}.
+   */
+  private long totalWeight = 0;
+
+  /**
+   * Buffers of entries that have been read.
+   */
+  private final ReadBuffer<K, V>[] readBuffers;
+
+  /**
+   * Entries that have been added or removed but not yet applied to the recency
+   * order.
+   */
+  private final Queue<Node<K, V>> writeBuffer =
+      new ConcurrentLinkedQueue<Node<K, V>>();
+
+  /**
+   * Creates a new LRU cache.
+   * 
+   * @param capacity
+   *          the maximum number of entries in the cache.
+   */
+  public ConcurrentLRUCache(final int capacity) {
+    this(new Builder<K, V>().capacity(capacity));
+  }
+
+  /**
+   * Creates a new cache with the settings of a builder.
+   * 
+   * @param builder
+   *          the settings of the cache.
+   */
+  ConcurrentLRUCache(final Builder<K, V> builder) {
+    long maximum = builder.maximumWeight;
+    if (maximum < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1.");
+    }
+    this.maximumWeight = maximum;
+    this.weigher = builder.weigher;
+    if (builder.frequencyAdmission) {
+      this.sketch = new FrequencySketch((int) Math.min(maximum,
+          MAX_SKETCH_SIZE));
+      this.windowMaximum = Math.max(1, maximum / 100);
+      this.protectedMaximum = (maximum - this.windowMaximum) * 4 / 5;
+    } else {
+      this.sketch = null;
+      this.windowMaximum = maximum;
+      this.protectedMaximum = 0;
+    }
+    this.expireAfterWrite = builder.expireAfterWrite;
+    this.expireAfterAccess = builder.expireAfterAccess;
+    this.timeSource = builder.timeSource;
+    if (this.expireAfterWrite > 0 || this.expireAfterAccess > 0) {
+      this.wheel = new TimerWheel<K, V>(this,
+          this.timeSource.currentTimeMillis());
+    } else {
+      this.wheel = null;
+    }
+    this.recordTime = this.wheel != null || builder.refreshAfterWrite > 0;
+    this.data = new ConcurrentHashMap<K, Node<K, V>>(
+        (int) Math.min(maximum, 1024));
+    int processors = Runtime.getRuntime().availableProcessors();
+    int numBuffers = Integer.highestOneBit(processors);
+    if (numBuffers < processors) {
+      numBuffers <<= 1;
+    }
+    @SuppressWarnings("unchecked")
+    ReadBuffer<K, V>[] buffers =
+        (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[numBuffers];
+    this.readBuffers = buffers;
+    for (int i = 0; i < numBuffers; ++i) {
+      this.readBuffers[i] = new ReadBuffer<K, V>();
+    }
+  }
+
+  /**
+   * Returns the maximum total weight of the entries in this cache, which is
+   * the maximum number of entries unless a weigher was set.
+   * 
+   * @return the capacity of this cache.
+   */
+  public long getCapacity() {
+    return this.maximumWeight;
+  }
+
+  /**
+   * Returns the total weight of the entries in this cache, after applying any
+   * buffered writes.
+   * 
+   * @return the total weight of the entries.
+   */
+  public long getWeightedSize() {
+    this.evictionLock.lock();
+    try {
+      this.maintenance();
+      return this.totalWeight;
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of entries in this cache, including any expired
+   * entries that have not yet been removed.
+   * 
+   * @return the number of entries.
+   */
+  public int size() {
+    return this.data.size();
+  }
+
+  /**
+   * Returns the value cached for a key, and marks it as recently used.
+   * 
+   * @param key
+   *          the key to look up.
+   * @return the cached value, or {@code null} if the key is not cached.
+   */
+  public V get(final Object key) {
+    Node<K, V> node = this.getNode(key, this.recordTime ? this.now() : 0);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Returns the entry for a key, and marks it as recently used.
+   * 
+   * @param key
+   *          the key to look up.
+   * @param now
+   *          the current time, if entries record it.
+   * @return the entry, or {@code null} if the key is not cached or has
+   *         expired.
+   */
+  Node<K, V> getNode(final Object key, final long now) {
+    Node<K, V> node = this.data.get(key);
+    if (node == null) {
+      return null;
+    }
+    if (this.wheel != null) {
+      if (this.hasExpired(node, now)) {
+        return null;
+      }
+      if (this.expireAfterAccess > 0) {
+        node.accessTime = now;
+      }
+    }
+    this.afterRead(node);
+    return node;
+  }
+
+  /**
+   * Returns the current time from the time source of this cache.
+   * 
+   * @return the current time, in milliseconds.
+   */
+  long now() {
+    return this.timeSource.currentTimeMillis();
+  }
+
+  /**
+   * Determines whether a key is cached, without marking it as recently used.
+   * 
+   * @param key
+   *          the key to look up.
+   * @return {@code true} if the key is cached.
+   */
+  public boolean containsKey(final Object key) {
+    Node<K, V> node = this.data.get(key);
+    return node != null
+        && (this.wheel == null || !this.hasExpired(node,
+            this.timeSource.currentTimeMillis()));
+  }
+
+  /**
+   * Caches a value, replacing any value already cached for the key. If the
+   * cache is full, the least recently used entries are evicted.
+   * 
+   * @param key
+   *          the key.
+   * @param value
+   *          the value.
+   * @return the value previously cached for the key, or {@code null} if there
+   *         was none.
+   */
+  public V put(final K key, final V value) {
+    return this.put(key, value, false);
+  }
+
+  /**
+   * Caches a value if no value is cached for the key.
+   * 
+   * @param key
+   *          the key.
+   * @param value
+   *          the value.
+   * @return the value already cached for the key, or {@code null} if
+   *         {@code value} was added.
+   */
+  public V putIfAbsent(final K key, final V value) {
+    return this.put(key, value, true);
+  }
+
+  /**
+   * Adds or replaces a value.
+   * 
+   * @param key
+   *          the key.
+   * @param value
+   *          the value.
+   * @param onlyIfAbsent
+   *          {@code true} to keep an existing value.
+   * @return the previous value, or {@code null} if there was none.
+   */
+  private V put(final K key, final V value, final boolean onlyIfAbsent) {
+    if (value == null) {
+      throw new NullPointerException("Cached values cannot be null.");
+    }
+    int weight = this.weigher.weigh(key, value);
+    if (weight < 0) {
+      throw new IllegalArgumentException("Weight cannot be negative.");
+    }
+    long now = this.recordTime ? this.now() : 0;
+    Node<K, V> node = new Node<K, V>(key, value);
+    node.weight = weight;
+    node.writeTime = now;
+    node.accessTime = now;
+    while (true) {
+      Node<K, V> prior = this.data.putIfAbsent(key, node);
+      if (prior == null) {
+        this.afterWrite(node);
+        return null;
+      }
+      V old;
+      boolean replaced;
+      synchronized (prior) {
+        if (prior.retired) {
+          // Expired and removed from the map, so try again
+          continue;
+        }
+        boolean expired = this.wheel != null && this.hasExpired(prior, now);
+        old = expired ? null : prior.value;
+        replaced = expired || !onlyIfAbsent;
+        if (replaced) {
+          prior.value = value;
+          prior.weight = weight;
+          prior.writeTime = now;
+          prior.accessTime = now;
+        } else if (this.expireAfterAccess > 0) {
+          prior.accessTime = now;
+        }
+      }
+      if (replaced) {
+        // Queued so the new weight and expiration time are counted
+        this.afterWrite(prior);
+      } else {
+        this.afterRead(prior);
+      }
+      return old;
+    }
+  }
+
+  /**
+   * Removes a key from this cache.
+   * 
+   * @param key
+   *          the key to remove.
+   * @return the value that was cached, or {@code null} if there was none.
+   */
+  public V remove(final Object key) {
+    while (true) {
+      Node<K, V> node = this.data.get(key);
+      if (node == null) {
+        return null;
+      }
+      V value;
+      // Retired under the entry's lock so that a concurrent put either
+      // replaces the value before it is removed or sees the entry as retired
+      synchronized (node) {
+        if (!this.data.remove(key, node)) {
+          continue;
+        }
+        node.retired = true;
+        value = node.value;
+      }
+      this.afterWrite(node);
+      if (this.wheel != null
+          && this.hasExpired(node, this.timeSource.currentTimeMillis())) {
+        return null;
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Replaces the value of an entry only if it is still cached and still holds
+   * {@code expected}, so that a value loaded from an older state of the entry
+   * does not overwrite a newer write.
+   * 
+   * @param node
+   *          the entry.
+   * @param expected
+   *          the value the entry held when the load started.
+   * @param value
+   *          the new value.
+   * @return {@code true} if the value was replaced.
+   */
+  boolean replaceIfCurrent(final Node<K, V> node, final V expected,
+      final V value) {
+    int weight = this.weigher.weigh(node.key, value);
+    if (weight < 0) {
+      throw new IllegalArgumentException("Weight cannot be negative.");
+    }
+    long now = this.recordTime ? this.now() : 0;
+    synchronized (node) {
+      if (node.retired || node.value != expected
+          || this.data.get(node.key) != node) {
+        return false;
+      }
+      node.value = value;
+      node.weight = weight;
+      node.writeTime = now;
+      node.accessTime = now;
+    }
+    this.afterWrite(node);
+    return true;
+  }
+
+  /**
+   * Removes an entry only if it is still cached and still holds
+   * {@code expected}.
+   * 
+   * @param node
+   *          the entry.
+   * @param expected
+   *          the value the entry held when the load started.
+   * @return {@code true} if the entry was removed.
+   */
+  boolean removeIfCurrent(final Node<K, V> node, final V expected) {
+    synchronized (node) {
+      if (node.retired || node.value != expected
+          || !this.data.remove(node.key, node)) {
+        return false;
+      }
+      node.retired = true;
+    }
+    this.afterWrite(node);
+    return true;
+  }
+
+  /**
+   * Removes all entries from this cache.
+   */
+  public void clear() {
+    this.evictionLock.lock();
+    try {
+      for (Map.Entry<K, Node<K, V>> entry : this.data.entrySet()) {
+        Node<K, V> node = entry.getValue();
+        synchronized (node) {
+          if (!this.data.remove(entry.getKey(), node)) {
+            continue;
+          }
+          node.retired = true;
+        }
+        this.writeBuffer.add(node);
+      }
+      this.maintenance();
+      if (this.sketch != null) {
+        this.sketch.clear();
+      }
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Applies all buffered reads and writes and evicts any excess entries.
+   * Calling this method is never required, but it makes the recency order
+   * exact.
+   */
+  public void cleanUp() {
+    this.evictionLock.lock();
+    try {
+      this.maintenance();
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the cached keys from least to most recently used. With
+   * frequency-based admission, the keys on probation are listed first, then
+   * the protected keys and finally the keys in the admission window, each from
+   * least to most recently used.
+   * 
+   * @return the keys in recency order.
+   */
+  public List<K> keysByRecency() {
+    this.evictionLock.lock();
+    try {
+      this.maintenance();
+      List<K> keys = new ArrayList<K>(this.data.size());
+      addKeys(this.probation, keys);
+      addKeys(this.protectedQueue, keys);
+      addKeys(this.window, keys);
+      return keys;
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Records a read of an entry, and replays the buffered reads if enough have
+   * accumulated and no other thread is doing so.
+   * 
+   * @param node
+   *          the entry that was read.
+   */
+  private void afterRead(final Node<K, V> node) {
+    long id = Thread.currentThread().getId();
+    int hash = (int) (id ^ (id >>> 32));
+    hash ^= (hash >>> 16);
+    ReadBuffer<K, V> buffer = this.readBuffers[hash
+        & (this.readBuffers.length - 1)];
+    if (buffer.record(node) >= READ_DRAIN_THRESHOLD
+        && this.evictionLock.tryLock()) {
+      try {
+        this.maintenance();
+      } finally {
+        this.evictionLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Queues an added, replaced or removed entry and applies the queued writes
+   * until none remain or another thread takes over.
+   * 
+   * @param node
+   *          the entry that was added, replaced or removed.
+   */
+  private void afterWrite(final Node<K, V> node) {
+    this.writeBuffer.add(node);
+    while (!this.writeBuffer.isEmpty() && this.evictionLock.tryLock()) {
+      try {
+        this.maintenance();
+      } finally {
+        this.evictionLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Replays buffered reads and writes and evicts excess entries. Must be called
+   * while holding {@link #evictionLock}.
+   */
+  private void maintenance() {
+    for (ReadBuffer<K, V> buffer : this.readBuffers) {
+      this.drainReadBuffer(buffer);
+    }
+    Node<K, V> node;
+    while ((node = this.writeBuffer.poll()) != null) {
+      if (node.retired) {
+        if (node.linked) {
+          this.unlink(node);
+        }
+      } else if (!node.linked) {
+        if (this.sketch != null) {
+          this.sketch.increment(node.key);
+        }
+        node.queue = WINDOW;
+        node.policyWeight = node.weight;
+        this.window.linkLast(node);
+        this.windowWeight += node.policyWeight;
+        this.totalWeight += node.policyWeight;
+        if (this.wheel != null) {
+          this.wheel.schedule(node);
+        }
+        if (node.policyWeight > this.maximumWeight) {
+          this.evictNode(node);
+        }
+      } else {
+        // Value was replaced
+        int delta = node.weight - node.policyWeight;
+        node.policyWeight += delta;
+        if (node.queue == WINDOW) {
+          this.windowWeight += delta;
+        } else if (node.queue == PROTECTED) {
+          this.protectedWeight += delta;
+        }
+        this.totalWeight += delta;
+        if (this.wheel != null) {
+          this.wheel.reschedule(node);
+        }
+        if (node.policyWeight > this.maximumWeight) {
+          this.evictNode(node);
+        } else {
+          this.onAccess(node);
+        }
+      }
+    }
+    if (this.wheel != null) {
+      this.wheel.advance(this.timeSource.currentTimeMillis());
+    }
+    this.evict();
+  }
+
+  /**
+   * Determines whether an entry has expired.
+   * 
+   * @param node
+   *          the entry.
+   * @param now
+   *          the current time, in milliseconds.
+   * @return {@code true} if the entry has expired.
+   */
+  private boolean hasExpired(final Node<K, V> node, final long now) {
+    if (this.expireAfterWrite > 0
+        && now - node.writeTime >= this.expireAfterWrite) {
+      return true;
+    }
+    return this.expireAfterAccess > 0
+        && now - node.accessTime >= this.expireAfterAccess;
+  }
+
+  /**
+   * Returns the time when an entry expires.
+   * 
+   * @param node
+   *          the entry.
+   * @return the expiration time, in milliseconds, or {@link Long#MAX_VALUE}
+   *         if the entry does not expire.
+   */
+  long getExpirationTime(final Node<K, V> node) {
+    long expiration = Long.MAX_VALUE;
+    if (this.expireAfterWrite > 0) {
+      expiration = node.writeTime + this.expireAfterWrite;
+    }
+    if (this.expireAfterAccess > 0) {
+      expiration = Math.min(expiration, node.accessTime
+          + this.expireAfterAccess);
+    }
+    return expiration;
+  }
+
+  /**
+   * Removes an entry if it has expired. Called by the timer wheel while
+   * holding {@link #evictionLock}, after the entry has been taken out of its
+   * bucket.
+   * 
+   * @param node
+   *          the entry.
+   * @param now
+   *          the current time, in milliseconds.
+   * @return {@code true} if the entry was removed, or {@code false} if it has
+   *         not expired and must be rescheduled.
+   */
+  boolean expireNode(final Node<K, V> node, final long now) {
+    synchronized (node) {
+      if (!this.hasExpired(node, now)) {
+        return false;
+      }
+      this.data.remove(node.key, node);
+      node.retired = true;
+    }
+    if (node.linked) {
+      this.unlink(node);
+    }
+    return true;
+  }
+
+  /**
+   * Evicts entries until the total weight is within the maximum. Must be called
+   * while holding {@link #evictionLock}.
+   */
+  private void evict() {
+    if (this.sketch != null) {
+      // Entries leaving the window compete with the first entry on probation
+      while (this.windowWeight > this.windowMaximum) {
+        Node<K, V> candidate = this.window.head;
+        this.window.unlink(candidate);
+        this.windowWeight -= candidate.policyWeight;
+        candidate.queue = PROBATION;
+        this.probation.linkLast(candidate);
+        if (this.totalWeight > this.maximumWeight) {
+          Node<K, V> victim = this.probation.head;
+          if (victim == candidate) {
+            victim = this.protectedQueue.head;
+          }
+          if (victim != null
+              && this.sketch.frequency(candidate.key) > this.sketch
+                  .frequency(victim.key)) {
+            this.evictNode(victim);
+          } else {
+            this.evictNode(candidate);
+          }
+        }
+      }
+    }
+    while (this.totalWeight > this.maximumWeight) {
+      Node<K, V> victim = this.probation.head;
+      if (victim == null) {
+        victim = this.protectedQueue.head;
+      }
+      if (victim == null) {
+        victim = this.window.head;
+      }
+      this.evictNode(victim);
+    }
+  }
+
+  /**
+   * Removes an entry from the map and from its queue. Must be called while
+   * holding {@link #evictionLock}.
+   * 
+   * @param node
+   *          the entry to evict.
+   */
+  private void evictNode(final Node<K, V> node) {
+    synchronized (node) {
+      this.data.remove(node.key, node);
+      node.retired = true;
+    }
+    this.unlink(node);
+  }
+
+  /**
+   * Removes an entry from its queue. Must be called while holding
+   * {@link #evictionLock}.
+   * 
+   * @param node
+   *          the entry to remove.
+   */
+  private void unlink(final Node<K, V> node) {
+    if (this.wheel != null) {
+      this.wheel.deschedule(node);
+    }
+    if (node.queue == WINDOW) {
+      this.window.unlink(node);
+      this.windowWeight -= node.policyWeight;
+    } else if (node.queue == PROBATION) {
+      this.probation.unlink(node);
+    } else {
+      this.protectedQueue.unlink(node);
+      this.protectedWeight -= node.policyWeight;
+    }
+    this.totalWeight -= node.policyWeight;
+  }
+
+  /**
+   * Records a use of an entry by moving it to the most recently used position
+   * of its queue, or from probation to the protected queue. Must be called
+   * while holding {@link #evictionLock}.
+   * 
+   * @param node
+   *          the entry that was used.
+   */
+  private void onAccess(final Node<K, V> node) {
+    if (this.sketch != null) {
+      this.sketch.increment(node.key);
+    }
+    if (this.expireAfterAccess > 0) {
+      this.wheel.reschedule(node);
+    }
+    if (node.queue == WINDOW) {
+      this.window.moveToBack(node);
+    } else if (node.queue == PROTECTED) {
+      this.protectedQueue.moveToBack(node);
+    } else {
+      this.probation.unlink(node);
+      node.queue = PROTECTED;
+      this.protectedQueue.linkLast(node);
+      this.protectedWeight += node.policyWeight;
+      while (this.protectedWeight > this.protectedMaximum) {
+        Node<K, V> demoted = this.protectedQueue.head;
+        this.protectedQueue.unlink(demoted);
+        this.protectedWeight -= demoted.policyWeight;
+        demoted.queue = PROBATION;
+        this.probation.linkLast(demoted);
+      }
+    }
+  }
+
+  /**
+   * Adds the keys in a queue to a list.
+   * 
+   * @param queue
+   *          the queue.
+   * @param keys
+   *          the list to add to.
+   */
+  private static <K, V> void addKeys(final AccessOrder<K, V> queue,
+      final List<K> keys) {
+    for (Node<K, V> node = queue.head; node != null; node = node.next) {
+      keys.add(node.key);
+    }
+  }
+
+  /**
+   * Moves the entries recorded in a read buffer to the most recently used
+   * position. Must be called while holding {@link #evictionLock}.
+   * 
+   * @param buffer
+   *          the buffer to replay.
+   */
+  private void drainReadBuffer(final ReadBuffer<K, V> buffer) {
+    long read = buffer.readCount;
+    long write = buffer.writeCount.get();
+    for (; read < write; ++read) {
+      int index = (int) read & (ReadBuffer.SIZE - 1);
+      Node<K, V> node = buffer.slots.get(index);
+      if (node == null) {
+        // Claimed but not yet written
+        break;
+      }
+      buffer.slots.lazySet(index, null);
+      if (node.linked) {
+        this.onAccess(node);
+      }
+    }
+    buffer.readCount = read;
+  }
+}
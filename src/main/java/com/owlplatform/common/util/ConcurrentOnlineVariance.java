@@ -0,0 +1,419 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe version of {@link OnlineVariance} that can be updated by many
+ * threads at once without external synchronization. The history size and age
+ * gap have the same meaning as for {@code OnlineVariance}.
+ * 
+ * <p>
+ * Writers place their values in a preallocated ring and return. Whichever
+ * writer acquires the update lock applies all pending values in the order they
+ * were added, so a single thread updates the variance at any time and other
+ * writers never wait for it unless the ring is full. After each batch of
+ * values an immutable {@link Snapshot} is published, so readers always see a
+ * consistent mean, variance and count without blocking writers.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ConcurrentOnlineVariance {
+
+  /**
+   * An immutable view of the variance at some point in time.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static final class Snapshot {
+    /**
+     * The variance of the values in the history.
+     */
+    private final float variance;
+
+    /**
+     * The mean of the values in the history.
+     */
+    private final float mean;
+
+    /**
+     * The number of values in the history.
+     */
+    private final int count;
+
+    /**
+     * The total number of values applied before this snapshot was taken.
+     */
+    private final long sequence;
+
+    /**
+     * Creates a new snapshot.
+     * 
+     * @param variance
+     *          the variance.
+     * @param mean
+     *          the mean.
+     * @param count
+     *          the number of values in the history.
+     * @param sequence
+     *          the total number of values applied.
+     */
+    Snapshot(final float variance, final float mean, final int count,
+        final long sequence) {
+      this.variance = variance;
+      this.mean = mean;
+      this.count = count;
+      this.sequence = sequence;
+    }
+
+    /**
+     * Returns the variance of the values in the history.
+     * 
+     * @return the variance, or 0 if fewer than two values are in the history.
+     */
+    public float getVariance() {
+      return this.variance;
+    }
+
+    /**
+     * Returns the mean of the values in the history.
+     * 
+     * @return the mean, or 0 if no values are in the history.
+     */
+    public float getMean() {
+      return this.mean;
+    }
+
+    /**
+     * Returns the number of values in the history.
+     * 
+     * @return the number of values in the history.
+     */
+    public int getCount() {
+      return this.count;
+    }
+
+    /**
+     * Returns the total number of values that had been applied when this
+     * snapshot was taken, including those that have since left the history.
+     * 
+     * @return the number of values applied.
+     */
+    public long getSequence() {
+      return this.sequence;
+    }
+
+    @Override
+    public String toString() {
+      return "Variance " + this.variance + " (mean " + this.mean + ", "
+          + this.count + " values)";
+    }
+  }
+
+  /**
+   * The default number of pending values that can be buffered.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+  /**
+   * The variance, only accessed while holding {@link #lock}.
+   */
+  private final OnlineVariance variance = new OnlineVariance();
+
+  /**
+   * Lock held by the thread applying pending values.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Pending values.
+   */
+  private final float[] values;
+
+  /**
+   * Times at which the pending values were added.
+   */
+  private final long[] times;
+
+  /**
+   * The sequence number of the value in each slot, set once the value and time
+   * have been written.
+   */
+  private final AtomicLongArray published;
+
+  /**
+   * Mask applied to a sequence number to find its slot.
+   */
+  private final int mask;
+
+  /**
+   * The next sequence number to be claimed by a writer.
+   */
+  private final AtomicLong claimed = new AtomicLong(0);
+
+  /**
+   * The next sequence number to be applied to the variance.
+   */
+  private final AtomicLong applied = new AtomicLong(0);
+
+  /**
+   * The most recently published snapshot.
+   */
+  private volatile Snapshot snapshot = new Snapshot(0, 0, 0, 0);
+
+  /**
+   * Creates a new variance with a buffer of {@link #DEFAULT_BUFFER_SIZE}
+   * pending values.
+   */
+  public ConcurrentOnlineVariance() {
+    this(DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new variance.
+   * 
+   * @param bufferSize
+   *          the number of pending values that can be buffered, rounded up to
+   *          a power of two.
+   */
+  public ConcurrentOnlineVariance(final int bufferSize) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer size must be at least 1.");
+    }
+    int size = Integer.highestOneBit(bufferSize);
+    if (size < bufferSize) {
+      size <<= 1;
+    }
+    this.values = new float[size];
+    this.times = new long[size];
+    this.published = new AtomicLongArray(size);
+    for (int i = 0; i < size; ++i) {
+      this.published.set(i, -1);
+    }
+    this.mask = size - 1;
+  }
+
+  /**
+   * Adds a value to this variance using the current time.
+   * 
+   * @param value
+   *          the value to add.
+   * @return the most recently published variance.
+   * @see #addValue(float, long)
+   */
+  public float addValue(final float value) {
+    return this.addValue(value, System.currentTimeMillis());
+  }
+
+  /**
+   * Adds a value to this variance. The value is applied either by the calling
+   * thread or by another writer that is already applying values, so the
+   * returned variance may not yet include it. It is always included once all
+   * concurrent calls to this method have returned.
+   * 
+   * @param value
+   *          the value to add.
+   * @param now
+   *          the time at which the value was observed, in milliseconds.
+   * @return the most recently published variance.
+   */
+  public float addValue(final float value, final long now) {
+    long seq;
+    while (true) {
+      seq = this.claimed.get();
+      if (seq - this.applied.get() >= this.values.length) {
+        // Buffer is full, so wait for the pending values to be applied
+        boolean progress;
+        this.lock.lock();
+        try {
+          progress = this.applyPending();
+        } finally {
+          this.lock.unlock();
+        }
+        if (!progress) {
+          // The oldest claimed slot has not been filled yet, so give its
+          // writer a chance to run instead of spinning on the lock
+          Thread.yield();
+        }
+      } else if (this.claimed.compareAndSet(seq, seq + 1)) {
+        break;
+      }
+    }
+    int index = (int) seq & this.mask;
+    this.values[index] = value;
+    this.times[index] = now;
+    this.published.set(index, seq);
+
+    // Apply pending values until none remain or another thread takes over
+    while (this.hasPending() && this.lock.tryLock()) {
+      try {
+        this.applyPending();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+    return this.snapshot.getVariance();
+  }
+
+  /**
+   * Determines whether the next value to be applied has been published.
+   * 
+   * @return {@code true} if a value is waiting to be applied.
+   */
+  private boolean hasPending() {
+    long next = this.applied.get();
+    return this.published.get((int) next & this.mask) == next;
+  }
+
+  /**
+   * Applies all published values to the variance and publishes a new snapshot.
+   * Must be called while holding {@link #lock}.
+   * 
+   * @return {@code true} if any values were applied.
+   */
+  private boolean applyPending() {
+    long next = this.applied.get();
+    long start = next;
+    int index = (int) next & this.mask;
+    while (this.published.get(index) == next) {
+      this.variance.addValue(this.values[index], this.times[index]);
+      ++next;
+      index = (int) next & this.mask;
+    }
+    if (next == start) {
+      return false;
+    }
+    this.applied.set(next);
+    this.publish();
+    return true;
+  }
+
+  /**
+   * Publishes a snapshot of the variance. Must be called while holding
+   * {@link #lock}.
+   */
+  private void publish() {
+    this.snapshot = new Snapshot(this.variance.getCurrentVariance(),
+        this.variance.getMean(), this.variance.sizeHistory,
+        this.applied.get());
+  }
+
+  /**
+   * Returns the most recently published snapshot of the variance. This method
+   * never blocks.
+   * 
+   * @return the current snapshot.
+   */
+  public Snapshot getSnapshot() {
+    return this.snapshot;
+  }
+
+  /**
+   * Returns the most recently published variance. This method never blocks.
+   * 
+   * @return the current variance.
+   */
+  public float getCurrentVariance() {
+    return this.snapshot.getVariance();
+  }
+
+  /**
+   * Returns the maximum number of values used to compute the variance.
+   * 
+   * @return the maximum history size.
+   * @see OnlineVariance#getMaxHistory()
+   */
+  public int getMaxHistory() {
+    this.lock.lock();
+    try {
+      return this.variance.getMaxHistory();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Sets the maximum number of values used to compute the variance. The
+   * history is resized when the next value is applied.
+   * 
+   * @param maxHistory
+   *          the new maximum history size.
+   * @see OnlineVariance#setMaxHistory(int)
+   */
+  public void setMaxHistory(final int maxHistory) {
+    this.lock.lock();
+    try {
+      this.variance.setMaxHistory(maxHistory);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the age gap after which the history is cleared.
+   * 
+   * @return the age gap, in milliseconds.
+   * @see OnlineVariance#getAgeGap()
+   */
+  public long getAgeGap() {
+    this.lock.lock();
+    try {
+      return this.variance.getAgeGap();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Sets the age gap after which the history is cleared.
+   * 
+   * @param ageGap
+   *          the new age gap, in milliseconds.
+   * @see OnlineVariance#setAgeGap(long)
+   */
+  public void setAgeGap(final long ageGap) {
+    this.lock.lock();
+    try {
+      this.variance.setAgeGap(ageGap);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Applies any pending values and then clears the history. Values added
+   * concurrently with this method may be applied before or after the reset.
+   */
+  public void reset() {
+    this.lock.lock();
+    try {
+      this.applyPending();
+      this.variance.reset();
+      this.publish();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+/**
+ * Computes an exponentially weighted moving mean and variance of a sequence of
+ * floating point values over time. Each value is weighted by how recently it
+ * was added: the weight of a value halves every {@code halfLife}
+ * milliseconds. Unlike {@link OnlineVariance}, no history is kept, so the
+ * state is a few primitive fields regardless of the rate of values.
+ * 
+ * <p>
+ * The weight given to a new value depends on the time since the previous
+ * value, {@code alpha = 1 - 2^(-elapsed / halfLife)}, so values that arrive
+ * after a long gap replace most of the old state while values in a burst each
+ * have a small effect. Values with the same timestamp as the previous value
+ * are treated as 1 millisecond apart. The variance is updated with West's
+ * weighted incremental formula.
+ * </p>
+ * 
+ * <p>
+ * For tables of many links, the static
+ * {@link #update(double[], int, float, double)} method applies the same
+ * update to state stored in a {@code double[]}, so no object is needed per
+ * link.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ExponentialVariance implements Cloneable {
+
+  /**
+   * The default half-life, in milliseconds.
+   */
+  public static final long DEFAULT_HALF_LIFE = 5000;
+
+  /**
+   * The number of {@code double} values used by
+   * {@link #update(double[], int, float, double)} for each sequence: mean,
+   * variance, and count.
+   */
+  public static final int STATE_SIZE = 3;
+
+  /**
+   * The natural logarithm of 2.
+   */
+  private static final double LN_2 = Math.log(2);
+
+  /**
+   * The half-life of the weight of a value, in milliseconds.
+   */
+  private long halfLife;
+
+  /**
+   * The current mean.
+   */
+  private double mean = 0;
+
+  /**
+   * The current variance.
+   */
+  private double variance = 0;
+
+  /**
+   * The number of values added since the last reset.
+   */
+  private long count = 0;
+
+  /**
+   * The time the last value was added.
+   */
+  private long lastTime = 0;
+
+  /**
+   * Creates a new variance with a half-life of {@link #DEFAULT_HALF_LIFE}.
+   */
+  public ExponentialVariance() {
+    this(DEFAULT_HALF_LIFE);
+  }
+
+  /**
+   * Creates a new variance.
+   * 
+   * @param halfLife
+   *          the time, in milliseconds, for the weight of a value to halve.
+   */
+  public ExponentialVariance(final long halfLife) {
+    this.setHalfLife(halfLife);
+  }
+
+  /**
+   * Returns the half-life of the weight of a value.
+   * 
+   * @return the half-life, in milliseconds.
+   */
+  public long getHalfLife() {
+    return this.halfLife;
+  }
+
+  /**
+   * Sets the half-life of the weight of a value. The change takes effect on
+   * the next call to {@code addValue}.
+   * 
+   * @param halfLife
+   *          the half-life, in milliseconds.
+   */
+  public void setHalfLife(final long halfLife) {
+    if (halfLife <= 0) {
+      throw new IllegalArgumentException("Half-life must be positive.");
+    }
+    this.halfLife = halfLife;
+  }
+
+  /**
+   * Adds a value with the current system time.
+   * 
+   * @param value
+   *          the value to add.
+   * @return the variance after adding the value.
+   */
+  public float addValue(final float value) {
+    return this.addValue(value, System.currentTimeMillis());
+  }
+
+  /**
+   * Adds a value.
+   * 
+   * @param value
+   *          the value to add.
+   * @param timestamp
+   *          the time of the value, in milliseconds.
+   * @return the variance after adding the value, or 0 if it is the first
+   *         value.
+   */
+  public float addValue(final float value, final long timestamp) {
+    if (this.count == 0) {
+      this.mean = value;
+      this.variance = 0;
+    } else {
+      double alpha = alpha(timestamp - this.lastTime, this.halfLife);
+      double diff = value - this.mean;
+      double increment = alpha * diff;
+      this.mean += increment;
+      this.variance = (1 - alpha) * (this.variance + diff * increment);
+    }
+    ++this.count;
+    this.lastTime = timestamp;
+    return (float) this.variance;
+  }
+
+  /**
+   * Returns the current mean.
+   * 
+   * @return the mean, or 0 if no values have been added.
+   */
+  public float getMean() {
+    return (float) this.mean;
+  }
+
+  /**
+   * Returns the current variance.
+   * 
+   * @return the variance, or 0 if fewer than two values have been added.
+   */
+  public float getVariance() {
+    return (float) this.variance;
+  }
+
+  /**
+   * Returns the number of values added since this object was created or
+   * reset.
+   * 
+   * @return the number of values.
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Returns the time the last value was added.
+   * 
+   * @return the time, in milliseconds.
+   */
+  public long getLastTime() {
+    return this.lastTime;
+  }
+
+  /**
+   * Resets the mean and variance to 0.
+   */
+  public void reset() {
+    this.mean = 0;
+    this.variance = 0;
+    this.count = 0;
+    this.lastTime = 0;
+  }
+
+  @Override
+  public ExponentialVariance clone() throws CloneNotSupportedException {
+    return (ExponentialVariance) super.clone();
+  }
+
+  /**
+   * Returns the weight of a new value given the time since the previous
+   * value.
+   * 
+   * @param elapsed
+   *          the time since the previous value, in milliseconds. Values less
+   *          than 1 are treated as 1.
+   * @param halfLife
+   *          the half-life of the weight of a value, in milliseconds.
+   * @return the weight of the new value, between 0 and 1.
+   */
+  public static double alpha(final long elapsed, final long halfLife) {
+    return -Math.expm1(-Math.max(elapsed, 1) * LN_2 / halfLife);
+  }
+
+  /**
+   * Updates the mean, variance and count of a sequence stored in an array at
+   * {@code offset}, {@code offset + 1} and {@code offset + 2}. The state of a
+   * new sequence is all zeros.
+   * 
+   * @param state
+   *          the array holding the state.
+   * @param offset
+   *          the index of the mean in {@code state}.
+   * @param value
+   *          the value to add.
+   * @param alpha
+   *          the weight of the value, as returned by
+   *          {@link #alpha(long, long)}.
+   * @return the variance after adding the value.
+   */
+  public static double update(final double[] state, final int offset,
+      final float value, final double alpha) {
+    if (state[offset + 2] == 0) {
+      state[offset] = value;
+      state[offset + 1] = 0;
+    } else {
+      double diff = value - state[offset];
+      double increment = alpha * diff;
+      state[offset] += increment;
+      state[offset + 1] = (1 - alpha) * (state[offset + 1] + diff * increment);
+    }
+    state[offset + 2] += 1;
+    return state[offset + 1];
+  }
+}
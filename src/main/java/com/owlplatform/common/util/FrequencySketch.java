@@ -0,0 +1,184 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+/**
+ * Estimates how often objects have been seen recently, using a count-min
+ * sketch of 4-bit counters. Each object is counted in four counters selected by
+ * different hashes, and its estimated frequency is the smallest of them, so
+ * estimates are never too low and rarely much too high. Counters saturate at
+ * 15, and once the number of increments reaches ten times the width of the
+ * sketch all counters are halved, so the sketch favors recent history.
+ * 
+ * <p>
+ * Sixteen counters are packed into each {@code long}, so the sketch uses 8
+ * bytes for every object it is sized for, regardless of how many objects are
+ * counted.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class FrequencySketch {
+
+  /**
+   * Seeds for the hash of each row.
+   */
+  private static final long[] SEEDS = new long[] { 0xc3a5c85c97cb3127L,
+      0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+  /**
+   * Mask that clears the high bit of every counter after shifting right.
+   */
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  /**
+   * Mask that selects the low bit of every counter.
+   */
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  /**
+   * The counters.
+   */
+  private final long[] table;
+
+  /**
+   * The number of increments after which the counters are halved.
+   */
+  private final int sampleSize;
+
+  /**
+   * The number of increments since the counters were last halved.
+   */
+  private int size = 0;
+
+  /**
+   * Creates a new sketch.
+   * 
+   * @param expectedSize
+   *          the number of distinct objects expected to be counted, rounded up
+   *          to a power of two.
+   */
+  public FrequencySketch(final int expectedSize) {
+    if (expectedSize < 1) {
+      throw new IllegalArgumentException("Expected size must be at least 1.");
+    }
+    int width = Integer.highestOneBit(expectedSize);
+    if (width < expectedSize) {
+      width <<= 1;
+    }
+    this.table = new long[width];
+    this.sampleSize = width >= (1 << 27) ? Integer.MAX_VALUE : 10 * width;
+  }
+
+  /**
+   * Returns the estimated number of times an object has been counted, up to
+   * 15.
+   * 
+   * @param item
+   *          the object.
+   * @return the estimated frequency of the object.
+   */
+  public int frequency(final Object item) {
+    int hash = spread(item.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; ++i) {
+      int index = this.indexOf(hash, i);
+      int count = (int) ((this.table[index] >>> ((start + i) << 2)) & 0xF);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Counts an object, unless all of its counters are saturated.
+   * 
+   * @param item
+   *          the object.
+   */
+  public void increment(final Object item) {
+    int hash = spread(item.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; ++i) {
+      int index = this.indexOf(hash, i);
+      int offset = (start + i) << 2;
+      long mask = 0xFL << offset;
+      if ((this.table[index] & mask) != mask) {
+        this.table[index] += 1L << offset;
+        added = true;
+      }
+    }
+    if (added && ++this.size >= this.sampleSize) {
+      this.halve();
+    }
+  }
+
+  /**
+   * Halves every counter.
+   */
+  private void halve() {
+    int odd = 0;
+    for (int i = 0; i < this.table.length; ++i) {
+      odd += Long.bitCount(this.table[i] & ONE_MASK);
+      this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+    }
+    this.size = (this.size - (odd >>> 2)) >>> 1;
+  }
+
+  /**
+   * Clears all counters.
+   */
+  public void clear() {
+    for (int i = 0; i < this.table.length; ++i) {
+      this.table[i] = 0;
+    }
+    this.size = 0;
+  }
+
+  /**
+   * Returns the index of the counters for an object in a row.
+   * 
+   * @param hash
+   *          the spread hash of the object.
+   * @param row
+   *          the row, from 0 to 3.
+   * @return the index in {@link #table}.
+   */
+  private int indexOf(final int hash, final int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 32;
+    return ((int) h) & (this.table.length - 1);
+  }
+
+  /**
+   * Mixes the bits of a hash code so that similar hash codes are spread
+   * across the table.
+   * 
+   * @param hashCode
+   *          the hash code.
+   * @return the spread hash.
+   */
+  private static int spread(final int hashCode) {
+    int x = ((hashCode >>> 16) ^ hashCode) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
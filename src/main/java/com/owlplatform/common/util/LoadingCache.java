@@ -0,0 +1,358 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ConcurrentLRUCache} that loads missing values with a
+ * {@link CacheLoader}. Loading caches are created by
+ * {@link ConcurrentLRUCache.Builder#build(CacheLoader)}.
+ * 
+ * <p>
+ * Concurrent requests for the same missing key are coalesced, so the key is
+ * loaded once and every caller receives the same value. Values can be loaded
+ * in the calling thread with {@link #getOrLoad(Object)} or by the cache's
+ * executor with {@link #getAsync(Object)}. If a refresh time was set, a value
+ * that is read after that time is reloaded by the executor while the old value
+ * continues to be returned, so frequently read keys are replaced before they
+ * expire and readers do not wait for them to load.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ * @param <K>
+ *          the type of keys in the cache.
+ * @param <V>
+ *          the type of values in the cache.
+ */
+public class LoadingCache<K, V> extends ConcurrentLRUCache<K, V> {
+
+  /**
+   * Holds the default executor, so that it is only created when needed.
+   */
+  private static final class DefaultExecutor {
+    /**
+     * A pool of daemon threads shared by all loading caches.
+     */
+    static final Executor INSTANCE = Executors
+        .newCachedThreadPool(new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "LoadingCache-"
+                + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * A load of a single key that other requests for the key can wait on.
+   */
+  private final class LoadTask extends FutureTask<V> {
+    /**
+     * The key being loaded.
+     */
+    private final K key;
+
+    /**
+     * Creates a new task.
+     * 
+     * @param key
+     *          the key being loaded.
+     * @param callable
+     *          loads the key.
+     */
+    LoadTask(final K key, final Callable<V> callable) {
+      super(callable);
+      this.key = key;
+    }
+
+    /**
+     * Completes this task with an exception, if it has not been run.
+     * 
+     * @param cause
+     *          the reason the task could not be run.
+     */
+    void fail(final Throwable cause) {
+      this.setException(cause);
+    }
+
+    @Override
+    protected void done() {
+      LoadingCache.this.loading.remove(this.key, this);
+    }
+  }
+
+  /**
+   * A future whose value is already available.
+   * 
+   * @param <V>
+   *          the type of value.
+   */
+  private static final class CompletedFuture<V> implements Future<V> {
+    /**
+     * The value.
+     */
+    private final V value;
+
+    /**
+     * Creates a new completed future.
+     * 
+     * @param value
+     *          the value.
+     */
+    CompletedFuture(final V value) {
+      this.value = value;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return true;
+    }
+
+    @Override
+    public V get() {
+      return this.value;
+    }
+
+    @Override
+    public V get(final long timeout, final TimeUnit unit) {
+      return this.value;
+    }
+  }
+
+  /**
+   * Loads missing values.
+   */
+  private final CacheLoader<? super K, V> loader;
+
+  /**
+   * Time after an entry is written when it is refreshed, or 0 for never.
+   */
+  private final long refreshAfterWrite;
+
+  /**
+   * Runs asynchronous loads and refreshes.
+   */
+  private final Executor executor;
+
+  /**
+   * Loads in progress, by key.
+   */
+  final ConcurrentHashMap<K, LoadTask> loading =
+      new ConcurrentHashMap<K, LoadTask>();
+
+  /**
+   * Creates a new loading cache.
+   * 
+   * @param builder
+   *          the settings of the cache.
+   * @param loader
+   *          loads missing values.
+   * @param refreshAfterWrite
+   *          time after an entry is written when it is refreshed, or 0 for
+   *          never.
+   * @param executor
+   *          runs asynchronous loads, or {@code null} for the default.
+   */
+  LoadingCache(final Builder<K, V> builder,
+      final CacheLoader<? super K, V> loader, final long refreshAfterWrite,
+      final Executor executor) {
+    super(builder);
+    this.loader = loader;
+    this.refreshAfterWrite = refreshAfterWrite;
+    this.executor = executor == null ? DefaultExecutor.INSTANCE : executor;
+  }
+
+  /**
+   * Returns the value of a key, loading it in the calling thread if it is not
+   * cached. If another thread is already loading the key, this method waits
+   * for that load instead.
+   * 
+   * @param key
+   *          the key.
+   * @return the value, or {@code null} if the loader has no value for the key.
+   * @throws InterruptedException
+   *           if interrupted while waiting for another thread's load.
+   * @throws ExecutionException
+   *           if the loader threw an exception.
+   */
+  public V getOrLoad(final K key) throws InterruptedException,
+      ExecutionException {
+    V value = this.getPresent(key);
+    if (value != null) {
+      return value;
+    }
+    LoadTask task = this.newTask(key, false);
+    LoadTask existing = this.loading.putIfAbsent(key, task);
+    if (existing != null) {
+      return existing.get();
+    }
+    task.run();
+    return task.get();
+  }
+
+  /**
+   * Returns the value of a key, loading it with the executor if it is not
+   * cached. If the key is already being loaded, the existing load is
+   * returned.
+   * 
+   * @param key
+   *          the key.
+   * @return the value or pending load of the key.
+   */
+  public Future<V> getAsync(final K key) {
+    V value = this.getPresent(key);
+    if (value != null) {
+      return new CompletedFuture<V>(value);
+    }
+    return this.submit(key, false);
+  }
+
+  /**
+   * Reloads the value of a key with the executor. The current value, if any,
+   * is returned by reads until the new value has been loaded. If the loader
+   * throws an exception the current value is kept, and if it returns
+   * {@code null} the key is removed. If the key is written or removed while it
+   * is being reloaded, the reloaded value is discarded.
+   * 
+   * @param key
+   *          the key.
+   * @return the pending load of the key, which may have been started earlier.
+   */
+  public Future<V> refresh(final K key) {
+    return this.submit(key, true);
+  }
+
+  /**
+   * Returns the cached value of a key, and starts a refresh if the value is
+   * due for one.
+   * 
+   * @param key
+   *          the key.
+   * @return the cached value, or {@code null} if it is not cached.
+   */
+  private V getPresent(final K key) {
+    long now = this.now();
+    Node<K, V> node = this.getNode(key, now);
+    if (node == null) {
+      return null;
+    }
+    V value = node.value;
+    if (this.refreshAfterWrite > 0
+        && now - node.writeTime >= this.refreshAfterWrite
+        && !this.loading.containsKey(key)) {
+      this.submit(key, true);
+    }
+    return value;
+  }
+
+  /**
+   * Starts a load with the executor, unless the key is already being loaded.
+   * 
+   * @param key
+   *          the key.
+   * @param refresh
+   *          {@code true} to load the key even if it is cached.
+   * @return the pending load.
+   */
+  private Future<V> submit(final K key, final boolean refresh) {
+    LoadTask task = this.newTask(key, refresh);
+    LoadTask existing = this.loading.putIfAbsent(key, task);
+    if (existing != null) {
+      return existing;
+    }
+    try {
+      this.executor.execute(task);
+    } catch (RuntimeException e) {
+      // Release any waiting threads
+      task.fail(e);
+    }
+    return task;
+  }
+
+  /**
+   * Creates a task that loads a key and caches the value.
+   * 
+   * @param key
+   *          the key.
+   * @param refresh
+   *          {@code true} to load the key even if it is cached.
+   * @return the new task.
+   */
+  private LoadTask newTask(final K key, final boolean refresh) {
+    return new LoadTask(key, new Callable<V>() {
+      @Override
+      public V call() throws Exception {
+        Node<K, V> node = null;
+        V expected = null;
+        if (refresh) {
+          // Only the entry seen now is replaced, so newer writes are kept
+          node = LoadingCache.this.data.get(key);
+          if (node != null) {
+            expected = node.value;
+          }
+        } else {
+          // A previous load may have finished since the caller missed
+          V cached = LoadingCache.this.get(key);
+          if (cached != null) {
+            return cached;
+          }
+        }
+        V value = LoadingCache.this.loader.load(key);
+        if (node == null) {
+          if (value != null) {
+            V prior = LoadingCache.this.putIfAbsent(key, value);
+            if (prior != null) {
+              return prior;
+            }
+          }
+        } else if (value != null) {
+          LoadingCache.this.replaceIfCurrent(node, expected, value);
+        } else {
+          LoadingCache.this.removeIfCurrent(node, expected);
+        }
+        return value;
+      }
+    });
+  }
+}
@@ -152,6 +152,44 @@ public class NumericUtils {
     return retVal;
   }
 
+  /**
+   * Reads 8 bytes from {@code bytes}, starting at {@code offset}, as a
+   * big-endian {@code long} value.
+   * 
+   * @param bytes
+   *          the source array.
+   * @param offset
+   *          the index of the most significant byte.
+   * @return the {@code long} value of the 8 bytes.
+   */
+  public static long readLong(final byte[] bytes, final int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; ++i) {
+      value = (value << 8) | (bytes[i] & 0xFF);
+    }
+    return value;
+  }
+
+  /**
+   * Writes {@code value} into {@code bytes} as 8 big-endian bytes, starting at
+   * {@code offset}.
+   * 
+   * @param value
+   *          the value to write.
+   * @param bytes
+   *          the destination array.
+   * @param offset
+   *          the index of the most significant byte.
+   */
+  public static void writeLong(final long value, final byte[] bytes,
+      final int offset) {
+    long remaining = value;
+    for (int i = offset + 7; i >= offset; --i) {
+      bytes[i] = (byte) remaining;
+      remaining >>>= 8;
+    }
+  }
+
   /**
    * Converts a single hexadecimal character into a byte. The value
    * of the character is stored in the lower 4 bits of the returned byte.
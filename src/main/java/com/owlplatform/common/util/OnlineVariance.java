@@ -19,26 +19,16 @@
 
 package com.owlplatform.common.util;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 /**
  * A utility class that computes the online/running variance of a sequence of
- * floating point values over time.
+ * floating point values over time. The most recent values are kept in a
+ * preallocated ring, so adding a value does not allocate.
  * 
  * @author Robert Moore
  * 
  */
 public class OnlineVariance implements Cloneable {
 
-  /**
-   * Logger for this class.
-   */
-  private static final Logger log = LoggerFactory
-      .getLogger(OnlineVariance.class);
-
   /**
    * The current online variance.
    */
@@ -55,9 +45,24 @@ public class OnlineVariance implements Cloneable {
   }
 
   /**
-   * History of values used to compute the variance.
+   * Returns the mean of the values currently in the history.
+   * 
+   * @return the current mean, or 0 if no values are in the history.
+   */
+  public float getMean() {
+    return (float) this.mean;
+  }
+
+  /**
+   * History of values used to compute the variance, stored as a ring that
+   * begins at {@link #historyStart} and contains {@link #sizeHistory} values.
+   */
+  protected float[] history = new float[5];
+
+  /**
+   * The index of the oldest value in the history.
    */
-  protected final ConcurrentLinkedQueue<Float> history = new ConcurrentLinkedQueue<Float>();
+  protected int historyStart = 0;
 
   /**
    * The current size of the history to use.
@@ -81,12 +86,16 @@ public class OnlineVariance implements Cloneable {
   /**
    * Sets the maximum number of values to use when computing the variance.
    * Changes to the maximum history will take effect on the next call to
-   * {@code addValue(float)}.
+   * {@code addValue(float)}. If the history is reduced, only the most recent
+   * values are kept.
    * 
    * @param maxHistory
    *          the maximum number of values to use.
    */
   public void setMaxHistory(int maxHistory) {
+    if (maxHistory < 1) {
+      throw new IllegalArgumentException("Maximum history must be at least 1.");
+    }
     this.maxHistory = maxHistory;
   }
 
@@ -122,13 +131,25 @@ public class OnlineVariance implements Cloneable {
   }
 
   /**
-   * The current running sum of the values.
+   * The mean of the values in the history.
    */
-  private float sum;
+  private double mean;
+
   /**
-   * The current running sum of squares of the values.
+   * Compensation for the rounding error of {@link #mean}.
    */
-  private float sum_squares;
+  private double meanError;
+
+  /**
+   * The sum of squared differences from the mean of the values in the
+   * history.
+   */
+  private double m2;
+
+  /**
+   * Compensation for the rounding error of {@link #m2}.
+   */
+  private double m2Error;
 
   /**
    * The last time a value was added.
@@ -147,58 +168,141 @@ public class OnlineVariance implements Cloneable {
    *         age gap passed)
    */
   public float addValue(final float value) {
-    long now = System.currentTimeMillis();
+    return this.addValue(value, System.currentTimeMillis());
+  }
+
+  /**
+   * Adds a value to this variance that was observed at the specified time. If
+   * the time between the previous addition and {@code now} exceeds the age gap
+   * for this object, then the variance will be reset to 0 before this value is
+   * added.
+   * 
+   * @param value
+   *          the value to add.
+   * @param now
+   *          the time at which the value was observed, in milliseconds.
+   * @return the current computed online variance, or 0 if none is available
+   *         (e.g., the initial value was added or a value was added after the
+   *         age gap passed)
+   */
+  public float addValue(final float value, final long now) {
     // If more than 15 seconds passed then clear the data since it is
     // too old at this point.
     if (now - this.last_time > this.ageGap) {
       this.reset();
     }
     this.last_time = now;
+    if (this.history.length != this.maxHistory) {
+      this.resizeHistory();
+    }
+    // Welford's updates for adding a value, or replacing the oldest value,
+    // with compensated summation so the mean and M2 do not drift.
     if (this.sizeHistory < this.maxHistory) {
-      this.sum += value;
-      this.sum_squares += Math.pow(value, 2);
+      int end = this.historyStart + this.sizeHistory;
+      if (end >= this.history.length) {
+        end -= this.history.length;
+      }
+      this.history[end] = value;
       ++this.sizeHistory;
+      double delta = value - this.mean;
+      this.addToMean(delta / this.sizeHistory);
+      this.addToM2(delta * (value - this.mean));
     } else {
-      Float oldest_val = this.history.poll();
-      if (oldest_val != null) {
-        this.sum = this.sum - oldest_val.floatValue() + value;
-        this.sum_squares = this.sum_squares - (float)Math.pow(oldest_val.floatValue(),2) + (float)Math
-                .pow(value, 2);
-      } else {
-        log.warn("Could not poll history to update variance.");
+      float oldest_val = this.history[this.historyStart];
+      this.history[this.historyStart] = value;
+      if (++this.historyStart == this.history.length) {
+        this.historyStart = 0;
       }
+      double oldMean = this.mean;
+      double delta = (double) value - oldest_val;
+      this.addToMean(delta / this.sizeHistory);
+      this.addToM2(delta * ((value - this.mean) + (oldest_val - oldMean)));
+    }
+    if (this.m2 < 0) {
+      this.m2 = 0;
+      this.m2Error = 0;
     }
-    this.history.offer(Float.valueOf(value));
 
     float degrees_of_freedom = this.sizeHistory - 1;
     if (degrees_of_freedom < 1.0) {
       return 0f;
     }
-    this.currentVariance = (this.sum_squares - ((float)Math.pow(this.sum,2) / this.sizeHistory))
-        / degrees_of_freedom;
+    this.currentVariance = (float) (this.m2 / degrees_of_freedom);
     return this.currentVariance;
 
   }
 
+  /**
+   * Adds to the mean using Kahan summation.
+   * 
+   * @param delta
+   *          the amount to add.
+   */
+  private void addToMean(final double delta) {
+    double y = delta - this.meanError;
+    double t = this.mean + y;
+    this.meanError = (t - this.mean) - y;
+    this.mean = t;
+  }
+
+  /**
+   * Adds to M2 using Kahan summation.
+   * 
+   * @param delta
+   *          the amount to add.
+   */
+  private void addToM2(final double delta) {
+    double y = delta - this.m2Error;
+    double t = this.m2 + y;
+    this.m2Error = (t - this.m2) - y;
+    this.m2 = t;
+  }
+
   /**
    * Resets this variance object. Specifically, all history is cleared and the
    * variance is set to 0.
    */
   public void reset() {
-    this.sum = 0f;
-    this.sum_squares = 0f;
+    this.mean = 0;
+    this.meanError = 0;
+    this.m2 = 0;
+    this.m2Error = 0;
     this.currentVariance = 0;
-    this.history.clear();
+    this.historyStart = 0;
     this.sizeHistory = 0;
   }
 
+  /**
+   * Resizes the history to hold {@code maxHistory} values, keeping the most
+   * recent values and recomputing the mean and M2 from them exactly.
+   */
+  private void resizeHistory() {
+    float[] resized = new float[this.maxHistory];
+    int kept = Math.min(this.sizeHistory, this.maxHistory);
+    int skipped = this.sizeHistory - kept;
+    double sum = 0;
+    for (int i = 0; i < kept; ++i) {
+      resized[i] = this.history[(this.historyStart + skipped + i)
+          % this.history.length];
+      sum += resized[i];
+    }
+    this.mean = kept == 0 ? 0 : sum / kept;
+    this.m2 = 0;
+    for (int i = 0; i < kept; ++i) {
+      double diff = resized[i] - this.mean;
+      this.m2 += diff * diff;
+    }
+    this.meanError = 0;
+    this.m2Error = 0;
+    this.history = resized;
+    this.historyStart = 0;
+    this.sizeHistory = kept;
+  }
+
   @Override
   public OnlineVariance clone() throws CloneNotSupportedException {
     OnlineVariance clone = (OnlineVariance) super.clone();
-    clone.history.clear();
-    if (!this.history.isEmpty()) {
-      clone.history.addAll(this.history);
-    }
+    clone.history = this.history.clone();
     return clone;
   }
 }
@@ -0,0 +1,473 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable sketch that estimates quantiles of a stream of floating point
+ * values using a bounded amount of memory, based on the KLL sketch of Karnin,
+ * Lang and Liberty. The rank of any value is estimated to within about
+ * {@code 1.7 / k} of the number of values with high probability, where
+ * {@code k} is the accuracy parameter given when the sketch is created.
+ * 
+ * <p>
+ * The sketch is a stack of levels. Values are added to level 0, and when a
+ * level holds more than its capacity it is sorted and every other value,
+ * starting at a random position, is moved to the next level, where each value
+ * represents twice as many original values. The capacity of a level shrinks
+ * geometrically below the top level. Adding a value only allocates when a
+ * new level is created, which happens about {@code log2(n / k)} times over the
+ * life of the sketch. Sketches with the same {@code k} can be
+ * {@link #merge(QuantileSketch) merged}, so separate threads can each fill a
+ * sketch and combine them afterwards. A sketch is not thread-safe.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class QuantileSketch implements Cloneable {
+
+  /**
+   * The default accuracy parameter.
+   */
+  public static final int DEFAULT_K = 200;
+
+  /**
+   * The ratio of the capacity of a level to the capacity of the level above.
+   */
+  private static final double CAPACITY_RATIO = 2d / 3d;
+
+  /**
+   * The accuracy parameter, the capacity of the top level.
+   */
+  private final int k;
+
+  /**
+   * The values held at each level.
+   */
+  private float[][] levels = new float[0][];
+
+  /**
+   * The number of values held at each level.
+   */
+  private int[] sizes = new int[0];
+
+  /**
+   * The number of values added.
+   */
+  private long count = 0;
+
+  /**
+   * The smallest value added.
+   */
+  private float min = Float.NaN;
+
+  /**
+   * The largest value added.
+   */
+  private float max = Float.NaN;
+
+  /**
+   * State of the random number generator used to choose which values are
+   * kept during compaction.
+   */
+  private long random;
+
+  /**
+   * Creates a new sketch with an accuracy parameter of {@link #DEFAULT_K}.
+   */
+  public QuantileSketch() {
+    this(DEFAULT_K);
+  }
+
+  /**
+   * Creates a new sketch.
+   * 
+   * @param k
+   *          the accuracy parameter. Larger values are more accurate but use
+   *          more memory.
+   */
+  public QuantileSketch(final int k) {
+    this(k, System.nanoTime());
+  }
+
+  /**
+   * Creates a new sketch with a seed for its random choices, so that its
+   * results are repeatable.
+   * 
+   * @param k
+   *          the accuracy parameter.
+   * @param seed
+   *          the seed for the random choices of the sketch.
+   */
+  public QuantileSketch(final int k, final long seed) {
+    if (k < 8) {
+      throw new IllegalArgumentException("k must be at least 8.");
+    }
+    this.k = k;
+    this.random = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+    this.addLevel();
+  }
+
+  /**
+   * Adds a value. NaN is ignored.
+   * 
+   * @param value
+   *          the value to add.
+   */
+  public void add(final float value) {
+    if (value != value) {
+      return;
+    }
+    if (this.count == 0) {
+      this.min = value;
+      this.max = value;
+    } else if (value < this.min) {
+      this.min = value;
+    } else if (value > this.max) {
+      this.max = value;
+    }
+    ++this.count;
+    this.levels[0][this.sizes[0]++] = value;
+    if (this.sizes[0] >= this.capacity(0)) {
+      this.compress();
+    }
+  }
+
+  /**
+   * Adds a range of values from an array.
+   * 
+   * @param values
+   *          the array of values.
+   * @param offset
+   *          the index of the first value.
+   * @param length
+   *          the number of values.
+   */
+  public void add(final float[] values, final int offset, final int length) {
+    for (int i = offset; i < offset + length; ++i) {
+      this.add(values[i]);
+    }
+  }
+
+  /**
+   * Adds the values of another sketch to this one. The other sketch is not
+   * modified.
+   * 
+   * @param other
+   *          a sketch with the same accuracy parameter.
+   * @return this sketch.
+   */
+  public QuantileSketch merge(final QuantileSketch other) {
+    if (other.k != this.k) {
+      throw new IllegalArgumentException("Sketches have different k values.");
+    }
+    if (other.count == 0) {
+      return this;
+    }
+    while (this.levels.length < other.levels.length) {
+      this.addLevel();
+    }
+    for (int h = 0; h < other.levels.length; ++h) {
+      this.ensureLevelCapacity(h, this.sizes[h] + other.sizes[h]);
+      System.arraycopy(other.levels[h], 0, this.levels[h], this.sizes[h],
+          other.sizes[h]);
+      this.sizes[h] += other.sizes[h];
+    }
+    if (this.count == 0) {
+      this.min = other.min;
+      this.max = other.max;
+    } else {
+      this.min = Math.min(this.min, other.min);
+      this.max = Math.max(this.max, other.max);
+    }
+    this.count += other.count;
+    this.compress();
+    return this;
+  }
+
+  /**
+   * Estimates the smallest value such that at least a fraction {@code q} of
+   * the values are less than or equal to it. Quantiles 0 and 1 are the exact
+   * minimum and maximum. This method allocates a temporary copy of the values
+   * held by the sketch.
+   * 
+   * @param q
+   *          the quantile, from 0 to 1.
+   * @return the estimated value of the quantile, or NaN if the sketch is
+   *         empty.
+   */
+  public float getQuantile(final double q) {
+    if (q < 0 || q > 1) {
+      throw new IllegalArgumentException("Quantile " + q
+          + " is not between 0 and 1.");
+    }
+    if (this.count == 0) {
+      return Float.NaN;
+    }
+    if (q == 0) {
+      return this.min;
+    }
+    if (q == 1) {
+      return this.max;
+    }
+    int numRetained = 0;
+    for (int h = 0; h < this.levels.length; ++h) {
+      numRetained += this.sizes[h];
+    }
+    // Sort each value with its weight packed into a long: the value's
+    // sortable bits in the high word and its level in the low word
+    long[] packed = new long[numRetained];
+    int n = 0;
+    for (int h = 0; h < this.levels.length; ++h) {
+      for (int i = 0; i < this.sizes[h]; ++i) {
+        packed[n++] = ((long) sortableBits(this.levels[h][i]) << 32) | h;
+      }
+    }
+    Arrays.sort(packed);
+    // Compaction preserves the total weight, so it equals the count
+    long rank = Math.max(1, (long) Math.ceil(q * this.count));
+    long seen = 0;
+    for (int i = 0; i < numRetained; ++i) {
+      seen += 1L << (int) (packed[i] & 0xFFFFFFFFL);
+      if (seen >= rank) {
+        return fromSortableBits((int) (packed[i] >> 32));
+      }
+    }
+    return this.max;
+  }
+
+  /**
+   * Estimates the median of the values.
+   * 
+   * @return the estimated median, or NaN if the sketch is empty.
+   */
+  public float getMedian() {
+    return this.getQuantile(0.5);
+  }
+
+  /**
+   * Estimates the number of values that are less than or equal to
+   * {@code value}. This method does not allocate.
+   * 
+   * @param value
+   *          the value.
+   * @return the estimated number of values less than or equal to
+   *         {@code value}.
+   */
+  public long getRank(final float value) {
+    long rank = 0;
+    for (int h = 0; h < this.levels.length; ++h) {
+      float[] level = this.levels[h];
+      for (int i = 0; i < this.sizes[h]; ++i) {
+        if (level[i] <= value) {
+          rank += 1L << h;
+        }
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Returns the number of values added.
+   * 
+   * @return the number of values.
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Returns the smallest value added.
+   * 
+   * @return the minimum, or NaN if the sketch is empty.
+   */
+  public float getMin() {
+    return this.min;
+  }
+
+  /**
+   * Returns the largest value added.
+   * 
+   * @return the maximum, or NaN if the sketch is empty.
+   */
+  public float getMax() {
+    return this.max;
+  }
+
+  /**
+   * Returns the number of values currently held by the sketch.
+   * 
+   * @return the number of values retained.
+   */
+  public int getNumRetained() {
+    int numRetained = 0;
+    for (int h = 0; h < this.levels.length; ++h) {
+      numRetained += this.sizes[h];
+    }
+    return numRetained;
+  }
+
+  /**
+   * Removes all values. Allocated levels are kept for reuse.
+   */
+  public void reset() {
+    Arrays.fill(this.sizes, 0);
+    this.count = 0;
+    this.min = Float.NaN;
+    this.max = Float.NaN;
+  }
+
+  @Override
+  public QuantileSketch clone() throws CloneNotSupportedException {
+    QuantileSketch clone = (QuantileSketch) super.clone();
+    clone.sizes = this.sizes.clone();
+    clone.levels = new float[this.levels.length][];
+    for (int h = 0; h < this.levels.length; ++h) {
+      clone.levels[h] = this.levels[h].clone();
+    }
+    return clone;
+  }
+
+  /**
+   * Returns the capacity of a level, which depends on the number of levels.
+   * 
+   * @param level
+   *          the level.
+   * @return the number of values the level may hold before it is compacted.
+   */
+  private int capacity(final int level) {
+    int depth = this.levels.length - 1 - level;
+    return Math.max(2,
+        (int) Math.ceil(this.k * Math.pow(CAPACITY_RATIO, depth)));
+  }
+
+  /**
+   * Adds a new, empty top level. A level can hold twice the top-level
+   * capacity, which is more than it can receive before being compacted.
+   */
+  private void addLevel() {
+    int height = this.levels.length;
+    this.levels = Arrays.copyOf(this.levels, height + 1);
+    this.sizes = Arrays.copyOf(this.sizes, height + 1);
+    this.levels[height] = new float[this.k * 2];
+  }
+
+  /**
+   * Ensures that a level can hold at least {@code capacity} values.
+   * 
+   * @param level
+   *          the level.
+   * @param capacity
+   *          the required number of values.
+   */
+  private void ensureLevelCapacity(final int level, final int capacity) {
+    if (this.levels[level].length < capacity) {
+      this.levels[level] = Arrays.copyOf(this.levels[level],
+          Math.max(capacity, this.levels[level].length * 2));
+    }
+  }
+
+  /**
+   * Compacts every level, from the bottom up, that holds at least its
+   * capacity.
+   */
+  private void compress() {
+    for (int h = 0; h < this.levels.length; ++h) {
+      if (this.sizes[h] >= this.capacity(h)) {
+        if (h + 1 == this.levels.length) {
+          this.addLevel();
+        }
+        this.compact(h);
+      }
+    }
+  }
+
+  /**
+   * Sorts a level and moves every other value to the next level. If the level
+   * holds an odd number of values, the most recently added one is left
+   * behind.
+   * 
+   * @param h
+   *          the level to compact.
+   */
+  private void compact(final int h) {
+    float[] level = this.levels[h];
+    int size = this.sizes[h];
+    float leftover = level[size - 1];
+    boolean odd = (size & 1) != 0;
+    int even = odd ? size - 1 : size;
+    Arrays.sort(level, 0, even);
+
+    this.ensureLevelCapacity(h + 1, this.sizes[h + 1] + even / 2);
+    float[] next = this.levels[h + 1];
+    int nextSize = this.sizes[h + 1];
+    for (int i = this.nextBit(); i < even; i += 2) {
+      next[nextSize++] = level[i];
+    }
+    this.sizes[h + 1] = nextSize;
+
+    if (odd) {
+      level[0] = leftover;
+      this.sizes[h] = 1;
+    } else {
+      this.sizes[h] = 0;
+    }
+  }
+
+  /**
+   * Returns a random bit using a xorshift generator.
+   * 
+   * @return 0 or 1.
+   */
+  private int nextBit() {
+    long x = this.random;
+    x ^= x << 13;
+    x ^= x >>> 7;
+    x ^= x << 17;
+    this.random = x;
+    return (int) (x >>> 63);
+  }
+
+  /**
+   * Maps a float to an int whose signed order matches the order of the
+   * floats.
+   * 
+   * @param value
+   *          the float.
+   * @return an int with the same order.
+   */
+  private static int sortableBits(final float value) {
+    int bits = Float.floatToIntBits(value);
+    return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+  }
+
+  /**
+   * Reverses {@link #sortableBits(float)}.
+   * 
+   * @param bits
+   *          the sortable bits.
+   * @return the float.
+   */
+  private static float fromSortableBits(final int bits) {
+    return Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7FFFFFFF));
+  }
+}
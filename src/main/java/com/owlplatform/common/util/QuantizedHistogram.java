@@ -0,0 +1,279 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of values quantized to a fixed resolution within a fixed range,
+ * from which exact quantiles of the quantized values can be read. The default
+ * range and resolution cover RSSI values from -128 to 0 in steps of 1.
+ * 
+ * <p>
+ * Each value is rounded to the nearest multiple of the resolution above the
+ * minimum, and values outside the range are counted in the first or last
+ * bucket. Adding a value increments a single counter and does not allocate.
+ * Two histograms with the same range and resolution can be
+ * {@link #merge(QuantizedHistogram) merged}, so separate threads can each fill
+ * their own histogram and combine them afterwards. A histogram is not
+ * thread-safe.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class QuantizedHistogram implements Cloneable {
+
+  /**
+   * The default minimum value, the lowest RSSI value.
+   */
+  public static final float DEFAULT_MIN = -128f;
+
+  /**
+   * The default maximum value, the highest RSSI value.
+   */
+  public static final float DEFAULT_MAX = 0f;
+
+  /**
+   * The default resolution.
+   */
+  public static final float DEFAULT_RESOLUTION = 1f;
+
+  /**
+   * The value of the first bucket.
+   */
+  private final float min;
+
+  /**
+   * The difference between the values of adjacent buckets.
+   */
+  private final float resolution;
+
+  /**
+   * The number of values in each bucket.
+   */
+  private long[] counts;
+
+  /**
+   * The total number of values.
+   */
+  private long count = 0;
+
+  /**
+   * Creates a new histogram for RSSI values from -128 to 0 with a resolution
+   * of 1.
+   */
+  public QuantizedHistogram() {
+    this(DEFAULT_MIN, DEFAULT_MAX, DEFAULT_RESOLUTION);
+  }
+
+  /**
+   * Creates a new histogram.
+   * 
+   * @param min
+   *          the smallest value that can be represented.
+   * @param max
+   *          the largest value that can be represented.
+   * @param resolution
+   *          the difference between adjacent representable values.
+   */
+  public QuantizedHistogram(final float min, final float max,
+      final float resolution) {
+    if (!(resolution > 0)) {
+      throw new IllegalArgumentException("Resolution must be positive.");
+    }
+    if (!(max >= min)) {
+      throw new IllegalArgumentException("Maximum " + max
+          + " is less than minimum " + min + ".");
+    }
+    this.min = min;
+    this.resolution = resolution;
+    this.counts = new long[Math.round((max - min) / resolution) + 1];
+  }
+
+  /**
+   * Adds a value. Values outside the range of the histogram are counted as the
+   * minimum or maximum value, and NaN is ignored.
+   * 
+   * @param value
+   *          the value to add.
+   */
+  public void add(final float value) {
+    if (value != value) {
+      return;
+    }
+    int index = Math.round((value - this.min) / this.resolution);
+    if (index < 0) {
+      index = 0;
+    } else if (index >= this.counts.length) {
+      index = this.counts.length - 1;
+    }
+    ++this.counts[index];
+    ++this.count;
+  }
+
+  /**
+   * Adds a range of values from an array.
+   * 
+   * @param values
+   *          the array of values.
+   * @param offset
+   *          the index of the first value.
+   * @param length
+   *          the number of values.
+   */
+  public void add(final float[] values, final int offset, final int length) {
+    for (int i = offset; i < offset + length; ++i) {
+      this.add(values[i]);
+    }
+  }
+
+  /**
+   * Adds the counts of another histogram to this one. The other histogram is
+   * not modified.
+   * 
+   * @param other
+   *          a histogram with the same range and resolution.
+   * @return this histogram.
+   */
+  public QuantizedHistogram merge(final QuantizedHistogram other) {
+    if (other.min != this.min || other.resolution != this.resolution
+        || other.counts.length != this.counts.length) {
+      throw new IllegalArgumentException(
+          "Histograms have different ranges or resolutions.");
+    }
+    for (int i = 0; i < this.counts.length; ++i) {
+      this.counts[i] += other.counts[i];
+    }
+    this.count += other.count;
+    return this;
+  }
+
+  /**
+   * Returns the smallest quantized value such that at least a fraction
+   * {@code q} of the values are less than or equal to it.
+   * 
+   * @param q
+   *          the quantile, from 0 to 1.
+   * @return the value of the quantile, or NaN if the histogram is empty.
+   */
+  public float getQuantile(final double q) {
+    if (q < 0 || q > 1) {
+      throw new IllegalArgumentException("Quantile " + q
+          + " is not between 0 and 1.");
+    }
+    if (this.count == 0) {
+      return Float.NaN;
+    }
+    long rank = Math.max(1, (long) Math.ceil(q * this.count));
+    long seen = 0;
+    for (int i = 0; i < this.counts.length; ++i) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return this.valueOf(i);
+      }
+    }
+    return this.valueOf(this.counts.length - 1);
+  }
+
+  /**
+   * Returns the median of the values.
+   * 
+   * @return the median, or NaN if the histogram is empty.
+   */
+  public float getMedian() {
+    return this.getQuantile(0.5);
+  }
+
+  /**
+   * Returns the number of values that are less than or equal to
+   * {@code value} after quantization.
+   * 
+   * @param value
+   *          the value.
+   * @return the number of values less than or equal to {@code value}.
+   */
+  public long getRank(final float value) {
+    int index = (int) Math.floor((value - this.min) / this.resolution + 0.5f);
+    if (index < 0) {
+      return 0;
+    }
+    long rank = 0;
+    for (int i = 0; i <= index && i < this.counts.length; ++i) {
+      rank += this.counts[i];
+    }
+    return rank;
+  }
+
+  /**
+   * Returns the number of values added.
+   * 
+   * @return the number of values.
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Returns the number of buckets.
+   * 
+   * @return the number of buckets.
+   */
+  public int getNumBuckets() {
+    return this.counts.length;
+  }
+
+  /**
+   * Returns the number of values in a bucket.
+   * 
+   * @param bucket
+   *          the index of the bucket.
+   * @return the number of values.
+   */
+  public long getBucketCount(final int bucket) {
+    return this.counts[bucket];
+  }
+
+  /**
+   * Returns the quantized value of a bucket.
+   * 
+   * @param bucket
+   *          the index of the bucket.
+   * @return the value of the bucket.
+   */
+  public float valueOf(final int bucket) {
+    return this.min + bucket * this.resolution;
+  }
+
+  /**
+   * Removes all values.
+   */
+  public void reset() {
+    Arrays.fill(this.counts, 0);
+    this.count = 0;
+  }
+
+  @Override
+  public QuantizedHistogram clone() throws CloneNotSupportedException {
+    QuantizedHistogram clone = (QuantizedHistogram) super.clone();
+    clone.counts = this.counts.clone();
+    return clone;
+  }
+}
@@ -0,0 +1,498 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Accumulates the count, mean, variance, skewness, kurtosis, minimum and
+ * maximum of a sequence of values in a single pass. Unlike
+ * {@link OnlineVariance}, an accumulator covers every value added to it rather
+ * than a recent window, and two accumulators can be
+ * {@link #combine(StatisticsAccumulator) combined} into one that describes the
+ * values added to both. This allows a large data set to be divided among
+ * several threads, as in
+ * {@link #aggregate(float[], int, int, ExecutorService, int)}, with the
+ * results merged afterwards.
+ * 
+ * <p>
+ * The central moments are updated one value at a time with the
+ * generalization of Welford's method by Terriberry, and accumulators are
+ * combined with the pairwise formulas of Chan et al. and Pebay.
+ * {@link #add(float[], int, int)} instead computes the moments of each block
+ * of values with two simple passes whose iterations are independent, which
+ * the JIT compiler can unroll, and combines each block with the total. An
+ * accumulator is not thread-safe.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class StatisticsAccumulator implements Cloneable {
+
+  /**
+   * The number of values added.
+   */
+  private long count = 0;
+
+  /**
+   * The mean of the values.
+   */
+  private double mean = 0;
+
+  /**
+   * The sum of squared differences from the mean.
+   */
+  private double m2 = 0;
+
+  /**
+   * The sum of cubed differences from the mean.
+   */
+  private double m3 = 0;
+
+  /**
+   * The sum of differences from the mean raised to the fourth power.
+   */
+  private double m4 = 0;
+
+  /**
+   * The smallest value.
+   */
+  private double min = Double.POSITIVE_INFINITY;
+
+  /**
+   * The largest value.
+   */
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /**
+   * The number of values from an array processed as one block by
+   * {@link #add(float[], int, int)}, small enough for both passes over the
+   * block to read from cache.
+   */
+  private static final int BLOCK_SIZE = 1024;
+
+  /**
+   * Adds a value.
+   * 
+   * @param value
+   *          the value to add.
+   */
+  public void add(final double value) {
+    long previous = this.count++;
+    double n = this.count;
+    double delta = value - this.mean;
+    double deltaN = delta / n;
+    double deltaN2 = deltaN * deltaN;
+    double term = delta * deltaN * previous;
+    this.mean += deltaN;
+    this.m4 += term * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * this.m2
+        - 4 * deltaN * this.m3;
+    this.m3 += term * deltaN * (n - 2) - 3 * deltaN * this.m2;
+    this.m2 += term;
+    if (value < this.min) {
+      this.min = value;
+    }
+    if (value > this.max) {
+      this.max = value;
+    }
+  }
+
+  /**
+   * Adds a range of values from an array.
+   * 
+   * @param values
+   *          the array of values.
+   * @param offset
+   *          the index of the first value to add.
+   * @param length
+   *          the number of values to add.
+   */
+  public void add(final float[] values, final int offset, final int length) {
+    checkRange(values.length, offset, length);
+    int end = offset + length;
+    for (int start = offset; start < end; start += BLOCK_SIZE) {
+      int blockEnd = Math.min(end, start + BLOCK_SIZE);
+      int blockLength = blockEnd - start;
+
+      double sum = 0;
+      float blockMin = Float.POSITIVE_INFINITY;
+      float blockMax = Float.NEGATIVE_INFINITY;
+      for (int i = start; i < blockEnd; ++i) {
+        float value = values[i];
+        sum += value;
+        blockMin = Math.min(blockMin, value);
+        blockMax = Math.max(blockMax, value);
+      }
+      double blockMean = sum / blockLength;
+
+      double s1 = 0;
+      double s2 = 0;
+      double s3 = 0;
+      double s4 = 0;
+      for (int i = start; i < blockEnd; ++i) {
+        double d = values[i] - blockMean;
+        double d2 = d * d;
+        s1 += d;
+        s2 += d2;
+        s3 += d2 * d;
+        s4 += d2 * d2;
+      }
+      // Correct for rounding error in the block mean
+      double correction = s1 / blockLength;
+      double c2 = correction * correction;
+      double blockM2 = s2 - s1 * correction;
+      double blockM3 = s3 - 3 * correction * s2 + 2 * c2 * s1;
+      double blockM4 = s4 - 4 * correction * s3 + 6 * c2 * s2 - 3 * c2
+          * correction * s1;
+      this.merge(blockLength, blockMean + correction, blockM2, blockM3,
+          blockM4, blockMin, blockMax);
+    }
+  }
+
+  /**
+   * Adds a range of values from an array.
+   * 
+   * @param values
+   *          the array of values.
+   * @param offset
+   *          the index of the first value to add.
+   * @param length
+   *          the number of values to add.
+   */
+  public void add(final long[] values, final int offset, final int length) {
+    checkRange(values.length, offset, length);
+    for (int i = offset; i < offset + length; ++i) {
+      this.add(values[i]);
+    }
+  }
+
+  /**
+   * Adds the values of another accumulator to this one. Afterwards, this
+   * accumulator describes the values added to either accumulator. The other
+   * accumulator is not modified.
+   * 
+   * @param other
+   *          the accumulator to combine with this one.
+   * @return this accumulator.
+   */
+  public StatisticsAccumulator combine(final StatisticsAccumulator other) {
+    this.merge(other.count, other.mean, other.m2, other.m3, other.m4,
+        other.min, other.max);
+    return this;
+  }
+
+  /**
+   * Adds the moments of another set of values to this accumulator.
+   * 
+   * @param otherCount
+   *          the number of other values.
+   * @param otherMean
+   *          the mean of the other values.
+   * @param otherM2
+   *          the sum of squared differences from the mean of the other values.
+   * @param otherM3
+   *          the sum of cubed differences from the mean of the other values.
+   * @param otherM4
+   *          the sum of fourth powers of differences from the mean of the other
+   *          values.
+   * @param otherMin
+   *          the smallest other value.
+   * @param otherMax
+   *          the largest other value.
+   */
+  private void merge(final long otherCount, final double otherMean,
+      final double otherM2, final double otherM3, final double otherM4,
+      final double otherMin, final double otherMax) {
+    if (otherCount == 0) {
+      return;
+    }
+    if (this.count == 0) {
+      this.count = otherCount;
+      this.mean = otherMean;
+      this.m2 = otherM2;
+      this.m3 = otherM3;
+      this.m4 = otherM4;
+      this.min = otherMin;
+      this.max = otherMax;
+      return;
+    }
+    double na = this.count;
+    double nb = otherCount;
+    double n = na + nb;
+    double delta = otherMean - this.mean;
+    double delta2 = delta * delta;
+    double m2 = this.m2 + otherM2 + delta2 * na * nb / n;
+    double m3 = this.m3 + otherM3 + delta2 * delta * na * nb * (na - nb)
+        / (n * n) + 3 * delta * (na * otherM2 - nb * this.m2) / n;
+    double m4 = this.m4 + otherM4 + delta2 * delta2 * na * nb
+        * (na * na - na * nb + nb * nb) / (n * n * n) + 6 * delta2
+        * (na * na * otherM2 + nb * nb * this.m2) / (n * n) + 4 * delta
+        * (na * otherM3 - nb * this.m3) / n;
+    this.mean += delta * nb / n;
+    this.m2 = m2;
+    this.m3 = m3;
+    this.m4 = m4;
+    this.count += otherCount;
+    this.min = Math.min(this.min, otherMin);
+    this.max = Math.max(this.max, otherMax);
+  }
+
+  /**
+   * Removes all values from this accumulator.
+   */
+  public void reset() {
+    this.count = 0;
+    this.mean = 0;
+    this.m2 = 0;
+    this.m3 = 0;
+    this.m4 = 0;
+    this.min = Double.POSITIVE_INFINITY;
+    this.max = Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Returns the number of values added.
+   * 
+   * @return the number of values.
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Returns the mean of the values.
+   * 
+   * @return the mean, or 0 if no values have been added.
+   */
+  public double getMean() {
+    return this.mean;
+  }
+
+  /**
+   * Returns the sample variance of the values.
+   * 
+   * @return the sample variance, or 0 if fewer than two values have been
+   *         added.
+   */
+  public double getVariance() {
+    return this.count < 2 ? 0 : this.m2 / (this.count - 1);
+  }
+
+  /**
+   * Returns the sample standard deviation of the values.
+   * 
+   * @return the sample standard deviation, or 0 if fewer than two values have
+   *         been added.
+   */
+  public double getStandardDeviation() {
+    return Math.sqrt(this.getVariance());
+  }
+
+  /**
+   * Returns the skewness of the values, {@code sqrt(n) * M3 / M2^1.5}.
+   * 
+   * @return the skewness, or 0 if fewer than two values have been added or
+   *         they are all equal.
+   */
+  public double getSkewness() {
+    if (this.count < 2 || this.m2 == 0) {
+      return 0;
+    }
+    return Math.sqrt(this.count) * this.m3 / Math.pow(this.m2, 1.5);
+  }
+
+  /**
+   * Returns the excess kurtosis of the values, {@code n * M4 / M2^2 - 3}.
+   * 
+   * @return the excess kurtosis, or 0 if fewer than two values have been
+   *         added or they are all equal.
+   */
+  public double getKurtosis() {
+    if (this.count < 2 || this.m2 == 0) {
+      return 0;
+    }
+    return this.count * this.m4 / (this.m2 * this.m2) - 3;
+  }
+
+  /**
+   * Returns the smallest value.
+   * 
+   * @return the smallest value, or positive infinity if no values have been
+   *         added.
+   */
+  public double getMin() {
+    return this.min;
+  }
+
+  /**
+   * Returns the largest value.
+   * 
+   * @return the largest value, or negative infinity if no values have been
+   *         added.
+   */
+  public double getMax() {
+    return this.max;
+  }
+
+  @Override
+  public StatisticsAccumulator clone() throws CloneNotSupportedException {
+    return (StatisticsAccumulator) super.clone();
+  }
+
+  @Override
+  public String toString() {
+    return "StatisticsAccumulator [count=" + this.count + ", mean="
+        + this.mean + ", variance=" + this.getVariance() + ", skewness="
+        + this.getSkewness() + ", kurtosis=" + this.getKurtosis() + ", min="
+        + this.min + ", max=" + this.max + "]";
+  }
+
+  /**
+   * Computes the statistics of a range of values by dividing the range into
+   * {@code numTasks} parts, accumulating each part as a separate task of
+   * {@code executor}, and combining the results.
+   * 
+   * @param values
+   *          the array of values.
+   * @param offset
+   *          the index of the first value.
+   * @param length
+   *          the number of values.
+   * @param executor
+   *          the executor to run the tasks.
+   * @param numTasks
+   *          the number of tasks to divide the values among.
+   * @return an accumulator describing the values.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while waiting for a task.
+   * @throws ExecutionException
+   *           if a task fails.
+   */
+  public static StatisticsAccumulator aggregate(final float[] values,
+      final int offset, final int length, final ExecutorService executor,
+      final int numTasks) throws InterruptedException, ExecutionException {
+    checkRange(values.length, offset, length);
+    List<Callable<StatisticsAccumulator>> tasks =
+        new ArrayList<Callable<StatisticsAccumulator>>();
+    int tasksUsed = Math.max(1, Math.min(numTasks, length));
+    for (int i = 0; i < tasksUsed; ++i) {
+      final int start = offset + (int) ((long) length * i / tasksUsed);
+      final int end = offset + (int) ((long) length * (i + 1) / tasksUsed);
+      tasks.add(new Callable<StatisticsAccumulator>() {
+        @Override
+        public StatisticsAccumulator call() {
+          StatisticsAccumulator part = new StatisticsAccumulator();
+          part.add(values, start, end - start);
+          return part;
+        }
+      });
+    }
+    return combineAll(executor.invokeAll(tasks));
+  }
+
+  /**
+   * Computes the statistics of a range of values by dividing the range into
+   * {@code numTasks} parts, accumulating each part as a separate task of
+   * {@code executor}, and combining the results.
+   * 
+   * @param values
+   *          the array of values.
+   * @param offset
+   *          the index of the first value.
+   * @param length
+   *          the number of values.
+   * @param executor
+   *          the executor to run the tasks.
+   * @param numTasks
+   *          the number of tasks to divide the values among.
+   * @return an accumulator describing the values.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while waiting for a task.
+   * @throws ExecutionException
+   *           if a task fails.
+   */
+  public static StatisticsAccumulator aggregate(final long[] values,
+      final int offset, final int length, final ExecutorService executor,
+      final int numTasks) throws InterruptedException, ExecutionException {
+    checkRange(values.length, offset, length);
+    List<Callable<StatisticsAccumulator>> tasks =
+        new ArrayList<Callable<StatisticsAccumulator>>();
+    int tasksUsed = Math.max(1, Math.min(numTasks, length));
+    for (int i = 0; i < tasksUsed; ++i) {
+      final int start = offset + (int) ((long) length * i / tasksUsed);
+      final int end = offset + (int) ((long) length * (i + 1) / tasksUsed);
+      tasks.add(new Callable<StatisticsAccumulator>() {
+        @Override
+        public StatisticsAccumulator call() {
+          StatisticsAccumulator part = new StatisticsAccumulator();
+          part.add(values, start, end - start);
+          return part;
+        }
+      });
+    }
+    return combineAll(executor.invokeAll(tasks));
+  }
+
+  /**
+   * Combines the results of a list of completed tasks, in order.
+   * 
+   * @param results
+   *          the completed tasks.
+   * @return the combined accumulator.
+   * @throws InterruptedException
+   *           if the current thread is interrupted.
+   * @throws ExecutionException
+   *           if a task failed.
+   */
+  private static StatisticsAccumulator combineAll(
+      final List<Future<StatisticsAccumulator>> results)
+      throws InterruptedException, ExecutionException {
+    StatisticsAccumulator total = new StatisticsAccumulator();
+    for (Future<StatisticsAccumulator> result : results) {
+      total.combine(result.get());
+    }
+    return total;
+  }
+
+  /**
+   * Verifies that a range lies within an array.
+   * 
+   * @param arrayLength
+   *          the length of the array.
+   * @param offset
+   *          the index of the first element of the range.
+   * @param length
+   *          the length of the range.
+   */
+  private static void checkRange(final int arrayLength, final int offset,
+      final int length) {
+    if (offset < 0 || length < 0 || offset > arrayLength - length) {
+      throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset
+          + " + " + length + ") is outside an array of length " + arrayLength
+          + ".");
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+/**
+ * A source of the current time, so that classes that depend on the passage
+ * of time can be tested without waiting.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface TimeSource {
+
+  /**
+   * A time source that returns {@link System#currentTimeMillis()}.
+   */
+  TimeSource SYSTEM = new TimeSource() {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+  };
+
+  /**
+   * Returns the current time.
+   * 
+   * @return the current time, in milliseconds.
+   */
+  long currentTimeMillis();
+}
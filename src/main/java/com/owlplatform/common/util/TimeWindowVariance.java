@@ -0,0 +1,335 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+/**
+ * Computes the mean and variance of the values of a sequence that were added
+ * within a recent period of time, such as the last 10 seconds. Unlike
+ * {@link OnlineVariance}, which keeps a fixed number of values and discards
+ * them all when too much time passes between values, a time window discards
+ * only the values that have become older than the window. Links that report
+ * rarely and links that report in bursts therefore both retain stable
+ * statistics.
+ * 
+ * <p>
+ * Values and their timestamps are kept in primitive arrays used as a ring,
+ * which grows when more values fall within the window than it can hold.
+ * Adding a value, and removing each expired value, updates the mean and
+ * variance in constant time with compensated Welford updates. Timestamps
+ * are expected to be non-decreasing; a timestamp earlier than the latest one
+ * is treated as equal to it. A window is not thread-safe.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class TimeWindowVariance implements Cloneable {
+
+  /**
+   * The default length of the window, in milliseconds.
+   */
+  public static final long DEFAULT_WINDOW = 10000;
+
+  /**
+   * The length of the window, in milliseconds.
+   */
+  private long window;
+
+  /**
+   * The timestamps of the values in the window.
+   */
+  private long[] times;
+
+  /**
+   * The values in the window.
+   */
+  private float[] values;
+
+  /**
+   * The index of the oldest value.
+   */
+  private int start = 0;
+
+  /**
+   * The number of values in the window.
+   */
+  private int size = 0;
+
+  /**
+   * The latest timestamp seen.
+   */
+  private long latest = Long.MIN_VALUE;
+
+  /**
+   * The mean of the values in the window.
+   */
+  private double mean = 0;
+
+  /**
+   * Compensation for the rounding error of {@link #mean}.
+   */
+  private double meanError = 0;
+
+  /**
+   * The sum of squared differences from the mean of the values in the window.
+   */
+  private double m2 = 0;
+
+  /**
+   * Compensation for the rounding error of {@link #m2}.
+   */
+  private double m2Error = 0;
+
+  /**
+   * Creates a new window of {@link #DEFAULT_WINDOW} milliseconds.
+   */
+  public TimeWindowVariance() {
+    this(DEFAULT_WINDOW);
+  }
+
+  /**
+   * Creates a new window.
+   * 
+   * @param window
+   *          the length of the window, in milliseconds.
+   */
+  public TimeWindowVariance(final long window) {
+    this(window, 16);
+  }
+
+  /**
+   * Creates a new window.
+   * 
+   * @param window
+   *          the length of the window, in milliseconds.
+   * @param initialCapacity
+   *          the number of values the window can hold before growing.
+   */
+  public TimeWindowVariance(final long window, final int initialCapacity) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("Window must be positive.");
+    }
+    int capacity = Math.max(initialCapacity, 1);
+    this.window = window;
+    this.times = new long[capacity];
+    this.values = new float[capacity];
+  }
+
+  /**
+   * Returns the length of the window.
+   * 
+   * @return the length of the window, in milliseconds.
+   */
+  public long getWindow() {
+    return this.window;
+  }
+
+  /**
+   * Sets the length of the window. Values outside a shorter window are
+   * removed on the next call to {@link #addValue(float, long)} or
+   * {@link #expire(long)}.
+   * 
+   * @param window
+   *          the length of the window, in milliseconds.
+   */
+  public void setWindow(final long window) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("Window must be positive.");
+    }
+    this.window = window;
+  }
+
+  /**
+   * Adds a value with the current system time.
+   * 
+   * @param value
+   *          the value to add.
+   * @return the variance of the values in the window after adding the value.
+   */
+  public float addValue(final float value) {
+    return this.addValue(value, System.currentTimeMillis());
+  }
+
+  /**
+   * Adds a value, first removing any values that are older than the window
+   * at {@code timestamp}.
+   * 
+   * @param value
+   *          the value to add.
+   * @param timestamp
+   *          the time of the value, in milliseconds.
+   * @return the variance of the values in the window after adding the value,
+   *         or 0 if it contains fewer than two values.
+   */
+  public float addValue(final float value, final long timestamp) {
+    this.expire(timestamp);
+    if (this.size == this.values.length) {
+      this.grow();
+    }
+    int end = this.start + this.size;
+    if (end >= this.values.length) {
+      end -= this.values.length;
+    }
+    this.times[end] = this.latest;
+    this.values[end] = value;
+    ++this.size;
+
+    double delta = value - this.mean;
+    this.addToMean(delta / this.size);
+    this.addToM2(delta * (value - this.mean));
+    return this.getVariance();
+  }
+
+  /**
+   * Removes the values that are older than the window at {@code now}. A value
+   * is older than the window if its timestamp is {@code now - window} or
+   * earlier.
+   * 
+   * @param now
+   *          the current time, in milliseconds.
+   * @return the number of values removed.
+   */
+  public int expire(final long now) {
+    if (now > this.latest) {
+      this.latest = now;
+    }
+    long oldest = this.latest - this.window;
+    int removed = 0;
+    while (this.size > 0 && this.times[this.start] <= oldest) {
+      float value = this.values[this.start];
+      if (++this.start == this.values.length) {
+        this.start = 0;
+      }
+      --this.size;
+      ++removed;
+      if (this.size == 0) {
+        this.clearStatistics();
+      } else {
+        double delta = value - this.mean;
+        this.addToMean(-delta / this.size);
+        this.addToM2(-delta * (value - this.mean));
+        if (this.m2 < 0) {
+          this.m2 = 0;
+          this.m2Error = 0;
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Returns the number of values in the window.
+   * 
+   * @return the number of values.
+   */
+  public int getCount() {
+    return this.size;
+  }
+
+  /**
+   * Returns the mean of the values in the window.
+   * 
+   * @return the mean, or 0 if the window is empty.
+   */
+  public float getMean() {
+    return (float) this.mean;
+  }
+
+  /**
+   * Returns the sample variance of the values in the window.
+   * 
+   * @return the variance, or 0 if the window contains fewer than two values.
+   */
+  public float getVariance() {
+    return this.size < 2 ? 0f : (float) (this.m2 / (this.size - 1));
+  }
+
+  /**
+   * Removes all values from the window.
+   */
+  public void reset() {
+    this.start = 0;
+    this.size = 0;
+    this.latest = Long.MIN_VALUE;
+    this.clearStatistics();
+  }
+
+  @Override
+  public TimeWindowVariance clone() throws CloneNotSupportedException {
+    TimeWindowVariance clone = (TimeWindowVariance) super.clone();
+    clone.times = this.times.clone();
+    clone.values = this.values.clone();
+    return clone;
+  }
+
+  /**
+   * Clears the mean and M2 and their compensation.
+   */
+  private void clearStatistics() {
+    this.mean = 0;
+    this.meanError = 0;
+    this.m2 = 0;
+    this.m2Error = 0;
+  }
+
+  /**
+   * Doubles the capacity of the ring, moving the oldest value to index 0.
+   */
+  private void grow() {
+    int capacity = this.values.length * 2;
+    long[] newTimes = new long[capacity];
+    float[] newValues = new float[capacity];
+    int firstPart = Math.min(this.size, this.values.length - this.start);
+    System.arraycopy(this.times, this.start, newTimes, 0, firstPart);
+    System.arraycopy(this.values, this.start, newValues, 0, firstPart);
+    System.arraycopy(this.times, 0, newTimes, firstPart, this.size - firstPart);
+    System.arraycopy(this.values, 0, newValues, firstPart, this.size
+        - firstPart);
+    this.times = newTimes;
+    this.values = newValues;
+    this.start = 0;
+  }
+
+  /**
+   * Adds to the mean using Kahan summation.
+   * 
+   * @param delta
+   *          the amount to add.
+   */
+  private void addToMean(final double delta) {
+    double y = delta - this.meanError;
+    double t = this.mean + y;
+    this.meanError = (t - this.mean) - y;
+    this.mean = t;
+  }
+
+  /**
+   * Adds to M2 using Kahan summation.
+   * 
+   * @param delta
+   *          the amount to add.
+   */
+  private void addToM2(final double delta) {
+    double y = delta - this.m2Error;
+    double t = this.m2 + y;
+    this.m2Error = (t - this.m2) - y;
+    this.m2 = t;
+  }
+}
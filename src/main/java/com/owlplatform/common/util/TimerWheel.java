@@ -0,0 +1,219 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+/**
+ * A hierarchical timing wheel that schedules the expiration of the entries of
+ * a {@link ConcurrentLRUCache}. Entries are placed in buckets by their
+ * expiration time, using buckets of about a second for times within the next
+ * minute, about a minute for times within the next hour, about an hour for
+ * times within the next day, and about a day for times within the next four
+ * days, with a single bucket for later times. Scheduling an entry takes
+ * constant time, and advancing the wheel only visits the buckets whose time
+ * has passed. Entries in those buckets that have not yet expired, because they
+ * were placed in a coarser bucket or used since they were scheduled, are
+ * placed in a new bucket.
+ * 
+ * <p>
+ * All methods must be called while holding the cache's eviction lock.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ * @param <K>
+ *          the type of keys in the cache.
+ * @param <V>
+ *          the type of values in the cache.
+ */
+final class TimerWheel<K, V> {
+
+  /**
+   * The number of buckets at each level.
+   */
+  static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+
+  /**
+   * The binary logarithm of the time span of a bucket at each level, in
+   * milliseconds: about 1 second, 1 minute, 1 hour, 1 day and 4 days.
+   */
+  static final int[] SHIFTS = { 10, 16, 22, 27, 29 };
+
+  /**
+   * The cache whose entries are scheduled.
+   */
+  private final ConcurrentLRUCache<K, V> cache;
+
+  /**
+   * The sentinel of each bucket, by level.
+   */
+  private final ConcurrentLRUCache.Node<K, V>[][] wheel;
+
+  /**
+   * The time to which the wheel was last advanced.
+   */
+  private long time;
+
+  /**
+   * Creates a new wheel.
+   * 
+   * @param cache
+   *          the cache whose entries are scheduled.
+   * @param now
+   *          the current time, in milliseconds.
+   */
+  @SuppressWarnings("unchecked")
+  TimerWheel(final ConcurrentLRUCache<K, V> cache, final long now) {
+    this.cache = cache;
+    this.time = now;
+    this.wheel = (ConcurrentLRUCache.Node<K, V>[][])
+        new ConcurrentLRUCache.Node<?, ?>[BUCKETS.length][];
+    for (int i = 0; i < BUCKETS.length; ++i) {
+      this.wheel[i] = (ConcurrentLRUCache.Node<K, V>[])
+          new ConcurrentLRUCache.Node<?, ?>[BUCKETS[i]];
+      for (int j = 0; j < BUCKETS[i]; ++j) {
+        ConcurrentLRUCache.Node<K, V> sentinel =
+            new ConcurrentLRUCache.Node<K, V>(null, null);
+        sentinel.timerPrev = sentinel;
+        sentinel.timerNext = sentinel;
+        this.wheel[i][j] = sentinel;
+      }
+    }
+  }
+
+  /**
+   * Schedules an entry at its current expiration time.
+   * 
+   * @param node
+   *          the entry to schedule, which must not already be scheduled.
+   */
+  void schedule(final ConcurrentLRUCache.Node<K, V> node) {
+    ConcurrentLRUCache.Node<K, V> sentinel = this.findBucket(this.cache
+        .getExpirationTime(node));
+    node.timerNext = sentinel;
+    node.timerPrev = sentinel.timerPrev;
+    sentinel.timerPrev.timerNext = node;
+    sentinel.timerPrev = node;
+  }
+
+  /**
+   * Moves an entry to the bucket for its current expiration time.
+   * 
+   * @param node
+   *          the entry to reschedule.
+   */
+  void reschedule(final ConcurrentLRUCache.Node<K, V> node) {
+    this.deschedule(node);
+    this.schedule(node);
+  }
+
+  /**
+   * Removes an entry from the wheel, if it is scheduled.
+   * 
+   * @param node
+   *          the entry to remove.
+   */
+  void deschedule(final ConcurrentLRUCache.Node<K, V> node) {
+    if (node.timerNext != null) {
+      node.timerNext.timerPrev = node.timerPrev;
+      node.timerPrev.timerNext = node.timerNext;
+      node.timerNext = null;
+      node.timerPrev = null;
+    }
+  }
+
+  /**
+   * Advances the wheel to the current time, expiring entries whose time has
+   * passed and rescheduling the others in the visited buckets.
+   * 
+   * @param now
+   *          the current time, in milliseconds.
+   */
+  void advance(final long now) {
+    long previous = this.time;
+    if (now <= previous) {
+      return;
+    }
+    this.time = now;
+    for (int level = 0; level < SHIFTS.length; ++level) {
+      long previousTicks = previous >>> SHIFTS[level];
+      long currentTicks = now >>> SHIFTS[level];
+      if (currentTicks == previousTicks) {
+        break;
+      }
+      this.expire(level, previousTicks, currentTicks - previousTicks, now);
+    }
+  }
+
+  /**
+   * Visits the buckets of a level that have passed.
+   * 
+   * @param level
+   *          the level.
+   * @param previousTicks
+   *          the tick of the level when the wheel was last advanced.
+   * @param delta
+   *          the number of ticks that have passed.
+   * @param now
+   *          the current time, in milliseconds.
+   */
+  private void expire(final int level, final long previousTicks,
+      final long delta, final long now) {
+    ConcurrentLRUCache.Node<K, V>[] buckets = this.wheel[level];
+    int mask = buckets.length - 1;
+    int steps = (int) Math.min(delta + 1, buckets.length);
+    int start = (int) (previousTicks & mask);
+    for (int i = 0; i < steps; ++i) {
+      ConcurrentLRUCache.Node<K, V> sentinel = buckets[(start + i) & mask];
+      // Detach the bucket so that rescheduled entries are not visited again
+      ConcurrentLRUCache.Node<K, V> node = sentinel.timerNext;
+      sentinel.timerPrev.timerNext = null;
+      sentinel.timerNext = sentinel;
+      sentinel.timerPrev = sentinel;
+      while (node != sentinel && node != null) {
+        ConcurrentLRUCache.Node<K, V> next = node.timerNext;
+        node.timerNext = null;
+        node.timerPrev = null;
+        if (!this.cache.expireNode(node, now)) {
+          this.schedule(node);
+        }
+        node = next;
+      }
+    }
+  }
+
+  /**
+   * Returns the sentinel of the bucket for an expiration time.
+   * 
+   * @param expiration
+   *          the expiration time, in milliseconds.
+   * @return the sentinel of the bucket.
+   */
+  private ConcurrentLRUCache.Node<K, V> findBucket(final long expiration) {
+    // Entries that have already expired are visited with the current bucket
+    long target = Math.max(expiration, this.time);
+    long duration = target - this.time;
+    for (int level = 0; level < SHIFTS.length - 1; ++level) {
+      if (duration < (1L << SHIFTS[level + 1])) {
+        long ticks = target >>> SHIFTS[level];
+        return this.wheel[level][(int) (ticks & (BUCKETS[level] - 1))];
+      }
+    }
+    return this.wheel[SHIFTS.length - 1][0];
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+/**
+ * Calculates the weight of a cache entry, such as its approximate size in
+ * bytes. The total weight of the entries in a {@link ConcurrentLRUCache} can
+ * be bounded instead of their number.
+ * 
+ * @author Robert Moore
+ * 
+ * @param <K>
+ *          the type of keys.
+ * @param <V>
+ *          the type of values.
+ * @see Weighers
+ */
+public interface Weigher<K, V> {
+
+  /**
+   * Returns the weight of an entry. The weight of an entry does not change
+   * until its value is replaced.
+   * 
+   * @param key
+   *          the key of the entry.
+   * @param value
+   *          the value of the entry.
+   * @return the weight of the entry, which must not be negative.
+   */
+  int weigh(K key, V value);
+}
@@ -0,0 +1,100 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+/**
+ * Provides commonly used {@link Weigher} implementations.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public final class Weighers {
+
+  /**
+   * Weighs every entry as 1.
+   */
+  private static final Weigher<Object, Object> SINGLETON =
+      new Weigher<Object, Object>() {
+        @Override
+        public int weigh(final Object key, final Object value) {
+          return 1;
+        }
+      };
+
+  /**
+   * Weighs entries by the length of a {@code byte[]} value.
+   */
+  private static final Weigher<Object, byte[]> BYTE_ARRAY =
+      new Weigher<Object, byte[]>() {
+        @Override
+        public int weigh(final Object key, final byte[] value) {
+          return value.length;
+        }
+      };
+
+  /**
+   * Weighs entries by the length of a {@code HashableByteArray} value.
+   */
+  private static final Weigher<Object, HashableByteArray> HASHABLE_BYTE_ARRAY =
+      new Weigher<Object, HashableByteArray>() {
+        @Override
+        public int weigh(final Object key, final HashableByteArray value) {
+          byte[] data = value.getData();
+          return data == null ? 0 : data.length;
+        }
+      };
+
+  /**
+   * Not instantiable.
+   */
+  private Weighers() {
+    // Static methods only
+  }
+
+  /**
+   * Returns a weigher that weighs every entry as 1, so that the total weight
+   * is the number of entries.
+   * 
+   * @return the weigher.
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> Weigher<K, V> singleton() {
+    return (Weigher<K, V>) SINGLETON;
+  }
+
+  /**
+   * Returns a weigher that weighs entries by the number of bytes in their
+   * {@code byte[]} values.
+   * 
+   * @return the weigher.
+   */
+  public static Weigher<Object, byte[]> byteArray() {
+    return BYTE_ARRAY;
+  }
+
+  /**
+   * Returns a weigher that weighs entries by the number of bytes in their
+   * {@code HashableByteArray} values.
+   * 
+   * @return the weigher.
+   */
+  public static Weigher<Object, HashableByteArray> hashableByteArray() {
+    return HASHABLE_BYTE_ARRAY;
+  }
+}
@@ -0,0 +1,618 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+/**
+ * Computes the minimum, maximum and median of the most recent values of a
+ * sequence, with the same window as an {@link OnlineVariance}: at most
+ * {@code maxHistory} values, all of which are discarded if more than
+ * {@code ageGap} milliseconds pass between values.
+ * 
+ * <p>
+ * The minimum and maximum are tracked with monotonic deques, so adding a
+ * value takes amortized constant time and reading them takes constant time.
+ * The median is tracked with two heaps, one holding the smaller half of the
+ * window and one the larger half, which are indexed by position in the window
+ * so that the oldest value can be removed in logarithmic time. All state is
+ * kept in primitive arrays sized to the window, so adding a value does not
+ * allocate. An object of this class is not thread-safe.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class WindowedOrderStatistics implements Cloneable {
+
+  /**
+   * A double-ended queue of sequence numbers stored in a ring.
+   */
+  private static final class Deque implements Cloneable {
+    /**
+     * The sequence numbers.
+     */
+    long[] items;
+
+    /**
+     * The index of the first sequence number.
+     */
+    int head = 0;
+
+    /**
+     * The number of sequence numbers.
+     */
+    int size = 0;
+
+    /**
+     * Creates a new, empty deque.
+     * 
+     * @param capacity
+     *          the maximum number of sequence numbers.
+     */
+    Deque(final int capacity) {
+      this.items = new long[capacity];
+    }
+
+    /**
+     * Returns the first sequence number.
+     * 
+     * @return the first sequence number.
+     */
+    long first() {
+      return this.items[this.head];
+    }
+
+    /**
+     * Returns the last sequence number.
+     * 
+     * @return the last sequence number.
+     */
+    long last() {
+      int index = this.head + this.size - 1;
+      return this.items[index >= this.items.length ? index - this.items.length
+          : index];
+    }
+
+    /**
+     * Removes the first sequence number.
+     */
+    void removeFirst() {
+      if (++this.head == this.items.length) {
+        this.head = 0;
+      }
+      --this.size;
+    }
+
+    /**
+     * Removes the last sequence number.
+     */
+    void removeLast() {
+      --this.size;
+    }
+
+    /**
+     * Appends a sequence number.
+     * 
+     * @param sequence
+     *          the sequence number.
+     */
+    void addLast(final long sequence) {
+      int index = this.head + this.size;
+      this.items[index >= this.items.length ? index - this.items.length
+          : index] = sequence;
+      ++this.size;
+    }
+
+    @Override
+    public Deque clone() throws CloneNotSupportedException {
+      Deque clone = (Deque) super.clone();
+      clone.items = this.items.clone();
+      return clone;
+    }
+  }
+
+  /**
+   * Identifies the heap of the smaller half of the window.
+   */
+  private static final byte LOW = 0;
+
+  /**
+   * Identifies the heap of the larger half of the window.
+   */
+  private static final byte HIGH = 1;
+
+  /**
+   * The maximum size of history to use.
+   */
+  private int maxHistory = 5;
+
+  /**
+   * The maximum time, in milliseconds, permitted between values.
+   */
+  private long ageGap = 10000;
+
+  /**
+   * The values in the window, indexed by sequence number modulo the
+   * capacity.
+   */
+  private float[] values;
+
+  /**
+   * The sequence number of the next value.
+   */
+  private long nextSequence = 0;
+
+  /**
+   * The number of values in the window.
+   */
+  private int size = 0;
+
+  /**
+   * The time the last value was added.
+   */
+  private long lastTime = 0;
+
+  /**
+   * Sequence numbers whose values increase from first to last; the first is
+   * the minimum.
+   */
+  private Deque minDeque;
+
+  /**
+   * Sequence numbers whose values decrease from first to last; the first is
+   * the maximum.
+   */
+  private Deque maxDeque;
+
+  /**
+   * Slots of the smaller half of the values, as a max-heap.
+   */
+  private int[] lowHeap;
+
+  /**
+   * The number of slots in {@link #lowHeap}.
+   */
+  private int lowSize = 0;
+
+  /**
+   * Slots of the larger half of the values, as a min-heap.
+   */
+  private int[] highHeap;
+
+  /**
+   * The number of slots in {@link #highHeap}.
+   */
+  private int highSize = 0;
+
+  /**
+   * The heap containing each slot.
+   */
+  private byte[] heapOf;
+
+  /**
+   * The position of each slot within its heap.
+   */
+  private int[] positionOf;
+
+  /**
+   * Creates a new object with a maximum history of 5 values and an age gap of
+   * 10 seconds.
+   */
+  public WindowedOrderStatistics() {
+    this.allocate(this.maxHistory);
+  }
+
+  /**
+   * Returns the maximum number of values in the window.
+   * 
+   * @return the maximum number of values.
+   */
+  public int getMaxHistory() {
+    return this.maxHistory;
+  }
+
+  /**
+   * Sets the maximum number of values in the window. Changes to the maximum
+   * history will take effect on the next call to {@code addValue}, keeping
+   * the most recent values.
+   * 
+   * @param maxHistory
+   *          the maximum number of values.
+   */
+  public void setMaxHistory(final int maxHistory) {
+    if (maxHistory < 1) {
+      throw new IllegalArgumentException("Maximum history must be at least 1.");
+    }
+    this.maxHistory = maxHistory;
+  }
+
+  /**
+   * Returns the maximum length of time (in milliseconds) to allow between
+   * values. If the time between calls to {@code addValue} exceeds this value,
+   * the window is cleared before the value is added.
+   * 
+   * @return the maximum time (in milliseconds) permitted between values.
+   */
+  public long getAgeGap() {
+    return this.ageGap;
+  }
+
+  /**
+   * Sets the maximum length of time (in milliseconds) permitted between
+   * values.
+   * 
+   * @param ageGap
+   *          the new value for the maximum time between added values.
+   */
+  public void setAgeGap(final long ageGap) {
+    this.ageGap = ageGap;
+  }
+
+  /**
+   * Adds a value with the current system time.
+   * 
+   * @param value
+   *          the value to add.
+   */
+  public void addValue(final float value) {
+    this.addValue(value, System.currentTimeMillis());
+  }
+
+  /**
+   * Adds a value. If more than the age gap has passed since the previous
+   * value, the window is cleared first. If the window is full, the oldest
+   * value is removed.
+   * 
+   * @param value
+   *          the value to add.
+   * @param now
+   *          the current time, in milliseconds.
+   */
+  public void addValue(final float value, final long now) {
+    if (now - this.lastTime > this.ageGap) {
+      this.reset();
+    }
+    this.lastTime = now;
+    if (this.values.length != this.maxHistory) {
+      this.resize();
+    }
+
+    long sequence = this.nextSequence++;
+    int slot = (int) (sequence % this.values.length);
+    if (this.size == this.values.length) {
+      // The new value replaces the oldest in the same slot
+      this.heapRemove(slot);
+      if (this.minDeque.first() == sequence - this.size) {
+        this.minDeque.removeFirst();
+      }
+      if (this.maxDeque.first() == sequence - this.size) {
+        this.maxDeque.removeFirst();
+      }
+    } else {
+      ++this.size;
+    }
+    this.values[slot] = value;
+
+    while (this.minDeque.size > 0
+        && this.valueAt(this.minDeque.last()) >= value) {
+      this.minDeque.removeLast();
+    }
+    this.minDeque.addLast(sequence);
+    while (this.maxDeque.size > 0
+        && this.valueAt(this.maxDeque.last()) <= value) {
+      this.maxDeque.removeLast();
+    }
+    this.maxDeque.addLast(sequence);
+
+    this.heapInsert(slot);
+  }
+
+  /**
+   * Returns the number of values in the window.
+   * 
+   * @return the number of values.
+   */
+  public int getCount() {
+    return this.size;
+  }
+
+  /**
+   * Returns the smallest value in the window.
+   * 
+   * @return the minimum, or NaN if the window is empty.
+   */
+  public float getMin() {
+    return this.size == 0 ? Float.NaN : this.valueAt(this.minDeque.first());
+  }
+
+  /**
+   * Returns the largest value in the window.
+   * 
+   * @return the maximum, or NaN if the window is empty.
+   */
+  public float getMax() {
+    return this.size == 0 ? Float.NaN : this.valueAt(this.maxDeque.first());
+  }
+
+  /**
+   * Returns the median of the values in the window. If the window holds an
+   * even number of values, the mean of the two middle values is returned.
+   * 
+   * @return the median, or NaN if the window is empty.
+   */
+  public float getMedian() {
+    if (this.size == 0) {
+      return Float.NaN;
+    }
+    float low = this.values[this.lowHeap[0]];
+    if (this.lowSize > this.highSize) {
+      return low;
+    }
+    return (low + this.values[this.highHeap[0]]) / 2f;
+  }
+
+  /**
+   * Clears the window.
+   */
+  public void reset() {
+    this.size = 0;
+    this.minDeque.size = 0;
+    this.maxDeque.size = 0;
+    this.lowSize = 0;
+    this.highSize = 0;
+  }
+
+  @Override
+  public WindowedOrderStatistics clone() throws CloneNotSupportedException {
+    WindowedOrderStatistics clone = (WindowedOrderStatistics) super.clone();
+    clone.values = this.values.clone();
+    clone.minDeque = this.minDeque.clone();
+    clone.maxDeque = this.maxDeque.clone();
+    clone.lowHeap = this.lowHeap.clone();
+    clone.highHeap = this.highHeap.clone();
+    clone.heapOf = this.heapOf.clone();
+    clone.positionOf = this.positionOf.clone();
+    return clone;
+  }
+
+  /**
+   * Allocates empty state for a window of {@code capacity} values.
+   * 
+   * @param capacity
+   *          the number of values.
+   */
+  private void allocate(final int capacity) {
+    this.values = new float[capacity];
+    this.minDeque = new Deque(capacity);
+    this.maxDeque = new Deque(capacity);
+    this.lowHeap = new int[capacity];
+    this.highHeap = new int[capacity];
+    this.heapOf = new byte[capacity];
+    this.positionOf = new int[capacity];
+    this.nextSequence = 0;
+    this.size = 0;
+    this.lowSize = 0;
+    this.highSize = 0;
+  }
+
+  /**
+   * Resizes the window to {@code maxHistory} values, keeping the most recent
+   * values.
+   */
+  private void resize() {
+    int kept = Math.min(this.size, this.maxHistory);
+    float[] recent = new float[kept];
+    for (int i = 0; i < kept; ++i) {
+      recent[i] = this.valueAt(this.nextSequence - kept + i);
+    }
+    long time = this.lastTime;
+    this.allocate(this.maxHistory);
+    for (int i = 0; i < kept; ++i) {
+      this.addValue(recent[i], time);
+    }
+  }
+
+  /**
+   * Returns the value with a sequence number in the window.
+   * 
+   * @param sequence
+   *          the sequence number.
+   * @return the value.
+   */
+  private float valueAt(final long sequence) {
+    return this.values[(int) (sequence % this.values.length)];
+  }
+
+  /**
+   * Adds a slot to the heaps and rebalances them so that the low heap holds
+   * the same number of slots as the high heap, or one more.
+   * 
+   * @param slot
+   *          the slot, whose value has been stored.
+   */
+  private void heapInsert(final int slot) {
+    if (this.lowSize == 0
+        || this.values[slot] <= this.values[this.lowHeap[0]]) {
+      this.push(LOW, slot);
+    } else {
+      this.push(HIGH, slot);
+    }
+    this.rebalance();
+  }
+
+  /**
+   * Removes a slot from the heaps and rebalances them.
+   * 
+   * @param slot
+   *          the slot to remove.
+   */
+  private void heapRemove(final int slot) {
+    int position = this.positionOf[slot];
+    if (this.heapOf[slot] == LOW) {
+      int last = this.lowHeap[--this.lowSize];
+      if (position < this.lowSize) {
+        this.place(LOW, last, position);
+        this.siftDown(LOW, position);
+        this.siftUp(LOW, this.positionOf[last]);
+      }
+    } else {
+      int last = this.highHeap[--this.highSize];
+      if (position < this.highSize) {
+        this.place(HIGH, last, position);
+        this.siftDown(HIGH, position);
+        this.siftUp(HIGH, this.positionOf[last]);
+      }
+    }
+    this.rebalance();
+  }
+
+  /**
+   * Moves the top of one heap to the other until the low heap holds the same
+   * number of slots as the high heap, or one more.
+   */
+  private void rebalance() {
+    if (this.lowSize > this.highSize + 1) {
+      int top = this.lowHeap[0];
+      this.pop(LOW);
+      this.push(HIGH, top);
+    } else if (this.highSize > this.lowSize) {
+      int top = this.highHeap[0];
+      this.pop(HIGH);
+      this.push(LOW, top);
+    }
+  }
+
+  /**
+   * Adds a slot to a heap.
+   * 
+   * @param heap
+   *          the heap.
+   * @param slot
+   *          the slot.
+   */
+  private void push(final byte heap, final int slot) {
+    int position = heap == LOW ? this.lowSize++ : this.highSize++;
+    this.place(heap, slot, position);
+    this.siftUp(heap, position);
+  }
+
+  /**
+   * Removes the top slot of a heap.
+   * 
+   * @param heap
+   *          the heap.
+   */
+  private void pop(final byte heap) {
+    int[] slots = heap == LOW ? this.lowHeap : this.highHeap;
+    int size = heap == LOW ? --this.lowSize : --this.highSize;
+    if (size > 0) {
+      this.place(heap, slots[size], 0);
+      this.siftDown(heap, 0);
+    }
+  }
+
+  /**
+   * Stores a slot at a position in a heap and records its location.
+   * 
+   * @param heap
+   *          the heap.
+   * @param slot
+   *          the slot.
+   * @param position
+   *          the position in the heap.
+   */
+  private void place(final byte heap, final int slot, final int position) {
+    (heap == LOW ? this.lowHeap : this.highHeap)[position] = slot;
+    this.heapOf[slot] = heap;
+    this.positionOf[slot] = position;
+  }
+
+  /**
+   * Determines whether the value of slot {@code a} belongs above the value of
+   * slot {@code b} in a heap.
+   * 
+   * @param heap
+   *          the heap.
+   * @param a
+   *          the first slot.
+   * @param b
+   *          the second slot.
+   * @return {@code true} if {@code a} belongs above {@code b}.
+   */
+  private boolean above(final byte heap, final int a, final int b) {
+    return heap == LOW ? this.values[a] > this.values[b]
+        : this.values[a] < this.values[b];
+  }
+
+  /**
+   * Moves the slot at a position towards the top of a heap until it is in
+   * order.
+   * 
+   * @param heap
+   *          the heap.
+   * @param position
+   *          the position of the slot.
+   */
+  private void siftUp(final byte heap, final int position) {
+    int[] slots = heap == LOW ? this.lowHeap : this.highHeap;
+    int slot = slots[position];
+    int current = position;
+    while (current > 0) {
+      int parent = (current - 1) >>> 1;
+      if (!this.above(heap, slot, slots[parent])) {
+        break;
+      }
+      this.place(heap, slots[parent], current);
+      current = parent;
+    }
+    this.place(heap, slot, current);
+  }
+
+  /**
+   * Moves the slot at a position towards the bottom of a heap until it is in
+   * order.
+   * 
+   * @param heap
+   *          the heap.
+   * @param position
+   *          the position of the slot.
+   */
+  private void siftDown(final byte heap, final int position) {
+    int[] slots = heap == LOW ? this.lowHeap : this.highHeap;
+    int size = heap == LOW ? this.lowSize : this.highSize;
+    int slot = slots[position];
+    int current = position;
+    while (true) {
+      int child = current * 2 + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size
+          && this.above(heap, slots[child + 1], slots[child])) {
+        ++child;
+      }
+      if (!this.above(heap, slots[child], slot)) {
+        break;
+      }
+      this.place(heap, slots[child], current);
+      current = child;
+    }
+    this.place(heap, slot, current);
+  }
+}
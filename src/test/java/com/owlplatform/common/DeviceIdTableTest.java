@@ -0,0 +1,187 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.DeviceIdTable} class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class DeviceIdTableTest {
+
+  /**
+   * Tests that handles are dense and stable, and that identifiers can be
+   * recovered from them.
+   */
+  @Test
+  public void testIntern() {
+    DeviceIdTable table = new DeviceIdTable(4);
+    Assert.assertEquals(DeviceIdTable.NO_HANDLE, table.lookup(1, 2));
+    for (int i = 0; i < 1000; ++i) {
+      Assert.assertEquals(i, table.intern(i * 31L, -i));
+    }
+    Assert.assertEquals(1000, table.size());
+    for (int i = 0; i < 1000; ++i) {
+      Assert.assertEquals(i, table.lookup(i * 31L, -i));
+      Assert.assertEquals(i, table.intern(i * 31L, -i));
+      Assert.assertEquals(i * 31L, table.getHigh(i));
+      Assert.assertEquals(-i, table.getLow(i));
+    }
+    Assert.assertEquals(1000, table.size());
+    Assert.assertEquals(new DeviceId(31, -1), table.getId(1));
+  }
+
+  /**
+   * Tests that the same identifier in different forms maps to one handle.
+   */
+  @Test
+  public void testSampleIds() {
+    DeviceIdTable table = new DeviceIdTable();
+    SampleMessage message = SampleMessage.getTestMessage();
+    int device = table.internDevice(message);
+    int receiver = table.internReceiver(message);
+    Assert.assertEquals(device, table.intern(message.getDeviceId()));
+    Assert.assertEquals(device, table.intern(DeviceId.valueOf(message
+        .getDeviceId())));
+    Assert.assertEquals(receiver, table.intern(message.getReceiverId()));
+    Assert.assertEquals(message.getDeviceId().length, table.getId(device)
+        .toBytes().length);
+  }
+
+  /**
+   * Ensures that an unknown handle is rejected.
+   */
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testUnknownHandle() {
+    new DeviceIdTable().getHigh(0);
+  }
+
+  /**
+   * Ensures that an identifier of the wrong length is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadLength() {
+    new DeviceIdTable().intern(new byte[3]);
+  }
+
+  /**
+   * Tests that concurrent threads interning overlapping identifiers agree on
+   * their handles.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testConcurrentIntern() throws InterruptedException {
+    final DeviceIdTable table = new DeviceIdTable(2);
+    final int numThreads = 4;
+    final int numIds = 2000;
+    final int[][] handles = new int[numThreads][numIds];
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger failures = new AtomicInteger(0);
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < numIds; ++i) {
+              int id = (i + thread * 500) % numIds;
+              handles[thread][id] = table.intern(id, id);
+              if (table.lookup(id, id) != handles[thread][id]) {
+                failures.incrementAndGet();
+              }
+            }
+          } catch (InterruptedException ie) {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(0, failures.get());
+    Assert.assertEquals(numIds, table.size());
+    for (int i = 0; i < numIds; ++i) {
+      for (int t = 1; t < numThreads; ++t) {
+        Assert.assertEquals(handles[0][i], handles[t][i]);
+      }
+      Assert.assertEquals(i, table.getHigh(handles[0][i]));
+    }
+  }
+
+  /**
+   * Tests that a handle returned by {@code intern} on one thread can be used
+   * immediately, even while other threads are still inserting it.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testConcurrentGetId() throws InterruptedException {
+    final DeviceIdTable table = new DeviceIdTable(2);
+    final int numThreads = 8;
+    final int numIds = 200000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger failures = new AtomicInteger(0);
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < numIds; ++i) {
+              int handle = table.intern(i, -i);
+              DeviceId id = table.getId(handle);
+              if (id.getHigh() != i || id.getLow() != -i) {
+                failures.incrementAndGet();
+              }
+            }
+          } catch (InterruptedException ie) {
+            failures.incrementAndGet();
+          } catch (IndexOutOfBoundsException ioobe) {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(0, failures.get());
+    Assert.assertEquals(numIds, table.size());
+  }
+}
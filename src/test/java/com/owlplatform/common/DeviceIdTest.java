@@ -0,0 +1,180 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.owlplatform.common.util.HashableByteArray;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.DeviceId} class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class DeviceIdTest {
+
+  /**
+   * A sample device id value.
+   */
+  private static final byte[] TEST_DEVICE_ID1 = new byte[] { 0, 0, 0, 0, 0, 0,
+      0, 0, 0, 0, 0, 0, 0, 0, 0x12, 0x34 };
+
+  /**
+   * A sample device id value.
+   */
+  private static final byte[] TEST_DEVICE_ID2 = new byte[] { 0, 1, 2, 3, 4, 5,
+      6, 7, 8, 9, 0xA, 0xB, 0xC, 0xD, 0xE, 0xF };
+
+  /**
+   * A sample device id value with the high bit set.
+   */
+  private static final byte[] TEST_DEVICE_ID3 = new byte[] { (byte) 0xFF, 0, 0,
+      0, 0, 0, 0, 0, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0 };
+
+  /**
+   * Tests conversion to and from {@code byte[]}.
+   */
+  @Test
+  public void testBytes() {
+    DeviceId id = DeviceId.valueOf(TEST_DEVICE_ID2);
+    Assert.assertEquals(0x0001020304050607l, id.getHigh());
+    Assert.assertEquals(0x08090A0B0C0D0E0Fl, id.getLow());
+    Assert.assertTrue(Arrays.equals(TEST_DEVICE_ID2, id.toBytes()));
+
+    byte[] dest = new byte[20];
+    DeviceId.valueOf(TEST_DEVICE_ID3).toBytes(dest, 4);
+    Assert.assertEquals(DeviceId.valueOf(TEST_DEVICE_ID3),
+        DeviceId.valueOf(dest, 4));
+  }
+
+  /**
+   * Tests conversion to and from hexadecimal strings.
+   */
+  @Test
+  public void testHexString() {
+    DeviceId id = DeviceId.fromHexString("0x1234");
+    Assert.assertEquals(DeviceId.valueOf(TEST_DEVICE_ID1), id);
+    Assert.assertEquals("0x00000000000000000000000000001234", id.toString());
+    Assert.assertEquals(DeviceId.valueOf(TEST_DEVICE_ID2),
+        DeviceId.fromHexString(DeviceId.valueOf(TEST_DEVICE_ID2).toString()));
+  }
+
+  /**
+   * Ensures that a string longer than 16 bytes is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testHexStringTooLong() {
+    DeviceId.fromHexString("0x0102030405060708090A0B0C0D0E0F1011");
+  }
+
+  /**
+   * Ensures that an array of the wrong length is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongLength() {
+    DeviceId.valueOf(new byte[] { 1, 2, 3 });
+  }
+
+  /**
+   * Tests equality and hashing.
+   */
+  @Test
+  public void testEquals() {
+    DeviceId id1 = DeviceId.valueOf(TEST_DEVICE_ID1);
+    DeviceId id2 = DeviceId.valueOf(TEST_DEVICE_ID2);
+    Assert.assertEquals(id1, new DeviceId(0, 0x1234));
+    Assert.assertEquals(id1.hashCode(), new DeviceId(0, 0x1234).hashCode());
+    Assert.assertEquals(id1.hashCode(), DeviceId.hash(0, 0x1234));
+    Assert.assertFalse(id1.equals(id2));
+    Assert.assertFalse(id1.equals(TEST_DEVICE_ID1));
+    Assert.assertTrue(id2.equals(id2.getHigh(), id2.getLow()));
+
+    // Sequential identifiers should not collide
+    Set<Integer> hashes = new HashSet<Integer>();
+    for (int i = 0; i < 10000; ++i) {
+      hashes.add(Integer.valueOf(new DeviceId(0, i).hashCode()));
+    }
+    Assert.assertEquals(10000, hashes.size());
+  }
+
+  /**
+   * Tests that the ordering is the same as that of {@code HashableByteArray}.
+   */
+  @Test
+  public void testCompareTo() {
+    Random rand = new Random(42);
+    byte[] a = new byte[SampleMessage.DEVICE_ID_SIZE];
+    byte[] b = new byte[SampleMessage.DEVICE_ID_SIZE];
+    for (int i = 0; i < 1000; ++i) {
+      rand.nextBytes(a);
+      System.arraycopy(a, 0, b, 0, b.length);
+      b[rand.nextInt(b.length)] = (byte) rand.nextInt();
+      int expected = Integer.signum(new HashableByteArray(a)
+          .compareTo(new HashableByteArray(b)));
+      Assert.assertEquals(expected,
+          Integer.signum(DeviceId.valueOf(a).compareTo(DeviceId.valueOf(b))));
+    }
+    Assert.assertTrue(DeviceId.valueOf(TEST_DEVICE_ID3).compareTo(
+        DeviceId.valueOf(TEST_DEVICE_ID2)) > 0);
+    Assert.assertEquals(0, DeviceId.ZERO.compareTo(new DeviceId(0, 0)));
+  }
+
+  /**
+   * Tests the {@code DeviceId} accessors of {@code SampleMessage}.
+   */
+  @Test
+  public void testSampleMessage() {
+    SampleMessage message = new SampleMessage();
+    Assert.assertEquals(0l, message.getDeviceIdHigh());
+    Assert.assertEquals(0l, message.getReceiverIdLow());
+
+    message.setDeviceIdValue(DeviceId.valueOf(TEST_DEVICE_ID2));
+    message.setReceiverIdValue(DeviceId.valueOf(TEST_DEVICE_ID1));
+    Assert.assertTrue(Arrays.equals(TEST_DEVICE_ID2, message.getDeviceId()));
+    Assert.assertTrue(Arrays.equals(TEST_DEVICE_ID1, message.getReceiverId()));
+    Assert.assertEquals(0x0001020304050607l, message.getDeviceIdHigh());
+    Assert.assertEquals(0x08090A0B0C0D0E0Fl, message.getDeviceIdLow());
+    Assert.assertEquals(0l, message.getReceiverIdHigh());
+    Assert.assertEquals(0x1234l, message.getReceiverIdLow());
+
+    byte[] deviceId = message.getDeviceId();
+    message.setDeviceIdValue(DeviceId.ZERO);
+    Assert.assertNotSame(deviceId, message.getDeviceId());
+    Assert.assertTrue(Arrays.equals(TEST_DEVICE_ID2, deviceId));
+    Assert.assertEquals(0l, message.getDeviceIdLow());
+  }
+
+  /**
+   * Tests that a {@code null} {@code DeviceId} is rejected like a {@code null}
+   * array.
+   */
+  @Test(expected = RuntimeException.class)
+  public void testSampleMessageNull() {
+    new SampleMessage().setDeviceIdValue(null);
+  }
+}
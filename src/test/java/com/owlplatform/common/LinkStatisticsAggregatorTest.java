@@ -0,0 +1,188 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test Unit class for the
+ * {@code com.owlplatform.common.LinkStatisticsAggregator} class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class LinkStatisticsAggregatorTest {
+
+  /**
+   * Computes the sample variance of some values.
+   * 
+   * @param values
+   *          the values.
+   * @return the sample variance.
+   */
+  private static float variance(final float... values) {
+    double mean = 0;
+    for (float value : values) {
+      mean += value;
+    }
+    mean /= values.length;
+    double sum = 0;
+    for (float value : values) {
+      sum += (value - mean) * (value - mean);
+    }
+    return (float) (sum / (values.length - 1));
+  }
+
+  /**
+   * Tests the variance over a sliding history for a single link.
+   */
+  @Test
+  public void testHistory() {
+    LinkStatisticsAggregator stats = new LinkStatisticsAggregator(2, 3, 1000);
+    Assert.assertEquals(0f, stats.addValue(1, 2, 3, 4, -50, 0), 0.0001f);
+    Assert.assertEquals(variance(-50, -52), stats.addValue(1, 2, 3, 4, -52, 1),
+        0.0001f);
+    Assert.assertEquals(variance(-50, -52, -57),
+        stats.addValue(1, 2, 3, 4, -57, 2), 0.0001f);
+    Assert.assertEquals(variance(-52, -57, -49),
+        stats.addValue(1, 2, 3, 4, -49, 3), 0.0001f);
+    Assert.assertEquals(variance(-57, -49, -60),
+        stats.addValue(1, 2, 3, 4, -60, 4), 0.0001f);
+    Assert.assertEquals(variance(-57, -49, -60),
+        stats.getVariance(1, 2, 3, 4), 0.0001f);
+    Assert.assertEquals(0f, stats.getVariance(1, 2, 3, 5), 0.0001f);
+    Assert.assertEquals(1, stats.size());
+  }
+
+  /**
+   * Tests that a link is cleared after the age gap.
+   */
+  @Test
+  public void testAgeGap() {
+    LinkStatisticsAggregator stats = new LinkStatisticsAggregator(1, 5, 100);
+    stats.addValue(1, 1, 1, 1, -50, 1000);
+    stats.addValue(1, 1, 1, 1, -60, 1050);
+    Assert.assertEquals(0f, stats.addValue(1, 1, 1, 1, -70, 1200), 0.0001f);
+    Assert.assertEquals(variance(-70, -72),
+        stats.addValue(1, 1, 1, 1, -72, 1250), 0.0001f);
+  }
+
+  /**
+   * Tests that the variance stays accurate for values that are large compared
+   * to their spread, after many values have passed through the history.
+   */
+  @Test
+  public void testLargeValues() {
+    LinkStatisticsAggregator stats = new LinkStatisticsAggregator(1, 5, 1000);
+    float[] recent = new float[5];
+    float variance = 0f;
+    for (int i = 0; i < 1000; ++i) {
+      float value = 3e6f + 0.37f * (i % 7);
+      recent[i % 5] = value;
+      variance = stats.addValue(1, 1, 1, 1, value, i);
+    }
+    Assert.assertEquals(variance(recent), variance, 0.0001f);
+  }
+
+  /**
+   * Tests that links with the same device and different receivers are kept
+   * separately and appear in a snapshot.
+   */
+  @Test
+  public void testSnapshot() {
+    LinkStatisticsAggregator stats = new LinkStatisticsAggregator(4, 5, 10000);
+    for (int device = 0; device < 100; ++device) {
+      for (int receiver = 0; receiver < 5; ++receiver) {
+        stats.addValue(0, device, 0, receiver, -device, 1);
+        stats.addValue(0, device, 0, receiver, -device - receiver, 2);
+      }
+    }
+    Assert.assertEquals(500, stats.size());
+    LinkStatisticsAggregator.Snapshot snapshot = stats.snapshot();
+    Assert.assertEquals(500, snapshot.size());
+    boolean[] seen = new boolean[500];
+    for (int i = 0; i < snapshot.size(); ++i) {
+      int device = (int) snapshot.getDeviceId(i).getLow();
+      int receiver = (int) snapshot.getReceiverId(i).getLow();
+      Assert.assertFalse(seen[device * 5 + receiver]);
+      seen[device * 5 + receiver] = true;
+      Assert.assertEquals(2, snapshot.getCount(i));
+      Assert.assertEquals(-device - receiver / 2f, snapshot.getMean(i),
+          0.0001f);
+      Assert.assertEquals(variance(-device, -device - receiver),
+          snapshot.getVariance(i), 0.0001f);
+      Assert.assertEquals(2, snapshot.getLastTime(i));
+    }
+
+    stats.clear();
+    Assert.assertEquals(0, stats.size());
+    Assert.assertEquals(0, stats.snapshot(snapshot).size());
+  }
+
+  /**
+   * Tests adding samples from several threads.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testConcurrentAdd() throws InterruptedException {
+    final LinkStatisticsAggregator stats = new LinkStatisticsAggregator();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          SampleMessage message = SampleMessage.getTestMessage();
+          message.setReceiverIdValue(new DeviceId(0, thread));
+          for (int i = 0; i < 1000; ++i) {
+            message.setDeviceIdValue(new DeviceId(1, i % 50));
+            message.setRssi(i % 2 == 0 ? -40 : -60);
+            stats.addSample(message);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    LinkStatisticsAggregator.Snapshot snapshot = stats.snapshot();
+    Assert.assertEquals(200, snapshot.size());
+    for (int i = 0; i < snapshot.size(); ++i) {
+      // Each device always has the same RSSI
+      float rssi = snapshot.getDeviceId(i).getLow() % 2 == 0 ? -40 : -60;
+      Assert.assertEquals(5, snapshot.getCount(i));
+      Assert.assertEquals(rssi, snapshot.getMean(i), 0.0001f);
+      Assert.assertEquals(0f, snapshot.getVariance(i), 0.0001f);
+    }
+  }
+
+  /**
+   * Ensures that the history must hold at least one value.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoHistory() {
+    new LinkStatisticsAggregator(1, 0, 1000);
+  }
+}
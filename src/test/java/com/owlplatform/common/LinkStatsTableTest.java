@@ -0,0 +1,124 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.owlplatform.common.util.OnlineVariance;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.LinkStatsTable} class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class LinkStatsTableTest {
+
+  /**
+   * Tests that each link matches an {@code OnlineVariance} given the same
+   * values.
+   */
+  @Test
+  public void testMatchesOnlineVariance() {
+    int numLinks = 100;
+    LinkStatsTable table = new LinkStatsTable(4, 5, Long.MAX_VALUE);
+    OnlineVariance[] expected = new OnlineVariance[numLinks];
+    for (int i = 0; i < numLinks; ++i) {
+      expected[i] = new OnlineVariance();
+      expected[i].setMaxHistory(5);
+      expected[i].setAgeGap(Long.MAX_VALUE);
+    }
+    Random rand = new Random(5);
+    int[] links = new int[64];
+    float[] values = new float[64];
+    for (int round = 0; round < 1000; ++round) {
+      for (int i = 0; i < links.length; ++i) {
+        links[i] = rand.nextInt(numLinks);
+        values[i] = (float) (-60 + rand.nextGaussian() * 6);
+        expected[links[i]].addValue(values[i]);
+      }
+      table.addValues(links, values, 0, links.length, round);
+    }
+    for (int i = 0; i < numLinks; ++i) {
+      Assert.assertEquals(expected[i].getCurrentVariance(),
+          table.getVariance(i), 0.001f);
+      Assert.assertEquals(5, table.getCount(i));
+    }
+    Assert.assertTrue(table.getCapacity() >= numLinks);
+  }
+
+  /**
+   * Tests the history window and age gap of a single link.
+   */
+  @Test
+  public void testHistoryAndAgeGap() {
+    LinkStatsTable table = new LinkStatsTable(1, 3, 100);
+    Assert.assertEquals(0f, table.addValue(7, 1, 0), 0);
+    Assert.assertEquals(0.5f, table.addValue(7, 2, 10), 0.0001f);
+    Assert.assertEquals(1f, table.addValue(7, 3, 20), 0.0001f);
+    Assert.assertEquals(2f, table.getMean(7), 0.0001f);
+    // 1 is replaced by 5
+    Assert.assertEquals(7f / 3f, table.addValue(7, 5, 30), 0.0001f);
+    Assert.assertEquals(30, table.getLastTime(7));
+
+    // After the age gap only the new value remains
+    Assert.assertEquals(0f, table.addValue(7, 9, 200), 0);
+    Assert.assertEquals(1, table.getCount(7));
+    Assert.assertEquals(9f, table.getMean(7), 0);
+
+    table.reset(7);
+    Assert.assertEquals(0, table.getCount(7));
+    Assert.assertEquals(0, table.getCount(1000));
+    Assert.assertEquals(0f, table.getVariance(-1), 0);
+  }
+
+  /**
+   * Tests the memory used per link for a million links.
+   */
+  @Test
+  public void testFootprint() {
+    int numLinks = 1000000;
+    LinkStatsTable table = new LinkStatsTable(numLinks, 5, 10000);
+    Assert.assertEquals(numLinks, table.getCapacity());
+    Assert.assertEquals((32L + 4 * 5) * numLinks, table.getFootprintBytes());
+    table.addValue(numLinks - 1, -50, 0);
+    Assert.assertEquals(numLinks, table.getCapacity());
+  }
+
+  /**
+   * Ensures that mismatched arrays are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMismatchedArrays() {
+    new LinkStatsTable(1).addValues(new int[2], new float[3]);
+  }
+
+  /**
+   * Ensures that negative handles are rejected.
+   */
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testNegativeHandle() {
+    new LinkStatsTable(1).addValue(-1, 0, 0);
+  }
+}
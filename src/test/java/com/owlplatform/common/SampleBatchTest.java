@@ -0,0 +1,196 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.SampleBatch} class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleBatchTest {
+
+  /**
+   * The number of samples added in each test, enough to force the batch to
+   * grow.
+   */
+  private static final int NUM_SAMPLES = 100;
+
+  /**
+   * A sample device id value.
+   */
+  private static final byte[] TEST_DEVICE_ID2 = new byte[] { 0, 1, 2, 3, 4, 5,
+      6, 7, 8, 9, 0xA, 0xB, 0xC, 0xD, 0xE, 0xF };
+
+  /**
+   * The batch used in each test.
+   */
+  private SampleBatch batch;
+
+  /**
+   * Creates a small batch and fills it with samples.
+   */
+  @Before
+  public void createBatch() {
+    this.batch = new SampleBatch(4);
+    for (int i = 0; i < NUM_SAMPLES; ++i) {
+      this.batch.add(makeSample(i));
+    }
+  }
+
+  /**
+   * Creates a sample whose values depend on {@code i}.
+   * 
+   * @param i
+   *          the index of the sample.
+   * @return the new sample.
+   */
+  private static SampleMessage makeSample(final int i) {
+    SampleMessage message = SampleMessage.getTestMessage();
+    if (i % 2 == 1) {
+      message.setDeviceId(TEST_DEVICE_ID2);
+      message.setPhysicalLayer(SampleMessage.PHYSICAL_LAYER_WIFI);
+    }
+    message.setRssi(-i);
+    message.setReceiverTimeStamp(i * 10);
+    byte[] data = new byte[i % 5];
+    Arrays.fill(data, (byte) i);
+    message.setSensedData(data.length == 0 ? null : data);
+    return message;
+  }
+
+  /**
+   * Tests that every field is returned as it was added.
+   */
+  @Test
+  public void testAccessors() {
+    Assert.assertEquals(NUM_SAMPLES, this.batch.size());
+    byte[] id = new byte[SampleMessage.DEVICE_ID_SIZE];
+    SampleMessage target = new SampleMessage();
+    for (int i = 0; i < NUM_SAMPLES; ++i) {
+      SampleMessage expected = makeSample(i);
+      Assert.assertEquals(expected.getPhysicalLayer(),
+          this.batch.getPhysicalLayer(i));
+      this.batch.getDeviceId(i, id, 0);
+      Assert.assertTrue(Arrays.equals(expected.getDeviceId(), id));
+      this.batch.getReceiverId(i, id, 0);
+      Assert.assertTrue(Arrays.equals(expected.getReceiverId(), id));
+      Assert.assertEquals(i * 10, this.batch.getReceiverTimeStamp(i));
+      Assert.assertEquals(-i, this.batch.getRssi(i), 0.001f);
+      Assert.assertEquals(i % 5, this.batch.getSensedDataLength(i));
+
+      this.batch.get(i, target);
+      Assert.assertEquals(expected.toString(), target.toString());
+    }
+    Assert.assertEquals(0x0001020304050607l, this.batch.getDeviceIdHigh(1));
+    Assert.assertEquals(0x08090A0B0C0D0E0Fl, this.batch.getDeviceIdLow(1));
+    Assert.assertEquals(1l, this.batch.getReceiverIdLow(1));
+    Assert.assertEquals(0l, this.batch.getReceiverIdHigh(1));
+
+    byte[] shared = new byte[SampleMessage.DEVICE_ID_SIZE];
+    target.setDeviceId(shared);
+    target.setReceiverId(shared);
+    this.batch.get(1, target);
+    Assert.assertEquals(makeSample(1).toString(), target.toString());
+    Assert.assertNotSame(shared, target.getDeviceId());
+    Assert.assertNotSame(shared, target.getReceiverId());
+    Assert.assertTrue(Arrays.equals(new byte[SampleMessage.DEVICE_ID_SIZE],
+        shared));
+  }
+
+  /**
+   * Tests that samples added from a view match those added directly.
+   */
+  @Test
+  public void testAddView() {
+    ByteBuffer buff = ByteBuffer.allocate(128);
+    SampleCodec.encodeSensor(makeSample(3), buff);
+    buff.flip();
+    SampleBatch other = new SampleBatch();
+    other.add(new SampleMessageView().wrapSensor(buff, 0));
+
+    Assert.assertEquals(this.batch.getDeviceIdHigh(3), other.getDeviceIdHigh(0));
+    Assert.assertEquals(this.batch.getDeviceIdLow(3), other.getDeviceIdLow(0));
+    byte[] data = new byte[3];
+    other.getSensedData(0, data, 0);
+    Assert.assertTrue(Arrays.equals(makeSample(3).getSensedData(), data));
+  }
+
+  /**
+   * Tests the bulk scan methods.
+   */
+  @Test
+  public void testScans() {
+    double sum = 0;
+    for (int i = 0; i < NUM_SAMPLES; ++i) {
+      sum -= i;
+    }
+    Assert.assertEquals(sum, this.batch.sumRssi(0, NUM_SAMPLES), 0.001);
+    Assert.assertEquals(sum / NUM_SAMPLES,
+        this.batch.meanRssi(0, NUM_SAMPLES), 0.001);
+    Assert.assertEquals(-(NUM_SAMPLES - 1), this.batch.minRssi(0, NUM_SAMPLES),
+        0.001f);
+    Assert.assertEquals(-10f, this.batch.maxRssi(10, 20), 0.001f);
+    Assert.assertTrue(Double.isNaN(this.batch.meanRssi(5, 5)));
+
+    Assert.assertEquals(NUM_SAMPLES / 2, this.batch.countPhysicalLayer(
+        SampleMessage.PHYSICAL_LAYER_WIFI, 0, NUM_SAMPLES));
+    Assert.assertEquals(NUM_SAMPLES, this.batch.countPhysicalLayer(
+        SampleMessage.PHYSICAL_LAYER_ALL, 0, NUM_SAMPLES));
+
+    Assert.assertEquals(5, this.batch.indexOfDevice(0x0001020304050607l,
+        0x08090A0B0C0D0E0Fl, 4));
+    Assert.assertEquals(-1, this.batch.indexOfDevice(1, 1, 0));
+
+    Assert.assertEquals(5, this.batch.lowerBoundTimeStamp(45));
+    Assert.assertEquals(0, this.batch.lowerBoundTimeStamp(-1));
+    Assert.assertEquals(NUM_SAMPLES, this.batch.lowerBoundTimeStamp(10000));
+  }
+
+  /**
+   * Tests that a cleared batch can be refilled.
+   */
+  @Test
+  public void testClear() {
+    float[] rssis = this.batch.getRssiArray();
+    this.batch.clear();
+    Assert.assertEquals(0, this.batch.size());
+    this.batch.add(makeSample(7));
+    Assert.assertEquals(1, this.batch.size());
+    Assert.assertEquals(-7f, this.batch.getRssi(0), 0.001f);
+    Assert.assertSame(rssis, this.batch.getRssiArray());
+  }
+
+  /**
+   * Ensures that reading past the end of the batch fails.
+   */
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() {
+    this.batch.getRssi(NUM_SAMPLES);
+  }
+}
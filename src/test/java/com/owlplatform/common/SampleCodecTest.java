@@ -0,0 +1,249 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.SampleCodec} class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleCodecTest {
+
+  /**
+   * The expected length of a Sensor-Aggregator frame with no data, including
+   * the length prefix.
+   */
+  private static final int SENSOR_FRAME_LENGTH = 49;
+
+  /**
+   * Sample 8-byte data {@code byte[]}.
+   */
+  private static final byte[] TEST_DATA_8BYTE = new byte[] { (byte) 0xCA, 0x11,
+      (byte) 0xAB, 0x1E, (byte) 0xB0, 0x1D, (byte) 0xFA, (byte) 0xCE };
+
+  /**
+   * A sample device id value.
+   */
+  private static final byte[] TEST_DEVICE_ID2 = new byte[] { 0, 1, 2, 3, 4, 5,
+      6, 7, 8, 9, 0xA, 0xB, 0xC, 0xD, 0xE, 0xF };
+
+  /**
+   * A timestamp at a fixed point in time.
+   */
+  private static final long TIMESTAMP_FIXED = -500l;
+
+  /**
+   * Sample RSSI value.
+   */
+  private static final float RSSI2 = -99f;
+
+  /**
+   * A sample with test values.
+   */
+  private SampleMessage testSample;
+
+  /**
+   * A sample with no sensed data.
+   */
+  private SampleMessage emptySample;
+
+  /**
+   * Creates the samples used for testing.
+   */
+  @Before
+  public void createSamples() {
+    this.testSample = SampleMessage.getTestMessage();
+    this.testSample.setReceiverTimeStamp(TIMESTAMP_FIXED);
+    this.testSample.setSensedData(TEST_DATA_8BYTE);
+
+    this.emptySample = new SampleMessage();
+    this.emptySample.setPhysicalLayer(SampleMessage.PHYSICAL_LAYER_WIFI);
+    this.emptySample.setDeviceId(TEST_DEVICE_ID2);
+    this.emptySample.setReceiverId(TEST_DEVICE_ID2);
+    this.emptySample.setRssi(RSSI2);
+  }
+
+  /**
+   * Asserts that two samples contain the same values.
+   * 
+   * @param expected
+   *          the expected sample.
+   * @param actual
+   *          the decoded sample.
+   */
+  private static void assertSampleEquals(final SampleMessage expected,
+      final SampleMessage actual) {
+    Assert.assertEquals(expected.getPhysicalLayer(), actual.getPhysicalLayer());
+    Assert.assertTrue(Arrays.equals(expected.getDeviceId(),
+        actual.getDeviceId()));
+    Assert.assertTrue(Arrays.equals(expected.getReceiverId(),
+        actual.getReceiverId()));
+    Assert.assertEquals(expected.getReceiverTimeStamp(),
+        actual.getReceiverTimeStamp());
+    Assert.assertEquals(expected.getRssi(), actual.getRssi(), 0.001f);
+    Assert.assertTrue(Arrays.equals(expected.getSensedData(),
+        actual.getSensedData()));
+  }
+
+  /**
+   * Tests a round trip through the Sensor-Aggregator format.
+   */
+  @Test
+  public void testSensorRoundTrip() {
+    ByteBuffer buff = ByteBuffer.allocate(128);
+    Assert.assertEquals(SENSOR_FRAME_LENGTH + 8,
+        SampleCodec.encodeSensor(this.testSample, buff));
+    Assert.assertEquals(this.testSample.getLengthPrefixSensor(), buff.getInt(0));
+    buff.flip();
+
+    SampleMessage decoded = SampleCodec.decodeSensor(buff);
+    assertSampleEquals(this.testSample, decoded);
+    Assert.assertFalse(buff.hasRemaining());
+  }
+
+  /**
+   * Tests a round trip through the Aggregator-Solver format using a direct
+   * buffer, and that decoding reuses the arrays of the target sample.
+   */
+  @Test
+  public void testSolverRoundTrip() {
+    ByteBuffer buff = ByteBuffer.allocateDirect(128);
+    SampleCodec.encodeSolver(this.emptySample, buff);
+    SampleCodec.encodeSolver(this.testSample, buff);
+    Assert.assertEquals(SampleMessage.MESSAGE_TYPE, buff.get(4));
+    buff.flip();
+
+    SampleMessage target = new SampleMessage();
+    Assert.assertTrue(SampleCodec.decodeSolver(buff, target));
+    assertSampleEquals(this.emptySample, target);
+    byte[] deviceId = target.getDeviceId();
+    byte[] receiverId = target.getReceiverId();
+
+    Assert.assertTrue(SampleCodec.decodeSolver(buff, target));
+    assertSampleEquals(this.testSample, target);
+    Assert.assertSame(deviceId, target.getDeviceId());
+    Assert.assertSame(receiverId, target.getReceiverId());
+    Assert.assertFalse(buff.hasRemaining());
+  }
+
+  /**
+   * Tests that decoding into a sample whose identifier arrays were set by the
+   * caller does not modify those arrays.
+   */
+  @Test
+  public void testSharedIdArray() {
+    ByteBuffer buff = ByteBuffer.allocate(128);
+    this.testSample.setReceiverId(TEST_DEVICE_ID2);
+    SampleCodec.encodeSensor(this.testSample, buff);
+    buff.flip();
+
+    byte[] shared = new byte[SampleMessage.DEVICE_ID_SIZE];
+    SampleMessage target = new SampleMessage();
+    target.setDeviceId(shared);
+    target.setReceiverId(shared);
+    Assert.assertTrue(SampleCodec.decodeSensor(buff, target));
+    assertSampleEquals(this.testSample, target);
+    Assert.assertNotSame(shared, target.getDeviceId());
+    Assert.assertNotSame(shared, target.getReceiverId());
+    Assert.assertTrue(Arrays.equals(new byte[SampleMessage.DEVICE_ID_SIZE],
+        shared));
+  }
+
+  /**
+   * Tests that decoding an incomplete frame leaves the buffer unchanged.
+   */
+  @Test
+  public void testPartialFrame() {
+    ByteBuffer buff = ByteBuffer.allocate(128);
+    SampleCodec.encodeSensor(this.testSample, buff);
+    buff.flip();
+    buff.limit(buff.limit() - 1);
+
+    SampleMessage target = new SampleMessage();
+    Assert.assertFalse(SampleCodec.decodeSensor(buff, target));
+    Assert.assertEquals(0, buff.position());
+    Assert.assertNull(target.getDeviceId());
+
+    buff.limit(2);
+    Assert.assertNull(SampleCodec.decodeSensor(buff));
+  }
+
+  /**
+   * Tests batch encoding stops at the first frame that does not fit.
+   */
+  @Test
+  public void testBatchEncode() {
+    SampleMessage[] messages = new SampleMessage[] { this.emptySample,
+        this.emptySample, this.emptySample, this.testSample };
+    ByteBuffer buff = ByteBuffer.allocate(SENSOR_FRAME_LENGTH * 3 + 4);
+    Assert.assertEquals(3, SampleCodec.encodeSensor(messages, 0, 4, buff));
+    Assert.assertEquals(SENSOR_FRAME_LENGTH * 3, buff.position());
+
+    buff = ByteBuffer.allocate(256);
+    Assert.assertEquals(2, SampleCodec.encodeSolver(messages, 2, 2, buff));
+    buff.flip();
+    assertSampleEquals(this.emptySample, SampleCodec.decodeSolver(buff));
+    assertSampleEquals(this.testSample, SampleCodec.decodeSolver(buff));
+  }
+
+  /**
+   * Ensures that encoding into a buffer that is too small fails without
+   * writing anything.
+   */
+  @Test
+  public void testOverflow() {
+    ByteBuffer buff = ByteBuffer.allocate(SENSOR_FRAME_LENGTH);
+    try {
+      SampleCodec.encodeSensor(this.testSample, buff);
+      Assert.fail("Expected BufferOverflowException.");
+    } catch (BufferOverflowException boe) {
+      Assert.assertEquals(0, buff.position());
+    }
+  }
+
+  /**
+   * Ensures that a sensor frame with an invalid length is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLength() {
+    ByteBuffer buff = ByteBuffer.allocate(128);
+    buff.putInt(10);
+    buff.flip();
+    SampleCodec.decodeSensor(buff);
+  }
+
+  /**
+   * Ensures that a sample without identifiers cannot be encoded.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingIds() {
+    SampleCodec.encodeSensor(new SampleMessage(), ByteBuffer.allocate(128));
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.SampleFilterSet}
+ * class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleFilterSetTest {
+
+  /**
+   * Tests that a sample is matched against many filters and that the matching
+   * indexes are returned in order.
+   */
+  @Test
+  public void testMatch() {
+    SampleFilterSet set = new SampleFilterSet();
+    for (int i = 0; i < 1000; ++i) {
+      SampleFilter.Builder builder = new SampleFilter.Builder();
+      builder.physicalLayer((byte) (i % 4 == 0 ? 1 : 2));
+      builder.deviceId(new DeviceId(0, i % 10));
+      Assert.assertEquals(i, set.add(builder.build()));
+    }
+    Assert.assertEquals(1000, set.size());
+
+    SampleMessage message = new SampleMessage();
+    message.setPhysicalLayer((byte) 1);
+    message.setDeviceIdValue(new DeviceId(0, 4));
+    message.setReceiverIdValue(DeviceId.ZERO);
+    int[] matches = new int[set.size()];
+    int count = set.match(message, matches);
+    // i % 4 == 0 and i % 10 == 4
+    Assert.assertEquals(50, count);
+    for (int i = 0; i < count; ++i) {
+      Assert.assertEquals(4 + i * 20, matches[i]);
+      Assert.assertTrue(set.get(matches[i]).matches(message));
+    }
+
+    message.setPhysicalLayer((byte) 3);
+    Assert.assertEquals(0, set.match(message, matches));
+  }
+
+  /**
+   * Tests that the number of matches is returned even if the array is too
+   * short to hold them.
+   */
+  @Test
+  public void testShortArray() {
+    SampleFilterSet set = new SampleFilterSet();
+    set.add(new SampleFilter.Builder().build());
+    set.add(new SampleFilter.Builder().build());
+    int[] matches = new int[1];
+    Assert.assertEquals(2, set.match(SampleMessage.getTestMessage(), matches));
+    Assert.assertEquals(0, matches[0]);
+  }
+}
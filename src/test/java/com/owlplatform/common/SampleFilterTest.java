@@ -0,0 +1,172 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.SampleFilter} class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleFilterTest {
+
+  /**
+   * Creates a sample with the specified values.
+   * 
+   * @param phy
+   *          the physical layer.
+   * @param device
+   *          the device identifier.
+   * @param receiver
+   *          the receiver identifier.
+   * @param rssi
+   *          the RSSI.
+   * @param data
+   *          the sensed data, or {@code null}.
+   * @return the new sample.
+   */
+  private static SampleMessage makeSample(final byte phy, final String device,
+      final String receiver, final float rssi, final byte[] data) {
+    SampleMessage message = new SampleMessage();
+    message.setPhysicalLayer(phy);
+    message.setDeviceIdValue(DeviceId.fromHexString(device));
+    message.setReceiverIdValue(DeviceId.fromHexString(receiver));
+    message.setRssi(rssi);
+    message.setSensedData(data);
+    return message;
+  }
+
+  /**
+   * Tests that a filter with no rules accepts every sample.
+   */
+  @Test
+  public void testEmptyFilter() {
+    SampleFilter filter = new SampleFilter.Builder().build();
+    Assert.assertTrue(filter.matches(SampleMessage.getTestMessage()));
+    Assert.assertTrue(filter.matches(makeSample((byte) 7, "1", "2", -90,
+        null)));
+  }
+
+  /**
+   * Tests the physical layer rule.
+   */
+  @Test
+  public void testPhysicalLayer() {
+    SampleFilter filter = new SampleFilter.Builder().physicalLayer(
+        SampleMessage.PHYSICAL_LAYER_PIPSQUEAK, (byte) 200).build();
+    Assert.assertTrue(filter.matches(makeSample(
+        SampleMessage.PHYSICAL_LAYER_PIPSQUEAK, "1", "2", -50, null)));
+    Assert.assertTrue(filter.matches(makeSample((byte) 200, "1", "2", -50,
+        null)));
+    Assert.assertFalse(filter.matches(makeSample(
+        SampleMessage.PHYSICAL_LAYER_WIFI, "1", "2", -50, null)));
+
+    SampleFilter all = new SampleFilter.Builder().physicalLayer(
+        SampleMessage.PHYSICAL_LAYER_ALL).build();
+    Assert.assertTrue(all.matches(makeSample(
+        SampleMessage.PHYSICAL_LAYER_WINS, "1", "2", -50, null)));
+  }
+
+  /**
+   * Tests the device identifier set and prefix rules.
+   */
+  @Test
+  public void testDeviceIds() {
+    SampleFilter filter = new SampleFilter.Builder()
+        .deviceId(DeviceId.fromHexString("ABCD"))
+        .devicePrefix(new byte[] { 0x12, 0x34 }).build();
+    Assert.assertTrue(filter.matches(makeSample((byte) 1, "ABCD", "2", -50,
+        null)));
+    Assert.assertFalse(filter.matches(makeSample((byte) 1, "ABCE", "2", -50,
+        null)));
+    Assert.assertTrue(filter.matches(makeSample((byte) 1,
+        "12340000000000000000000000000099", "2", -50, null)));
+    Assert.assertFalse(filter.matches(makeSample((byte) 1,
+        "12350000000000000000000000000099", "2", -50, null)));
+  }
+
+  /**
+   * Tests the receiver identifier, RSSI and sensed data rules together.
+   */
+  @Test
+  public void testCombinedRules() {
+    SampleFilter filter = new SampleFilter.Builder().receiverId(
+        DeviceId.fromHexString("2")).rssiRange(-80, -40).sensedData(true)
+        .build();
+    byte[] data = new byte[] { 1 };
+    Assert.assertTrue(filter.matches(makeSample((byte) 1, "1", "2", -40, data)));
+    Assert.assertTrue(filter.matches(makeSample((byte) 1, "1", "2", -80, data)));
+    Assert.assertFalse(filter.matches(makeSample((byte) 1, "1", "3", -50, data)));
+    Assert.assertFalse(filter.matches(makeSample((byte) 1, "1", "2", -81, data)));
+    Assert.assertFalse(filter.matches(makeSample((byte) 1, "1", "2", -39, data)));
+    Assert.assertFalse(filter.matches(makeSample((byte) 1, "1", "2", -50, null)));
+    Assert.assertFalse(filter.matches(makeSample((byte) 1, "1", "2",
+        Float.NaN, data)));
+
+    SampleFilter noData = new SampleFilter.Builder().sensedData(false).build();
+    Assert.assertTrue(noData.matches(makeSample((byte) 1, "1", "2", -50, null)));
+    Assert.assertFalse(noData.matches(makeSample((byte) 1, "1", "2", -50, data)));
+  }
+
+  /**
+   * Tests that a view of a sample gives the same result as the sample.
+   */
+  @Test
+  public void testView() {
+    SampleMessage message = SampleMessage.getTestMessage();
+    ByteBuffer buff = ByteBuffer.allocate(256);
+    SampleCodec.encodeSensor(message, buff);
+    SampleMessageView view = new SampleMessageView().wrapSensor(buff, 0);
+
+    SampleFilter accept = new SampleFilter.Builder()
+        .physicalLayer(message.getPhysicalLayer())
+        .deviceId(message.getDeviceId())
+        .receiverId(message.getReceiverId()).build();
+    Assert.assertTrue(accept.matches(message));
+    Assert.assertTrue(accept.matches(view));
+
+    SampleFilter reject = new SampleFilter.Builder().rssiRange(
+        message.getRssi() + 1, message.getRssi() + 2).build();
+    Assert.assertFalse(reject.matches(message));
+    Assert.assertFalse(reject.matches(view));
+  }
+
+  /**
+   * Ensures that an empty RSSI range is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadRssiRange() {
+    new SampleFilter.Builder().rssiRange(0, -1);
+  }
+
+  /**
+   * Ensures that a prefix longer than an identifier is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testLongPrefix() {
+    new SampleFilter.Builder().devicePrefix(new byte[17]);
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.SampleFrameParser}
+ * class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleFrameParserTest {
+
+  /**
+   * The number of samples written in each test.
+   */
+  private static final int NUM_SAMPLES = 50;
+
+  /**
+   * Collects a copy of every sample received from the parser.
+   */
+  private final List<SampleMessage> received = new ArrayList<SampleMessage>();
+
+  /**
+   * Listener that records the samples passed to it.
+   */
+  private final SampleViewListener listener = new SampleViewListener() {
+    @Override
+    public void sampleReceived(final SampleMessageView view) {
+      SampleFrameParserTest.this.received.add(view.toSampleMessage());
+    }
+  };
+
+  /**
+   * Clears the received samples before each test.
+   */
+  @Before
+  public void clearReceived() {
+    this.received.clear();
+  }
+
+  /**
+   * Creates a sample whose values depend on {@code i}.
+   * 
+   * @param i
+   *          the index of the sample.
+   * @return the new sample.
+   */
+  private static SampleMessage makeSample(final int i) {
+    SampleMessage message = SampleMessage.getTestMessage();
+    message.setRssi(-i);
+    message.setReceiverTimeStamp(i);
+    message.setSensedData(new byte[i % 7]);
+    return message;
+  }
+
+  /**
+   * Encodes {@link #NUM_SAMPLES} samples into a new buffer.
+   * 
+   * @param solver
+   *          {@code true} for the Aggregator-Solver format.
+   * @param interleave
+   *          {@code true} to place a non-sample message before each sample.
+   * @return the flipped buffer.
+   */
+  private static ByteBuffer encodeAll(final boolean solver,
+      final boolean interleave) {
+    ByteBuffer buff = ByteBuffer.allocate(NUM_SAMPLES * 80);
+    for (int i = 0; i < NUM_SAMPLES; ++i) {
+      if (interleave) {
+        // A 3-byte message of type 1 with 2 bytes of payload
+        buff.putInt(3).put((byte) 1).put((byte) 0xAA).put((byte) 0xBB);
+      }
+      if (solver) {
+        SampleCodec.encodeSolver(makeSample(i), buff);
+      } else {
+        SampleCodec.encodeSensor(makeSample(i), buff);
+      }
+    }
+    buff.flip();
+    return buff;
+  }
+
+  /**
+   * Checks that every sample was received in order.
+   */
+  private void assertAllReceived() {
+    Assert.assertEquals(NUM_SAMPLES, this.received.size());
+    for (int i = 0; i < NUM_SAMPLES; ++i) {
+      SampleMessage message = this.received.get(i);
+      Assert.assertEquals(-i, message.getRssi(), 0.001f);
+      Assert.assertEquals(i, message.getReceiverTimeStamp());
+      int dataLength = message.getSensedData() == null ? 0 : message
+          .getSensedData().length;
+      Assert.assertEquals(i % 7, dataLength);
+    }
+  }
+
+  /**
+   * Tests parsing a buffer containing only complete frames.
+   */
+  @Test
+  public void testWholeBuffer() {
+    SampleFrameParser parser = new SampleFrameParser(false, this.listener);
+    Assert.assertEquals(NUM_SAMPLES, parser.parse(encodeAll(false, false)));
+    Assert.assertFalse(parser.hasPartialFrame());
+    assertAllReceived();
+  }
+
+  /**
+   * Tests that frames contained in the input buffer are passed to the listener
+   * without being copied.
+   */
+  @Test
+  public void testZeroCopy() {
+    final ByteBuffer input = encodeAll(false, false);
+    SampleFrameParser parser = new SampleFrameParser(false,
+        new SampleViewListener() {
+          @Override
+          public void sampleReceived(final SampleMessageView view) {
+            Assert.assertSame(input, view.getBuffer());
+          }
+        });
+    Assert.assertEquals(NUM_SAMPLES, parser.parse(input));
+  }
+
+  /**
+   * Tests parsing the stream one byte at a time.
+   */
+  @Test
+  public void testSingleBytes() {
+    ByteBuffer all = encodeAll(true, true);
+    SampleFrameParser parser = new SampleFrameParser(true, this.listener);
+    ByteBuffer chunk = ByteBuffer.allocate(1);
+    while (all.hasRemaining()) {
+      chunk.clear();
+      chunk.put(all.get());
+      chunk.flip();
+      parser.parse(chunk);
+    }
+    Assert.assertFalse(parser.hasPartialFrame());
+    assertAllReceived();
+  }
+
+  /**
+   * Tests parsing the stream as read from an in-memory pipe in small chunks
+   * that split frames at varying positions.
+   * 
+   * @throws IOException
+   *           if the pipe cannot be used.
+   */
+  @Test
+  public void testPipe() throws IOException {
+    Pipe pipe = Pipe.open();
+    ByteBuffer all = encodeAll(true, true);
+    while (all.hasRemaining()) {
+      pipe.sink().write(all);
+    }
+    pipe.sink().close();
+
+    SampleFrameParser parser = new SampleFrameParser(true, this.listener);
+    ByteBuffer chunk = ByteBuffer.allocate(37);
+    while (pipe.source().read(chunk) >= 0) {
+      chunk.flip();
+      parser.parse(chunk);
+      chunk.clear();
+    }
+    pipe.source().close();
+    Assert.assertFalse(parser.hasPartialFrame());
+    assertAllReceived();
+  }
+
+  /**
+   * Tests that a partial frame is discarded by {@code reset()}.
+   */
+  @Test
+  public void testReset() {
+    SampleFrameParser parser = new SampleFrameParser(false, this.listener);
+    ByteBuffer all = encodeAll(false, false);
+    all.limit(10);
+    Assert.assertEquals(0, parser.parse(all));
+    Assert.assertTrue(parser.hasPartialFrame());
+    parser.reset();
+    Assert.assertFalse(parser.hasPartialFrame());
+    Assert.assertEquals(NUM_SAMPLES, parser.parse(encodeAll(false, false)));
+  }
+
+  /**
+   * Tests that frames split across chunks are still parsed after a larger
+   * split frame has grown the parser's buffer.
+   */
+  @Test
+  public void testGrowingFrames() {
+    SampleFrameParser parser = new SampleFrameParser(false, this.listener);
+    ByteBuffer buff = ByteBuffer.allocate(256);
+    SampleMessage large = makeSample(0);
+    large.setSensedData(new byte[100]);
+    SampleCodec.encodeSensor(large, buff);
+    SampleCodec.encodeSensor(makeSample(1), buff);
+    buff.flip();
+    ByteBuffer chunk = ByteBuffer.allocate(30);
+    while (buff.hasRemaining()) {
+      chunk.clear();
+      while (chunk.hasRemaining() && buff.hasRemaining()) {
+        chunk.put(buff.get());
+      }
+      chunk.flip();
+      parser.parse(chunk);
+    }
+    Assert.assertFalse(parser.hasPartialFrame());
+    Assert.assertEquals(2, this.received.size());
+    Assert.assertEquals(100, this.received.get(0).getSensedData().length);
+    Assert.assertEquals(1, this.received.get(1).getSensedData().length);
+  }
+
+  /**
+   * Ensures that an empty Aggregator-Solver message is rejected when it is
+   * completely contained in the input buffer.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyMessageInPlace() {
+    SampleFrameParser parser = new SampleFrameParser(true, this.listener);
+    ByteBuffer buff = ByteBuffer.allocate(128);
+    buff.putInt(0);
+    SampleCodec.encodeSolver(makeSample(0), buff);
+    buff.flip();
+    parser.parse(buff);
+  }
+
+  /**
+   * Ensures that an empty Aggregator-Solver message is rejected when its
+   * header is split across chunks.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyMessageSplit() {
+    SampleFrameParser parser = new SampleFrameParser(true, this.listener);
+    ByteBuffer buff = ByteBuffer.allocate(4);
+    buff.putInt(0).flip();
+    parser.parse(buff);
+    buff.clear();
+    buff.put(SampleMessage.MESSAGE_TYPE).flip();
+    parser.parse(buff);
+  }
+
+  /**
+   * Ensures that a frame longer than the maximum is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testFrameTooLong() {
+    SampleFrameParser parser = new SampleFrameParser(false, 50, this.listener);
+    ByteBuffer buff = ByteBuffer.allocate(8);
+    buff.putInt(51).flip();
+    parser.parse(buff);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.SampleMessagePool}
+ * class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleMessagePoolTest {
+
+  /**
+   * Tests that released samples are reused and reset.
+   */
+  @Test
+  public void testReuse() {
+    SampleMessagePool pool = new SampleMessagePool(1, 4);
+    SampleMessage message = pool.acquire();
+    Assert.assertNotNull(message.getDeviceId());
+    Assert.assertNotNull(message.getReceiverId());
+
+    message.copyFrom(SampleMessage.getTestMessage());
+    byte[] deviceId = message.getDeviceId();
+    Assert.assertTrue(pool.release(message));
+    Assert.assertEquals(1, pool.getIdleCount());
+
+    SampleMessage again = pool.acquire();
+    Assert.assertSame(message, again);
+    Assert.assertSame(deviceId, again.getDeviceId());
+    Assert.assertEquals(SampleMessage.PHYSICAL_LAYER_UNDEFINED,
+        again.getPhysicalLayer());
+    Assert.assertNull(again.getSensedData());
+    Assert.assertEquals(0, pool.getIdleCount());
+  }
+
+  /**
+   * Tests that a full stripe discards released samples.
+   */
+  @Test
+  public void testCapacity() {
+    SampleMessagePool pool = new SampleMessagePool(3, 2);
+    Assert.assertTrue(pool.release(pool.acquire()));
+    Assert.assertTrue(pool.release(new SampleMessage()));
+    Assert.assertFalse(pool.release(new SampleMessage()));
+    Assert.assertFalse(pool.release(null));
+    Assert.assertEquals(2, pool.getIdleCount());
+  }
+
+  /**
+   * Tests that samples released without identifier arrays are given them when
+   * they are acquired again.
+   */
+  @Test
+  public void testReleaseWithoutIds() {
+    SampleMessagePool pool = new SampleMessagePool(1, 1);
+    Assert.assertTrue(pool.release(new SampleMessage()));
+    SampleMessage message = pool.acquire();
+    Assert.assertNotNull(message.getDeviceId());
+    Assert.assertNotNull(message.getReceiverId());
+    Assert.assertNotSame(message.getDeviceId(), message.getReceiverId());
+  }
+
+  /**
+   * Tests a decode-process-release loop reuses the same sample and arrays.
+   */
+  @Test
+  public void testDecodeLoop() {
+    ByteBuffer buff = ByteBuffer.allocate(1024);
+    SampleMessage source = SampleMessage.getTestMessage();
+    for (int i = 0; i < 10; ++i) {
+      source.setRssi(-i);
+      SampleCodec.encodeSensor(source, buff);
+    }
+    buff.flip();
+
+    SampleMessagePool pool = new SampleMessagePool(1, 1);
+    SampleMessage first = pool.acquire();
+    byte[] deviceId = first.getDeviceId();
+    pool.release(first);
+    byte[] sensedData = null;
+    for (int i = 0; i < 10; ++i) {
+      SampleMessage message = pool.acquire();
+      Assert.assertSame(first, message);
+      Assert.assertTrue(SampleCodec.decodeSensor(buff, message));
+      Assert.assertSame(deviceId, message.getDeviceId());
+      Assert.assertTrue(Arrays.equals(source.getDeviceId(),
+          message.getDeviceId()));
+      Assert.assertEquals(-i, message.getRssi(), 0.001f);
+      if (sensedData == null) {
+        sensedData = message.getSensedData();
+      }
+      Assert.assertSame(sensedData, message.getSensedData());
+      pool.release(message);
+    }
+  }
+
+  /**
+   * Ensures that a pool must have at least one stripe.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoStripes() {
+    new SampleMessagePool(0, 1);
+  }
+}
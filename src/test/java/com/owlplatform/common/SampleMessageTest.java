@@ -390,6 +390,100 @@ public class SampleMessageTest {
         clone.getSensedData()));
   }
 
+  /**
+   * Tests that cloned samples do not share identifier or data arrays.
+   * 
+   * @throws CloneNotSupportedException
+   */
+  @Test
+  public void testCloneDeepCopy() throws CloneNotSupportedException {
+    SampleMessage clone = this.testSample.clone();
+    Assert.assertNotSame(this.testSample.getDeviceId(), clone.getDeviceId());
+    Assert.assertNotSame(this.testSample.getReceiverId(),
+        clone.getReceiverId());
+    Assert.assertNotSame(this.testSample.getSensedData(),
+        clone.getSensedData());
+  }
+
+  /**
+   * Tests that resetting a sample clears its values, keeps the identifier
+   * arrays it allocated, and does not modify arrays set by the caller.
+   */
+  @Test
+  public void testReset() {
+    byte[] deviceId = this.testSample.getDeviceId();
+    byte[] original = Arrays.copyOf(deviceId, deviceId.length);
+    this.testSample.setReceiverTimeStamp(TIMESTAMP_NOW);
+    this.testSample.reset(TIMESTAMP_FIXED);
+
+    Assert.assertEquals(TIMESTAMP_FIXED, this.testSample.getCreationTimestamp());
+    Assert.assertEquals(SampleMessage.PHYSICAL_LAYER_UNDEFINED,
+        this.testSample.getPhysicalLayer());
+    Assert.assertNotSame(deviceId, this.testSample.getDeviceId());
+    Assert.assertTrue(Arrays.equals(original, deviceId));
+    Assert.assertTrue(Arrays.equals(new byte[SampleMessage.DEVICE_ID_SIZE],
+        this.testSample.getDeviceId()));
+    deviceId = this.testSample.getDeviceId();
+    this.testSample.reset(TIMESTAMP_FIXED);
+    Assert.assertSame(deviceId, this.testSample.getDeviceId());
+    Assert.assertEquals(0l, this.testSample.getReceiverTimeStamp());
+    Assert.assertEquals(0f, this.testSample.getRssi(), 0.001f);
+    Assert.assertNull(this.testSample.getSensedData());
+    Assert.assertEquals(BASE_LENGTH, this.testSample.getLengthPrefixSensor());
+  }
+
+  /**
+   * Tests that {@code copyFrom} copies values into arrays allocated by the
+   * sample, and never into arrays set by the caller.
+   */
+  @Test
+  public void testCopyFrom() {
+    this.basicSample.setDeviceId(TEST_DEVICE_ID1);
+    this.basicSample.setReceiverId(TEST_DEVICE_ID2);
+    this.basicSample.setRssi(RSSI1);
+    this.basicSample.setPhysicalLayer(SampleMessage.PHYSICAL_LAYER_WIFI);
+    this.basicSample.setReceiverTimeStamp(TIMESTAMP_FIXED);
+    this.basicSample.setSensedData(TEST_DATA_4BYTE);
+
+    SampleMessage target = new SampleMessage(TIMESTAMP_NOW);
+    target.copyFrom(this.basicSample);
+    Assert.assertEquals(TO_STRING_DATA, target.toString());
+    Assert.assertEquals(TIMESTAMP_NOW, target.getCreationTimestamp());
+    Assert.assertNotSame(TEST_DEVICE_ID1, target.getDeviceId());
+    Assert.assertNotSame(TEST_DATA_4BYTE, target.getSensedData());
+
+    byte[] deviceId = target.getDeviceId();
+    byte[] data = target.getSensedData();
+    this.testSample.setSensedData(TEST_DATA_4BYTE);
+    target.copyFrom(this.testSample);
+    Assert.assertSame(deviceId, target.getDeviceId());
+    Assert.assertSame(data, target.getSensedData());
+    Assert.assertTrue(Arrays.equals(this.testSample.getDeviceId(),
+        target.getDeviceId()));
+
+    target.reset(TIMESTAMP_NOW);
+    Assert.assertEquals(0, target.getSensedDataLength());
+    target.copyFrom(this.testSample);
+    Assert.assertSame(data, target.getSensedData());
+    Assert.assertEquals(TEST_DATA_4BYTE.length, target.getSensedDataLength());
+
+    byte[] shared = new byte[SampleMessage.DEVICE_ID_SIZE];
+    target.setDeviceId(shared);
+    target.setReceiverId(shared);
+    target.copyFrom(this.basicSample);
+    Assert.assertNotSame(shared, target.getDeviceId());
+    Assert.assertNotSame(shared, target.getReceiverId());
+    Assert.assertTrue(Arrays.equals(new byte[SampleMessage.DEVICE_ID_SIZE],
+        shared));
+    Assert.assertTrue(Arrays.equals(TEST_DEVICE_ID1, target.getDeviceId()));
+    Assert.assertTrue(Arrays.equals(TEST_DEVICE_ID2, target.getReceiverId()));
+
+    target.copyFrom(new SampleMessage());
+    Assert.assertNull(target.getDeviceId());
+    Assert.assertNull(target.getReceiverId());
+    Assert.assertNull(target.getSensedData());
+  }
+
   /**
    * Tests the toString() method of the SampleMessage class.
    */
@@ -0,0 +1,214 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.SampleMessageView}
+ * class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleMessageViewTest {
+
+  /**
+   * A sample device id value.
+   */
+  private static final byte[] TEST_DEVICE_ID = new byte[] { 0, 0, 0, 0, 0, 0,
+      0, 0, 0, 0, 0, 0, 0, 0, 0x12, 0x34 };
+
+  /**
+   * A sample receiver id value.
+   */
+  private static final byte[] TEST_RECEIVER_ID = new byte[] { 0, 1, 2, 3, 4,
+      5, 6, 7, 8, 9, 0xA, 0xB, 0xC, 0xD, 0xE, 0xF };
+
+  /**
+   * Sample 4-byte data {@code byte[]}.
+   */
+  private static final byte[] TEST_DATA_4BYTE = new byte[] { 0, 1, 2, 3 };
+
+  /**
+   * A timestamp at a fixed point in time.
+   */
+  private static final long TIMESTAMP = 1350000000000l;
+
+  /**
+   * Sample RSSI value.
+   */
+  private static final float RSSI = -72.5f;
+
+  /**
+   * Writes a sample frame at the current position of {@code buff}.
+   * 
+   * @param buff
+   *          the destination buffer.
+   * @param solver
+   *          {@code true} to include the Aggregator-Solver message type.
+   * @param data
+   *          the sensed data, or {@code null}.
+   */
+  private static void putFrame(final ByteBuffer buff, final boolean solver,
+      final byte[] data) {
+    int dataLength = data == null ? 0 : data.length;
+    buff.putInt((solver ? 46 : 45) + dataLength);
+    if (solver) {
+      buff.put(SampleMessage.MESSAGE_TYPE);
+    }
+    buff.put(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK);
+    buff.put(TEST_DEVICE_ID);
+    buff.put(TEST_RECEIVER_ID);
+    buff.putLong(TIMESTAMP);
+    buff.putFloat(RSSI);
+    if (data != null) {
+      buff.put(data);
+    }
+  }
+
+  /**
+   * Checks that {@code view} reports the values written by
+   * {@link #putFrame(ByteBuffer, boolean, byte[])}.
+   * 
+   * @param view
+   *          the view to check.
+   * @param data
+   *          the expected sensed data.
+   */
+  private static void assertFrame(final SampleMessageView view,
+      final byte[] data) {
+    Assert.assertEquals(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK,
+        view.getPhysicalLayer());
+    Assert.assertTrue(Arrays.equals(TEST_DEVICE_ID, view.getDeviceId()));
+    Assert.assertTrue(Arrays.equals(TEST_RECEIVER_ID, view.getReceiverId()));
+    Assert.assertEquals(TIMESTAMP, view.getReceiverTimeStamp());
+    Assert.assertEquals(RSSI, view.getRssi(), 0.001f);
+    Assert.assertTrue(Arrays.equals(data, view.getSensedData()));
+  }
+
+  /**
+   * Tests reading a Sensor-Aggregator frame from a heap buffer.
+   */
+  @Test
+  public void testSensorHeap() {
+    ByteBuffer buff = ByteBuffer.allocate(64);
+    putFrame(buff, false, TEST_DATA_4BYTE);
+    buff.flip();
+
+    SampleMessageView view = new SampleMessageView().wrapSensor(buff, 0);
+    assertFrame(view, TEST_DATA_4BYTE);
+    Assert.assertFalse(view.isSolverFormat());
+    Assert.assertEquals(53, view.getFrameLength());
+    Assert.assertEquals(4, view.getSensedDataLength());
+    Assert.assertEquals(0, buff.position());
+    Assert.assertEquals(0l, view.getDeviceIdHigh());
+    Assert.assertEquals(0x1234l, view.getDeviceIdLow());
+  }
+
+  /**
+   * Tests reading consecutive Aggregator-Solver frames from a direct buffer
+   * using a single view.
+   */
+  @Test
+  public void testSolverDirect() {
+    ByteBuffer buff = ByteBuffer.allocateDirect(128);
+    putFrame(buff, true, null);
+    putFrame(buff, true, TEST_DATA_4BYTE);
+    buff.flip();
+
+    SampleMessageView view = new SampleMessageView().wrapSolver(buff, 0);
+    assertFrame(view, null);
+    Assert.assertTrue(view.isSolverFormat());
+    Assert.assertEquals(50, view.getFrameLength());
+
+    int next = view.getFrameOffset() + view.getFrameLength();
+    Assert.assertSame(view, view.wrapSolver(buff, next));
+    assertFrame(view, TEST_DATA_4BYTE);
+    Assert.assertEquals(next + view.getFrameLength(), buff.limit());
+
+    SampleMessage message = view.toSampleMessage();
+    Assert.assertEquals(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK,
+        message.getPhysicalLayer());
+    Assert.assertTrue(Arrays.equals(TEST_DEVICE_ID, message.getDeviceId()));
+    Assert.assertTrue(Arrays.equals(TEST_DATA_4BYTE, message.getSensedData()));
+  }
+
+  /**
+   * Tests that the non-allocating accessors copy into the supplied array.
+   */
+  @Test
+  public void testCopyInto() {
+    ByteBuffer buff = ByteBuffer.allocate(64);
+    putFrame(buff, false, TEST_DATA_4BYTE);
+    buff.flip();
+    SampleMessageView view = new SampleMessageView().wrapSensor(buff, 0);
+
+    byte[] dest = new byte[20];
+    view.getReceiverId(dest, 2);
+    Assert.assertTrue(Arrays.equals(TEST_RECEIVER_ID,
+        Arrays.copyOfRange(dest, 2, 18)));
+    view.getSensedData(dest, 0);
+    Assert.assertTrue(Arrays.equals(TEST_DATA_4BYTE,
+        Arrays.copyOfRange(dest, 0, 4)));
+  }
+
+  /**
+   * Ensures that a frame extending past the buffer limit is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testTruncatedFrame() {
+    ByteBuffer buff = ByteBuffer.allocate(64);
+    putFrame(buff, false, TEST_DATA_4BYTE);
+    buff.flip();
+    buff.limit(buff.limit() - 1);
+    new SampleMessageView().wrapSensor(buff, 0);
+  }
+
+  /**
+   * Ensures that a solver frame with the wrong message type is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongMessageType() {
+    ByteBuffer buff = ByteBuffer.allocate(64);
+    putFrame(buff, true, null);
+    buff.put(4, (byte) 1);
+    buff.flip();
+    new SampleMessageView().wrapSolver(buff, 0);
+  }
+
+  /**
+   * Ensures that a little-endian buffer is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testLittleEndian() {
+    ByteBuffer buff = ByteBuffer.allocate(64);
+    putFrame(buff, false, null);
+    buff.flip();
+    buff.order(ByteOrder.LITTLE_ENDIAN);
+    new SampleMessageView().wrapSensor(buff, 0);
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.owlplatform.common.SampleRingBuffer.WaitStrategy;
+
+/**
+ * Test Unit class for the {@code com.owlplatform.common.SampleRingBuffer}
+ * class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleRingBufferTest {
+
+  /**
+   * Listener that checks samples arrive in order of their receiver timestamp
+   * for each producer, identified by the RSSI value.
+   */
+  private static class OrderChecker implements SampleMessageListener {
+    /**
+     * The next expected timestamp for each producer.
+     */
+    final long[] expected;
+
+    /**
+     * The number of samples received.
+     */
+    int received = 0;
+
+    /**
+     * The number of samples received out of order.
+     */
+    int errors = 0;
+
+    /**
+     * Creates a new checker.
+     * 
+     * @param numProducers
+     *          the number of producers.
+     */
+    OrderChecker(final int numProducers) {
+      this.expected = new long[numProducers];
+    }
+
+    @Override
+    public void sampleReceived(final SampleMessage message) {
+      int producer = (int) message.getRssi();
+      if (message.getReceiverTimeStamp() != this.expected[producer]) {
+        ++this.errors;
+      }
+      this.expected[producer] = message.getReceiverTimeStamp() + 1;
+      ++this.received;
+    }
+  }
+
+  /**
+   * Tests claiming, filling, publishing and draining from a single thread.
+   */
+  @Test
+  public void testSingleThread() {
+    SampleRingBuffer ring = new SampleRingBuffer(6);
+    Assert.assertEquals(8, ring.getCapacity());
+    SampleMessage source = SampleMessage.getTestMessage();
+    source.setRssi(0);
+    for (int i = 0; i < 8; ++i) {
+      source.setReceiverTimeStamp(i);
+      Assert.assertTrue(ring.offer(source));
+    }
+    Assert.assertFalse(ring.offer(source));
+    Assert.assertEquals(-1, ring.tryClaim());
+    Assert.assertEquals(8, ring.size());
+
+    OrderChecker checker = new OrderChecker(1);
+    Assert.assertEquals(3, ring.drain(checker, 3));
+    Assert.assertEquals(5, ring.size());
+
+    long sequence = ring.claim();
+    Assert.assertEquals(8, sequence);
+    SampleMessage slot = ring.get(sequence);
+    slot.copyFrom(source);
+    slot.setReceiverTimeStamp(8);
+    ring.publish(sequence);
+
+    Assert.assertEquals(6, ring.drain(checker, 100));
+    Assert.assertEquals(0, ring.drain(checker, 100));
+    Assert.assertEquals(9, checker.received);
+    Assert.assertEquals(0, checker.errors);
+    Assert.assertEquals(0, ring.size());
+  }
+
+  /**
+   * Tests that an unpublished slot blocks later published slots from being
+   * consumed.
+   */
+  @Test
+  public void testPublishOrder() {
+    SampleRingBuffer ring = new SampleRingBuffer(4);
+    long first = ring.claim();
+    long second = ring.claim();
+    ring.get(second).setRssi(0);
+    ring.get(second).setReceiverTimeStamp(1);
+    ring.publish(second);
+    OrderChecker checker = new OrderChecker(1);
+    Assert.assertEquals(0, ring.drain(checker, 10));
+    ring.get(first).setRssi(0);
+    ring.get(first).setReceiverTimeStamp(0);
+    ring.publish(first);
+    Assert.assertEquals(2, ring.drain(checker, 10));
+    Assert.assertEquals(0, checker.errors);
+  }
+
+  /**
+   * Tests that copying a sample into the queue reuses the identifier arrays
+   * of the slot rather than sharing or replacing them.
+   */
+  @Test
+  public void testSlotArraysReused() {
+    SampleRingBuffer ring = new SampleRingBuffer(1);
+    SampleMessage slot = ring.get(0);
+    byte[] deviceId = slot.getDeviceId();
+    byte[] receiverId = slot.getReceiverId();
+    Assert.assertNotNull(deviceId);
+    Assert.assertNotSame(deviceId, receiverId);
+
+    SampleMessage source = SampleMessage.getTestMessage();
+    Assert.assertTrue(ring.offer(source));
+    Assert.assertSame(deviceId, slot.getDeviceId());
+    Assert.assertSame(receiverId, slot.getReceiverId());
+    Assert.assertTrue(Arrays.equals(source.getDeviceId(), deviceId));
+    Assert.assertTrue(Arrays.equals(source.getReceiverId(), receiverId));
+  }
+
+  /**
+   * Tests several producers feeding one consumer with each wait strategy.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testMultipleProducers() throws InterruptedException {
+    for (WaitStrategy strategy : WaitStrategy.values()) {
+      runProducers(strategy);
+    }
+  }
+
+  /**
+   * Runs several producers and a single consumer to completion.
+   * 
+   * @param strategy
+   *          the wait strategy of the queue.
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  private static void runProducers(final WaitStrategy strategy)
+      throws InterruptedException {
+    final int numProducers = 4;
+    final int perProducer = 2000;
+    final SampleRingBuffer ring = new SampleRingBuffer(64, strategy);
+    Thread[] producers = new Thread[numProducers];
+    for (int p = 0; p < numProducers; ++p) {
+      final int producer = p;
+      producers[p] = new Thread() {
+        @Override
+        public void run() {
+          SampleMessage source = SampleMessage.getTestMessage();
+          source.setRssi(producer);
+          for (int i = 0; i < perProducer; ++i) {
+            source.setReceiverTimeStamp(i);
+            ring.put(source);
+          }
+        }
+      };
+      producers[p].start();
+    }
+
+    OrderChecker checker = new OrderChecker(numProducers);
+    while (checker.received < numProducers * perProducer) {
+      ring.take(checker, 16);
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    Assert.assertEquals(0, checker.errors);
+    Assert.assertEquals(0, ring.size());
+    for (int p = 0; p < numProducers; ++p) {
+      Assert.assertEquals(perProducer, checker.expected[p]);
+    }
+  }
+
+  /**
+   * Ensures that a queue must have at least one slot.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoCapacity() {
+    new SampleRingBuffer(0);
+  }
+}
@@ -0,0 +1,485 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the ConcurrentLRUCache class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ConcurrentLRUCacheTest {
+
+  /**
+   * Tests that reads and writes update the recency order.
+   */
+  @Test
+  public void testRecencyOrder() {
+    ConcurrentLRUCache<Integer, String> cache =
+        new ConcurrentLRUCache<Integer, String>(10);
+    for (int i = 0; i < 5; ++i) {
+      Assert.assertNull(cache.put(Integer.valueOf(i), "v" + i));
+    }
+    Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), cache.keysByRecency());
+
+    for (int i = 4; i >= 0; --i) {
+      Assert.assertEquals("v" + i, cache.get(Integer.valueOf(i)));
+    }
+    Assert.assertEquals(Arrays.asList(4, 3, 2, 1, 0), cache.keysByRecency());
+
+    Assert.assertEquals("v3", cache.put(Integer.valueOf(3), "three"));
+    Assert.assertEquals(Arrays.asList(4, 2, 1, 0, 3), cache.keysByRecency());
+    Assert.assertEquals("three", cache.get(Integer.valueOf(3)));
+  }
+
+  /**
+   * Tests that the least recently used entry is evicted.
+   */
+  @Test
+  public void testEviction() {
+    ConcurrentLRUCache<Integer, String> cache =
+        new ConcurrentLRUCache<Integer, String>(3);
+    cache.put(Integer.valueOf(1), "one");
+    cache.put(Integer.valueOf(2), "two");
+    cache.put(Integer.valueOf(3), "three");
+    cache.get(Integer.valueOf(1));
+    cache.cleanUp();
+    cache.put(Integer.valueOf(4), "four");
+    Assert.assertEquals(3, cache.size());
+    Assert.assertFalse(cache.containsKey(Integer.valueOf(2)));
+    Assert.assertEquals(Arrays.asList(3, 1, 4), cache.keysByRecency());
+  }
+
+  /**
+   * Tests putIfAbsent, remove and clear.
+   */
+  @Test
+  public void testRemove() {
+    ConcurrentLRUCache<String, String> cache =
+        new ConcurrentLRUCache<String, String>(4);
+    Assert.assertNull(cache.putIfAbsent("a", "1"));
+    Assert.assertEquals("1", cache.putIfAbsent("a", "2"));
+    Assert.assertEquals("1", cache.get("a"));
+    cache.put("b", "3");
+    Assert.assertEquals("1", cache.remove("a"));
+    Assert.assertNull(cache.remove("a"));
+    Assert.assertNull(cache.get("a"));
+    Assert.assertEquals(Arrays.asList("b"), cache.keysByRecency());
+
+    cache.put("c", "4");
+    cache.clear();
+    Assert.assertEquals(0, cache.size());
+    Assert.assertTrue(cache.keysByRecency().isEmpty());
+  }
+
+  /**
+   * Tests that the cache stays bounded and consistent when used by many
+   * threads at once.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testConcurrentAccess() throws InterruptedException {
+    final ConcurrentLRUCache<Integer, Integer> cache =
+        new ConcurrentLRUCache<Integer, Integer>(50);
+    final AtomicInteger wrongValues = new AtomicInteger(0);
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; ++t) {
+      final Random rand = new Random(t);
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 20000; ++i) {
+            Integer key = Integer.valueOf(rand.nextInt(200));
+            int op = rand.nextInt(10);
+            if (op < 6) {
+              Integer value = cache.get(key);
+              if (value != null && !value.equals(key)) {
+                wrongValues.incrementAndGet();
+              }
+            } else if (op < 9) {
+              cache.put(key, key);
+            } else {
+              cache.remove(key);
+            }
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(0, wrongValues.get());
+    Assert.assertTrue(cache.size() <= 50);
+    List<Integer> keys = cache.keysByRecency();
+    Assert.assertEquals(cache.size(), keys.size());
+    Assert.assertEquals(keys.size(), new HashSet<Integer>(keys).size());
+    for (Integer key : keys) {
+      Assert.assertEquals(key, cache.get(key));
+    }
+  }
+
+  /**
+   * Tests that every value written by concurrent puts and removes of one key
+   * is accounted for exactly once: returned by a later put, returned by a
+   * remove, or left in the cache.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testPutRemoveRace() throws InterruptedException {
+    final ConcurrentLRUCache<String, Long> cache =
+        new ConcurrentLRUCache<String, Long>(10);
+    final int numThreads = 4;
+    final int numPuts = 50000;
+    final AtomicLong returned = new AtomicLong(0);
+    final AtomicInteger done = new AtomicInteger(0);
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          long sum = 0;
+          if (thread == 0) {
+            while (done.get() < numThreads - 1) {
+              Long value = cache.remove("k");
+              if (value != null) {
+                sum += value.longValue();
+              }
+            }
+          } else {
+            for (int i = 0; i < numPuts; ++i) {
+              Long old = cache.put("k",
+                  Long.valueOf((long) i * numThreads + thread));
+              if (old != null) {
+                sum += old.longValue();
+              }
+            }
+            done.incrementAndGet();
+          }
+          returned.addAndGet(sum);
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long expected = 0;
+    for (int t = 1; t < numThreads; ++t) {
+      for (int i = 0; i < numPuts; ++i) {
+        expected += (long) i * numThreads + t;
+      }
+    }
+    Long last = cache.get("k");
+    Assert.assertEquals(expected, returned.get()
+        + (last == null ? 0 : last.longValue()));
+  }
+
+  /**
+   * Tests that the total weight of entries is bounded and correctly accounted
+   * when values are replaced and removed.
+   */
+  @Test
+  public void testWeightedEviction() {
+    ConcurrentLRUCache<String, byte[]> cache =
+        new ConcurrentLRUCache.Builder<String, byte[]>().maximumWeight(100,
+            Weighers.byteArray()).build();
+    cache.put("a", new byte[40]);
+    cache.put("b", new byte[40]);
+    Assert.assertEquals(80, cache.getWeightedSize());
+    cache.put("c", new byte[30]);
+    Assert.assertFalse(cache.containsKey("a"));
+    Assert.assertEquals(70, cache.getWeightedSize());
+
+    cache.put("b", new byte[10]);
+    Assert.assertEquals(40, cache.getWeightedSize());
+    Assert.assertEquals(Arrays.asList("c", "b"), cache.keysByRecency());
+    cache.put("d", new byte[60]);
+    Assert.assertEquals(100, cache.getWeightedSize());
+    Assert.assertEquals(3, cache.size());
+
+    // Heavier than the maximum, so evicted without affecting other entries
+    cache.put("e", new byte[101]);
+    Assert.assertFalse(cache.containsKey("e"));
+    Assert.assertEquals(100, cache.getWeightedSize());
+
+    cache.put("c", new byte[101]);
+    Assert.assertFalse(cache.containsKey("c"));
+    Assert.assertEquals(70, cache.getWeightedSize());
+
+    Assert.assertEquals(10, cache.remove("b").length);
+    Assert.assertEquals(60, cache.getWeightedSize());
+    cache.clear();
+    Assert.assertEquals(0, cache.getWeightedSize());
+  }
+
+  /**
+   * Tests the weight of {@code HashableByteArray} values with frequency-based
+   * admission.
+   */
+  @Test
+  public void testWeightedAdmission() {
+    ConcurrentLRUCache<Integer, HashableByteArray> cache =
+        new ConcurrentLRUCache.Builder<Integer, HashableByteArray>()
+            .maximumWeight(1000, Weighers.hashableByteArray())
+            .frequencyAdmission(true).build();
+    Random rand = new Random(3);
+    for (int i = 0; i < 10000; ++i) {
+      Integer key = Integer.valueOf(rand.nextInt(100));
+      cache.put(key, new HashableByteArray(new byte[1 + rand.nextInt(50)]));
+      cache.get(Integer.valueOf(rand.nextInt(10)));
+    }
+    long total = 0;
+    for (Integer key : cache.keysByRecency()) {
+      total += cache.get(key).getData().length;
+    }
+    Assert.assertEquals(total, cache.getWeightedSize());
+    Assert.assertTrue(total <= 1000);
+  }
+
+  /**
+   * Ensures that weights cannot be negative.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeWeight() {
+    new ConcurrentLRUCache.Builder<String, String>().maximumWeight(10,
+        new Weigher<String, String>() {
+          @Override
+          public int weigh(final String key, final String value) {
+            return -1;
+          }
+        }).build().put("a", "b");
+  }
+
+  /**
+   * A time source that only changes when set.
+   */
+  private static final class ManualTime implements TimeSource {
+    /**
+     * The current time.
+     */
+    long now = 0;
+
+    @Override
+    public long currentTimeMillis() {
+      return this.now;
+    }
+  }
+
+  /**
+   * Tests that entries expire a fixed time after they are written.
+   */
+  @Test
+  public void testExpireAfterWrite() {
+    ManualTime time = new ManualTime();
+    ConcurrentLRUCache<String, String> cache =
+        new ConcurrentLRUCache.Builder<String, String>().capacity(10)
+            .expireAfterWrite(1000).timeSource(time).build();
+    cache.put("a", "1");
+    time.now = 500;
+    cache.put("b", "2");
+    time.now = 999;
+    Assert.assertEquals("1", cache.get("a"));
+    time.now = 1000;
+    Assert.assertNull(cache.get("a"));
+    Assert.assertFalse(cache.containsKey("a"));
+    Assert.assertEquals("2", cache.get("b"));
+
+    // Replacing an expired value reports no previous value
+    Assert.assertNull(cache.putIfAbsent("a", "3"));
+    Assert.assertEquals("3", cache.get("a"));
+    time.now = 1600;
+    cache.put("c", "4");
+    Assert.assertEquals(Arrays.asList("a", "c"), cache.keysByRecency());
+    Assert.assertEquals(2, cache.size());
+  }
+
+  /**
+   * Tests that entries expire a fixed time after they are last used.
+   */
+  @Test
+  public void testExpireAfterAccess() {
+    ManualTime time = new ManualTime();
+    ConcurrentLRUCache<String, String> cache =
+        new ConcurrentLRUCache.Builder<String, String>().capacity(10)
+            .expireAfterAccess(1000).timeSource(time).build();
+    cache.put("a", "1");
+    cache.put("b", "2");
+    for (time.now = 800; time.now < 10000; time.now += 800) {
+      Assert.assertEquals("1", cache.get("a"));
+    }
+    cache.cleanUp();
+    Assert.assertEquals(Arrays.asList("a"), cache.keysByRecency());
+    time.now += 1000;
+    Assert.assertNull(cache.get("a"));
+    cache.cleanUp();
+    Assert.assertEquals(0, cache.size());
+  }
+
+  /**
+   * Tests that entries scheduled in the coarser levels of the timer wheel
+   * expire at the right time.
+   */
+  @Test
+  public void testLongExpiration() {
+    ManualTime time = new ManualTime();
+    time.now = 123456789L;
+    long twoHours = 2 * 60 * 60 * 1000L;
+    ConcurrentLRUCache<Integer, Integer> cache =
+        new ConcurrentLRUCache.Builder<Integer, Integer>().capacity(1000)
+            .expireAfterWrite(twoHours).timeSource(time).build();
+    long start = time.now;
+    for (int i = 0; i < 100; ++i) {
+      time.now = start + i * 60000L;
+      cache.put(Integer.valueOf(i), Integer.valueOf(i));
+    }
+    // Advance in steps, checking that exactly the expired entries are removed
+    for (int step = 0; step <= 250; ++step) {
+      time.now = start + twoHours + step * 30000L;
+      cache.cleanUp();
+      int expired = Math.min(100, (int) (step * 30000L / 60000L) + 1);
+      Assert.assertEquals("Step " + step, 100 - expired, cache.size());
+    }
+    // Days later, with nothing in between
+    cache.put(Integer.valueOf(-1), Integer.valueOf(-1));
+    time.now += 5 * 24 * twoHours;
+    cache.cleanUp();
+    Assert.assertEquals(0, cache.size());
+  }
+
+  /**
+   * Replays a trace of keys, adding each key that misses.
+   * 
+   * @param cache
+   *          the cache to use.
+   * @param trace
+   *          the keys to look up.
+   * @return the fraction of lookups that hit.
+   */
+  private static double hitRate(
+      final ConcurrentLRUCache<Integer, Integer> cache, final int[] trace) {
+    int hits = 0;
+    for (int key : trace) {
+      Integer boxed = Integer.valueOf(key);
+      if (cache.get(boxed) == null) {
+        cache.put(boxed, boxed);
+      } else {
+        ++hits;
+      }
+    }
+    return (double) hits / trace.length;
+  }
+
+  /**
+   * Creates a cache with frequency-based admission.
+   * 
+   * @param capacity
+   *          the capacity of the cache.
+   * @return the new cache.
+   */
+  private static ConcurrentLRUCache<Integer, Integer> tinyLfu(
+      final int capacity) {
+    return new ConcurrentLRUCache.Builder<Integer, Integer>()
+        .capacity(capacity).frequencyAdmission(true).build();
+  }
+
+  /**
+   * Tests that frequency-based admission improves the hit rate of a Zipf
+   * distributed workload.
+   */
+  @Test
+  public void testZipfHitRate() {
+    int numKeys = 10000;
+    double[] cumulative = new double[numKeys];
+    double total = 0;
+    for (int i = 0; i < numKeys; ++i) {
+      total += 1 / Math.pow(i + 1, 0.9);
+      cumulative[i] = total;
+    }
+    Random rand = new Random(1);
+    int[] trace = new int[200000];
+    for (int i = 0; i < trace.length; ++i) {
+      int index = Arrays.binarySearch(cumulative, rand.nextDouble() * total);
+      trace[i] = index < 0 ? -index - 1 : index;
+    }
+
+    double lru = hitRate(new ConcurrentLRUCache<Integer, Integer>(500), trace);
+    double lfu = hitRate(tinyLfu(500), trace);
+    Assert.assertTrue("LRU " + lru + ", W-TinyLFU " + lfu, lfu > lru + 0.05);
+  }
+
+  /**
+   * Tests that frequently used entries survive scans with frequency-based
+   * admission, but not without it.
+   */
+  @Test
+  public void testScanResistance() {
+    Random rand = new Random(2);
+    int[] trace = new int[50 * (500 + 1000)];
+    int length = 0;
+    int scanKey = 1000;
+    for (int round = 0; round < 50; ++round) {
+      for (int i = 0; i < 500; ++i) {
+        trace[length++] = rand.nextInt(100);
+      }
+      for (int i = 0; i < 1000; ++i) {
+        trace[length++] = scanKey++;
+      }
+    }
+
+    double lru = hitRate(new ConcurrentLRUCache<Integer, Integer>(200), trace);
+    double lfu = hitRate(tinyLfu(200), trace);
+    Assert.assertTrue("LRU " + lru + ", W-TinyLFU " + lfu, lfu > lru + 0.05);
+    // Every hot key is still cached after the final scan
+    ConcurrentLRUCache<Integer, Integer> cache = tinyLfu(200);
+    hitRate(cache, trace);
+    for (int i = 0; i < 100; ++i) {
+      Assert.assertTrue(cache.containsKey(Integer.valueOf(i)));
+    }
+  }
+
+  /**
+   * Ensures that the capacity must be at least 1.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCapacity() {
+    new ConcurrentLRUCache<String, String>(0);
+  }
+}
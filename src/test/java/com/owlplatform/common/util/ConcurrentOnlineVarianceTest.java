@@ -0,0 +1,180 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the ConcurrentOnlineVariance class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ConcurrentOnlineVarianceTest {
+
+  /**
+   * The number of writer threads in the concurrent test.
+   */
+  private static final int NUM_THREADS = 8;
+
+  /**
+   * The number of values added by each writer thread.
+   */
+  private static final int VALUES_PER_THREAD = 5000;
+
+  /**
+   * Tests that a single writer produces the same result as
+   * {@code OnlineVariance}.
+   */
+  @Test
+  public void testSingleThread() {
+    ConcurrentOnlineVariance concurrent = new ConcurrentOnlineVariance();
+    OnlineVariance plain = new OnlineVariance();
+    concurrent.setMaxHistory(10);
+    plain.setMaxHistory(10);
+    for (int i = 1; i <= 20; ++i) {
+      Assert.assertEquals(plain.addValue(i, 0), concurrent.addValue(i, 0),
+          0.0001f);
+    }
+    ConcurrentOnlineVariance.Snapshot snapshot = concurrent.getSnapshot();
+    Assert.assertEquals(9.1666f, snapshot.getVariance(), 0.001f);
+    Assert.assertEquals(15.5f, snapshot.getMean(), 0.0001f);
+    Assert.assertEquals(10, snapshot.getCount());
+    Assert.assertEquals(20, snapshot.getSequence());
+  }
+
+  /**
+   * Tests that values added by many threads through a small buffer are all
+   * applied.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testConcurrentWriters() throws InterruptedException {
+    runWriters(NUM_THREADS);
+  }
+
+  /**
+   * Tests that many more writers than processors keep making progress when
+   * the buffer is full, rather than spinning while the writer of the oldest
+   * slot is descheduled.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test(timeout = 60000)
+  public void testManyWriters() throws InterruptedException {
+    for (int threads = 8; threads <= 32; threads *= 2) {
+      runWriters(threads);
+    }
+  }
+
+  /**
+   * Adds values from several threads through a small buffer and checks that
+   * all of them were applied.
+   * 
+   * @param numThreads
+   *          the number of writer threads.
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  private static void runWriters(final int numThreads)
+      throws InterruptedException {
+    final ConcurrentOnlineVariance variance = new ConcurrentOnlineVariance(16);
+    variance.setMaxHistory(numThreads * VALUES_PER_THREAD);
+    Thread[] writers = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final int offset = t;
+      writers[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < VALUES_PER_THREAD; ++i) {
+            variance.addValue(offset + (i % 10), 0);
+          }
+        }
+      };
+    }
+    for (Thread writer : writers) {
+      writer.start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+
+    double sum = 0;
+    for (int t = 0; t < numThreads; ++t) {
+      for (int i = 0; i < VALUES_PER_THREAD; ++i) {
+        sum += t + (i % 10);
+      }
+    }
+    int total = numThreads * VALUES_PER_THREAD;
+    double mean = sum / total;
+    double m2 = 0;
+    for (int t = 0; t < numThreads; ++t) {
+      for (int i = 0; i < VALUES_PER_THREAD; ++i) {
+        double diff = t + (i % 10) - mean;
+        m2 += diff * diff;
+      }
+    }
+
+    ConcurrentOnlineVariance.Snapshot snapshot = variance.getSnapshot();
+    Assert.assertEquals(total, snapshot.getSequence());
+    Assert.assertEquals(total, snapshot.getCount());
+    Assert.assertEquals(mean, snapshot.getMean(), 0.0001);
+    Assert.assertEquals(m2 / (total - 1), snapshot.getVariance(), 0.0001);
+  }
+
+  /**
+   * Tests that the history is cleared after the age gap.
+   */
+  @Test
+  public void testAgeGap() {
+    ConcurrentOnlineVariance variance = new ConcurrentOnlineVariance();
+    variance.setAgeGap(100);
+    variance.addValue(1, 0);
+    Assert.assertEquals(0.5f, variance.addValue(2, 50), 0.0001f);
+    Assert.assertEquals(0f, variance.addValue(10, 200), 0.0001f);
+    Assert.assertEquals(1, variance.getSnapshot().getCount());
+    Assert.assertEquals(10f, variance.getSnapshot().getMean(), 0.0001f);
+  }
+
+  /**
+   * Tests that reset clears the published snapshot.
+   */
+  @Test
+  public void testReset() {
+    ConcurrentOnlineVariance variance = new ConcurrentOnlineVariance();
+    variance.addValue(1, 0);
+    variance.addValue(3, 0);
+    Assert.assertEquals(2f, variance.getCurrentVariance(), 0.0001f);
+    variance.reset();
+    Assert.assertEquals(0f, variance.getCurrentVariance(), 0.0001f);
+    Assert.assertEquals(0, variance.getSnapshot().getCount());
+  }
+
+  /**
+   * Ensures that the buffer must hold at least one value.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBufferSize() {
+    new ConcurrentOnlineVariance(0);
+  }
+}
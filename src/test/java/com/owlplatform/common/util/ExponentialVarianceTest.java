@@ -0,0 +1,120 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the ExponentialVariance class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ExponentialVarianceTest {
+
+  /**
+   * Tests the weight of a value as a function of elapsed time.
+   */
+  @Test
+  public void testAlpha() {
+    Assert.assertEquals(0.5, ExponentialVariance.alpha(100, 100), 1e-9);
+    Assert.assertEquals(0.75, ExponentialVariance.alpha(200, 100), 1e-9);
+    Assert.assertEquals(ExponentialVariance.alpha(1, 100),
+        ExponentialVariance.alpha(0, 100), 0);
+    Assert.assertEquals(1.0, ExponentialVariance.alpha(100000, 100), 1e-9);
+  }
+
+  /**
+   * Tests the first values and the effect of a long gap.
+   */
+  @Test
+  public void testUpdates() {
+    ExponentialVariance variance = new ExponentialVariance(100);
+    Assert.assertEquals(0f, variance.addValue(-50, 0), 0);
+    Assert.assertEquals(-50f, variance.getMean(), 0);
+
+    // alpha = 0.5: mean = -55, variance = 0.5 * (0 + -10 * -5) = 25
+    Assert.assertEquals(25f, variance.addValue(-60, 100), 0.0001f);
+    Assert.assertEquals(-55f, variance.getMean(), 0.0001f);
+    Assert.assertEquals(2, variance.getCount());
+
+    // After a very long gap the new value replaces the mean
+    variance.addValue(-80, 1000000);
+    Assert.assertEquals(-80f, variance.getMean(), 0.0001f);
+    Assert.assertEquals(0f, variance.getVariance(), 0.0001f);
+
+    variance.reset();
+    Assert.assertEquals(0, variance.getCount());
+    variance.addValue(3, 5);
+    Assert.assertEquals(3f, variance.getMean(), 0);
+  }
+
+  /**
+   * Tests that a stationary sequence converges to its mean and variance.
+   */
+  @Test
+  public void testConvergence() {
+    ExponentialVariance variance = new ExponentialVariance(1000);
+    Random rand = new Random(3);
+    long now = 0;
+    for (int i = 0; i < 200000; ++i) {
+      now += 10;
+      variance.addValue((float) (-60 + rand.nextGaussian() * 4), now);
+    }
+    Assert.assertEquals(-60f, variance.getMean(), 0.5f);
+    Assert.assertEquals(16f, variance.getVariance(), 2f);
+  }
+
+  /**
+   * Tests that the static update gives the same results as an object.
+   */
+  @Test
+  public void testArrayState() {
+    ExponentialVariance variance = new ExponentialVariance(250);
+    double[] state = new double[ExponentialVariance.STATE_SIZE * 2];
+    int offset = ExponentialVariance.STATE_SIZE;
+    Random rand = new Random(9);
+    long now = 0;
+    long last = 0;
+    for (int i = 0; i < 1000; ++i) {
+      now += rand.nextInt(200);
+      float value = (float) rand.nextGaussian();
+      double expected = variance.addValue(value, now);
+      double alpha = ExponentialVariance.alpha(now - last, 250);
+      Assert.assertEquals(expected,
+          ExponentialVariance.update(state, offset, value, alpha), 1e-6);
+      Assert.assertEquals(variance.getMean(), state[offset], 1e-6);
+      last = now;
+    }
+    Assert.assertEquals(0, state[0], 0);
+    Assert.assertEquals(1000, state[offset + 2], 0);
+  }
+
+  /**
+   * Ensures that the half-life must be positive.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidHalfLife() {
+    new ExponentialVariance(0);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the FrequencySketch class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class FrequencySketchTest {
+
+  /**
+   * Tests that counts are estimated and saturate at 15.
+   */
+  @Test
+  public void testFrequency() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    Integer item = Integer.valueOf(42);
+    Assert.assertEquals(0, sketch.frequency(item));
+    for (int i = 1; i <= 20; ++i) {
+      sketch.increment(item);
+      Assert.assertEquals(Math.min(i, 15), sketch.frequency(item));
+    }
+    int overCounted = 0;
+    for (int i = 0; i < 256; ++i) {
+      sketch.increment(Integer.valueOf(1000 + i));
+    }
+    for (int i = 0; i < 256; ++i) {
+      overCounted += sketch.frequency(Integer.valueOf(1000 + i)) - 1;
+    }
+    Assert.assertTrue("Overcounted " + overCounted, overCounted < 16);
+    sketch.clear();
+    Assert.assertEquals(0, sketch.frequency(item));
+  }
+
+  /**
+   * Tests that counts are halved once the sample size is reached.
+   */
+  @Test
+  public void testAging() {
+    FrequencySketch sketch = new FrequencySketch(16);
+    Integer item = Integer.valueOf(7);
+    for (int i = 0; i < 10; ++i) {
+      sketch.increment(item);
+    }
+    Assert.assertEquals(10, sketch.frequency(item));
+    // 160 increments in total cause the counters to be halved
+    for (int i = 0; i < 150; ++i) {
+      sketch.increment(Integer.valueOf(100 + i));
+    }
+    Assert.assertTrue(sketch.frequency(item) <= 5);
+  }
+
+  /**
+   * Ensures that the expected size must be at least 1.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    new FrequencySketch(0);
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.common.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the LoadingCache class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class LoadingCacheTest {
+
+  /**
+   * Runs tasks in the calling thread.
+   */
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(final Runnable command) {
+      command.run();
+    }
+  };
+
+  /**
+   * A time source that only changes when set.
+   */
+  private static final class ManualTime implements TimeSource {
+    /**
+     * The current time.
+     */
+    long now = 0;
+
+    @Override
+    public long currentTimeMillis() {
+      return this.now;
+    }
+  }
+
+  /**
+   * An in-memory loader that returns the key followed by the number of loads.
+   */
+  private static class CountingLoader implements CacheLoader<String, String> {
+    /**
+     * The number of loads.
+     */
+    final AtomicInteger loads = new AtomicInteger(0);
+
+    @Override
+    public String load(final String key) throws Exception {
+      return key + this.loads.incrementAndGet();
+    }
+  }
+
+  /**
+   * Tests that concurrent misses for the same key are loaded once.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testCoalescing() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingLoader counter = new CountingLoader();
+    final LoadingCache<String, String> cache =
+        new ConcurrentLRUCache.Builder<String, String>().capacity(10).build(
+            new CacheLoader<String, String>() {
+              @Override
+              public String load(final String key) throws Exception {
+                started.countDown();
+                release.await();
+                return counter.load(key);
+              }
+            });
+
+    ExecutorService threads = Executors.newFixedThreadPool(8);
+    try {
+      Future<?>[] results = new Future<?>[8];
+      for (int i = 0; i < results.length; ++i) {
+        results[i] = threads.submit(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            return cache.getOrLoad("device");
+          }
+        });
+      }
+      started.await();
+      // Give the other threads time to join the load in progress
+      Thread.sleep(100);
+      release.countDown();
+      for (Future<?> result : results) {
+        Assert.assertEquals("device1", result.get());
+      }
+    } finally {
+      threads.shutdown();
+    }
+    Assert.assertEquals(1, counter.loads.get());
+    Assert.assertEquals("device1", cache.get("device"));
+    Assert.assertTrue(cache.loading.isEmpty());
+  }
+
+  /**
+   * Tests loading with the executor.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testAsync() throws Exception {
+    CountingLoader loader = new CountingLoader();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      LoadingCache<String, String> cache =
+          new ConcurrentLRUCache.Builder<String, String>().capacity(10)
+              .executor(executor).build(loader);
+      Future<String> first = cache.getAsync("a");
+      Assert.assertEquals("a1", first.get());
+      Future<String> second = cache.getAsync("a");
+      Assert.assertTrue(second.isDone());
+      Assert.assertEquals("a1", second.get());
+      Assert.assertEquals(1, loader.loads.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Tests that values are refreshed before they expire, while the old value
+   * is returned.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testRefreshAhead() throws Exception {
+    ManualTime time = new ManualTime();
+    CountingLoader loader = new CountingLoader();
+    LoadingCache<String, String> cache =
+        new ConcurrentLRUCache.Builder<String, String>().capacity(10)
+            .expireAfterWrite(1000).refreshAfterWrite(500).timeSource(time)
+            .executor(DIRECT).build(loader);
+    Assert.assertEquals("k1", cache.getOrLoad("k"));
+    time.now = 499;
+    Assert.assertEquals("k1", cache.getOrLoad("k"));
+    Assert.assertEquals(1, loader.loads.get());
+
+    // Old value returned, new value loaded in the background
+    time.now = 600;
+    Assert.assertEquals("k1", cache.getOrLoad("k"));
+    Assert.assertEquals("k2", cache.getOrLoad("k"));
+
+    // Refreshed before the original expiration, so never blocks
+    time.now = 1200;
+    Assert.assertEquals("k2", cache.getOrLoad("k"));
+    time.now = 1500;
+    Assert.assertEquals("k3", cache.get("k"));
+    Assert.assertEquals(3, loader.loads.get());
+
+    // Not read before it expired, so loaded again by the reader
+    time.now = 5000;
+    Assert.assertNull(cache.get("k"));
+    Assert.assertEquals("k4", cache.getOrLoad("k"));
+  }
+
+  /**
+   * Tests that a refresh that finishes after the key was written or removed
+   * does not replace the newer state.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testRefreshRace() throws Exception {
+    final Semaphore started = new Semaphore(0);
+    final Semaphore release = new Semaphore(0);
+    final AtomicInteger loads = new AtomicInteger(0);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      LoadingCache<String, String> cache =
+          new ConcurrentLRUCache.Builder<String, String>().capacity(10)
+              .executor(executor).build(new CacheLoader<String, String>() {
+                @Override
+                public String load(final String key) throws Exception {
+                  started.release();
+                  release.acquire();
+                  return key + loads.incrementAndGet();
+                }
+              });
+      cache.put("k", "old");
+      Future<String> refresh = cache.refresh("k");
+      started.acquire();
+      cache.put("k", "new");
+      release.release();
+      refresh.get();
+      Assert.assertEquals("new", cache.get("k"));
+
+      cache.put("r", "old");
+      refresh = cache.refresh("r");
+      started.acquire();
+      cache.remove("r");
+      release.release();
+      refresh.get();
+      Assert.assertNull(cache.get("r"));
+      Assert.assertEquals(2, loads.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Tests that failed loads are reported and not cached.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testFailure() throws Exception {
+    final AtomicInteger calls = new AtomicInteger(0);
+    LoadingCache<String, String> cache =
+        new ConcurrentLRUCache.Builder<String, String>().capacity(10).build(
+            new CacheLoader<String, String>() {
+              @Override
+              public String load(final String key) throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                  throw new IllegalStateException("World model unavailable");
+                }
+                return key.length() == 0 ? null : key;
+              }
+            });
+    try {
+      cache.getOrLoad("x");
+      Assert.fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    Assert.assertEquals("x", cache.getOrLoad("x"));
+    Assert.assertNull(cache.getOrLoad(""));
+    Assert.assertFalse(cache.containsKey(""));
+    Assert.assertEquals(1, cache.size());
+  }
+}
@@ -175,4 +175,20 @@ public class NumericUtilsTest {
     Assert.assertNull(NumericUtils.fromHexString(STRING_EMPTY_NULL));
     Assert.assertNull(NumericUtils.fromHexString(STRING_NULL));
   }
+
+  /**
+   * Tests conversion between {@code byte[]} and {@code long} values.
+   */
+  @Test
+  public void testLongConversion(){
+    byte[] bytes = new byte[]{0x7F, 0, (byte)0x01, (byte)0x23, (byte)0x45, (byte)0x67, (byte)0x89, (byte)0xAB, (byte)0xCD, (byte)0xEF};
+    Assert.assertEquals(0x0123456789ABCDEFl, NumericUtils.readLong(bytes, 2));
+    Assert.assertEquals(0x7F000123456789ABl, NumericUtils.readLong(bytes, 0));
+    
+    byte[] dest = new byte[10];
+    NumericUtils.writeLong(0x0123456789ABCDEFl, dest, 2);
+    Assert.assertTrue(Arrays.equals(new byte[]{0, 0, (byte)0x01, (byte)0x23, (byte)0x45, (byte)0x67, (byte)0x89, (byte)0xAB, (byte)0xCD, (byte)0xEF}, dest));
+    NumericUtils.writeLong(-1l, dest, 0);
+    Assert.assertEquals(-1l, NumericUtils.readLong(dest, 0));
+  }
 }
@@ -18,6 +18,8 @@
  */
 package com.owlplatform.common.util;
 
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -207,4 +209,101 @@ public class OnlineVarianceTest {
         clone.getCurrentVariance(), 0.01f);
   }
 
+  /**
+   * Tests that changing the maximum history keeps the most recent values.
+   */
+  @Test
+  public void testResizeHistory() {
+    this.variance.setMaxHistory(HISTORY_LENGTH_20);
+    for (int i = 0; i < VALUES.length; ++i) {
+      this.variance.addValue(VALUES[i]);
+    }
+    // Keeps 16 through 20, then 21 replaces 16
+    this.variance.setMaxHistory(HISTORY_LENGTH_5);
+    Assert.assertEquals(VALUES_VARIANCE_HISTORY_5,
+        this.variance.addValue(21), 0.01f);
+
+    // Keeps 17 through 21, then adds 5 more values
+    this.variance.setMaxHistory(HISTORY_LENGTH_10);
+    for (int i = 22; i <= 26; ++i) {
+      this.variance.addValue(i);
+    }
+    Assert.assertEquals(VALUES_VARIANCE_HISTORY_10,
+        this.variance.getCurrentVariance(), 0.01f);
+  }
+
+  /**
+   * Tests that a clone does not share history with the original.
+   * 
+   * @throws CloneNotSupportedException
+   *           if the clone fails.
+   */
+  @Test
+  public void testCloneIndependent() throws CloneNotSupportedException {
+    this.variance.setMaxHistory(HISTORY_LENGTH_5);
+    for (int i = 0; i < HISTORY_LENGTH_5; ++i) {
+      this.variance.addValue(VALUES[i]);
+    }
+    OnlineVariance clone = this.variance.clone();
+    clone.addValue(1000);
+    Assert.assertEquals(VALUES_VARIANCE_HISTORY_5,
+        this.variance.addValue(VALUES[HISTORY_LENGTH_5]), 0.01f);
+  }
+
+  /**
+   * Ensures that the maximum history must be at least 1.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMaxHistory() {
+    this.variance.setMaxHistory(0);
+  }
+
+  /**
+   * Tests millions of updates against an exact recomputation of the variance
+   * over the window, including a change from large values with a large
+   * variance to small values with a small variance.
+   */
+  @Test
+  public void testStability() {
+    final int window = HISTORY_LENGTH_20;
+    final int numValues = 2000000;
+    this.variance.setMaxHistory(window);
+    this.variance.setAgeGap(Long.MAX_VALUE);
+    Random rand = new Random(12345);
+    float[] recent = new float[window];
+    for (int i = 0; i < numValues; ++i) {
+      float value;
+      if (i < numValues / 2) {
+        value = (float) (100000 + rand.nextGaussian() * 1000);
+      } else {
+        value = (float) (-50 + rand.nextGaussian() * 0.5);
+      }
+      recent[i % window] = value;
+      float result = this.variance.addValue(value);
+      if (i >= window && (i % 997 == 0 || i == numValues - 1)) {
+        double exact = exactVariance(recent);
+        Assert.assertEquals(exact, result, exact * 1e-4 + 1e-6);
+      }
+    }
+  }
+
+  /**
+   * Computes the sample variance of some values with two passes.
+   * 
+   * @param values
+   *          the values.
+   * @return the sample variance.
+   */
+  private static double exactVariance(final float[] values) {
+    double mean = 0;
+    for (float value : values) {
+      mean += value;
+    }
+    mean /= values.length;
+    double sum = 0;
+    for (float value : values) {
+      sum += (value - mean) * (value - mean);
+    }
+    return sum / (values.length - 1);
+  }
 }
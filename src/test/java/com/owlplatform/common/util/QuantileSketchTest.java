@@ -0,0 +1,151 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the QuantileSketch class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class QuantileSketchTest {
+
+  /**
+   * The quantiles checked in each test.
+   */
+  private static final double[] QUANTILES = new double[] { 0.01, 0.1, 0.25,
+      0.5, 0.75, 0.9, 0.99 };
+
+  /**
+   * Checks the estimated quantiles of a sketch against the exact quantiles of
+   * sorted values, as a difference in rank.
+   * 
+   * @param sketch
+   *          the sketch.
+   * @param sorted
+   *          the values added to the sketch, sorted.
+   * @param maxError
+   *          the maximum allowed rank error, as a fraction of the count.
+   */
+  private static void assertQuantiles(final QuantileSketch sketch,
+      final float[] sorted, final double maxError) {
+    for (double q : QUANTILES) {
+      float estimate = sketch.getQuantile(q);
+      int upper = Arrays.binarySearch(sorted, estimate);
+      Assert.assertTrue(upper >= 0);
+      double actualQ = (double) upper / sorted.length;
+      // Ties in the data make the rank a range, so allow its full width
+      int lower = upper;
+      while (lower > 0 && sorted[lower - 1] == estimate) {
+        --lower;
+      }
+      while (upper < sorted.length - 1 && sorted[upper + 1] == estimate) {
+        ++upper;
+      }
+      double lowQ = (double) lower / sorted.length;
+      double highQ = (double) (upper + 1) / sorted.length;
+      Assert.assertTrue("q=" + q + " estimated at rank " + actualQ,
+          q >= lowQ - maxError && q <= highQ + maxError);
+    }
+  }
+
+  /**
+   * Tests that a small stream is represented exactly.
+   */
+  @Test
+  public void testExactSmall() {
+    QuantileSketch sketch = new QuantileSketch(200, 1);
+    Assert.assertTrue(Float.isNaN(sketch.getMedian()));
+    for (int i = 100; i >= 1; --i) {
+      sketch.add(i);
+    }
+    Assert.assertEquals(100, sketch.getNumRetained());
+    Assert.assertEquals(50f, sketch.getMedian(), 0);
+    Assert.assertEquals(1f, sketch.getQuantile(0), 0);
+    Assert.assertEquals(100f, sketch.getQuantile(1), 0);
+    Assert.assertEquals(90, sketch.getRank(90));
+  }
+
+  /**
+   * Tests the accuracy and size of a large stream.
+   */
+  @Test
+  public void testLargeStream() {
+    Random rand = new Random(11);
+    int n = 1000000;
+    float[] values = new float[n];
+    QuantileSketch sketch = new QuantileSketch(200, 2);
+    for (int i = 0; i < n; ++i) {
+      // Mostly near -60 with some multi-path outliers
+      values[i] = (float) (rand.nextInt(20) == 0 ? -95 + rand.nextGaussian()
+          * 3 : -60 + rand.nextGaussian() * 4);
+      sketch.add(values[i]);
+    }
+    Assert.assertEquals(n, sketch.getCount());
+    Assert.assertTrue(sketch.getNumRetained() < 1000);
+    Arrays.sort(values);
+    Assert.assertEquals(values[0], sketch.getMin(), 0);
+    Assert.assertEquals(values[n - 1], sketch.getMax(), 0);
+    assertQuantiles(sketch, values, 0.02);
+    long rank = sketch.getRank(values[n / 2]);
+    Assert.assertEquals(n / 2, rank, n * 0.02);
+  }
+
+  /**
+   * Tests that merged sketches estimate the quantiles of all their values.
+   */
+  @Test
+  public void testMerge() {
+    Random rand = new Random(13);
+    int n = 200000;
+    float[] values = new float[n];
+    QuantileSketch[] parts = new QuantileSketch[4];
+    for (int p = 0; p < parts.length; ++p) {
+      parts[p] = new QuantileSketch(200, p + 1);
+    }
+    for (int i = 0; i < n; ++i) {
+      // Each part sees a different range of values
+      values[i] = (float) (-40 - (i % 4) * 10 + rand.nextGaussian() * 5);
+      parts[i % 4].add(values[i]);
+    }
+    QuantileSketch merged = new QuantileSketch(200, 9);
+    for (QuantileSketch part : parts) {
+      merged.merge(part);
+    }
+    Assert.assertEquals(n, merged.getCount());
+    Assert.assertEquals(n / 4, parts[0].getCount());
+    Arrays.sort(values);
+    assertQuantiles(merged, values, 0.02);
+  }
+
+  /**
+   * Ensures that sketches with different accuracy cannot be merged.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeMismatch() {
+    new QuantileSketch(100).merge(new QuantileSketch(200));
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the QuantizedHistogram class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class QuantizedHistogramTest {
+
+  /**
+   * Tests exact quantiles of integer RSSI values.
+   */
+  @Test
+  public void testQuantiles() {
+    QuantizedHistogram hist = new QuantizedHistogram();
+    Assert.assertEquals(129, hist.getNumBuckets());
+    Assert.assertTrue(Float.isNaN(hist.getMedian()));
+    // -100 through -1, one of each
+    for (int i = -100; i < 0; ++i) {
+      hist.add(i);
+    }
+    Assert.assertEquals(100, hist.getCount());
+    Assert.assertEquals(-100f, hist.getQuantile(0), 0);
+    Assert.assertEquals(-51f, hist.getMedian(), 0);
+    Assert.assertEquals(-11f, hist.getQuantile(0.9), 0);
+    Assert.assertEquals(-2f, hist.getQuantile(0.99), 0);
+    Assert.assertEquals(-1f, hist.getQuantile(1), 0);
+    Assert.assertEquals(50, hist.getRank(-51));
+  }
+
+  /**
+   * Tests quantization, clamping and NaN handling.
+   */
+  @Test
+  public void testQuantization() {
+    QuantizedHistogram hist = new QuantizedHistogram(-10, 10, 0.5f);
+    Assert.assertEquals(41, hist.getNumBuckets());
+    hist.add(1.2f);
+    hist.add(1.3f);
+    hist.add(-50);
+    hist.add(50);
+    hist.add(Float.NaN);
+    Assert.assertEquals(4, hist.getCount());
+    Assert.assertEquals(1, hist.getBucketCount(0));
+    Assert.assertEquals(1, hist.getBucketCount(40));
+    Assert.assertEquals(-10f, hist.getQuantile(0.25), 0);
+    Assert.assertEquals(1f, hist.getQuantile(0.5), 0);
+    Assert.assertEquals(1.5f, hist.getQuantile(0.75), 0);
+    Assert.assertEquals(10f, hist.getQuantile(1), 0);
+  }
+
+  /**
+   * Tests that merged histograms equal one histogram of all values.
+   */
+  @Test
+  public void testMerge() {
+    QuantizedHistogram all = new QuantizedHistogram();
+    QuantizedHistogram first = new QuantizedHistogram();
+    QuantizedHistogram second = new QuantizedHistogram();
+    for (int i = 0; i < 1000; ++i) {
+      float value = -((i * 37) % 120);
+      all.add(value);
+      (i % 3 == 0 ? first : second).add(value);
+    }
+    first.merge(second);
+    Assert.assertEquals(all.getCount(), first.getCount());
+    for (int i = 0; i < all.getNumBuckets(); ++i) {
+      Assert.assertEquals(all.getBucketCount(i), first.getBucketCount(i));
+    }
+    first.reset();
+    Assert.assertEquals(0, first.getCount());
+  }
+
+  /**
+   * Ensures that histograms with different ranges cannot be merged.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeMismatch() {
+    new QuantizedHistogram().merge(new QuantizedHistogram(-128, 0, 0.5f));
+  }
+}
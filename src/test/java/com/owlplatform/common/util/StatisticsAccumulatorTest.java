@@ -0,0 +1,242 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the StatisticsAccumulator class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class StatisticsAccumulatorTest {
+
+  /**
+   * Values used in each test.
+   */
+  private static final float[] VALUES = new float[] { 1, 2, 3, 4, 5, 6, 7, 8,
+      9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 };
+
+  /**
+   * The expected sample variance of {@link #VALUES}.
+   */
+  private static final double VALUES_VARIANCE = 35d;
+
+  /**
+   * Tests accumulating values one at a time.
+   */
+  @Test
+  public void testAdd() {
+    StatisticsAccumulator acc = new StatisticsAccumulator();
+    Assert.assertEquals(0, acc.getCount());
+    Assert.assertEquals(0, acc.getVariance(), 0);
+    acc.add(VALUES, 0, VALUES.length);
+    Assert.assertEquals(VALUES.length, acc.getCount());
+    Assert.assertEquals(10.5, acc.getMean(), 0.0001);
+    Assert.assertEquals(VALUES_VARIANCE, acc.getVariance(), 0.0001);
+    Assert.assertEquals(Math.sqrt(VALUES_VARIANCE),
+        acc.getStandardDeviation(), 0.0001);
+    Assert.assertEquals(1, acc.getMin(), 0);
+    Assert.assertEquals(20, acc.getMax(), 0);
+
+    acc.reset();
+    Assert.assertEquals(0, acc.getCount());
+    Assert.assertEquals(Double.POSITIVE_INFINITY, acc.getMin(), 0);
+  }
+
+  /**
+   * Tests that combining accumulators of every split of the values gives the
+   * same result as accumulating them all.
+   */
+  @Test
+  public void testCombine() {
+    for (int split = 0; split <= VALUES.length; ++split) {
+      StatisticsAccumulator first = new StatisticsAccumulator();
+      StatisticsAccumulator second = new StatisticsAccumulator();
+      first.add(VALUES, 0, split);
+      second.add(VALUES, split, VALUES.length - split);
+      first.combine(second);
+      Assert.assertEquals(VALUES.length, first.getCount());
+      Assert.assertEquals(10.5, first.getMean(), 0.0001);
+      Assert.assertEquals(VALUES_VARIANCE, first.getVariance(), 0.0001);
+      Assert.assertEquals(1, first.getMin(), 0);
+      Assert.assertEquals(20, first.getMax(), 0);
+      Assert.assertEquals(VALUES.length - split, second.getCount());
+    }
+  }
+
+  /**
+   * Tests parallel aggregation of large arrays against a sequential pass.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   * @throws ExecutionException
+   *           if a task fails.
+   */
+  @Test
+  public void testAggregate() throws InterruptedException, ExecutionException {
+    Random rand = new Random(42);
+    float[] rssi = new float[1000003];
+    long[] times = new long[rssi.length];
+    for (int i = 0; i < rssi.length; ++i) {
+      rssi[i] = (float) (-60 + rand.nextGaussian() * 8);
+      times[i] = 1340000000000L + i * 10L;
+    }
+    StatisticsAccumulator expected = new StatisticsAccumulator();
+    expected.add(rssi, 1, rssi.length - 1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      StatisticsAccumulator result = StatisticsAccumulator.aggregate(rssi, 1,
+          rssi.length - 1, executor, 7);
+      Assert.assertEquals(expected.getCount(), result.getCount());
+      Assert.assertEquals(expected.getMean(), result.getMean(), 1e-9);
+      Assert.assertEquals(expected.getVariance(), result.getVariance(), 1e-6);
+      Assert.assertEquals(expected.getMin(), result.getMin(), 0);
+      Assert.assertEquals(expected.getMax(), result.getMax(), 0);
+
+      StatisticsAccumulator timeStats = StatisticsAccumulator.aggregate(
+          times, 0, times.length, executor, 4);
+      Assert.assertEquals(times[0], (long) timeStats.getMin());
+      Assert.assertEquals(times[times.length - 1], (long) timeStats.getMax());
+      Assert.assertEquals((times[0] + times[times.length - 1]) / 2d,
+          timeStats.getMean(), 0.01);
+
+      Assert.assertEquals(0,
+          StatisticsAccumulator.aggregate(rssi, 0, 0, executor, 4).getCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Computes the mean, variance, skewness and excess kurtosis of some values
+   * with two passes.
+   * 
+   * @param values
+   *          the values.
+   * @return the statistics, in that order.
+   */
+  private static double[] exactMoments(final float[] values) {
+    double mean = 0;
+    for (float value : values) {
+      mean += value;
+    }
+    mean /= values.length;
+    double m2 = 0;
+    double m3 = 0;
+    double m4 = 0;
+    for (float value : values) {
+      double d = value - mean;
+      m2 += d * d;
+      m3 += d * d * d;
+      m4 += d * d * d * d;
+    }
+    int n = values.length;
+    return new double[] { mean, m2 / (n - 1),
+        Math.sqrt(n) * m3 / Math.pow(m2, 1.5), n * m4 / (m2 * m2) - 3 };
+  }
+
+  /**
+   * Checks an accumulator against exact statistics.
+   * 
+   * @param exact
+   *          the statistics computed by {@link #exactMoments(float[])}.
+   * @param acc
+   *          the accumulator.
+   */
+  private static void assertMoments(final double[] exact,
+      final StatisticsAccumulator acc) {
+    Assert.assertEquals(exact[0], acc.getMean(), 1e-6);
+    Assert.assertEquals(exact[1], acc.getVariance(), exact[1] * 1e-8);
+    Assert.assertEquals(exact[2], acc.getSkewness(), 1e-6);
+    Assert.assertEquals(exact[3], acc.getKurtosis(), 1e-6);
+  }
+
+  /**
+   * Tests skewness and kurtosis from single values, a batch, and combined
+   * accumulators against a two-pass computation, on skewed data.
+   */
+  @Test
+  public void testHigherMoments() {
+    Random rand = new Random(21);
+    float[] values = new float[10007];
+    for (int i = 0; i < values.length; ++i) {
+      // A main peak with a tail of weaker multi-path values
+      values[i] = (float) (i % 10 == 0 ? -85 + rand.nextGaussian() * 6 : -55
+          + rand.nextGaussian() * 3);
+    }
+    double[] exact = exactMoments(values);
+    Assert.assertTrue(exact[2] < -1);
+
+    StatisticsAccumulator single = new StatisticsAccumulator();
+    for (float value : values) {
+      single.add(value);
+    }
+    assertMoments(exact, single);
+
+    StatisticsAccumulator batch = new StatisticsAccumulator();
+    batch.add(values, 0, 3);
+    batch.add(values, 3, values.length - 3);
+    assertMoments(exact, batch);
+    Assert.assertEquals(single.getMin(), batch.getMin(), 0);
+    Assert.assertEquals(single.getMax(), batch.getMax(), 0);
+
+    StatisticsAccumulator first = new StatisticsAccumulator();
+    StatisticsAccumulator second = new StatisticsAccumulator();
+    first.add(values, 0, 2500);
+    for (int i = 2500; i < values.length; ++i) {
+      second.add(values[i]);
+    }
+    assertMoments(exact, first.combine(second));
+  }
+
+  /**
+   * Tests that symmetric and constant values have no skewness.
+   */
+  @Test
+  public void testSymmetric() {
+    StatisticsAccumulator acc = new StatisticsAccumulator();
+    acc.add(VALUES, 0, VALUES.length);
+    Assert.assertEquals(0, acc.getSkewness(), 1e-9);
+    // Uniform values have an excess kurtosis near -1.2
+    Assert.assertEquals(-1.2, acc.getKurtosis(), 0.01);
+
+    StatisticsAccumulator constant = new StatisticsAccumulator();
+    constant.add(new float[] { 4, 4, 4 }, 0, 3);
+    Assert.assertEquals(0, constant.getSkewness(), 0);
+    Assert.assertEquals(0, constant.getKurtosis(), 0);
+  }
+
+  /**
+   * Ensures that a range outside the array is rejected.
+   */
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testBadRange() {
+    new StatisticsAccumulator().add(VALUES, 10, VALUES.length);
+  }
+}
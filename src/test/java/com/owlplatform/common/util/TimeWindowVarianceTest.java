@@ -0,0 +1,140 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the TimeWindowVariance class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class TimeWindowVarianceTest {
+
+  /**
+   * Tests that only values older than the window are removed.
+   */
+  @Test
+  public void testExpire() {
+    TimeWindowVariance variance = new TimeWindowVariance(100, 2);
+    Assert.assertEquals(0f, variance.addValue(1, 0), 0.0001f);
+    variance.addValue(2, 10);
+    variance.addValue(3, 20);
+    Assert.assertEquals(3, variance.getCount());
+    Assert.assertEquals(2f, variance.getMean(), 0.0001f);
+    Assert.assertEquals(1f, variance.getVariance(), 0.0001f);
+
+    // The value at 0 expires at 100, the others remain
+    Assert.assertEquals(1f / 3f, variance.addValue(2, 100), 0.0001f);
+    Assert.assertEquals(3, variance.getCount());
+    Assert.assertEquals(7f / 3f, variance.getMean(), 0.0001f);
+
+    // A long gap removes everything except the new value
+    Assert.assertEquals(0f, variance.addValue(50, 1000), 0.0001f);
+    Assert.assertEquals(1, variance.getCount());
+    Assert.assertEquals(50f, variance.getMean(), 0.0001f);
+
+    Assert.assertEquals(1, variance.expire(1100));
+    Assert.assertEquals(0, variance.getCount());
+    Assert.assertEquals(0f, variance.getMean(), 0.0001f);
+  }
+
+  /**
+   * Tests that a timestamp earlier than the latest is treated as the latest.
+   */
+  @Test
+  public void testOutOfOrder() {
+    TimeWindowVariance variance = new TimeWindowVariance(100);
+    variance.addValue(1, 1000);
+    variance.addValue(3, 500);
+    Assert.assertEquals(0, variance.expire(1099));
+    Assert.assertEquals(2, variance.expire(1100));
+  }
+
+  /**
+   * Tests bursts and gaps against an exact recomputation over the window.
+   */
+  @Test
+  public void testAgainstExact() {
+    final long window = 1000;
+    TimeWindowVariance variance = new TimeWindowVariance(window);
+    Random rand = new Random(7);
+    int n = 200000;
+    long[] times = new long[n];
+    float[] values = new float[n];
+    long now = 0;
+    int first = 0;
+    for (int i = 0; i < n; ++i) {
+      // Mostly bursts of closely-spaced values, with occasional long gaps
+      now += rand.nextInt(100) == 0 ? rand.nextInt(3000) : rand.nextInt(5);
+      times[i] = now;
+      double deviation = i % 2000 < 1000 ? 5 : 0.1;
+      values[i] = (float) (-70 + rand.nextGaussian() * deviation);
+      float result = variance.addValue(values[i], now);
+      while (times[first] <= now - window) {
+        ++first;
+      }
+      Assert.assertEquals(i - first + 1, variance.getCount());
+      if (i % 101 == 0) {
+        double mean = 0;
+        for (int j = first; j <= i; ++j) {
+          mean += values[j];
+        }
+        mean /= (i - first + 1);
+        double sum = 0;
+        for (int j = first; j <= i; ++j) {
+          sum += (values[j] - mean) * (values[j] - mean);
+        }
+        double exact = i == first ? 0 : sum / (i - first);
+        Assert.assertEquals(mean, variance.getMean(), 1e-3);
+        Assert.assertEquals(exact, result, exact * 1e-4 + 1e-5);
+      }
+    }
+  }
+
+  /**
+   * Tests that a clone does not share values with the original.
+   * 
+   * @throws CloneNotSupportedException
+   *           if the clone fails.
+   */
+  @Test
+  public void testClone() throws CloneNotSupportedException {
+    TimeWindowVariance variance = new TimeWindowVariance(100);
+    variance.addValue(1, 0);
+    variance.addValue(2, 1);
+    TimeWindowVariance clone = variance.clone();
+    clone.addValue(100, 2);
+    Assert.assertEquals(2, variance.getCount());
+    Assert.assertEquals(0.25f, variance.addValue(1.5f, 2), 0.0001f);
+  }
+
+  /**
+   * Ensures that the window must be positive.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidWindow() {
+    new TimeWindowVariance(0);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Owl Platform Common Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.common.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the WindowedOrderStatistics class.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class WindowedOrderStatisticsTest {
+
+  /**
+   * Tests a small window by hand.
+   */
+  @Test
+  public void testSmallWindow() {
+    WindowedOrderStatistics stats = new WindowedOrderStatistics();
+    stats.setMaxHistory(3);
+    Assert.assertTrue(Float.isNaN(stats.getMedian()));
+    stats.addValue(5, 0);
+    Assert.assertEquals(5f, stats.getMedian(), 0);
+    stats.addValue(1, 1);
+    Assert.assertEquals(3f, stats.getMedian(), 0);
+    stats.addValue(9, 2);
+    Assert.assertEquals(1f, stats.getMin(), 0);
+    Assert.assertEquals(9f, stats.getMax(), 0);
+    Assert.assertEquals(5f, stats.getMedian(), 0);
+    // 5 is replaced by 7: {1, 9, 7}
+    stats.addValue(7, 3);
+    Assert.assertEquals(7f, stats.getMedian(), 0);
+    // 1 is replaced by 8: {9, 7, 8}
+    stats.addValue(8, 4);
+    Assert.assertEquals(7f, stats.getMin(), 0);
+    Assert.assertEquals(8f, stats.getMedian(), 0);
+    Assert.assertEquals(3, stats.getCount());
+  }
+
+  /**
+   * Tests random values against sorting each window, for several window
+   * sizes.
+   */
+  @Test
+  public void testAgainstSorting() {
+    Random rand = new Random(17);
+    for (int window : new int[] { 1, 2, 5, 20, 101 }) {
+      WindowedOrderStatistics stats = new WindowedOrderStatistics();
+      stats.setMaxHistory(window);
+      float[] all = new float[5000];
+      for (int i = 0; i < all.length; ++i) {
+        // Few distinct values, so there are many ties
+        all[i] = -40 - rand.nextInt(30);
+        stats.addValue(all[i], i);
+        int from = Math.max(0, i - window + 1);
+        float[] sorted = Arrays.copyOfRange(all, from, i + 1);
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        float median = n % 2 == 1 ? sorted[n / 2]
+            : (sorted[n / 2 - 1] + sorted[n / 2]) / 2f;
+        Assert.assertEquals(n, stats.getCount());
+        Assert.assertEquals(sorted[0], stats.getMin(), 0);
+        Assert.assertEquals(sorted[n - 1], stats.getMax(), 0);
+        Assert.assertEquals(median, stats.getMedian(), 0);
+      }
+    }
+  }
+
+  /**
+   * Tests that the window is cleared after the age gap.
+   */
+  @Test
+  public void testAgeGap() {
+    WindowedOrderStatistics stats = new WindowedOrderStatistics();
+    stats.setAgeGap(100);
+    stats.addValue(-90, 1000);
+    stats.addValue(-50, 1050);
+    stats.addValue(-70, 1200);
+    Assert.assertEquals(1, stats.getCount());
+    Assert.assertEquals(-70f, stats.getMin(), 0);
+    Assert.assertEquals(-70f, stats.getMax(), 0);
+  }
+
+  /**
+   * Tests that changing the maximum history keeps the most recent values.
+   */
+  @Test
+  public void testResize() {
+    WindowedOrderStatistics stats = new WindowedOrderStatistics();
+    stats.setMaxHistory(10);
+    for (int i = 1; i <= 10; ++i) {
+      stats.addValue(i, 0);
+    }
+    stats.setMaxHistory(3);
+    // Keeps 8, 9 and 10, then 11 replaces 8
+    stats.addValue(11, 0);
+    Assert.assertEquals(3, stats.getCount());
+    Assert.assertEquals(9f, stats.getMin(), 0);
+    Assert.assertEquals(10f, stats.getMedian(), 0);
+    Assert.assertEquals(11f, stats.getMax(), 0);
+  }
+
+  /**
+   * Tests that a clone does not share state with the original.
+   * 
+   * @throws CloneNotSupportedException
+   *           if the clone fails.
+   */
+  @Test
+  public void testClone() throws CloneNotSupportedException {
+    WindowedOrderStatistics stats = new WindowedOrderStatistics();
+    stats.addValue(1, 0);
+    stats.addValue(2, 0);
+    WindowedOrderStatistics clone = stats.clone();
+    clone.addValue(100, 0);
+    Assert.assertEquals(2f, stats.getMax(), 0);
+    Assert.assertEquals(1.5f, stats.getMedian(), 0);
+    Assert.assertEquals(100f, clone.getMax(), 0);
+  }
+}